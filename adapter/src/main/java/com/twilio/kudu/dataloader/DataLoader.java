@@ -309,14 +309,17 @@ public class DataLoader {
           // populate table with data
           for (int i = 1; i <= numRowsWrittenPerThread; ++i) {
             bindValues(stmt, subsetTimestampGenerator);
-            stmt.execute();
+            stmt.addBatch();
             if (i % batchSize == 0) {
+              // all the rows of the batch are written by a single execution
+              stmt.executeBatch();
               conn.commit();
               logger.info("Total number of rows committed {} time taken for " + "current batch {}", i,
                   (System.currentTimeMillis() - threadStartTime));
               threadStartTime = System.currentTimeMillis();
             }
           }
+          stmt.executeBatch();
           conn.commit();
         }
         logger.info("Total number of rows committed {} time taken {}", numRowsWrittenPerThread,
@@ -14,13 +14,11 @@
  */
 package com.twilio.kudu.sql;
 
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.Optional;
 
 import org.apache.calcite.linq4j.Enumerator;
 import org.apache.calcite.linq4j.AbstractEnumerable;
-import java.util.concurrent.BlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,25 +29,48 @@ import org.slf4j.LoggerFactory;
 public final class CalciteKuduEnumerable extends AbstractEnumerable<CalciteRow> {
   private static final Logger logger = LoggerFactory.getLogger(CalciteKuduEnumerable.class);
 
-  private CalciteScannerMessage<CalciteRow> next = null;
+  private CalciteRow next = null;
 
-  private final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults;
+  // batch that is currently being iterated and the position of the next row
+  // within it.
+  private CalciteScannerMessage<CalciteRow> currentBatch = null;
+  private int batchIndex = 0;
+
+  private final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> rowResults;
   private final AtomicBoolean shouldStop;
+  // callback producing into rowResults, null if the messages aren't produced by
+  // a single scanner
+  private final ScannerCallback scannerCallback;
 
   int closedScansCounter = 0;
   boolean finished = false;
 
   /**
-   * Create Enumerable with a Queue of results, a shared integer for scans that
-   * have finished and a boolean switch indicating the scan should complete.
+   * Create Enumerable with a ring buffer of results, a shared integer for scans
+   * that have finished and a boolean switch indicating the scan should complete.
    *
-   * @param rowResults shared queue to consume from for all the results
+   * @param rowResults ring buffer to consume from for all the results
    * @param shouldStop shared boolean that indicates termination of all scans.
    */
-  public CalciteKuduEnumerable(final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults,
+  public CalciteKuduEnumerable(final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> rowResults,
       final AtomicBoolean shouldStop) {
+    this(rowResults, shouldStop, null);
+  }
+
+  /**
+   * Create Enumerable over the results of a single scanner, the scanner is closed
+   * with the enumerator.
+   *
+   * @param rowResults      ring buffer the scanner produces into
+   * @param shouldStop      shared boolean that indicates termination of all
+   *                        scans.
+   * @param scannerCallback callback of the scanner
+   */
+  public CalciteKuduEnumerable(final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> rowResults,
+      final AtomicBoolean shouldStop, final ScannerCallback scannerCallback) {
     this.rowResults = rowResults;
     this.shouldStop = shouldStop;
+    this.scannerCallback = scannerCallback;
   }
 
   @Override
@@ -61,83 +82,56 @@ public final class CalciteKuduEnumerable extends AbstractEnumerable<CalciteRow>
           logger.info("returning finished");
           return false;
         }
-        CalciteScannerMessage<CalciteRow> iterationNext;
-        do {
+        while (currentBatch == null || batchIndex >= currentBatch.getRowCount()) {
+          if (currentBatch != null) {
+            // Every row in the batch has been consumed, ask for the next one.
+            final CalciteScannerMessage<CalciteRow> consumed = currentBatch;
+            final Optional<ScannerCallback> maybeScannerCallback = consumed.callback;
+            currentBatch = null;
+            if (maybeScannerCallback.isPresent()) {
+              logger.debug("Batch completed for a scanner. Getting next batch");
+              maybeScannerCallback.get().batchConsumed(consumed);
+            }
+          }
+
+          CalciteScannerMessage<CalciteRow> iterationNext;
           try {
-            iterationNext = rowResults.poll(350, TimeUnit.MILLISECONDS);
+            iterationNext = rowResults.take();
           } catch (InterruptedException interrupted) {
-            logger.info("Interrupted during poll, closing scanner");
+            logger.info("Interrupted while waiting for results, closing scanner");
             iterationNext = CalciteScannerMessage.createEndMessage();
             Thread.currentThread().interrupt();
           }
-          if (iterationNext != null) {
-            switch (iterationNext.type) {
-            case CLOSE:
-              logger.info("Closing scanner");
-              break;
-            case ERROR:
-              final Optional<Exception> failure = iterationNext.failure;
-              if (failure.isPresent()) {
-                logger.error("Scanner has a failure", failure.get());
-              } else {
-                logger.error("Scanner had an unreported failure");
-              }
-              break;
-            case ROW:
-              final Optional<CalciteRow> maybeRow = iterationNext.row;
-              if (maybeRow.isPresent()) {
-                logger.trace("Scanner found a row: {}", maybeRow.get());
-              } else {
-                logger.error("ROW message was received but didn't contain row data. This shouldn't happen. Closing");
-                iterationNext = CalciteScannerMessage.createEndMessage();
-              }
-              break;
-            case BATCH_COMPLETED:
-              final Optional<ScannerCallback> maybeScannerCallback = iterationNext.callback;
-              if (maybeScannerCallback.isPresent()) {
-                logger.info("Batch completed for a scanner. Getting next batch");
-                maybeScannerCallback.get().nextBatch();
-              } else {
-                logger.error(
-                    "Batch completed message for scanner but no reference to the callback. This shouldn't happen");
-                iterationNext = CalciteScannerMessage.createEndMessage();
-              }
+          switch (iterationNext.type) {
+          case CLOSE:
+            logger.info("No more results in queue, exiting");
+            finished = true;
+            return false;
+          case ERROR:
+            final Optional<Exception> failure = iterationNext.failure;
+            if (failure.isPresent()) {
+              logger.error("Scanner has a failure", failure.get());
+            } else {
+              logger.error("Scanner had an unreported failure");
             }
+            break;
+          case BATCH:
+            logger.trace("Scanner found a batch of {} rows", iterationNext.getRowCount());
+            currentBatch = iterationNext;
+            batchIndex = 0;
+            break;
           }
-
-        } while (iterationNext == null || (iterationNext.type != CalciteScannerMessage.MessageType.CLOSE
-            && iterationNext.type != CalciteScannerMessage.MessageType.ROW));
-
-        if (iterationNext.type == CalciteScannerMessage.MessageType.CLOSE) {
-          logger.info("No more results in queue, exiting");
-          finished = true;
-          return false;
         }
-        next = iterationNext;
-
+        next = currentBatch.getRow(batchIndex++);
         return true;
       }
 
       @Override
       public CalciteRow current() {
-        switch (next.type) {
-        case ROW:
-          final Optional<CalciteRow> maybeRow = next.row;
-          if (maybeRow.isPresent()) {
-            return maybeRow.get();
-          } else {
-            throw new RuntimeException("Expected next to have a row, it does not. This shouldn't happen");
-          }
-        case ERROR:
-          final Exception failure = next.failure.orElseGet(() -> new RuntimeException("Unreported failure occurred"));
-          throw new RuntimeException("Calling current() on Failed rpc fetch", failure);
-        case CLOSE:
-          throw new RuntimeException("Calling current() where next is CLOSE message. This should never happen");
-        case BATCH_COMPLETED:
-          throw new RuntimeException(
-              "Calling current() after receiving a BATCH_COMPLETED message. This should never happen");
+        if (next == null) {
+          throw new RuntimeException("Calling current() before moveNext() returned a row. This should never happen");
         }
-        throw new RuntimeException("Fell out of current(), this should not happen");
+        return next;
       }
 
       @Override
@@ -148,6 +142,11 @@ public final class CalciteKuduEnumerable extends AbstractEnumerable<CalciteRow>
       @Override
       public void close() {
         shouldStop.set(true);
+        // An idle scanner is closed now, one with an RPC outstanding once it
+        // completes
+        if (scannerCallback != null) {
+          scannerCallback.close();
+        }
       }
     };
   }
@@ -97,6 +97,34 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
   // type of table
   protected final CubeTableInfo.EventTimeAggregationType eventTimeAggregationType;
 
+  // maximum number of bytes a single query buffers before deferring scanner RPCs
+  protected final long scanBufferBytes;
+
+  // number of batches each scanner fetches ahead of the consumer
+  protected final int scanReadAheadDepth;
+
+  // whether scans decode each batch into a ColumnarBatch
+  protected final boolean columnarScans;
+
+  // whether aggregations are partially computed by each scanner
+  protected final boolean partialAggregation;
+
+  // number of threads that aggregate the rows of a query
+  protected final int aggregationParallelism;
+
+  // decides when the scanners of a query over this table start
+  protected final ScanScheduler scanScheduler;
+
+  // whether aggregations over this fact table may be rewritten to read a cube
+  protected final boolean cubeRewrites;
+
+  // whether the rows of this cube table are written as deltas that are folded
+  // into the table by a CubeCompactor
+  protected final boolean cubeDeltaWrites;
+
+  // partition key ranges of recent scans of this table
+  protected final PartitionKeyRangeCache partitionKeyRangeCache = new PartitionKeyRangeCache();
+
   /**
    * Create the {@code CalciteKuduTable} for a physical scan over the
    * provided{@link KuduTable}. {@code KuduTable} must exist and be opened.
@@ -116,11 +144,33 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
    * @param tableType                    type of this table
    * @param eventTimeAggregationType     How the table is aggregated across time
    *                                     ranges
+   * @param scanBufferBytes              maximum number of bytes a query over this
+   *                                     table buffers, see
+   *                                     {@link ScanBufferBudget}
+   * @param scanReadAheadDepth           number of batches each scanner fetches
+   *                                     ahead of the consumer
+   * @param columnarScans                whether scans filter and project whole
+   *                                     {@link ColumnarBatch}es
+   * @param partialAggregation           whether each scanner aggregates the rows
+   *                                     it produces, see
+   *                                     {@link PartialAggregation}
+   * @param aggregationParallelism       number of threads that aggregate the rows
+   *                                     of a query, see
+   *                                     {@link ParallelHashAggregation}
+   * @param scanScheduler                scheduler shared by the tables of the
+   *                                     schema
+   * @param cubeRewrites                 whether aggregations over a fact table
+   *                                     are rewritten to read its cubes
+   * @param cubeDeltaWrites              whether the rows of a cube table are
+   *                                     written to its delta table
    */
   public CalciteKuduTable(final KuduTable kuduTable, final AsyncKuduClient client,
       final List<Integer> descendingOrderColumnIndexes, final int timestampColumnIndex,
       final List<CalciteKuduTable> cubeTables, final TableType tableType,
-      final CubeTableInfo.EventTimeAggregationType eventTimeAggregationType) {
+      final CubeTableInfo.EventTimeAggregationType eventTimeAggregationType, final long scanBufferBytes,
+      final int scanReadAheadDepth, final boolean columnarScans, final boolean partialAggregation,
+      final int aggregationParallelism, final ScanScheduler scanScheduler, final boolean cubeRewrites,
+      final boolean cubeDeltaWrites) {
     super(Object[].class);
     this.kuduTable = kuduTable;
     this.client = client;
@@ -129,6 +179,14 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
     this.tableType = tableType;
     this.timestampColumnIndex = timestampColumnIndex;
     this.eventTimeAggregationType = eventTimeAggregationType;
+    this.scanBufferBytes = scanBufferBytes;
+    this.scanReadAheadDepth = scanReadAheadDepth;
+    this.columnarScans = columnarScans;
+    this.partialAggregation = partialAggregation;
+    this.aggregationParallelism = aggregationParallelism;
+    this.scanScheduler = scanScheduler;
+    this.cubeRewrites = cubeRewrites;
+    this.cubeDeltaWrites = cubeDeltaWrites;
   }
 
   @Override
@@ -226,36 +284,51 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
    * Run the query against the kudu table {@link kuduTable}. {@link KuduPredicate}
    * are the filters to apply to the query, {@code columnIndices} are the columns
    * to return in the response and finally {@code limit} is used to limit the
-   * results that come back.
+   * results that come back. The query resumes after the last row of a previous
+   * page if there is a {@code paginationCursor}, filters and projects whole
+   * batches of rows if the table scans in columnar mode and each scanner
+   * aggregates the rows it produces if there is a {@code partialAggregation}.
    *
-   * @param predicates     each member in the first list represents a single scan.
-   * @param columnIndices  the fields ordinals to select out of Kudu
-   * @param limit          process the results until limit is reached. If less
-   *                       then 0, no limit
-   * @param offset         skip offset number of rows before returning results
-   * @param sorted         whether to return rows in sorted order
-   * @param groupByLimited indicates if the groupBy method should be counting
-   *                       unique keys
-   * @param scanStats      scan stats collector
-   * @param cancelFlag     flag to indicate the query has been canceled
-   * @param projection     function to map the
-   *                       {@link org.apache.kudu.client.RowResult} to calcite
-   *                       object
-   * @param filterFunction predicate to apply to
-   *                       {@link org.apache.kudu.client.RowResult}
-   * @param isSingleObject boolean indicating if the projection returns Object[]
-   *                       or Object
+   * @param predicates         each member in the first list represents a single
+   *                           scan.
+   * @param primaryKeyBounds   primary key range every scan is limited to
+   * @param columnIndices      the fields ordinals to select out of Kudu
+   * @param limit              process the results until limit is reached. If less
+   *                           then 0, no limit
+   * @param offset             skip offset number of rows before returning results
+   * @param sorted             whether to return rows in sorted order
+   * @param groupByLimited     indicates if the groupBy method should be counting
+   *                           unique keys
+   * @param scanStats          scan stats collector
+   * @param cancelFlag         flag to indicate the query has been canceled
+   * @param projection         function to map the
+   *                           {@link org.apache.kudu.client.RowResult} to calcite
+   *                           object
+   * @param filterFunction     predicate to apply to
+   *                           {@link org.apache.kudu.client.RowResult}
+   * @param isSingleObject     boolean indicating if the projection returns
+   *                           Object[] or Object
+   * @param paginationCursor   cursor of the previous page, null for the first
+   *                           page
+   * @param columnarProjection {@code projection} and {@code filterFunction}
+   *                           applied to a {@link ColumnarBatch}, null if there
+   *                           is none
+   * @param partialAggregation aggregation each scanner applies to the projected
+   *                           rows, null if there is none
    *
    * @return Enumeration on the objects, Fields conform to
-   *         {@link CalciteKuduTable#getRowType}.
+   *         {@link CalciteKuduTable#getRowType} or to the partial rows of the
+   *         aggregation.
    */
   public KuduEnumerable executeQuery(final List<List<CalciteKuduPredicate>> predicates,
-      final List<Integer> columnIndices, final long limit, final long offset, final boolean sorted,
-      final boolean groupByLimited, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
-      final Function1<Object, Object> projection, final Predicate1<Object> filterFunction,
-      final boolean isSingleObject) {
-    return new KuduEnumerable(predicates, columnIndices, this.client, this, limit, offset, sorted, groupByLimited,
-        scanStats, cancelFlag, projection, filterFunction, isSingleObject);
+      final List<PrimaryKeyBound> primaryKeyBounds, final List<Integer> columnIndices, final long limit,
+      final long offset, final boolean sorted, final boolean groupByLimited, final KuduScanStats scanStats,
+      final AtomicBoolean cancelFlag, final Function1<Object, Object> projection,
+      final Predicate1<Object> filterFunction, final boolean isSingleObject, final PaginationCursor paginationCursor,
+      final ColumnarProjection columnarProjection, final PartialAggregation partialAggregation) {
+    return new KuduEnumerable(predicates, primaryKeyBounds, columnIndices, this.client, this, limit, offset, sorted,
+        groupByLimited, scanStats, cancelFlag, projection, filterFunction, isSingleObject, paginationCursor,
+        columnarProjection, partialAggregation);
   }
 
   @Override
@@ -295,8 +368,8 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
     public Enumerator<T> enumerator() {
       // noinspection unchecked
       final Enumerable<T> enumerable = (Enumerable<T>) getTable().executeQuery(Collections.emptyList(),
-          Collections.emptyList(), -1, -1, false, false, new KuduScanStats(), new AtomicBoolean(false), null, null,
-          false);
+          Collections.emptyList(), Collections.emptyList(), -1, -1, false, false, new KuduScanStats(),
+          new AtomicBoolean(false), null, null, false, null, null, null);
       return enumerable.enumerator();
     }
 
@@ -310,49 +383,110 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
       return (CalciteModifiableKuduTable) table;
     }
 
+    /**
+     * @deprecated use the query method called by the generated code, passing
+     *             {@code null} for the arguments that aren't used
+     */
+    @Deprecated
     public Enumerable<Object> query(final List<List<CalciteKuduPredicate>> predicates,
         final List<Integer> fieldsIndices, final long limit, final long offset, final boolean sorted,
         final boolean groupByLimited, final KuduScanStats scanStats, final AtomicBoolean cancelFlag) {
-      return query(predicates, fieldsIndices, limit, offset, sorted, groupByLimited, scanStats, cancelFlag, null, null);
+      return query(predicates, fieldsIndices, limit, offset, sorted, groupByLimited, scanStats, cancelFlag, null, null,
+          false, null);
     }
 
+    /**
+     * @deprecated use the query method called by the generated code, passing
+     *             {@code null} for the arguments that aren't used
+     */
+    @Deprecated
     public Enumerable<Object> query(final List<List<CalciteKuduPredicate>> predicates,
         final List<Integer> fieldsIndices, final long limit, final long offset, final boolean sorted,
         final boolean groupByLimited, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
         final Function1<Object, Object> projection, final Predicate1<Object> filterFunction) {
       return query(predicates, fieldsIndices, limit, offset, sorted, groupByLimited, scanStats, cancelFlag, projection,
-          filterFunction, false);
+          filterFunction, false, null);
+    }
+
+    /**
+     * @deprecated use the query method called by the generated code, passing
+     *             {@code null} for the arguments that aren't used
+     */
+    @Deprecated
+    public Enumerable<Object> query(final List<List<CalciteKuduPredicate>> predicates,
+        final List<Integer> fieldsIndices, final long limit, final long offset, final boolean sorted,
+        final boolean groupByLimited, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
+        final Function1<Object, Object> projection, final Predicate1<Object> filterFunction,
+        final boolean isSingleObject) {
+      return query(predicates, fieldsIndices, limit, offset, sorted, groupByLimited, scanStats, cancelFlag, projection,
+          filterFunction, isSingleObject, null);
+    }
+
+    /**
+     * @deprecated use the query method called by the generated code, passing
+     *             {@code null} for the arguments that aren't used
+     */
+    @Deprecated
+    public Enumerable<Object> query(final List<List<CalciteKuduPredicate>> predicates,
+        final List<Integer> fieldsIndices, final long limit, final long offset, final boolean sorted,
+        final boolean groupByLimited, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
+        final Function1<Object, Object> projection, final Predicate1<Object> filterFunction,
+        final boolean isSingleObject, final ColumnarProjection columnarProjection) {
+      return query(predicates, Collections.emptyList(), fieldsIndices, limit, offset, sorted, groupByLimited, scanStats,
+          cancelFlag, projection, filterFunction, isSingleObject, columnarProjection, null, null);
     }
 
     /**
      * This is the method that is called by Code generation to run the query. Code
      * generation happens in {@link KuduToEnumerableConverter}
      *
-     * @param predicates     filters for each of the independent scans
-     * @param fieldsIndices  the column indexes to fetch from the table
-     * @param limit          maximum number of rows to fetch from the table
-     * @param offset         the number of rows to skip from the table
-     * @param sorted         whether the query needs to be sorted by key
-     * @param groupByLimited whether the query contains a sorted aggregation
-     * @param scanStats      stat collector for the query
-     * @param cancelFlag     atomic boolean that is true when the query should be
-     *                       canceled
-     * @param projection     function to turn
-     *                       {@link org.apache.kudu.client.RowResult} into Calcite
-     *                       type
-     * @param filterFunction filter applied to all
-     *                       {@link org.apache.kudu.client.RowResult}
-     * @param isSingleObject indicates whether Calcite type is Object or Object[]
+     * @param predicates         filters for each of the independent scans
+     * @param primaryKeyBounds   primary key range every scan is limited to
+     * @param fieldsIndices      the column indexes to fetch from the table
+     * @param limit              maximum number of rows to fetch from the table
+     * @param offset             the number of rows to skip from the table
+     * @param sorted             whether the query needs to be sorted by key
+     * @param groupByLimited     whether the query contains a sorted aggregation
+     * @param scanStats          stat collector for the query
+     * @param cancelFlag         atomic boolean that is true when the query should
+     *                           be canceled
+     * @param projection         function to turn
+     *                           {@link org.apache.kudu.client.RowResult} into
+     *                           Calcite type
+     * @param filterFunction     filter applied to all
+     *                           {@link org.apache.kudu.client.RowResult}
+     * @param isSingleObject     indicates whether Calcite type is Object or
+     *                           Object[]
+     * @param columnarProjection {@code projection} and {@code filterFunction}
+     *                           applied to a {@link ColumnarBatch}
+     * @param partialAggregation aggregation each scanner applies to the projected
+     *                           rows, null if the query isn't aggregated by the
+     *                           scanners
+     * @param kuduScans          pagination cursors of the JDBC statement running
+     *                           the query, null if it isn't a
+     *                           {@link org.apache.calcite.jdbc.KuduStatement}
      *
      * @return Enumerable for the query
      */
     public Enumerable<Object> query(final List<List<CalciteKuduPredicate>> predicates,
-        final List<Integer> fieldsIndices, final long limit, final long offset, final boolean sorted,
-        final boolean groupByLimited, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
-        final Function1<Object, Object> projection, final Predicate1<Object> filterFunction,
-        final boolean isSingleObject) {
-      return getTable().executeQuery(predicates, fieldsIndices, limit, offset, sorted, groupByLimited, scanStats,
-          cancelFlag, projection, filterFunction, isSingleObject);
+        final List<PrimaryKeyBound> primaryKeyBounds, final List<Integer> fieldsIndices, final long limit,
+        final long offset, final boolean sorted, final boolean groupByLimited, final KuduScanStats scanStats,
+        final AtomicBoolean cancelFlag, final Function1<Object, Object> projection,
+        final Predicate1<Object> filterFunction, final boolean isSingleObject,
+        final ColumnarProjection columnarProjection, final PartialAggregation partialAggregation,
+        final KuduStatementScans kuduScans) {
+      // A JDBC statement can resume the scan of this table from the cursor of a
+      // previous page and hands out the cursor of this page
+      PaginationCursor paginationCursor = null;
+      if (kuduScans != null) {
+        paginationCursor = kuduScans.getPaginationCursor(getTable().getKuduTable().getTableId());
+        // the stats are part of the generated code and shared by every execution
+        scanStats.setPaginationCursor(null);
+        kuduScans.addScanStats(scanStats);
+      }
+      return getTable().executeQuery(predicates, primaryKeyBounds, fieldsIndices, limit, offset, sorted, groupByLimited,
+          scanStats, cancelFlag, projection, filterFunction, isSingleObject, paginationCursor, columnarProjection,
+          partialAggregation);
     }
 
     /**
@@ -380,8 +514,31 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
      * @return an {@code Enumerable} that applies the mutation
      */
     public Enumerable<Object> mutateRow(final List<Integer> columnIndexes, final List<Object> values) {
+      return mutateRow(columnIndexes, values, null);
+    }
+
+    /**
+     * Applies a mutation to the table using plain Objects, or to every row of the
+     * batch of the statement being executed.
+     *
+     * @param columnIndexes ordered list of column indexes that are changing /
+     *                      inserting
+     * @param values        input from the user for the changes.
+     * @param batch         parameter values of every row of a
+     *                      {@link java.sql.PreparedStatement} batch, null if the
+     *                      statement is executed with {@code values}
+     *
+     * @return an {@code Enumerable} that applies the mutation
+     */
+    public Enumerable<Object> mutateRow(final List<Integer> columnIndexes, final List<Object> values,
+        final KuduStatementBatch batch) {
       CalciteModifiableKuduTable table = getModifiableTable();
       KuduMetaImpl kuduMetaImpl = ((KuduCalciteConnectionImpl) queryProvider).getMeta();
+      // a PreparedStatement batch writes all of its rows at once
+      if (batch != null) {
+        return Linq4j
+            .singletonEnumerable(kuduMetaImpl.getMutationState(table).mutateRows(columnIndexes, batch.write()));
+      }
       return Linq4j.singletonEnumerable(kuduMetaImpl.getMutationState(table).mutateRow(columnIndexes, values));
     }
   }
@@ -488,4 +645,68 @@ public class CalciteKuduTable extends AbstractQueryableTable implements Translat
     return tableType;
   }
 
+  public long getScanBufferBytes() {
+    return scanBufferBytes;
+  }
+
+  public int getScanReadAheadDepth() {
+    return scanReadAheadDepth;
+  }
+
+  /**
+   * @return true if scans of this table decode each batch of rows into a
+   *         {@link ColumnarBatch} and filter and project it with a
+   *         {@link ColumnarProjection}
+   */
+  public boolean isColumnarScans() {
+    return columnarScans;
+  }
+
+  /**
+   * @return true if COUNT, SUM, MIN and MAX aggregations over this table are
+   *         computed per scanner with a {@link PartialAggregation} and merged by
+   *         the final aggregation
+   */
+  public boolean isPartialAggregation() {
+    return partialAggregation;
+  }
+
+  /**
+   * @return number of threads a {@link ParallelHashAggregation} uses to aggregate
+   *         the unsorted rows of a query, 1 aggregates them on the thread
+   *         consuming the rows
+   */
+  public int getAggregationParallelism() {
+    return aggregationParallelism;
+  }
+
+  /**
+   * @return true if aggregations over this fact table may be rewritten by
+   *         {@link com.twilio.kudu.sql.rules.KuduCubeRule} to read one of its
+   *         cubes
+   */
+  public boolean isCubeRewrites() {
+    return cubeRewrites;
+  }
+
+  /**
+   * @return true if the rows of this cube table are written to its delta table,
+   *         in which case the cube only reflects the deltas that have been
+   *         compacted
+   */
+  public boolean isCubeDeltaWrites() {
+    return cubeDeltaWrites;
+  }
+
+  /**
+   * @return the scheduler that starts the scanners of queries over this table
+   */
+  public ScanScheduler getScanScheduler() {
+    return scanScheduler;
+  }
+
+  public PartitionKeyRangeCache getPartitionKeyRangeCache() {
+    return partitionKeyRangeCache;
+  }
+
 }
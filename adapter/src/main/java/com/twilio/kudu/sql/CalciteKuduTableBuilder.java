@@ -15,6 +15,8 @@
 package com.twilio.kudu.sql;
 
 import com.twilio.kudu.sql.metadata.CubeTableInfo;
+import com.twilio.kudu.sql.mutation.AsyncWritePipeline;
+import com.twilio.kudu.sql.schema.KuduSchemaOptions;
 import org.apache.kudu.client.AsyncKuduClient;
 import org.apache.kudu.client.KuduTable;
 
@@ -32,6 +34,26 @@ public class CalciteKuduTableBuilder {
 
   private CubeTableInfo.EventTimeAggregationType eventTimeAggregationType = null;
 
+  private long scanBufferBytes = ScanBufferBudget.DEFAULT_MAX_BYTES;
+
+  private int scanReadAheadDepth = ScannerCallback.DEFAULT_READ_AHEAD_DEPTH;
+
+  private boolean columnarScans = false;
+
+  private boolean partialAggregation = false;
+
+  private int aggregationParallelism = 1;
+
+  private boolean cubeRewrites = true;
+
+  private boolean cubeDeltaWrites = false;
+
+  private long writeWindowBytes = AsyncWritePipeline.DEFAULT_WINDOW_BYTES;
+
+  private boolean partitionedWrites = false;
+
+  private ScanScheduler scanScheduler = ScanScheduler.getInstance();
+
   private final boolean enableInserts;
 
   public CalciteKuduTableBuilder(KuduTable kuduTable, AsyncKuduClient client, boolean enableInserts) {
@@ -44,6 +66,22 @@ public class CalciteKuduTableBuilder {
     this(kuduTable, client, false);
   }
 
+  /**
+   * Builds a table of a schema, with the options of the schema
+   */
+  public CalciteKuduTableBuilder(KuduTable kuduTable, AsyncKuduClient client, KuduSchemaOptions options) {
+    this(kuduTable, client, options.isEnableInserts());
+    this.scanBufferBytes = options.getScanBufferBytes();
+    this.scanReadAheadDepth = options.getScanReadAheadDepth();
+    this.columnarScans = options.isColumnarScans();
+    this.partialAggregation = options.isPartialAggregation();
+    this.aggregationParallelism = options.getAggregationParallelism();
+    this.cubeRewrites = options.isCubeRewrites();
+    this.cubeDeltaWrites = options.isCubeDeltaWrites();
+    this.writeWindowBytes = options.getWriteWindowBytes();
+    this.partitionedWrites = options.isPartitionedWrites();
+  }
+
   public CalciteKuduTableBuilder setDescendingOrderedFieldIndices(List<Integer> descendingOrderedColumnIndices) {
     this.descendingOrderedFieldIndices = descendingOrderedColumnIndices;
     return this;
@@ -70,12 +108,69 @@ public class CalciteKuduTableBuilder {
     return this;
   }
 
+  public CalciteKuduTableBuilder setScanBufferBytes(long scanBufferBytes) {
+    this.scanBufferBytes = scanBufferBytes;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setScanReadAheadDepth(int scanReadAheadDepth) {
+    this.scanReadAheadDepth = scanReadAheadDepth;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setColumnarScans(boolean columnarScans) {
+    this.columnarScans = columnarScans;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setPartialAggregation(boolean partialAggregation) {
+    this.partialAggregation = partialAggregation;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setAggregationParallelism(int aggregationParallelism) {
+    this.aggregationParallelism = aggregationParallelism;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setCubeRewrites(boolean cubeRewrites) {
+    this.cubeRewrites = cubeRewrites;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setCubeDeltaWrites(boolean cubeDeltaWrites) {
+    this.cubeDeltaWrites = cubeDeltaWrites;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setWriteWindowBytes(long writeWindowBytes) {
+    this.writeWindowBytes = writeWindowBytes;
+    return this;
+  }
+
+  public CalciteKuduTableBuilder setPartitionedWrites(boolean partitionedWrites) {
+    this.partitionedWrites = partitionedWrites;
+    return this;
+  }
+
+  /**
+   * Tables that aren't built with this share the scheduler of tables built
+   * without a schema, {@link ScanScheduler#getInstance()}
+   */
+  public CalciteKuduTableBuilder setScanScheduler(ScanScheduler scanScheduler) {
+    this.scanScheduler = scanScheduler;
+    return this;
+  }
+
   public CalciteKuduTable build() {
     if (enableInserts) {
       return new CalciteModifiableKuduTable(kuduTable, client, descendingOrderedFieldIndices, timestampColumnIndex,
-          cubeTabes, tableType, eventTimeAggregationType);
+          cubeTabes, tableType, eventTimeAggregationType, scanBufferBytes, scanReadAheadDepth, columnarScans,
+          partialAggregation, aggregationParallelism, scanScheduler, cubeRewrites, cubeDeltaWrites, writeWindowBytes,
+          partitionedWrites);
     }
     return new CalciteKuduTable(kuduTable, client, descendingOrderedFieldIndices, timestampColumnIndex, cubeTabes,
-        tableType, eventTimeAggregationType);
+        tableType, eventTimeAggregationType, scanBufferBytes, scanReadAheadDepth, columnarScans, partialAggregation,
+        aggregationParallelism, scanScheduler, cubeRewrites, cubeDeltaWrites);
   }
 }
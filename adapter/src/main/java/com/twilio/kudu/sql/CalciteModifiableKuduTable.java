@@ -35,6 +35,13 @@ public class CalciteModifiableKuduTable extends CalciteKuduTable implements Modi
   // table
   private CubeMaintainer cubeMaintainer;
 
+  // maximum number of bytes of rows that are buffered or in flight
+  private final long writeWindowBytes;
+
+  // whether the rows written to the table are routed to the tablet server that
+  // leads their tablet
+  private final boolean partitionedWrites;
+
   /**
    * Create the {@code CalciteKuduTable} for a physical scan over the
    * provided{@link KuduTable}. {@code KuduTable} must exist and be opened.
@@ -50,13 +57,39 @@ public class CalciteModifiableKuduTable extends CalciteKuduTable implements Modi
    * @param cubeTables                   the list of cube tables (if this is a
    *                                     fact table)
    * @param tableType                    type of this table
+   * @param scanBufferBytes              maximum number of bytes a query over this
+   *                                     table buffers
+   * @param scanReadAheadDepth           number of batches each scanner fetches
+   *                                     ahead of the consumer
+   * @param columnarScans                whether scans filter and project whole
+   *                                     {@link ColumnarBatch}es
+   * @param partialAggregation           whether each scanner aggregates the rows
+   *                                     it produces
+   * @param aggregationParallelism       number of threads that aggregate the rows
+   *                                     of a query
+   * @param scanScheduler                scheduler shared by the tables of the
+   *                                     schema
+   * @param cubeRewrites                 whether aggregations over a fact table
+   *                                     are rewritten to read its cubes
+   * @param cubeDeltaWrites              whether the rows of a cube table are
+   *                                     written to its delta table
+   * @param writeWindowBytes             maximum number of bytes of rows written
+   *                                     to a table that are buffered or in flight
+   * @param partitionedWrites            whether the rows written to a table are
+   *                                     buffered for each tablet server
    */
   CalciteModifiableKuduTable(final KuduTable kuduTable, final AsyncKuduClient client,
       final List<Integer> descendingOrderColumnIndexes, final int timestampColumnIndex,
       final List<CalciteKuduTable> cubeTables, final TableType tableType,
-      final CubeTableInfo.EventTimeAggregationType eventTimeAggregationType) {
+      final CubeTableInfo.EventTimeAggregationType eventTimeAggregationType, final long scanBufferBytes,
+      final int scanReadAheadDepth, final boolean columnarScans, final boolean partialAggregation,
+      final int aggregationParallelism, final ScanScheduler scanScheduler, final boolean cubeRewrites,
+      final boolean cubeDeltaWrites, final long writeWindowBytes, final boolean partitionedWrites) {
     super(kuduTable, client, descendingOrderColumnIndexes, timestampColumnIndex, cubeTables, tableType,
-        eventTimeAggregationType);
+        eventTimeAggregationType, scanBufferBytes, scanReadAheadDepth, columnarScans, partialAggregation,
+        aggregationParallelism, scanScheduler, cubeRewrites, cubeDeltaWrites);
+    this.writeWindowBytes = writeWindowBytes;
+    this.partitionedWrites = partitionedWrites;
   }
 
   @Override
@@ -87,4 +120,12 @@ public class CalciteModifiableKuduTable extends CalciteKuduTable implements Modi
     return cubeMaintainer;
   }
 
+  public long getWriteWindowBytes() {
+    return writeWindowBytes;
+  }
+
+  public boolean isPartitionedWrites() {
+    return partitionedWrites;
+  }
+
 }
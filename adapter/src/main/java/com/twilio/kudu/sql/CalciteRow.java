@@ -16,8 +16,10 @@ package com.twilio.kudu.sql;
 
 import org.apache.kudu.Schema;
 import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.client.RowResult;
 import java.util.List;
 import java.math.BigDecimal;
+import java.util.Arrays;
 
 /**
  * A Plain Java Object that represents a Projected response from Kudu RPCs. It
@@ -29,6 +31,9 @@ public final class CalciteRow implements Comparable<CalciteRow> {
   public final Schema rowSchema;
   public final List<Integer> primaryKeyColumnsInProjection;
   public final List<Integer> descendingSortedFieldIndices;
+  // the row as returned by Kudu, only kept when a pagination cursor may need
+  // its primary key
+  private final RowResult rowResult;
 
   /**
    * Create a Calcite row with provided rowData. Used for Testing.
@@ -43,12 +48,36 @@ public final class CalciteRow implements Comparable<CalciteRow> {
    */
   public CalciteRow(final Schema rowSchema, final Object[] rowData, final List<Integer> primaryKeyColumnsInProjection,
       final List<Integer> descendingSortedFieldIndices) {
+    this(rowSchema, rowData, primaryKeyColumnsInProjection, descendingSortedFieldIndices, null);
+  }
+
+  /**
+   * Create a Calcite row that keeps a reference to the Kudu row it was projected
+   * from.
+   *
+   * @param rowSchema                     The schema of the query projection
+   * @param rowData                       Raw data for the row. Needs to conform
+   *                                      to rowSchema.
+   * @param primaryKeyColumnsInProjection Ordered list of primary keys within the
+   *                                      Projection.
+   * @param descendingSortedFieldIndices  Index of the descending sorted fields in
+   *                                      the rowSchema projection
+   * @param rowResult                     the Kudu row, can be null
+   */
+  public CalciteRow(final Schema rowSchema, final Object[] rowData, final List<Integer> primaryKeyColumnsInProjection,
+      final List<Integer> descendingSortedFieldIndices, final RowResult rowResult) {
     this.rowSchema = rowSchema;
     this.rowData = rowData;
     this.primaryKeyColumnsInProjection = primaryKeyColumnsInProjection;
     this.descendingSortedFieldIndices = descendingSortedFieldIndices;
+    this.rowResult = rowResult;
   }
 
+  /**
+   * Compares the primary key columns of the two rows. Scans that merge rows
+   * should use a {@link CalciteRowComparator} built once for the projection
+   * instead.
+   */
   @Override
   public int compareTo(CalciteRow o) {
     if (!this.primaryKeyColumnsInProjection.equals(o.primaryKeyColumnsInProjection)) {
@@ -56,75 +85,66 @@ public final class CalciteRow implements Comparable<CalciteRow> {
     }
     for (Integer positionInProjection : this.primaryKeyColumnsInProjection) {
       final ColumnSchema primaryColumnSchema = this.rowSchema.getColumns().get(positionInProjection);
-      int cmp = 0;
+      final int cmp;
       switch (primaryColumnSchema.getType()) {
       case INT8:
         cmp = ((Byte) this.rowData[positionInProjection]).compareTo(((Byte) o.rowData[positionInProjection]));
-        if (cmp != 0) {
-          return (descendingSortedFieldIndices.contains(positionInProjection)) ? Math.negateExact(cmp) : cmp;
-        }
         break;
       case INT16:
         cmp = ((Short) this.rowData[positionInProjection]).compareTo(((Short) o.rowData[positionInProjection]));
-        if (cmp != 0) {
-          return (descendingSortedFieldIndices.contains(positionInProjection)) ? Math.negateExact(cmp) : cmp;
-        }
         break;
       case INT32:
         cmp = ((Integer) this.rowData[positionInProjection]).compareTo(((Integer) o.rowData[positionInProjection]));
-        if (cmp != 0) {
-          return (descendingSortedFieldIndices.contains(positionInProjection)) ? Math.negateExact(cmp) : cmp;
-        }
         break;
       // @TODO: is this the right response type?
       case UNIXTIME_MICROS:
       case INT64:
         cmp = ((Long) this.rowData[positionInProjection]).compareTo(((Long) o.rowData[positionInProjection]));
-        if (cmp != 0) {
-          // Negate comparator sign based on if column is descending sorted
-          return (descendingSortedFieldIndices.contains(positionInProjection)) ? Math.negateExact(cmp) : cmp;
-        }
         break;
       case STRING:
         cmp = ((String) this.rowData[positionInProjection]).compareTo(((String) o.rowData[positionInProjection]));
-        if (cmp != 0) {
-          return cmp;
-        }
         break;
       case BOOL:
-        if (((Boolean) this.rowData[positionInProjection])
-            .compareTo(((Boolean) o.rowData[positionInProjection])) != 0) {
-          return 1;
-        }
+        cmp = ((Boolean) this.rowData[positionInProjection]).compareTo(((Boolean) o.rowData[positionInProjection]));
         break;
       case FLOAT:
         cmp = ((Float) this.rowData[positionInProjection]).compareTo(((Float) o.rowData[positionInProjection]));
-        if (cmp != 0) {
-          return cmp;
-        }
         break;
       case DOUBLE:
         cmp = ((Double) this.rowData[positionInProjection]).compareTo(((Double) o.rowData[positionInProjection]));
-        if (cmp > 0) {
-          return cmp;
-        }
         break;
       case DECIMAL:
         cmp = ((BigDecimal) this.rowData[positionInProjection])
             .compareTo(((BigDecimal) o.rowData[positionInProjection]));
-        if (cmp != 0) {
-          return cmp;
-        }
+        break;
+      case BINARY:
+        cmp = Arrays.compareUnsigned((byte[]) this.rowData[positionInProjection],
+            (byte[]) o.rowData[positionInProjection]);
         break;
       default:
         // Can't compare the others.
         throw new RuntimeException(
             "Cannot compare column " + primaryColumnSchema.getName() + " of type " + primaryColumnSchema.getType());
       }
+      if (cmp != 0) {
+        // Negate comparator sign based on if column is descending sorted
+        return descendingSortedFieldIndices.contains(positionInProjection) ? -Integer.signum(cmp) : cmp;
+      }
     }
     return 0;
   }
 
+  Object[] getRawRowData() {
+    return rowData;
+  }
+
+  /**
+   * @return the Kudu row or null if it wasn't kept
+   */
+  public RowResult getRowResult() {
+    return rowResult;
+  }
+
   public Object getRowData() {
     return rowData.length == 1 ? rowData[0] : rowData;
   }
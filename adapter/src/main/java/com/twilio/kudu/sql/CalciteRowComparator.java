@@ -0,0 +1,104 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+
+/**
+ * {@link Comparator} that orders {@link CalciteRow}s by the primary key columns
+ * in the projection. It is built once per scan, every key column is resolved to
+ * a comparison specialized for its type and sort direction up front, so
+ * comparing two rows doesn't switch on the column type or look up whether the
+ * column is descending.
+ *
+ * Orders rows the same way {@link CalciteRow#compareTo(CalciteRow)} does.
+ */
+public final class CalciteRowComparator implements Comparator<CalciteRow> {
+
+  @FunctionalInterface
+  private interface ColumnComparator {
+    int compare(Object[] left, Object[] right);
+  }
+
+  private final ColumnComparator[] columnComparators;
+
+  /**
+   * Create a comparator for rows of a projection.
+   *
+   * @param projectedSchema               The schema of the query projection
+   * @param primaryKeyColumnsInProjection Ordered list of primary keys within the
+   *                                      Projection.
+   * @param descendingSortedFieldIndices  Index of the descending sorted fields in
+   *                                      the projection
+   */
+  public CalciteRowComparator(final Schema projectedSchema, final List<Integer> primaryKeyColumnsInProjection,
+      final List<Integer> descendingSortedFieldIndices) {
+    this.columnComparators = new ColumnComparator[primaryKeyColumnsInProjection.size()];
+    for (int i = 0; i < columnComparators.length; i++) {
+      final int position = primaryKeyColumnsInProjection.get(i);
+      final int sign = descendingSortedFieldIndices.contains(position) ? -1 : 1;
+      columnComparators[i] = columnComparator(projectedSchema.getColumnByIndex(position), position, sign);
+    }
+  }
+
+  private static ColumnComparator columnComparator(final ColumnSchema columnSchema, final int position,
+      final int sign) {
+    switch (columnSchema.getType()) {
+    case INT8:
+      return (left, right) -> sign * Byte.compare((Byte) left[position], (Byte) right[position]);
+    case INT16:
+      return (left, right) -> sign * Short.compare((Short) left[position], (Short) right[position]);
+    case INT32:
+      return (left, right) -> sign * Integer.compare((Integer) left[position], (Integer) right[position]);
+    case UNIXTIME_MICROS:
+    case INT64:
+      return (left, right) -> sign * Long.compare((Long) left[position], (Long) right[position]);
+    case STRING:
+      return (left, right) -> sign * ((String) left[position]).compareTo((String) right[position]);
+    case BOOL:
+      return (left, right) -> sign * Boolean.compare((Boolean) left[position], (Boolean) right[position]);
+    case FLOAT:
+      return (left, right) -> sign * Float.compare((Float) left[position], (Float) right[position]);
+    case DOUBLE:
+      return (left, right) -> sign * Double.compare((Double) left[position], (Double) right[position]);
+    case DECIMAL:
+      return (left, right) -> sign * ((BigDecimal) left[position]).compareTo((BigDecimal) right[position]);
+    case BINARY:
+      return (left, right) -> sign * Arrays.compareUnsigned((byte[]) left[position], (byte[]) right[position]);
+    default:
+      throw new IllegalArgumentException(
+          "Cannot compare column " + columnSchema.getName() + " of type " + columnSchema.getType());
+    }
+  }
+
+  @Override
+  public int compare(final CalciteRow left, final CalciteRow right) {
+    final Object[] leftData = left.getRawRowData();
+    final Object[] rightData = right.getRawRowData();
+    for (final ColumnComparator columnComparator : columnComparators) {
+      final int cmp = columnComparator.compare(leftData, rightData);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+}
@@ -20,9 +20,10 @@ import java.util.Objects;
 /**
  * Message object represents a Message from an active scanner. There are
  * multiple types defined in {@link MessageType} and each consumer is expected
- * handle each type. Types are 1. ROW -- contains a row 2. CLOSE -- scanner is
- * closing so shouldn't expect any more ROW 3. ERROR -- scanner failed in some
- * manner, contains a failure.
+ * handle each type. Types are 1. BATCH -- contains every projected row from a
+ * single {@link org.apache.kudu.client.RowResultIterator} 2. CLOSE -- scanner
+ * is closing so shouldn't expect any more BATCH 3. ERROR -- scanner failed in
+ * some manner, contains a failure.
  *
  * When an ERROR message is received, the producer needs to produce a CLOSE
  * message just after. ERROR message is not terminal, only CLOSE is terminal
@@ -32,19 +33,33 @@ import java.util.Objects;
  * heterogeneous messages is the only solution we were able to make work. Using
  * a queue and another synchronization object did not work.
  *
+ * Rows are handed off a batch at a time so the queue is touched once per Kudu
+ * RPC instead of once per row. The consumer iterates the rows of the batch
+ * locally and once it has consumed all of them it asks the
+ * {@link ScannerCallback} for the next batch.
+ *
  * @param <T> The Calcite type. For multicolumn rows it is an Object[] for
  *            single it is Object
  */
 public final class CalciteScannerMessage<T> {
   public enum MessageType {
-    ROW, BATCH_COMPLETED, CLOSE, ERROR
+    BATCH, CLOSE, ERROR
   }
 
   public final MessageType type;
-  public final Optional<T> row;
   public final Optional<Exception> failure;
   public final Optional<ScannerCallback> callback;
 
+  /**
+   * Estimated size of the rows in a {@link MessageType#BATCH} message. Reserved
+   * against the query's {@link ScanBufferBudget} when produced and released once
+   * consumed.
+   */
+  public final long sizeInBytes;
+
+  private final T[] rows;
+  private final int rowCount;
+
   /**
    * Construct a Scanner Message that contains an exception. When this message is
    * consumed the consumer is _expected_ to throw the exception.
@@ -54,40 +69,56 @@ public final class CalciteScannerMessage<T> {
   public CalciteScannerMessage(Exception failure) {
     Objects.requireNonNull(failure);
     this.type = MessageType.ERROR;
-    this.row = Optional.empty();
+    this.sizeInBytes = 0L;
+    this.rows = null;
+    this.rowCount = 0;
     this.callback = Optional.empty();
     this.failure = Optional.of(failure);
   }
 
   /**
-   * Constructs a Scanner Message that contains a row. Row must by nonNull
+   * Constructs a Batch Scanner Message that contains the first {@code rowCount}
+   * entries of {@code rows}. The array can be larger than {@code rowCount} as
+   * rows that do not match the in memory filter are never added to it.
    *
-   * @param row the T that should be consumed.
+   * @param callback the {@link ScannerCallback} that produced the batch. When the
+   *                 consumer has iterated every row it calls
+   *                 {@link ScannerCallback#nextBatch()} on it. Can be null if
+   *                 there is no scanner to fetch from
+   * @param rows     array of rows, must be nonNull
+   * @param rowCount number of valid rows at the front of {@code rows}
    */
-  public CalciteScannerMessage(T row) {
-    Objects.requireNonNull(row);
-    this.type = MessageType.ROW;
-    this.row = Optional.of(row);
-    this.failure = Optional.empty();
-    this.callback = Optional.empty();
+  public CalciteScannerMessage(final ScannerCallback callback, final T[] rows, final int rowCount) {
+    this(callback, rows, rowCount, 0L);
   }
 
   /**
-   * Constructs a Batch Completed Scanner Message.
+   * Constructs a Batch Scanner Message with the estimated size of its rows.
    *
-   * @param callback the {@link ScannerCallback} that completed it's batch
+   * @param callback    the {@link ScannerCallback} that produced the batch. Can
+   *                    be null if there is no scanner to fetch from
+   * @param rows        array of rows, must be nonNull
+   * @param rowCount    number of valid rows at the front of {@code rows}
+   * @param sizeInBytes estimated size of the rows
    */
-  public CalciteScannerMessage(final ScannerCallback callback) {
-    this.type = MessageType.BATCH_COMPLETED;
-    this.row = Optional.empty();
+  public CalciteScannerMessage(final ScannerCallback callback, final T[] rows, final int rowCount,
+      final long sizeInBytes) {
+    Objects.requireNonNull(rows);
+    if (rowCount < 0 || rowCount > rows.length) {
+      throw new IllegalArgumentException("Row count " + rowCount + " is outside of the batch of " + rows.length);
+    }
+    this.type = MessageType.BATCH;
+    this.sizeInBytes = sizeInBytes;
+    this.rows = rows;
+    this.rowCount = rowCount;
     this.failure = Optional.empty();
-    this.callback = Optional.of(callback);
+    this.callback = Optional.ofNullable(callback);
   }
 
   /**
    * Construct a {@link MessageType#CLOSE} message to represent closing of the
    * scanner. The consumer is excepted to keep track of closed scanners and should
-   * not expect more {@link MessageType#ROW} from the scanner.
+   * not expect more {@link MessageType#BATCH} from the scanner.
    *
    * @param <T> The Calcite type. For multicolumn rows it is an Object[] for
    *            single it is Object
@@ -103,8 +134,33 @@ public final class CalciteScannerMessage<T> {
       throw new IllegalArgumentException("Creating a scanner using private constructor must be of type close");
     }
     this.type = type;
-    this.row = Optional.empty();
+    this.sizeInBytes = 0L;
+    this.rows = null;
+    this.rowCount = 0;
     this.failure = Optional.empty();
     this.callback = Optional.empty();
   }
+
+  /**
+   * @return number of rows in a {@link MessageType#BATCH} message, 0 for every
+   *         other type
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Fetch a row out of a {@link MessageType#BATCH} message.
+   *
+   * @param index position of the row within the batch, must be less than
+   *              {@link #getRowCount()}
+   *
+   * @return the row at that position
+   */
+  public T getRow(final int index) {
+    if (index >= rowCount) {
+      throw new IndexOutOfBoundsException("Index " + index + " is outside of the batch of " + rowCount + " rows");
+    }
+    return rows[index];
+  }
 }
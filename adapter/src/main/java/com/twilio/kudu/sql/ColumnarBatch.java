@@ -0,0 +1,218 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.RowResultIterator;
+
+/**
+ * The rows of a single {@link RowResultIterator} decoded into one vector per
+ * projected column. Fixed size columns are decoded into primitive arrays, so
+ * {@link ColumnarProjection}s read them without boxing or a call per value:
+ * <ul>
+ * <li>INT8 {@code byte[]}, INT16 {@code short[]}, INT32 {@code int[]}</li>
+ * <li>INT64 {@code long[]}, UNIXTIME_MICROS {@code long[]} of epoch
+ * milliseconds</li>
+ * <li>FLOAT {@code float[]}, DOUBLE {@code double[]}, BOOL
+ * {@code boolean[]}</li>
+ * <li>STRING {@code String[]}, DECIMAL {@code BigDecimal[]}, BINARY
+ * {@code byte[][]}</li>
+ * </ul>
+ * Values are decoded as they are stored, descending columns are not inverted.
+ * Nullable columns have a bitmap of the rows that are null, see
+ * {@link #isNull(long[], int)}.
+ */
+public final class ColumnarBatch {
+
+  private final int rowCount;
+  // one vector per column of the projected schema
+  private final Object[] vectors;
+  // null bitmap of each nullable column, null if the column isn't nullable
+  private final long[][] nulls;
+  // indexes of the rows that passed the filter, allocated on first use
+  private int[] selection;
+
+  private ColumnarBatch(final int rowCount, final Object[] vectors, final long[][] nulls) {
+    this.rowCount = rowCount;
+    this.vectors = vectors;
+    this.nulls = nulls;
+  }
+
+  /**
+   * Decodes every row of a batch returned by a scanner.
+   *
+   * @param projectedSchema schema of the scanner's projection
+   * @param rows            rows returned by a single {@code nextRows()} RPC
+   * @param rowCount        number of rows to decode
+   *
+   * @return the decoded batch
+   */
+  public static ColumnarBatch decode(final Schema projectedSchema, final Iterator<RowResult> rows, final int rowCount) {
+    final int columnCount = projectedSchema.getColumnCount();
+    final ColumnDecoder[] decoders = new ColumnDecoder[columnCount];
+    final Object[] vectors = new Object[columnCount];
+    final long[][] nulls = new long[columnCount][];
+    for (int column = 0; column < columnCount; column++) {
+      final ColumnSchema columnSchema = projectedSchema.getColumnByIndex(column);
+      decoders[column] = newDecoder(columnSchema, column, vectors, rowCount);
+      if (columnSchema.isNullable()) {
+        nulls[column] = new long[(rowCount + 63) >>> 6];
+      }
+    }
+
+    int row = 0;
+    while (row < rowCount && rows.hasNext()) {
+      final RowResult rowResult = rows.next();
+      for (int column = 0; column < columnCount; column++) {
+        if (nulls[column] != null && rowResult.isNull(column)) {
+          nulls[column][row >>> 6] |= 1L << row;
+          continue;
+        }
+        decoders[column].decode(rowResult, row);
+      }
+      row++;
+    }
+    return new ColumnarBatch(row, vectors, nulls);
+  }
+
+  /**
+   * Reads the value of a column from a row into the column's vector
+   */
+  private interface ColumnDecoder {
+    void decode(RowResult rowResult, int row);
+  }
+
+  /**
+   * Allocates the vector of a column and chooses the getter that fills it once
+   * per batch, instead of switching on the column type for every value.
+   */
+  private static ColumnDecoder newDecoder(final ColumnSchema columnSchema, final int column, final Object[] vectors,
+      final int rowCount) {
+    switch (columnSchema.getType()) {
+    case INT8: {
+      final byte[] vector = new byte[rowCount];
+      vectors[column] = vector;
+      return (rowResult, row) -> vector[row] = rowResult.getByte(column);
+    }
+    case INT16: {
+      final short[] vector = new short[rowCount];
+      vectors[column] = vector;
+      return (rowResult, row) -> vector[row] = rowResult.getShort(column);
+    }
+    case INT32: {
+      final int[] vector = new int[rowCount];
+      vectors[column] = vector;
+      return (rowResult, row) -> vector[row] = rowResult.getInt(column);
+    }
+    case INT64: {
+      final long[] vector = new long[rowCount];
+      vectors[column] = vector;
+      return (rowResult, row) -> vector[row] = rowResult.getLong(column);
+    }
+    case UNIXTIME_MICROS: {
+      final long[] vector = new long[rowCount];
+      vectors[column] = vector;
+      // the same rounding as RowResult#getTimestamp(int)
+      return (rowResult, row) -> vector[row] = Math.floorDiv(rowResult.getLong(column), 1000L);
+    }
+    case FLOAT: {
+      final float[] vector = new float[rowCount];
+      vectors[column] = vector;
+      return (rowResult, row) -> vector[row] = rowResult.getFloat(column);
+    }
+    case DOUBLE: {
+      final double[] vector = new double[rowCount];
+      vectors[column] = vector;
+      return (rowResult, row) -> vector[row] = rowResult.getDouble(column);
+    }
+    case BOOL: {
+      final boolean[] vector = new boolean[rowCount];
+      vectors[column] = vector;
+      return (rowResult, row) -> vector[row] = rowResult.getBoolean(column);
+    }
+    case STRING: {
+      final String[] vector = new String[rowCount];
+      vectors[column] = vector;
+      return (rowResult, row) -> vector[row] = rowResult.getString(column);
+    }
+    case DECIMAL: {
+      final BigDecimal[] vector = new BigDecimal[rowCount];
+      vectors[column] = vector;
+      return (rowResult, row) -> vector[row] = rowResult.getDecimal(column);
+    }
+    case BINARY: {
+      final byte[][] vector = new byte[rowCount][];
+      vectors[column] = vector;
+      return (rowResult, row) -> vector[row] = rowResult.getBinaryCopy(column);
+    }
+    default:
+      throw new IllegalArgumentException(
+          "Unable to decode column " + columnSchema.getName() + " of type " + columnSchema.getType());
+    }
+  }
+
+  /**
+   * @return number of rows in the batch
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @param column index of the column in the projected schema
+   *
+   * @return the vector of the column, an array of the type listed in the class
+   *         comment
+   */
+  public Object getVector(final int column) {
+    return vectors[column];
+  }
+
+  /**
+   * @param column index of the column in the projected schema
+   *
+   * @return the null bitmap of the column, null if the column isn't nullable
+   */
+  public long[] getNulls(final int column) {
+    return nulls[column];
+  }
+
+  /**
+   * @return a selection vector with a slot for every row of the batch. A
+   *         {@link ColumnarProjection} writes the index of each row that passes
+   *         the filter to the start of it.
+   */
+  public int[] getSelection() {
+    if (selection == null) {
+      selection = new int[rowCount];
+    }
+    return selection;
+  }
+
+  /**
+   * @param nulls null bitmap of a column from {@link #getNulls(int)}
+   * @param row   index of the row in the batch
+   *
+   * @return true if the column is null in the row
+   */
+  public static boolean isNull(final long[] nulls, final int row) {
+    return (nulls[row >>> 6] & (1L << row)) != 0;
+  }
+}
@@ -0,0 +1,37 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+/**
+ * Filters and projects every row of a {@link ColumnarBatch} in a single call.
+ * It is generated by {@link com.twilio.kudu.sql.rel.KuduToEnumerableRel} from
+ * the same program as the row at a time projection and filter functions, with
+ * each field read out of the column vectors of the batch. The filter narrows
+ * the {@link ColumnarBatch#getSelection() selection vector} of the batch and
+ * only the selected rows are projected.
+ */
+public interface ColumnarProjection {
+
+  /**
+   * @param batch the decoded rows
+   * @param rows  array with a slot for every row of the batch, the rows that pass
+   *              the filter are written to the start of it. Each is an
+   *              {@code Object[]}, or the value itself when the projection has a
+   *              single column
+   *
+   * @return number of rows written
+   */
+  int project(ColumnarBatch batch, Object[] rows);
+}
@@ -56,7 +56,7 @@ public final class ComparisonPredicate extends CalciteKuduPredicate {
 
   /**
    * In order to support descending ordered primary key column we invert the
-   * column value (see MutationState.getColumnValue())
+   * column value (see RowEncoder)
    */
   @Override
   public KuduPredicate toPredicate(ColumnSchema columnSchema, boolean invertValue) {
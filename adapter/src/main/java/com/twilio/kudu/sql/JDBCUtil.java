@@ -33,6 +33,9 @@ public class JDBCUtil {
   // fact table is written to. It should only be used for testing from a single
   // process as we maintain state on the client to compute the aggregated rows,
   // which is not correct if a table is being written to from multiple processes.
+  // Adding schema.cubeDeltaWrites=true writes the aggregated rows as deltas that
+  // are folded into the cube tables by a CubeCompactor, which is correct with
+  // multiple writers.
   // This also enables DDL support which allows used to create tables.
   public static String CALCITE_MODEL_TEMPLATE_DML_DDL_ENABLED = "jdbc:kudu:"
       + CalciteConnectionProperty.SCHEMA_FACTORY.camelName() + "=%s" + ";schema.connect=%s" + ";"
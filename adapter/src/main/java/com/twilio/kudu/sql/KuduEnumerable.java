@@ -23,9 +23,10 @@ import com.google.common.annotations.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.Queue;
 import java.util.Set;
 
 import org.apache.calcite.linq4j.Enumerator;
@@ -37,24 +38,27 @@ import org.apache.calcite.linq4j.function.Predicate1;
 import org.apache.calcite.rel.core.Join;
 import org.apache.calcite.rel.core.Project;
 import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.util.Pair;
 
 import java.util.stream.Collectors;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.Comparator;
 import java.util.LinkedList;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.calcite.linq4j.AbstractEnumerable;
-import org.apache.calcite.linq4j.AbstractEnumerable2;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.stumbleupon.async.Deferred;
 import org.apache.kudu.client.AsyncKuduClient;
 import org.apache.kudu.client.AsyncKuduScanner;
-import org.apache.kudu.client.KuduScanToken;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.LocatedTablet;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.ColumnSchema;
 import org.apache.kudu.Schema;
 
 // This class resides in this project under the org.apache namespace
@@ -63,9 +67,9 @@ import org.apache.kudu.client.KuduScannerUtil;
 /**
  * An {@link Enumerable} that *can* returns Kudu records in Ascending order on
  * their primary key. It does so by wrapping a {@link List} of
- * {@link CalciteKuduEnumerable}, querying each one for their next row and
- * comparing those rows. This requires each {@code CalciteKuduEnumerable} scan
- * only one {@link org.apache.kudu.client.Partition} within the Kudu Table. This
+ * {@link CalciteKuduEnumerable} and merging their rows with a
+ * {@link LoserTree}. This requires each {@code CalciteKuduEnumerable} scan only
+ * one {@link org.apache.kudu.client.Partition} within the Kudu Table. This
  * guarantees the first rows coming out of the
  * {@link org.apache.kudu.client.AsyncKuduScanner} will return rows sorted by
  * primary key.
@@ -83,6 +87,7 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
   public final KuduScanStats scanStats;
 
   private final List<List<CalciteKuduPredicate>> predicates;
+  private final List<PrimaryKeyBound> primaryKeyBounds;
   private final List<Integer> columnIndices;
   private final AsyncKuduClient client;
   private final CalciteKuduTable calciteKuduTable;
@@ -90,39 +95,59 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
   private final Function1<Object, Object> projection;
   private final boolean isSingleObject;
   private final Predicate1<Object> filterFunction;
+  private final PaginationCursor paginationCursor;
+  private final ColumnarProjection columnarProjection;
+  private final PartialAggregation partialAggregation;
 
   /**
    * A KuduEnumerable is an {@link Enumerable} for Kudu that can be configured to
-   * be sorted.
+   * be sorted. A sorted page can resume after the last row of the previous page
+   * instead of skipping rows with an offset, filter and project whole batches of
+   * rows when the table scans in columnar mode (see
+   * {@link CalciteKuduTable#isColumnarScans()}) and have each scanner aggregate
+   * the rows it produces, in which case it enumerates the partial rows of each
+   * scanner.
    *
-   * @param predicates       list of the filters for each disjoint Kudu Scan
-   * @param columnIndices    the column indexes to fetch from the table
-   * @param client           Kudu client that will execute the scans
-   * @param calciteKuduTable table metadata for the scan
-   * @param limit            the number of rows this should return. -1 indicates
-   *                         no limit
-   * @param offset           the number of rows from kudu to skip prior to
-   *                         returning rows
-   * @param sort             whether or not have Kudu RPCs come back in sorted by
-   *                         primary key
-   * @param groupBySorted    when sorted, and
-   *                         {@link Enumerable#groupBy(Function1, Function0, Function2, Function2)}
-   * @param scanStats        a container of scan stats that should be updated as
-   *                         the scan executes.
-   * @param cancelFlag       boolean indicating the end process has asked the
-   *                         query to finish.
-   * @param projection       function to translate
-   *                         {@link org.apache.kudu.client.RowResult} into Calcite
-   * @param filterFunction   filter applied to every
-   *                         {@link org.apache.kudu.client.RowResult}
-   * @param isSingleObject   whether or not Calcite object is an Object or an
-   *                         Object[]
+   * @param predicates         list of the filters for each disjoint Kudu Scan
+   * @param primaryKeyBounds   primary key range every scan is limited to
+   * @param columnIndices      the column indexes to fetch from the table
+   * @param client             Kudu client that will execute the scans
+   * @param calciteKuduTable   table metadata for the scan
+   * @param limit              the number of rows this should return. -1 indicates
+   *                           no limit
+   * @param offset             the number of rows from kudu to skip prior to
+   *                           returning rows
+   * @param sort               whether or not have Kudu RPCs come back in sorted
+   *                           by primary key
+   * @param groupBySorted      when sorted, and
+   *                           {@link Enumerable#groupBy(Function1, Function0, Function2, Function2)}
+   * @param scanStats          a container of scan stats that should be updated as
+   *                           the scan executes.
+   * @param cancelFlag         boolean indicating the end process has asked the
+   *                           query to finish.
+   * @param projection         function to translate
+   *                           {@link org.apache.kudu.client.RowResult} into
+   *                           Calcite
+   * @param filterFunction     filter applied to every
+   *                           {@link org.apache.kudu.client.RowResult}
+   * @param isSingleObject     whether or not Calcite object is an Object or an
+   *                           Object[]
+   * @param paginationCursor   cursor returned by the previous page through
+   *                           {@link KuduScanStats#getPaginationCursor()}, null
+   *                           for the first page. Only a sorted query can resume
+   *                           from a cursor.
+   * @param columnarProjection {@code projection} and {@code filterFunction}
+   *                           applied to a {@link ColumnarBatch}, null if there
+   *                           is none
+   * @param partialAggregation aggregation each scanner applies to the projected
+   *                           rows, null to produce the projected rows
    */
-  public KuduEnumerable(final List<List<CalciteKuduPredicate>> predicates, final List<Integer> columnIndices,
-      final AsyncKuduClient client, final CalciteKuduTable calciteKuduTable, final long limit, final long offset,
-      final boolean sort, final boolean groupBySorted, final KuduScanStats scanStats, final AtomicBoolean cancelFlag,
-      final Function1<Object, Object> projection, final Predicate1<Object> filterFunction,
-      final boolean isSingleObject) {
+  public KuduEnumerable(final List<List<CalciteKuduPredicate>> predicates, final List<PrimaryKeyBound> primaryKeyBounds,
+      final List<Integer> columnIndices, final AsyncKuduClient client, final CalciteKuduTable calciteKuduTable,
+      final long limit, final long offset, final boolean sort, final boolean groupBySorted,
+      final KuduScanStats scanStats, final AtomicBoolean cancelFlag, final Function1<Object, Object> projection,
+      final Predicate1<Object> filterFunction, final boolean isSingleObject, final PaginationCursor paginationCursor,
+      final ColumnarProjection columnarProjection, final PartialAggregation partialAggregation) {
     this.scansShouldStop = new AtomicBoolean(false);
     this.cancelFlag = cancelFlag;
     this.limit = limit;
@@ -132,6 +157,9 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
     // returned
     // in a predictable order
     this.sort = offset > 0 || sort;
+    if (paginationCursor != null && !this.sort) {
+      throw new IllegalArgumentException("A pagination cursor can only resume a query sorted by primary key");
+    }
     if (groupBySorted && !this.sort) {
       throw new IllegalArgumentException("If groupBySorted is true the results must need to be " + "sorted");
     }
@@ -139,16 +167,20 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
     this.scanStats = scanStats;
 
     this.predicates = predicates;
+    this.primaryKeyBounds = primaryKeyBounds;
     this.columnIndices = columnIndices;
     this.client = client;
     this.calciteKuduTable = calciteKuduTable;
     this.filterFunction = filterFunction;
     this.isSingleObject = isSingleObject;
+    this.paginationCursor = paginationCursor;
+    this.columnarProjection = columnarProjection;
+    this.partialAggregation = partialAggregation;
   }
 
   @VisibleForTesting
   List<AsyncKuduScanner> getScanners() {
-    return createScanners();
+    return Pair.left(createScanners());
   }
 
   private boolean checkLimitReached(int totalMoves) {
@@ -163,14 +195,67 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
     return false;
   }
 
-  public Enumerator<Object> unsortedEnumerator(final List<AsyncKuduScanner> scanners,
-      final BlockingQueue<CalciteScannerMessage<CalciteRow>> messages) {
+  /**
+   * Maximum number of rows a single scanner needs to produce for this query.
+   * Every scanner can stop once it has produced enough rows to satisfy the limit
+   * and offset by itself. Sorted scanners produce one more row so the merge knows
+   * whether there is another page.
+   *
+   * @return the number of rows or {@link Long#MAX_VALUE} if there is no limit
+   */
+  private long scannerRowLimit() {
+    // handling of limit and/or offset for groupBySorted is done in the groupBy
+    // method, it limits groups not rows
+    if (limit > 0 && !groupBySorted) {
+      return limit + Math.max(offset, 0) + (sort ? 1 : 0);
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Enumerator over scanners that return rows in any order. When the query has a
+   * limit the scanners are started in waves: a single scanner first, then a wave
+   * twice as large as the previous one each time a scanner finishes before enough
+   * rows have been received, so a limit that most tablets have to contribute to
+   * starts every scanner after a logarithmic number of waves. Without a limit
+   * every scanner is started right away.
+   *
+   * @param callbacks        callbacks of the scanners, none of them started
+   * @param messages         ring buffer every callback writes to
+   * @param scanBufferBudget budget shared by the callbacks
+   * @param scanQuery        query the callbacks were scheduled with
+   *
+   * @return the enumerator
+   */
+  public Enumerator<Object> unsortedEnumerator(final List<ScannerCallback> callbacks,
+      final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> messages, final ScanBufferBudget scanBufferBudget,
+      final ScanScheduler.Query scanQuery) {
+    final long rowsNeeded = scannerRowLimit();
     return new Enumerator<Object>() {
+      private int startedScanners = 0;
       private int finishedScanners = 0;
+      private int waveSize = 1;
       private Object next = null;
       private boolean finished = false;
       private int totalMoves = 0;
       private boolean movedToOffset = false;
+      // batch that is currently being iterated and the position of the next row
+      // within it.
+      private CalciteScannerMessage<CalciteRow> currentBatch = null;
+      private int batchIndex = 0;
+
+      {
+        startedScanners = startScanners(rowsNeeded == Long.MAX_VALUE ? callbacks.size() : waveSize);
+      }
+
+      private int startScanners(final int count) {
+        final int end = Math.min(callbacks.size(), startedScanners + count);
+        for (int i = startedScanners; i < end; i++) {
+          final ScannerCallback callback = callbacks.get(i);
+          callback.scanTask.submit(callback::nextBatch);
+        }
+        return end;
+      }
 
       private void moveToOffset() {
         movedToOffset = true;
@@ -188,54 +273,64 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
         if (!movedToOffset) {
           moveToOffset();
         }
-        CalciteScannerMessage<CalciteRow> fetched;
-        do {
+        // Stop as soon as the limit is met rather than waiting for a row past it,
+        // scanners that haven't been started never will be.
+        if (totalMoves >= rowsNeeded) {
+          finished = true;
+          scansShouldStop.set(true);
+          return false;
+        }
+        while (currentBatch == null || batchIndex >= currentBatch.getRowCount()) {
+          if (currentBatch != null) {
+            // Every row in the batch has been consumed, ask the scanner for the next
+            final CalciteScannerMessage<CalciteRow> consumed = currentBatch;
+            final Optional<ScannerCallback> callback = consumed.callback;
+            currentBatch = null;
+            if (callback.isPresent()) {
+              callback.get().batchConsumed(consumed);
+            } else {
+              logger.error("Scanner sent a BATCH message but didn't provide a reference to it. This shouldn't happen");
+              return false;
+            }
+          }
+          CalciteScannerMessage<CalciteRow> fetched;
           try {
-            fetched = messages.poll(350, TimeUnit.MILLISECONDS);
+            fetched = messages.take();
           } catch (InterruptedException interrupted) {
             fetched = CalciteScannerMessage.createEndMessage();
             Thread.currentThread().interrupt();
           }
-          if (fetched != null) {
-            if (fetched.type == CalciteScannerMessage.MessageType.ERROR) {
-              final Optional<Exception> failureReason = fetched.failure;
-              if (failureReason.isPresent()) {
-                throw new RuntimeException("A scanner failed, failing whole query", failureReason.get());
-              } else {
-                throw new RuntimeException("A scanner failed, failed for unreported reason. Failing query");
-              }
+          switch (fetched.type) {
+          case ERROR:
+            final Optional<Exception> failureReason = fetched.failure;
+            if (failureReason.isPresent()) {
+              throw new RuntimeException("A scanner failed, failing whole query", failureReason.get());
+            } else {
+              throw new RuntimeException("A scanner failed, failed for unreported reason. Failing query");
             }
-            if (fetched.type == CalciteScannerMessage.MessageType.CLOSE) {
-              if (++finishedScanners >= scanners.size()) {
-                finished = true;
-                return false;
-              }
+          case CLOSE:
+            if (++finishedScanners >= callbacks.size()) {
+              finished = true;
+              return false;
             }
-            if (fetched.type == CalciteScannerMessage.MessageType.BATCH_COMPLETED) {
-              final Optional<ScannerCallback> callback = fetched.callback;
-              if (callback.isPresent()) {
-                callback.get().nextBatch();
-              } else {
-                logger.error(
-                    "Scanner sent a BATCH_COMPLETED message but didn't provide a reference to it. This shouldn't happen");
-                return false;
-              }
+            // Every row of the scanner has been consumed without reaching the
+            // limit, start the next wave.
+            if (startedScanners < callbacks.size()) {
+              waveSize = (int) Math.min(callbacks.size(), 2L * waveSize);
+              startedScanners = startScanners(waveSize);
             }
+            break;
+          case BATCH:
+            currentBatch = fetched;
+            batchIndex = 0;
+            break;
           }
-
-        } while (fetched == null || fetched.type != CalciteScannerMessage.MessageType.ROW);
+        }
         // Indicates this is the first move.
         if (next == null) {
           scanStats.setTimeToFirstRowMs();
         }
-        final Optional<CalciteRow> rowData = fetched.row;
-        if (rowData.isPresent()) {
-          next = rowData.get().getRowData();
-        } else {
-          logger.error("Polled a {} message and expected a CalciteRow. The message doesn't contain a row: {} ",
-              fetched.type, fetched);
-          return false;
-        }
+        next = currentBatch.getRow(batchIndex++).getRowData();
         totalMoves++;
         boolean limitReached = checkLimitReached(totalMoves);
         if (limitReached) {
@@ -257,20 +352,46 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
       @Override
       public void close() {
         scansShouldStop.set(true);
+        // Deferred scanners have no outstanding RPC, resume them so they observe
+        // scansShouldStop and close.
+        scanBufferBudget.resumeAll();
+        // Idle scanners are closed now, the others as soon as their RPC completes
+        for (int i = 0; i < startedScanners; i++) {
+          callbacks.get(i).close();
+        }
+        scanQuery.close();
         scanStats.setTotalTimeMs();
-        List<ScannerMetrics> scannerMetricsList = scanners.stream().map(scanner -> new ScannerMetrics(scanner))
-            .collect(Collectors.toList());
+        List<ScannerMetrics> scannerMetricsList = callbacks.stream()
+            .map(callback -> new ScannerMetrics(callback.scanner)).collect(Collectors.toList());
         scanStats.setScannerMetricsList(scannerMetricsList);
       }
     };
   }
 
-  public Enumerator<Object> sortedEnumerator(final List<AsyncKuduScanner> scanners,
-      final List<Enumerator<CalciteRow>> subEnumerables) {
+  /**
+   * Enumerator that merges scanners that each return rows sorted by primary key.
+   * When the limit is reached the position after the last row returned is
+   * recorded as a {@link PaginationCursor} in the {@link KuduScanStats}.
+   *
+   * @param callbacks      callbacks of the scanners of the query, every one of
+   *                       them has been started
+   * @param subEnumerables rows of each scanner
+   * @param rowComparator  compares rows by primary key
+   * @param scanQuery      query the scanners were scheduled with
+   * @param nextCursor     creates the cursor of the next page from the last row
+   *                       returned
+   *
+   * @return the enumerator
+   */
+  public Enumerator<Object> sortedEnumerator(final List<ScannerCallback> callbacks,
+      final List<Enumerator<CalciteRow>> subEnumerables, final Comparator<CalciteRow> rowComparator,
+      final ScanScheduler.Query scanQuery, final Function1<CalciteRow, PaginationCursor> nextCursor) {
 
     return new Enumerator<Object>() {
       private Object next = null;
-      private List<Boolean> enumerablesWithRows = new ArrayList<>(subEnumerables.size());
+      private CalciteRow lastRow = null;
+      // merges the sub enumerables, created on the first call to moveNext()
+      private LoserTree<CalciteRow> mergeTree = null;
       private int totalMoves = 0;
 
       private void moveToOffset() {
@@ -289,33 +410,12 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
           return false;
         }
 
-        if (enumerablesWithRows.isEmpty()) {
-          for (int idx = 0; idx < subEnumerables.size(); idx++) {
-            enumerablesWithRows.add(subEnumerables.get(idx).moveNext());
-          }
+        if (mergeTree == null) {
+          mergeTree = new LoserTree<>(subEnumerables, rowComparator);
           moveToOffset();
-          logger.debug("Setup scanners {}", enumerablesWithRows);
-        }
-        CalciteRow smallest = null;
-        int chosenEnumerable = -1;
-        for (int idx = 0; idx < subEnumerables.size(); idx++) {
-          if (enumerablesWithRows.get(idx)) {
-            final CalciteRow enumerablesNext = subEnumerables.get(idx).current();
-            if (smallest == null) {
-              logger.trace("smallest isn't set setting to {}", enumerablesNext.getRowData());
-              smallest = enumerablesNext;
-              chosenEnumerable = idx;
-            } else if (enumerablesNext.compareTo(smallest) < 0) {
-              logger.trace("{} is smaller then {}", enumerablesNext.getRowData(), smallest.getRowData());
-              smallest = enumerablesNext;
-              chosenEnumerable = idx;
-            } else {
-              logger.trace("{} is larger then {}", enumerablesNext.getRowData(), smallest.getRowData());
-            }
-          } else {
-            logger.trace("{} index doesn't have next", idx);
-          }
+          logger.debug("Setup merge of {} scanners", subEnumerables.size());
         }
+        final CalciteRow smallest = mergeTree.winner();
         if (smallest == null) {
           return false;
         }
@@ -327,13 +427,19 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
 
         // Move the chosen one forward. The others have their smallest
         // already in the front of their queues.
-        logger.trace("Chosen idx {} to move next", chosenEnumerable);
-        enumerablesWithRows.set(chosenEnumerable, subEnumerables.get(chosenEnumerable).moveNext());
+        mergeTree.advanceWinner();
         totalMoves++;
         boolean limitReached = checkLimitReached(totalMoves);
 
         if (limitReached) {
           scansShouldStop.set(true);
+          // there is at least one more row, the next page starts after the last row
+          // that was returned
+          if (lastRow != null) {
+            scanStats.setPaginationCursor(nextCursor.apply(lastRow));
+          }
+        } else {
+          lastRow = smallest;
         }
         return !limitReached;
       }
@@ -350,10 +456,14 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
 
       @Override
       public void close() {
+        scansShouldStop.set(true);
         subEnumerables.stream().forEach(enumerable -> enumerable.close());
+        // Idle scanners are closed now, the others as soon as their RPC completes
+        callbacks.stream().forEach(callback -> callback.close());
+        scanQuery.close();
         scanStats.setTotalTimeMs();
-        List<ScannerMetrics> scannerMetricsList = scanners.stream().map(scanner -> new ScannerMetrics(scanner))
-            .collect(Collectors.toList());
+        List<ScannerMetrics> scannerMetricsList = callbacks.stream()
+            .map(callback -> new ScannerMetrics(callback.scanner)).collect(Collectors.toList());
         scanStats.setScannerMetricsList(scannerMetricsList);
       }
     };
@@ -365,7 +475,8 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
 
   @Override
   public Enumerator<Object> enumerator() {
-    final List<AsyncKuduScanner> scanners = createScanners();
+    final List<Pair<AsyncKuduScanner, LocatedTablet>> scannersWithTablets = createScanners();
+    final List<AsyncKuduScanner> scanners = Pair.left(scannersWithTablets);
 
     if (scanners.isEmpty()) {
       // if there are predicates but they result in an empty scan list that means this
@@ -375,26 +486,47 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
     }
 
     final Schema projectedSchema = scanners.get(0).getProjectionSchema();
+    final ScanBufferBudget scanBufferBudget = new ScanBufferBudget(calciteKuduTable.getScanBufferBytes(), scanStats);
+    final int readAheadDepth = calciteKuduTable.getScanReadAheadDepth();
+    // The scheduler decides when each scanner starts fetching
+    final ScanScheduler.Query scanQuery = calciteKuduTable.getScanScheduler().newQuery(scanStats, sort);
+    // Scanners stop once they have produced enough rows for the limit on their own
+    final long rowLimit = scannerRowLimit();
+    final ColumnarProjection batchProjection = calciteKuduTable.isColumnarScans() ? columnarProjection : null;
 
     if (sort) {
-      final List<ScannerCallback> callbacks = scanners.stream().map(scanner -> {
-        final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults = new LinkedBlockingQueue<>();
-        return new ScannerCallback(calciteKuduTable, scanner, rowResults, scansShouldStop, cancelFlag, projectedSchema,
-            scanStats, true, projection, filterFunction, isSingleObject);
+      final List<ScannerCallback> callbacks = scannersWithTablets.stream().map(scannerWithTablet -> {
+        final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> rowResults = new MpscRingBuffer<>(
+            ScannerCallback.maxOutstandingMessages(readAheadDepth));
+        return new ScannerCallback(calciteKuduTable, scannerWithTablet.left, rowResults, scansShouldStop, cancelFlag,
+            projectedSchema, scanStats, true, projection, filterFunction, isSingleObject, scanBufferBudget,
+            readAheadDepth, scanQuery.newScan(tabletServer(scannerWithTablet.right)), rowLimit, batchProjection,
+            partialAggregation);
       }).collect(Collectors.toList());
-      callbacks.stream().forEach(callback -> callback.nextBatch());
-
-      return sortedEnumerator(scanners, callbacks.stream().map(callback -> {
-        return new CalciteKuduEnumerable(callback.rowResults, scansShouldStop);
-      }).map(enumerable -> enumerable.enumerator()).collect(Collectors.toList()));
+      // the merge needs a row from every scanner, the scheduler starts them once the
+      // tablet servers have room for all of them
+      callbacks.stream().forEach(callback -> callback.scanTask.submit(callback::nextBatch));
+
+      final CalciteRowComparator rowComparator = new CalciteRowComparator(projectedSchema,
+          calciteKuduTable.getPrimaryKeyColumnsInProjection(projectedSchema),
+          calciteKuduTable.getDescendingColumnsIndicesInProjection(projectedSchema));
+      return sortedEnumerator(callbacks, callbacks.stream().map(callback -> {
+        return new CalciteKuduEnumerable(callback.rowResults, scansShouldStop, callback);
+      }).map(enumerable -> enumerable.enumerator()).collect(Collectors.toList()), rowComparator, scanQuery,
+          lastRow -> nextPaginationCursor(scannersWithTablets, lastRow));
     }
-    final BlockingQueue<CalciteScannerMessage<CalciteRow>> messages = new LinkedBlockingQueue<>();
-    scanners.stream().map(scanner -> {
-      return new ScannerCallback(calciteKuduTable, scanner, messages, scansShouldStop, cancelFlag, projectedSchema,
-          scanStats, false, projection, filterFunction, isSingleObject);
-    }).forEach(callback -> callback.nextBatch());
+    // Every scanner shares one ring buffer, sized so a callback never waits on the
+    // consumer.
+    final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> messages = new MpscRingBuffer<>(
+        scanners.size() * ScannerCallback.maxOutstandingMessages(readAheadDepth));
+    final List<ScannerCallback> callbacks = scannersWithTablets.stream().map(scannerWithTablet -> {
+      return new ScannerCallback(calciteKuduTable, scannerWithTablet.left, messages, scansShouldStop, cancelFlag,
+          projectedSchema, scanStats, false, projection, filterFunction, isSingleObject, scanBufferBudget,
+          readAheadDepth, scanQuery.newScan(tabletServer(scannerWithTablet.right)), rowLimit, batchProjection,
+          partialAggregation);
+    }).collect(Collectors.toList());
 
-    return unsortedEnumerator(scanners, messages);
+    return unsortedEnumerator(callbacks, messages, scanBufferBudget, scanQuery);
   }
 
   @Override
@@ -404,15 +536,21 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
     // When Grouping rows but the aggregation is not sorted by primary key direction
     // or there is no
     // limit to the grouping, read every single matching row for this query.
-    // This implies sorted = false.
+    // This implies sorted = false. The rows are spread across threads when the
+    // table configures an aggregation parallelism.
     if (!groupBySorted) {
+      final int parallelism = calciteKuduTable.getAggregationParallelism();
+      if (parallelism > 1) {
+        final ParallelHashAggregation<TKey, TAccumulate, TResult> aggregation = new ParallelHashAggregation<>(
+            keySelector, accumulatorInitializer, accumulatorAdder, resultSelector, parallelism);
+        try (Enumerator<Object> rows = getThis().enumerator()) {
+          return Linq4j.asEnumerable(aggregation.aggregate(rows));
+        }
+      }
       return EnumerableDefaults.groupBy(getThis(), keySelector, accumulatorInitializer, accumulatorAdder,
           resultSelector);
     }
 
-    int uniqueGroupCount = 0;
-    TKey lastKey = null;
-
     // groupFetchLimit calculates it's size based on offset. When offset is present,
     // it needs to
     // skip an equalivent number of unique group keys
@@ -424,105 +562,196 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
     } else if (limit > 0) {
       groupFetchLimit = limit;
     }
-    final Queue<TResult> sortedResults = new LinkedList<TResult>();
-
-    try (Enumerator<Object> objectEnumeration = getThis().enumerator()) {
-      TAccumulate accumulator = null;
-
-      while (objectEnumeration.moveNext()) {
-        Object o = objectEnumeration.current();
-        final TKey key = keySelector.apply(o);
-
-        // If there hasn't been a key yet or if there is a new key
-        if (lastKey == null || !key.equals(lastKey)) {
-          // If there is an accumulator, save the results into the queue and reset
-          // accumulator.
-          if (accumulator != null) {
-            sortedResults.offer(resultSelector.apply(lastKey, accumulator));
-            accumulator = null;
-          }
-
-          uniqueGroupCount++;
+    final long fetchLimit = groupFetchLimit;
+    // Rows arrive sorted by the group key, so each group is returned as soon as
+    // the key changes instead of after every row has been read.
+    return new AbstractEnumerable<TResult>() {
+      @Override
+      public Enumerator<TResult> enumerator() {
+        return new SortedGroupEnumerator<>(KuduEnumerable.this.enumerator(), keySelector, accumulatorInitializer,
+            accumulatorAdder, resultSelector, offset, fetchLimit);
+      }
+    };
+  }
 
-          // When we have seen limit + 1 unique group by keys, exit.
-          // or in the case of an offset, limit + offset + 1 unique group by keys.
-          if (uniqueGroupCount > groupFetchLimit) {
-            break;
-          }
+  /**
+   * Tablet server a scanner of the tablet will read from.
+   *
+   * @param tablet the tablet, null for a scanner of the whole table
+   *
+   * @return host and port of the leader replica or null if it isn't known
+   */
+  private static String tabletServer(final LocatedTablet tablet) {
+    if (tablet == null) {
+      return null;
+    }
+    final LocatedTablet.Replica leader = tablet.getLeaderReplica();
+    if (leader == null) {
+      return null;
+    }
+    return leader.getRpcHost() + ":" + leader.getRpcPort();
+  }
 
-          lastKey = key;
-        }
+  private AsyncKuduScanner.AsyncKuduScannerBuilder newScannerBuilder(final List<KuduPredicate> kuduPredicates) {
+    final AsyncKuduScanner.AsyncKuduScannerBuilder builder = client.newScannerBuilder(calciteKuduTable.getKuduTable());
+    if (sort) {
+      // Allows for consistent row order in reads as it puts in ORDERED by Pk when
+      // faultTolerant is set to true
+      builder.setFaultTolerant(true);
+    }
+    if (!columnIndices.isEmpty()) {
+      builder.setProjectedColumnIndexes(columnIndices);
+    }
+    // we can only push down the limit if we are ordering by the pk columns
+    // and if there is no offset
+    if (sort && offset == -1 && limit != -1 && !groupBySorted) {
+      builder.limit(scannerRowLimit());
+    }
+    kuduPredicates.forEach(builder::addPredicate);
+    return builder;
+  }
 
-        // When we are still skipping group by keys.
-        if (offset > 0 && uniqueGroupCount <= offset) {
-          continue;
-        }
+  /**
+   * Reads a tablet at the snapshot it was read at for the previous page of the
+   * pagination cursor.
+   *
+   * @param builder builder of the scan
+   * @param tablet  tablet the scan reads
+   */
+  private void readAtCursorSnapshot(final AsyncKuduScanner.AsyncKuduScannerBuilder builder,
+      final LocatedTablet tablet) {
+    if (paginationCursor == null) {
+      return;
+    }
+    final long snapshotTimestamp = paginationCursor.getSnapshotTimestamp(tabletId(tablet));
+    if (snapshotTimestamp != Long.MIN_VALUE) {
+      builder.snapshotTimestampRaw(snapshotTimestamp);
+    }
+  }
 
-        // First Kudu record matching key. Init the accumulator function.
-        if (accumulator == null) {
-          accumulator = accumulatorInitializer.apply();
-        }
-        accumulator = accumulatorAdder.apply(accumulator, o);
-      }
+  private static String tabletId(final LocatedTablet tablet) {
+    return tablet == null ? "" : new String(tablet.getTabletId(), StandardCharsets.UTF_8);
+  }
 
-      // If the source Enumerator -- objectEnumeration -- runs out of rows and we have
-      // an accumulator in progress
-      // Apply it and save it.
-      if (accumulator != null) {
-        sortedResults.offer(resultSelector.apply(lastKey, accumulator));
+  /**
+   * Cursor for the page after {@code lastRow}.
+   *
+   * @param scanners scanners of the query with the tablet they read
+   * @param lastRow  last row returned by the query
+   *
+   * @return the cursor, null if the projection doesn't include the whole primary
+   *         key
+   */
+  private PaginationCursor nextPaginationCursor(final List<Pair<AsyncKuduScanner, LocatedTablet>> scanners,
+      final CalciteRow lastRow) {
+    final RowResult rowResult = lastRow.getRowResult();
+    if (rowResult == null) {
+      return null;
+    }
+    final Schema tableSchema = getTableSchema();
+    for (ColumnSchema primaryKeyColumn : tableSchema.getPrimaryKeyColumns()) {
+      if (!rowResult.getColumnProjection().hasColumn(primaryKeyColumn.getName())) {
+        return null;
       }
     }
-    return new AbstractEnumerable2<TResult>() {
-      @Override
-      public Iterator<TResult> iterator() {
-        return sortedResults.iterator();
+    final Map<String, Long> snapshotTimestamps = new HashMap<>();
+    for (Pair<AsyncKuduScanner, LocatedTablet> scanner : scanners) {
+      final long snapshotTimestamp = KuduScannerUtil.snapshotTimestamp(scanner.left);
+      if (snapshotTimestamp != AsyncKuduClient.NO_TIMESTAMP) {
+        snapshotTimestamps.put(tabletId(scanner.right), snapshotTimestamp);
       }
-    };
+    }
+    return new PaginationCursor(calciteKuduTable.getKuduTable().getTableId(),
+        KuduScannerUtil.encodePrimaryKey(tableSchema, rowResult), snapshotTimestamps);
   }
 
-  private List<AsyncKuduScanner> createScanners() {
-    // This builds a List AsyncKuduScanners.
-    // Each member of this list represents an OR query on a given partition
-    // in Kudu Table
-    List<AsyncKuduScanner> scanners = predicates.stream().map(subScan -> {
-      KuduScanToken.KuduScanTokenBuilder tokenBuilder = client.syncClient()
-          .newScanTokenBuilder(calciteKuduTable.getKuduTable());
-      if (sort) {
-        // Allows for consistent row order in reads as it puts in ORDERED by Pk when
-        // faultTolerant is set to true
-        tokenBuilder.setFaultTolerant(true);
-      }
+  private List<Pair<AsyncKuduScanner, LocatedTablet>> createScanners() {
+    if (paginationCursor != null
+        && !paginationCursor.getTableId().equals(calciteKuduTable.getKuduTable().getTableId())) {
+      throw new IllegalArgumentException("Pagination cursor was created by a query of another table");
+    }
+    // A sorted scan needs a scanner per tablet to merge, even without predicates
+    if (predicates.isEmpty() && primaryKeyBounds.isEmpty() && !sort) {
+      // Scan the whole table !
+      final AsyncKuduScanner.AsyncKuduScannerBuilder allBuilder = client
+          .newScannerBuilder(calciteKuduTable.getKuduTable());
       if (!columnIndices.isEmpty()) {
-        tokenBuilder.setProjectedColumnIndexes(columnIndices);
+        allBuilder.setProjectedColumnIndexes(columnIndices);
       }
-      // we can only push down the limit if we are ordering by the pk columns
-      // and if there is no offset
-      if (sort && offset == -1 && limit != -1 && !groupBySorted) {
-        tokenBuilder.limit(limit);
+      // A whole table scan reads from every tablet server
+      return Collections.singletonList(Pair.of(allBuilder.build(), (LocatedTablet) null));
+    }
+
+    // Every scan reads the same primary key range, from the greatest lower bound
+    // to the smallest upper bound
+    byte[] lowerBound = null;
+    byte[] upperBound = null;
+    // A pagination cursor resumes every scan after the last key of the previous
+    // page
+    if (paginationCursor != null) {
+      lowerBound = KuduScannerUtil.primaryKeySuccessor(getTableSchema(), paginationCursor.getPrimaryKey());
+      if (lowerBound == null) {
+        // the previous page ended with the largest possible key
+        return Collections.emptyList();
       }
-      subScan.stream().forEach(predicate -> {
-        tokenBuilder.addPredicate(predicate.toPredicate(calciteKuduTable));
-      });
-      return tokenBuilder.build();
-    }).flatMap(tokens -> {
-      return tokens.stream().map(token -> {
-        try {
-          return KuduScannerUtil.deserializeIntoAsyncScanner(token.serialize(), client,
-              calciteKuduTable.getKuduTable());
-        } catch (java.io.IOException ioe) {
-          throw new RuntimeException("Failed to setup scanner from token.", ioe);
+    }
+    for (PrimaryKeyBound bound : primaryKeyBounds) {
+      final byte[] encoded = bound.encode(calciteKuduTable);
+      if (bound.isLowerBound()) {
+        if (encoded == null) {
+          // no key is greater than the bound
+          return Collections.emptyList();
         }
-      });
-    }).collect(Collectors.toList());
+        if (lowerBound == null || Arrays.compareUnsigned(encoded, lowerBound) > 0) {
+          lowerBound = encoded;
+        }
+      } else if (encoded != null && (upperBound == null || Arrays.compareUnsigned(encoded, upperBound) < 0)) {
+        upperBound = encoded;
+      }
+    }
+    if (lowerBound != null && upperBound != null && Arrays.compareUnsigned(lowerBound, upperBound) >= 0) {
+      return Collections.emptyList();
+    }
 
+    // Each member of predicates represents an OR query, it gets a scanner for
+    // every tablet its predicates don't prune. The pruned partition key ranges
+    // are cached per table and the tablets of all the OR queries are looked up at
+    // the same time, usually from the client's tablet cache.
+    final List<List<KuduPredicate>> subScans = new ArrayList<>();
     if (predicates.isEmpty()) {
-      // Scan the whole table !
-      final AsyncKuduScanner.AsyncKuduScannerBuilder allBuilder = client
-          .newScannerBuilder(calciteKuduTable.getKuduTable());
-      if (!columnIndices.isEmpty()) {
-        allBuilder.setProjectedColumnIndexes(columnIndices);
+      subScans.add(Collections.emptyList());
+    } else {
+      for (List<CalciteKuduPredicate> subScan : predicates) {
+        subScans.add(
+            subScan.stream().map(predicate -> predicate.toPredicate(calciteKuduTable)).collect(Collectors.toList()));
+      }
+    }
+    final List<Deferred<List<LocatedTablet>>> tabletLookups = subScans.stream()
+        .map(subScan -> KuduScannerUtil.locateTablets(client, calciteKuduTable.getKuduTable(),
+            calciteKuduTable.getPartitionKeyRangeCache().getPartitionKeyRanges(newScannerBuilder(subScan)),
+            client.getDefaultOperationTimeoutMs()))
+        .collect(Collectors.toList());
+
+    // This builds a List AsyncKuduScanners, paired with the tablet they read.
+    final List<Pair<AsyncKuduScanner, LocatedTablet>> scanners = new ArrayList<>();
+    try {
+      for (int i = 0; i < tabletLookups.size(); i++) {
+        final List<KuduPredicate> subScan = subScans.get(i);
+        for (LocatedTablet tablet : tabletLookups.get(i).join()) {
+          final AsyncKuduScanner.AsyncKuduScannerBuilder builder = KuduScannerUtil
+              .scanTablet(newScannerBuilder(subScan), tablet);
+          if (lowerBound != null) {
+            builder.lowerBoundRaw(lowerBound);
+          }
+          if (upperBound != null) {
+            builder.exclusiveUpperBoundRaw(upperBound);
+          }
+          readAtCursorSnapshot(builder, tablet);
+          scanners.add(Pair.of(builder.build(), tablet));
+        }
       }
-      scanners = Collections.singletonList(allBuilder.build());
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to locate the tablets to scan", e);
     }
     return scanners;
   }
@@ -534,8 +763,9 @@ public final class KuduEnumerable extends AbstractEnumerable<Object> {
     // same one.
     final List<List<CalciteKuduPredicate>> merged = KuduPredicatePushDownVisitor.mergePredicateLists(SqlKind.AND,
         this.predicates, conjunctions);
-    return new KuduEnumerable(merged, columnIndices, client, calciteKuduTable, limit, offset, sort, groupBySorted,
-        scanStats, cancelFlag, projection, filterFunction, isSingleObject);
+    return new KuduEnumerable(merged, primaryKeyBounds, columnIndices, client, calciteKuduTable, limit, offset, sort,
+        groupBySorted, scanStats, cancelFlag, projection, filterFunction, isSingleObject, null, columnarProjection,
+        partialAggregation);
   }
 
   /**
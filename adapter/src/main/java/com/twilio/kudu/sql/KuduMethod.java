@@ -29,11 +29,12 @@ import org.apache.calcite.rel.core.Join;
  * Builtin methods in the KuduDB adapter.
  */
 public enum KuduMethod {
-  KUDU_QUERY_METHOD(CalciteKuduTable.KuduQueryable.class, "query", List.class, List.class, int.class, int.class,
-      boolean.class, boolean.class, KuduScanStats.class, AtomicBoolean.class, Function1.class, Predicate1.class,
-      boolean.class),
+  KUDU_QUERY_METHOD(CalciteKuduTable.KuduQueryable.class, "query", List.class, List.class, List.class, int.class,
+      int.class, boolean.class, boolean.class, KuduScanStats.class, AtomicBoolean.class, Function1.class,
+      Predicate1.class, boolean.class, ColumnarProjection.class, PartialAggregation.class, KuduStatementScans.class),
   KUDU_MUTATE_TUPLES_METHOD(CalciteKuduTable.KuduQueryable.class, "mutateTuples", List.class, List.class),
-  KUDU_MUTATE_ROW_METHOD(CalciteKuduTable.KuduQueryable.class, "mutateRow", List.class, List.class),
+  KUDU_MUTATE_ROW_METHOD(CalciteKuduTable.KuduQueryable.class, "mutateRow", List.class, List.class,
+      KuduStatementBatch.class),
   NESTED_JOIN_PREDICATES(KuduEnumerable.class, "nestedJoinPredicates", Join.class);
 
   public final Method method;
@@ -14,13 +14,14 @@
  */
 package com.twilio.kudu.sql;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
-import java.nio.ByteBuffer;
-import java.sql.Timestamp;
-import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.calcite.adapter.enumerable.EnumUtils;
 import org.apache.calcite.adapter.enumerable.JavaRowFormat;
@@ -31,6 +32,7 @@ import org.apache.calcite.linq4j.tree.BlockBuilder;
 import org.apache.calcite.linq4j.tree.Expression;
 import org.apache.calcite.linq4j.tree.Expressions;
 import org.apache.calcite.linq4j.tree.ParameterExpression;
+import org.apache.calcite.linq4j.tree.Primitive;
 import org.apache.calcite.linq4j.tree.Types;
 import org.apache.calcite.rel.RelCollation;
 import org.apache.calcite.rel.RelFieldCollation;
@@ -48,6 +50,10 @@ import org.apache.kudu.client.RowResult;
  *
  * Primarily used to construct {@link Function1} and {@link Predicate1} that can
  * be used filter and project the kudu rpc result.
+ *
+ * A {@code KuduPhysType} created by {@link #forColumnarBatch} instead reads
+ * fields out of the vectors of a {@link ColumnarBatch}, for the row at an
+ * index, to construct a {@link ColumnarProjection}.
  */
 public final class KuduPhysType implements PhysType {
   private static Method LONG_METHOD = Types.lookupMethod(RowResult.class, "getLong", int.class);
@@ -59,26 +65,79 @@ public final class KuduPhysType implements PhysType {
   private static Method FLOAT_METHOD = Types.lookupMethod(RowResult.class, "getFloat", int.class);
   private static Method DOUBLE_METHOD = Types.lookupMethod(RowResult.class, "getDouble", int.class);
   private static Method DECIMAL_METHOD = Types.lookupMethod(RowResult.class, "getDecimal", int.class);
-  private static Method BINARY_METHOD = Types.lookupMethod(RowResult.class, "getBinary", int.class);
+  private static Method BINARY_COPY_METHOD = Types.lookupMethod(RowResult.class, "getBinaryCopy", int.class);
   private static Method IS_NULL = Types.lookupMethod(RowResult.class, "isNull", int.class);
 
-  private static Method TIMESTAMP_METHOD = Types.lookupMethod(RowResult.class, "getTimestamp", int.class);
-  private static Method TO_INSTANT = Types.lookupMethod(Timestamp.class, "toInstant");
-  private static Method TO_EPOCH_MS = Types.lookupMethod(Instant.class, "toEpochMilli");
+  private static Method FLOOR_DIV = Types.lookupMethod(Math.class, "floorDiv", long.class, long.class);
 
-  private static Method BYTE_ARRAY = Types.lookupMethod(ByteBuffer.class, "array");
+  private static Method GET_VECTOR = Types.lookupMethod(ColumnarBatch.class, "getVector", int.class);
+  private static Method GET_NULLS = Types.lookupMethod(ColumnarBatch.class, "getNulls", int.class);
+  private static Method IS_NULL_IN_VECTOR = Types.lookupMethod(ColumnarBatch.class, "isNull", long[].class, int.class);
 
   private final Schema tableSchema;
   private final RelDataType logicalType;
   private final List<Integer> descendingSortedFieldIndices;
   private final List<Integer> kuduColumnProjections;
 
+  // index of the row in the batch, null when fields are read from a RowResult
+  private final ParameterExpression batchRow;
+  // vector and null bitmap variable of each projected column of the batch
+  private final Map<Integer, ParameterExpression> vectors = new HashMap<>();
+  private final Map<Integer, ParameterExpression> nullVectors = new HashMap<>();
+
   public KuduPhysType(final Schema tableSchema, final RelDataType logicalType,
       final List<Integer> descendingSortedFieldIndices, final List<Integer> kuduColumnProjections) {
+    this(tableSchema, logicalType, descendingSortedFieldIndices, kuduColumnProjections, null);
+  }
+
+  private KuduPhysType(final Schema tableSchema, final RelDataType logicalType,
+      final List<Integer> descendingSortedFieldIndices, final List<Integer> kuduColumnProjections,
+      final ParameterExpression batchRow) {
     this.tableSchema = tableSchema;
     this.logicalType = logicalType;
     this.descendingSortedFieldIndices = descendingSortedFieldIndices;
     this.kuduColumnProjections = kuduColumnProjections;
+    this.batchRow = batchRow;
+  }
+
+  /**
+   * Creates a {@code KuduPhysType} that reads fields out of a
+   * {@link ColumnarBatch}. Each projected column's vector is declared once in
+   * {@code vectorDeclarations}, field references then read the element at
+   * {@code batchRow} out of it.
+   *
+   * @param tableSchema                  schema of the table
+   * @param logicalType                  row type of the table
+   * @param descendingSortedFieldIndices columns stored in descending order
+   * @param kuduColumnProjections        columns projected by the scanner
+   * @param vectorDeclarations           block the vectors are declared in, ahead
+   *                                     of the loop over the rows
+   * @param batch                        the {@link ColumnarBatch}
+   * @param batchRow                     the index of the row in the batch
+   *
+   * @return the physical type
+   */
+  public static KuduPhysType forColumnarBatch(final Schema tableSchema, final RelDataType logicalType,
+      final List<Integer> descendingSortedFieldIndices, final List<Integer> kuduColumnProjections,
+      final BlockBuilder vectorDeclarations, final Expression batch, final ParameterExpression batchRow) {
+    final KuduPhysType physType = new KuduPhysType(tableSchema, logicalType, descendingSortedFieldIndices,
+        kuduColumnProjections, batchRow);
+    for (int field = 0; field < kuduColumnProjections.size(); field++) {
+      final int ord = kuduColumnProjections.get(field);
+      final ColumnSchema columnSchema = tableSchema.getColumnByIndex(ord);
+      final Class vectorClass = Array.newInstance(Primitive.unbox(physType.fieldClass(ord)), 0).getClass();
+      final ParameterExpression vector = Expressions.parameter(Modifier.FINAL, vectorClass, "vector" + field);
+      vectorDeclarations.add(Expressions.declare(Modifier.FINAL, vector,
+          Expressions.convert_(Expressions.call(batch, GET_VECTOR, Expressions.constant(field)), vectorClass)));
+      physType.vectors.put(ord, vector);
+      if (columnSchema.isNullable()) {
+        final ParameterExpression nulls = Expressions.parameter(Modifier.FINAL, long[].class, "nulls" + field);
+        vectorDeclarations.add(Expressions.declare(Modifier.FINAL, nulls,
+            Expressions.call(batch, GET_NULLS, Expressions.constant(field))));
+        physType.nullVectors.put(ord, nulls);
+      }
+    }
+    return physType;
   }
 
   @Override
@@ -151,10 +210,11 @@ public final class KuduPhysType implements PhysType {
     final ColumnSchema columnSchema = tableSchema.getColumns().get(ord);
 
     // This optional Expression is used to generate the max and min value for the
-    // data type.
+    // data type. Primitive where the arithmetic stays in the column's type, so it
+    // isn't boxed for every row.
     // These values are used to invert the value stored in Kudu for descending
     // ordered columns.
-    // (see MutationState.getColumnValue())
+    // (see RowEncoder)
     Expression descendingMaxValue = null;
 
     // This required Expression retrieves / fetches the raw value from the Kudu RPC.
@@ -167,49 +227,58 @@ public final class KuduPhysType implements PhysType {
     // Each type of ColumnSchema has a different method for the value.
     switch (columnSchema.getType()) {
     case INT8:
-      rawFetch = Expressions.call(expression, BYTE_METHOD, columnRef);
+      rawFetch = fetch(expression, BYTE_METHOD, ord, columnRef);
       descendingMaxValue = Expressions.constant(-1, Byte.class);
       break;
     case INT16:
-      rawFetch = Expressions.call(expression, SHORT_METHOD, columnRef);
+      rawFetch = fetch(expression, SHORT_METHOD, ord, columnRef);
       descendingMaxValue = Expressions.constant(-1, Short.class);
       break;
     case INT32:
-      rawFetch = Expressions.call(expression, INT_METHOD, columnRef);
-      descendingMaxValue = Expressions.constant(-1, Integer.class);
+      rawFetch = fetch(expression, INT_METHOD, ord, columnRef);
+      descendingMaxValue = Expressions.constant(-1, int.class);
       break;
     case INT64:
-      rawFetch = Expressions.call(expression, LONG_METHOD, columnRef);
-      descendingMaxValue = Expressions.constant(-1, Long.class);
+      rawFetch = fetch(expression, LONG_METHOD, ord, columnRef);
+      descendingMaxValue = Expressions.constant(-1L, long.class);
       break;
     case UNIXTIME_MICROS:
-      final Expression timestamp = Expressions.call(expression, TIMESTAMP_METHOD, columnRef);
-      final Expression instantObj = Expressions.call(timestamp, TO_INSTANT);
-      final Expression millis = Expressions.call(instantObj, TO_EPOCH_MS);
-      rawFetch = millis;
-      descendingMaxValue = Expressions.constant(CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MILLISECONDS, Long.class);
+      if (batchRow != null) {
+        // the vector already holds milliseconds
+        rawFetch = Expressions.arrayIndex(vectors.get(ord), batchRow);
+      } else {
+        // the raw microseconds rounded down to milliseconds, the same as
+        // RowResult#getTimestamp(int) without allocating a Timestamp
+        rawFetch = Expressions.call(FLOOR_DIV, Expressions.call(expression, LONG_METHOD, columnRef),
+            Expressions.constant(1000L));
+      }
+      descendingMaxValue = Expressions.constant(CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MILLISECONDS, long.class);
       break;
 
     case STRING:
-      rawFetch = Expressions.call(expression, STRING_METHOD, columnRef);
+      rawFetch = fetch(expression, STRING_METHOD, ord, columnRef);
       break;
     case BOOL:
-      rawFetch = Expressions.call(expression, BOOL_METHOD, columnRef);
+      rawFetch = fetch(expression, BOOL_METHOD, ord, columnRef);
       break;
     case FLOAT:
-      rawFetch = Expressions.call(expression, FLOAT_METHOD, columnRef);
+      rawFetch = fetch(expression, FLOAT_METHOD, ord, columnRef);
       break;
     case DOUBLE:
-      rawFetch = Expressions.call(expression, DOUBLE_METHOD, columnRef);
+      rawFetch = fetch(expression, DOUBLE_METHOD, ord, columnRef);
       break;
     case DECIMAL:
-      rawFetch = Expressions.call(expression, DECIMAL_METHOD, columnRef);
+      rawFetch = fetch(expression, DECIMAL_METHOD, ord, columnRef);
       break;
     case BINARY:
-      final Expression byteBuffer = Expressions.call(expression, BINARY_METHOD, columnRef);
-      // @TODO: is this buffer readOnly?
-      final Expression getArray = Expressions.call(byteBuffer, BYTE_ARRAY);
-      rawFetch = getArray;
+      if (batchRow != null) {
+        rawFetch = Expressions.arrayIndex(vectors.get(ord), batchRow);
+      } else {
+        // the field is a byte[], so the value is copied out of the batch's buffer
+        // once. RowResult#getBinary(int) wraps the whole buffer, its array() is not
+        // the value.
+        rawFetch = Expressions.call(expression, BINARY_COPY_METHOD, columnRef);
+      }
       break;
     default:
       throw new IllegalArgumentException("Unable to do the thing " + columnSchema.getType());
@@ -227,21 +296,32 @@ public final class KuduPhysType implements PhysType {
       fetchFromRowResult = rawFetch;
     }
 
-    // When a column is nullable, create a lambda that calls {@link
-    // RowResult#isNull(int)}
-    // and returns null if it that is true otherwise it calls the proper method on
-    // RowResult
-    // to get the value.
+    // When a column is nullable, a conditional that returns null if the column is
+    // null, otherwise the value boxed like the getters of a RowResult. For a
+    // ColumnarBatch the null check reads the column's null bitmap.
     if (columnSchema.isNullable()) {
-      final BlockBuilder functionBuilder = new BlockBuilder();
-      functionBuilder.add(Expressions.ifThenElse(Expressions.call(expression, IS_NULL, columnRef),
-          Expressions.return_(null, Expressions.constant(null)), Expressions.return_(null, fetchFromRowResult)));
-      return Expressions.call(Expressions.lambda(functionBuilder.toBlock()), "apply");
+      final Class fieldClass = fieldClass(ord);
+      final Expression isNull = batchRow != null
+          ? Expressions.call(ColumnarBatch.class, IS_NULL_IN_VECTOR.getName(), nullVectors.get(ord), batchRow)
+          : Expressions.call(expression, IS_NULL, columnRef);
+      return Expressions.condition(isNull, Expressions.constant(null, fieldClass),
+          EnumUtils.convert(fetchFromRowResult, fieldClass));
     } else {
       return fetchFromRowResult;
     }
   }
 
+  /**
+   * @return the call of a {@link RowResult} getter, or the element of the
+   *         column's vector for a {@link ColumnarBatch}
+   */
+  private Expression fetch(final Expression rowResult, final Method getter, final int ord, final Expression columnRef) {
+    if (batchRow != null) {
+      return Expressions.arrayIndex(vectors.get(ord), batchRow);
+    }
+    return Expressions.call(rowResult, getter, columnRef);
+  }
+
   @Override
   public Expression fieldReference(final Expression expression, final int ord, final Type storageType) {
     // @TODO: This probably should leverage storageType similar to
@@ -71,10 +71,16 @@ public interface KuduRelNode extends RelNode {
     // information required for executing a query
     public final List<Integer> kuduProjectedColumns = new ArrayList<>();
     public final List<List<CalciteKuduPredicate>> predicates = new ArrayList<>();
+    // primary key range every scan is limited to, in addition to its predicates
+    public final List<PrimaryKeyBound> primaryKeyBounds = new ArrayList<>();
     public long limit = -1;
     public long offset = -1;
     public boolean sorted = false;
     public boolean groupByLimited = false;
+    // aggregation each scanner computes over the rows it produces, the projection
+    // produces the rows of the aggregation's input row type
+    public PartialAggregation partialAggregation = null;
+    public RelDataType aggregateInputRowType = null;
 
     // information required for executing an update
     public List<Integer> columnIndexes;
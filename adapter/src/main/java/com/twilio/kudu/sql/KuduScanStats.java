@@ -32,6 +32,19 @@ public final class KuduScanStats {
 
   private AtomicLong scannerRpcCount = new AtomicLong(0L);
 
+  // high-water marks of the rows buffered between the scanners and the consumer,
+  // updated from ScannerCallback through the ScanBufferBudget
+  private AtomicLong maxBufferedBytes = new AtomicLong(0L);
+
+  private AtomicLong maxBufferedBatches = new AtomicLong(0L);
+
+  private AtomicLong deferredRpcCount = new AtomicLong(0L);
+
+  // time the scanners of this query waited in the ScanScheduler before starting
+  private AtomicLong scannerQueueWaitTimeMs = new AtomicLong(0L);
+
+  private AtomicLong maxScannerQueueWaitTimeMs = new AtomicLong(0L);
+
   private long timeToFirstRowMs = -1L;
 
   private long totalTimeMs = -1L;
@@ -42,6 +55,10 @@ public final class KuduScanStats {
 
   private List<ScannerMetrics> scannerMetricsList = Collections.emptyList();
 
+  // where the next page of a sorted query with a limit starts, null when there
+  // are no more rows
+  private PaginationCursor paginationCursor = null;
+
   public KuduScanStats() {
     this.startTime = System.currentTimeMillis();
   }
@@ -54,6 +71,20 @@ public final class KuduScanStats {
     this.scannerRpcCount.updateAndGet(current -> current + additionalRpcs);
   }
 
+  public void updateBufferHighWaterMarks(final long bufferedBytes, final long bufferedBatches) {
+    this.maxBufferedBytes.accumulateAndGet(bufferedBytes, Math::max);
+    this.maxBufferedBatches.accumulateAndGet(bufferedBatches, Math::max);
+  }
+
+  public void incrementDeferredRpcCount(final long additionalRpcs) {
+    this.deferredRpcCount.updateAndGet(current -> current + additionalRpcs);
+  }
+
+  public void recordScannerQueueWait(final long waitTimeMs) {
+    this.scannerQueueWaitTimeMs.addAndGet(waitTimeMs);
+    this.maxScannerQueueWaitTimeMs.accumulateAndGet(waitTimeMs, Math::max);
+  }
+
   public void setTimeToFirstRowMs() {
     this.timeToFirstRowMs = System.currentTimeMillis() - this.startTime;
   }
@@ -67,6 +98,10 @@ public final class KuduScanStats {
     this.scannerMetricsList = scannerMetricsList;
   }
 
+  public void setPaginationCursor(final PaginationCursor paginationCursor) {
+    this.paginationCursor = paginationCursor;
+  }
+
   public List<ScannerMetrics> getScannerMetricsList() {
     return scannerMetricsList;
   }
@@ -79,6 +114,26 @@ public final class KuduScanStats {
     return this.scannerRpcCount.longValue();
   }
 
+  public long getMaxBufferedBytes() {
+    return this.maxBufferedBytes.longValue();
+  }
+
+  public long getMaxBufferedBatches() {
+    return this.maxBufferedBatches.longValue();
+  }
+
+  public long getDeferredRpcCount() {
+    return this.deferredRpcCount.longValue();
+  }
+
+  public long getScannerQueueWaitTimeMs() {
+    return this.scannerQueueWaitTimeMs.longValue();
+  }
+
+  public long getMaxScannerQueueWaitTimeMs() {
+    return this.maxScannerQueueWaitTimeMs.longValue();
+  }
+
   public long getTimeToFirstRowMs() {
     return this.timeToFirstRowMs;
   }
@@ -91,4 +146,12 @@ public final class KuduScanStats {
     return scannerCount;
   }
 
+  /**
+   * @return the cursor to pass to the query for the next page, null if the query
+   *         isn't sorted, has no limit or returned the last row
+   */
+  public PaginationCursor getPaginationCursor() {
+    return paginationCursor;
+  }
+
 }
@@ -18,135 +18,194 @@ package org.apache.kudu.client;
 // AbstractKuduScannerBuilder.lowerBoundPartitionKeyRaw and
 // AbstractKuduScannerBuilder.exclusiveUpperBoundPartitionKeyRaw
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
+import com.stumbleupon.async.Deferred;
 
 import org.apache.kudu.ColumnSchema;
-import org.apache.kudu.Common;
-import org.apache.kudu.client.Client.ScanTokenPB;
-import org.apache.kudu.shaded.com.google.protobuf.CodedInputStream;
+import org.apache.kudu.Schema;
+import org.apache.kudu.util.Pair;
 
 public class KuduScannerUtil {
 
   /**
-   * Deserializes a {@code KuduScanToken} into a {@link AsyncKuduScanner}.
-   * 
-   * @param buf    a byte array containing the serialized scan token.
-   * @param client a async Kudu client for the cluster
-   * @param table  table that we are scanning against.
-   * @return a async scanner for the serialized scan token
+   * Returns the predicates of a scan that decide which partitions it reads, the
+   * predicates on hash and range partition columns.
+   *
+   * @param builder builder with the predicates of the scan
+   * @return the predicates or empty if the predicates can't match any row
    */
-  public static AsyncKuduScanner deserializeIntoAsyncScanner(byte[] buf, AsyncKuduClient client, KuduTable table)
-      throws IOException {
-    return pbIntoAsyncScanner(ScanTokenPB.parseFrom(CodedInputStream.newInstance(buf)), client, table);
-  }
-
-  private static AsyncKuduScanner pbIntoAsyncScanner(ScanTokenPB message, AsyncKuduClient client, KuduTable table) {
-    Preconditions.checkArgument(!message.getFeatureFlagsList().contains(ScanTokenPB.Feature.Unknown),
-        "Scan token requires an unsupported feature. This Kudu client must be updated.");
-
-    AsyncKuduScanner.AsyncKuduScannerBuilder builder = client.newScannerBuilder(table);
-    populateBuilder(client, message, builder, table);
-    return builder.build();
-  }
+  public static Optional<Set<KuduPredicate>> partitionPredicates(final AbstractKuduScannerBuilder<?, ?> builder) {
+    final Schema schema = builder.table.getSchema();
+    final PartitionSchema partitionSchema = builder.table.getPartitionSchema();
+    final Set<String> partitionColumns = new HashSet<>();
+    final List<Integer> columnIds = new ArrayList<>(partitionSchema.getRangeSchema().getColumnIds());
+    for (PartitionSchema.HashBucketSchema hashBucketSchema : partitionSchema.getHashBucketSchemas()) {
+      columnIds.addAll(hashBucketSchema.getColumnIds());
+    }
+    for (Integer columnId : columnIds) {
+      partitionColumns.add(schema.getColumnByIndex(schema.getColumnIndex(columnId)).getName());
+    }
 
-  private static void populateBuilder(AsyncKuduClient client, ScanTokenPB message, AbstractKuduScannerBuilder builder,
-      KuduTable table) {
-    List<Integer> columns = new ArrayList<>(message.getProjectedColumnsCount());
-    for (Common.ColumnSchemaPB column : message.getProjectedColumnsList()) {
-      int columnIdx = table.getSchema().getColumnIndex(column.getName());
-      ColumnSchema schema = table.getSchema().getColumnByIndex(columnIdx);
-      if (column.getType() != schema.getType().getDataType(schema.getTypeAttributes())) {
-        throw new IllegalStateException(String.format("invalid type %s for column '%s' in scan token, expected: %s",
-            column.getType().name(), column.getName(), schema.getType().name()));
+    final Set<KuduPredicate> predicates = new HashSet<>();
+    for (KuduPredicate predicate : builder.predicates.values()) {
+      if (predicate.getType() == KuduPredicate.PredicateType.NONE) {
+        return Optional.empty();
       }
-      if (column.getIsNullable() != schema.isNullable()) {
-        throw new IllegalStateException(String.format("invalid nullability for column '%s' in scan token, expected: %s",
-            column.getName(), column.getIsNullable() ? "NULLABLE" : "NOT NULL"));
-
+      if (partitionColumns.contains(predicate.getColumn().getName())) {
+        predicates.add(predicate);
       }
-
-      columns.add(columnIdx);
-    }
-    builder.setProjectedColumnIndexes(columns);
-
-    for (Common.ColumnPredicatePB pred : message.getColumnPredicatesList()) {
-      builder.addPredicate(KuduPredicate.fromPB(table.getSchema(), pred));
     }
+    return Optional.of(predicates);
+  }
 
-    if (message.hasLowerBoundPrimaryKey()) {
-      builder.lowerBoundRaw(message.getLowerBoundPrimaryKey().toByteArray());
-    }
-    if (message.hasUpperBoundPrimaryKey()) {
-      builder.exclusiveUpperBoundRaw(message.getUpperBoundPrimaryKey().toByteArray());
+  /**
+   * Prunes the partitions a scan can't match the same way
+   * {@link KuduScanToken.KuduScanTokenBuilder#build()} does. The ranges only
+   * depend on the partition schema and the predicates, not on which range
+   * partitions exist.
+   *
+   * @param builder builder with the predicates of the scan, it is not modified
+   * @return the partition key ranges the scan needs to read, empty keys mark
+   *         unbounded ranges
+   */
+  public static List<Pair<byte[], byte[]>> partitionKeyRanges(final AbstractKuduScannerBuilder<?, ?> builder) {
+    final PartitionPruner pruner = PartitionPruner.create(builder);
+    final List<Pair<byte[], byte[]>> ranges = new ArrayList<>();
+    while (pruner.hasMorePartitionKeyRanges()) {
+      final Pair<byte[], byte[]> range = pruner.nextPartitionKeyRange();
+      ranges.add(range);
+      pruner.removePartitionKeyRange(range.getSecond());
     }
+    return ranges;
+  }
 
-    if (message.hasLowerBoundPartitionKey()) {
-      builder.lowerBoundPartitionKeyRaw(message.getLowerBoundPartitionKey().toByteArray());
-    }
-    if (message.hasUpperBoundPartitionKey()) {
-      builder.exclusiveUpperBoundPartitionKeyRaw(message.getUpperBoundPartitionKey().toByteArray());
+  /**
+   * Finds the tablets covering partition key ranges without building scan tokens.
+   * Every range is looked up at once and none of the lookups block.
+   *
+   * @param client    client used to look up the tablets
+   * @param table     table that we are scanning against
+   * @param ranges    partition key ranges from {@link #partitionKeyRanges}
+   * @param timeoutMs how long the tablet lookups may take
+   * @return the tablets to scan ordered by partition key, each tablet is returned
+   *         once
+   */
+  public static Deferred<List<LocatedTablet>> locateTablets(final AsyncKuduClient client, final KuduTable table,
+      final List<Pair<byte[], byte[]>> ranges, final long timeoutMs) {
+    if (ranges.isEmpty()) {
+      return Deferred.<List<LocatedTablet>>fromResult(new ArrayList<>());
     }
-
-    if (message.hasLimit()) {
-      builder.limit(message.getLimit());
+    final List<Deferred<List<LocatedTablet>>> lookups = new ArrayList<>(ranges.size());
+    for (Pair<byte[], byte[]> range : ranges) {
+      // the pruner uses empty keys for unbounded ranges, locateTable expects null
+      final byte[] start = range.getFirst().length == 0 ? null : range.getFirst();
+      final byte[] end = range.getSecond().length == 0 ? null : range.getSecond();
+      lookups.add(client.locateTable(table, start, end, AsyncKuduClient.FETCH_TABLETS_PER_RANGE_LOOKUP, timeoutMs));
     }
-
-    if (message.hasReadMode()) {
-      switch (message.getReadMode()) {
-      case READ_AT_SNAPSHOT: {
-        builder.readMode(AsyncKuduScanner.ReadMode.READ_AT_SNAPSHOT);
-        if (message.hasSnapTimestamp()) {
-          builder.snapshotTimestampRaw(message.getSnapTimestamp());
+    return Deferred.group(lookups).<List<LocatedTablet>>addCallback(rangeTablets -> {
+      // A tablet that spans more than one range is returned by each lookup
+      final Map<ByteBuffer, LocatedTablet> tablets = new LinkedHashMap<>();
+      for (List<LocatedTablet> located : rangeTablets) {
+        for (LocatedTablet tablet : located) {
+          tablets.putIfAbsent(ByteBuffer.wrap(tablet.getTabletId()), tablet);
         }
-        break;
-      }
-      case READ_LATEST: {
-        builder.readMode(AsyncKuduScanner.ReadMode.READ_LATEST);
-        break;
       }
-      case READ_YOUR_WRITES: {
-        builder.readMode(AsyncKuduScanner.ReadMode.READ_YOUR_WRITES);
-        break;
-      }
-      default:
-        throw new IllegalArgumentException("unknown read mode");
-      }
-    }
+      return new ArrayList<>(tablets.values());
+    });
+  }
 
-    if (message.hasReplicaSelection()) {
-      switch (message.getReplicaSelection()) {
-      case LEADER_ONLY: {
-        builder.replicaSelection(ReplicaSelection.LEADER_ONLY);
-        break;
-      }
-      case CLOSEST_REPLICA: {
-        builder.replicaSelection(ReplicaSelection.CLOSEST_REPLICA);
-        break;
-      }
-      default:
-        throw new IllegalArgumentException("unknown replica selection policy");
-      }
-    }
+  /**
+   * Restricts a scan to a single tablet.
+   *
+   * @param builder builder of the scan
+   * @param tablet  tablet returned by {@link #locateTablets}
+   * @return the builder
+   */
+  public static AsyncKuduScanner.AsyncKuduScannerBuilder scanTablet(
+      final AsyncKuduScanner.AsyncKuduScannerBuilder builder, final LocatedTablet tablet) {
+    return builder.lowerBoundPartitionKeyRaw(tablet.getPartition().getPartitionKeyStart())
+        .exclusiveUpperBoundPartitionKeyRaw(tablet.getPartition().getPartitionKeyEnd());
+  }
 
-    if (message.hasPropagatedTimestamp() && message.getPropagatedTimestamp() != AsyncKuduClient.NO_TIMESTAMP) {
-      client.updateLastPropagatedTimestamp(message.getPropagatedTimestamp());
+  /**
+   * Encodes the primary key of a row the same way Kudu orders rows within a
+   * tablet.
+   *
+   * @param schema schema of the table
+   * @param row    row that includes every primary key column
+   * @return the encoded primary key
+   */
+  public static byte[] encodePrimaryKey(final Schema schema, final RowResult row) {
+    final PartialRow primaryKey = schema.newPartialRow();
+    for (ColumnSchema column : schema.getPrimaryKeyColumns()) {
+      primaryKey.addObject(column.getName(), row.getObject(column.getName()));
     }
+    return primaryKey.encodePrimaryKey();
+  }
 
-    if (message.hasCacheBlocks()) {
-      builder.cacheBlocks(message.getCacheBlocks());
-    }
+  /**
+   * Smallest primary key greater than {@code primaryKey}. Kudu only supports an
+   * inclusive lower bound, so this is the bound of a scan that resumes after a
+   * key.
+   *
+   * @param schema     schema of the table
+   * @param primaryKey key from {@link #encodePrimaryKey}
+   * @return the encoded key, null if no key sorts after {@code primaryKey}
+   */
+  public static byte[] primaryKeySuccessor(final Schema schema, final byte[] primaryKey) {
+    final PartialRow successor = KeyEncoder.decodePrimaryKey(schema, primaryKey);
+    return incrementPrefix(successor, schema.getPrimaryKeyColumnCount());
+  }
 
-    if (message.hasFaultTolerant()) {
-      builder.setFaultTolerant(message.getFaultTolerant());
+  /**
+   * Encodes the bound of the keys that start with the first {@code prefixLength}
+   * primary key columns of {@code prefix}.
+   *
+   * @param prefix       row with the values of the first {@code prefixLength}
+   *                     primary key columns
+   * @param prefixLength number of primary key columns that are set
+   * @param afterPrefix  true for the smallest key greater than every key with the
+   *                     prefix, false for the smallest key with the prefix
+   * @return the encoded key, null if {@code afterPrefix} and no key sorts after
+   *         the prefix
+   */
+  public static byte[] primaryKeyPrefixBound(final PartialRow prefix, final int prefixLength,
+      final boolean afterPrefix) {
+    final int primaryKeyColumnCount = prefix.getSchema().getPrimaryKeyColumnCount();
+    Preconditions.checkArgument(prefixLength <= primaryKeyColumnCount, "Prefix is longer than the primary key");
+    for (int i = prefixLength; i < primaryKeyColumnCount; i++) {
+      prefix.setMin(i);
     }
+    return afterPrefix ? incrementPrefix(prefix, prefixLength) : prefix.encodePrimaryKey();
+  }
 
-    if (message.hasBatchSizeBytes()) {
-      builder.batchSizeBytes(message.getBatchSizeBytes());
+  private static byte[] incrementPrefix(final PartialRow row, final int prefixLength) {
+    for (int i = prefixLength - 1; i >= 0; i--) {
+      if (row.incrementColumn(i)) {
+        return row.encodePrimaryKey();
+      }
+      // the column overflowed, carry into the previous one
+      row.setMin(i);
     }
+    return null;
+  }
+
+  /**
+   * @param scanner a scanner that has received a response
+   * @return the raw snapshot timestamp the scanner is reading at or
+   *         {@link AsyncKuduClient#NO_TIMESTAMP} if it hasn't been chosen
+   */
+  public static long snapshotTimestamp(final AsyncKuduScanner scanner) {
+    return scanner.getSnapshotTimestamp();
   }
 
 }
@@ -0,0 +1,61 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.List;
+
+/**
+ * The parameter values of every row of a {@link java.sql.PreparedStatement}
+ * batch. It is handed to the execution of the statement that writes the batch
+ * through the {@link org.apache.calcite.DataContext} as
+ * {@link #DATA_CONTEXT_NAME}, so an INSERT into a Kudu table can write all of
+ * the rows at once.
+ */
+public final class KuduStatementBatch {
+
+  /**
+   * Name of the {@link org.apache.calcite.DataContext} variable holding the batch
+   * of the statement being executed
+   */
+  public static final String DATA_CONTEXT_NAME = "kuduStatementBatch";
+
+  private final List<Object[]> rows;
+  private boolean written = false;
+
+  /**
+   * @param rows the parameter values of each row
+   */
+  public KuduStatementBatch(final List<Object[]> rows) {
+    this.rows = rows;
+  }
+
+  /**
+   * Called by the mutation that writes every row of the batch
+   *
+   * @return the parameter values of each row
+   */
+  public List<Object[]> write() {
+    written = true;
+    return rows;
+  }
+
+  /**
+   * @return true if the execution wrote every row of the batch, false if it only
+   *         used the parameter values of the first row
+   */
+  public boolean isWritten() {
+    return written;
+  }
+}
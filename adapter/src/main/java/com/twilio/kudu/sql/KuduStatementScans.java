@@ -0,0 +1,125 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The pagination cursors a JDBC statement resumes its scans from and the
+ * {@link KuduScanStats} of the scans of its last execution. It is handed to
+ * every scan of the statement through the
+ * {@link org.apache.calcite.DataContext} as {@link #DATA_CONTEXT_NAME}, so the
+ * scans of a join or a union each find the cursor of their own table.
+ */
+public final class KuduStatementScans {
+
+  /**
+   * Name of the {@link org.apache.calcite.DataContext} variable holding the scans
+   * of the statement being executed
+   */
+  public static final String DATA_CONTEXT_NAME = "kuduStatementScans";
+
+  // cursor each table resumes from, keyed by Kudu table id
+  private final Map<String, PaginationCursor> paginationCursors = new HashMap<>();
+
+  // stats of every scan of the last execution
+  private final List<KuduScanStats> scanStats = new ArrayList<>();
+
+  /**
+   * Resumes the sorted scan of the cursor's table after the last row of a
+   * previous page, rather than paging with {@code OFFSET}. The cursor applies to
+   * every execution of the statement until it is replaced or cleared. The query
+   * needs the same filters and sort as the one that returned the cursor.
+   *
+   * @param cursor cursor from {@link #getNextPaginationCursor()}, null to start
+   *               every table from its first page
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  public synchronized void setPaginationCursor(final String cursor) {
+    if (cursor == null) {
+      paginationCursors.clear();
+      return;
+    }
+    final PaginationCursor paginationCursor = PaginationCursor.decode(cursor);
+    paginationCursors.put(paginationCursor.getTableId(), paginationCursor);
+  }
+
+  /**
+   * @param tableId id of the Kudu table that is scanned
+   *
+   * @return the cursor the scans of the table resume from, null if there isn't
+   *         one
+   */
+  public synchronized PaginationCursor getPaginationCursor(final String tableId) {
+    return paginationCursors.get(tableId);
+  }
+
+  /**
+   * Forgets the scans of the previous execution, called before the statement is
+   * executed.
+   */
+  public synchronized void clearScanStats() {
+    scanStats.clear();
+  }
+
+  /**
+   * Records a scan of the current execution
+   *
+   * @param stats stats the scan collects
+   */
+  public synchronized void addScanStats(final KuduScanStats stats) {
+    // the inner scan of a nested join runs once per batch with the same stats
+    for (KuduScanStats existing : scanStats) {
+      if (existing == stats) {
+        return;
+      }
+    }
+    scanStats.add(stats);
+  }
+
+  /**
+   * @return the stats of every scan of the last execution
+   */
+  public synchronized List<KuduScanStats> getScanStats() {
+    return Collections.unmodifiableList(new ArrayList<>(scanStats));
+  }
+
+  /**
+   * Cursor of the page after the last execution, a sorted query with a
+   * {@code LIMIT}. It is available once the result set has been read past its
+   * last row.
+   *
+   * @return the opaque cursor or null if the query returned its last row
+   * @throws IllegalStateException if more than one scan of the execution stopped
+   *                               at its limit
+   */
+  public synchronized String getNextPaginationCursor() {
+    PaginationCursor nextCursor = null;
+    for (KuduScanStats stats : scanStats) {
+      if (stats.getPaginationCursor() == null) {
+        continue;
+      }
+      if (nextCursor != null) {
+        throw new IllegalStateException("More than one scan of the statement returned a pagination cursor");
+      }
+      nextCursor = stats.getPaginationCursor();
+    }
+    return nextCursor == null ? null : nextCursor.encode();
+  }
+}
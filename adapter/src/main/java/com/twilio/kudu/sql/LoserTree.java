@@ -0,0 +1,117 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.calcite.linq4j.Enumerator;
+
+/**
+ * Tournament tree that merges k sorted {@link Enumerator}s. Every internal node
+ * stores the loser of the match played there, the overall winner is kept
+ * separately. After the winner is consumed only the path from its leaf to the
+ * root is replayed, so producing a row costs O(log k) comparisons instead of
+ * the O(k) needed to compare the head of every source.
+ *
+ * Ties are won by the source with the lower index, exhausted sources lose every
+ * match.
+ *
+ * @param <T> type of the element produced by the sources
+ */
+public final class LoserTree<T> {
+  private final List<Enumerator<T>> sources;
+  private final Comparator<? super T> comparator;
+  private final int size;
+  // current element of each source, null once the source is exhausted
+  private final Object[] heads;
+  // tree[0] is the winner, tree[1 .. size - 1] hold the losers. Leaf i sits at
+  // position size + i
+  private final int[] tree;
+
+  /**
+   * Create the tree, calling {@link Enumerator#moveNext()} once on every source.
+   *
+   * @param sources    sorted enumerators to merge, must not be empty
+   * @param comparator the order the sources are sorted in
+   */
+  public LoserTree(final List<Enumerator<T>> sources, final Comparator<? super T> comparator) {
+    if (sources.isEmpty()) {
+      throw new IllegalArgumentException("LoserTree requires at least one source");
+    }
+    this.sources = sources;
+    this.comparator = comparator;
+    this.size = sources.size();
+    this.heads = new Object[size];
+    this.tree = new int[size];
+    for (int idx = 0; idx < size; idx++) {
+      heads[idx] = sources.get(idx).moveNext() ? sources.get(idx).current() : null;
+    }
+    tree[0] = playMatches(1);
+  }
+
+  /**
+   * @return the smallest element across all the sources, or null if every source
+   *         is exhausted
+   */
+  @SuppressWarnings("unchecked")
+  public T winner() {
+    return (T) heads[tree[0]];
+  }
+
+  /**
+   * Move the source of the current {@link #winner()} forward and replay the
+   * matches on the path from its leaf to the root.
+   */
+  public void advanceWinner() {
+    int winner = tree[0];
+    final Enumerator<T> source = sources.get(winner);
+    heads[winner] = source.moveNext() ? source.current() : null;
+    for (int node = (winner + size) >>> 1; node > 0; node >>>= 1) {
+      if (beats(tree[node], winner)) {
+        final int loser = winner;
+        winner = tree[node];
+        tree[node] = loser;
+      }
+    }
+    tree[0] = winner;
+  }
+
+  private int playMatches(final int node) {
+    if (node >= size) {
+      return node - size;
+    }
+    final int left = playMatches(2 * node);
+    final int right = playMatches(2 * node + 1);
+    if (beats(left, right)) {
+      tree[node] = right;
+      return left;
+    }
+    tree[node] = left;
+    return right;
+  }
+
+  @SuppressWarnings("unchecked")
+  private boolean beats(final int first, final int second) {
+    if (heads[first] == null) {
+      return false;
+    }
+    if (heads[second] == null) {
+      return true;
+    }
+    final int cmp = comparator.compare((T) heads[first], (T) heads[second]);
+    return cmp < 0 || (cmp == 0 && first < second);
+  }
+}
@@ -0,0 +1,161 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free, multi-producer / single-consumer ring buffer used to hand
+ * {@link CalciteScannerMessage}s from {@link ScannerCallback}s, running on Kudu
+ * I/O threads, to the single thread enumerating the query.
+ *
+ * Producers claim a slot with a CAS on the tail and publish it by advancing the
+ * slot's sequence number. The consumer never polls on a timer, when the buffer
+ * is empty it parks and the producer that publishes the next message unparks
+ * it.
+ *
+ * The buffer has to be sized for the maximum number of messages that can be
+ * outstanding. {@link KuduEnumerable} sizes it as the number of scanners times
+ * {@link ScannerCallback#maxOutstandingMessages(int)}. A producer that finds
+ * the buffer full yields until the consumer frees a slot.
+ *
+ * @param <E> type of the element in the buffer
+ */
+public final class MpscRingBuffer<E> {
+  private final Object[] buffer;
+  // sequence number of each slot. A slot is free for the producer claiming
+  // position p when its sequence is p, and holds a message for the consumer at
+  // position p when its sequence is p + 1.
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong(0L);
+
+  // only accessed by the consumer
+  private long head = 0L;
+
+  // consumer thread while it is parked waiting for a message
+  private volatile Thread waiter = null;
+
+  /**
+   * Create a ring buffer that can hold at least {@code minimumCapacity} elements.
+   * Capacity is rounded up to a power of two.
+   *
+   * @param minimumCapacity minimum number of elements the buffer can hold
+   */
+  public MpscRingBuffer(final int minimumCapacity) {
+    if (minimumCapacity < 1 || minimumCapacity > (1 << 30)) {
+      throw new IllegalArgumentException("Capacity must be between 1 and 2^30, was " + minimumCapacity);
+    }
+    final int capacity = minimumCapacity == 1 ? 1 : Integer.highestOneBit(minimumCapacity - 1) << 1;
+    this.buffer = new Object[capacity];
+    this.sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * Add an element to the buffer. Safe to call from any number of threads. Yields
+   * while the buffer is full.
+   *
+   * @param element the element to add, must be nonNull
+   */
+  public void put(final E element) {
+    Objects.requireNonNull(element);
+    long position;
+    int index;
+    while (true) {
+      position = tail.get();
+      index = (int) position & mask;
+      final long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          break;
+        }
+      } else if (difference < 0) {
+        // The buffer is full, wait for the consumer to free the slot.
+        Thread.yield();
+      }
+      // Otherwise another producer claimed the position, try the next one.
+    }
+    buffer[index] = element;
+    sequences.set(index, position + 1);
+
+    final Thread parked = waiter;
+    if (parked != null) {
+      LockSupport.unpark(parked);
+    }
+  }
+
+  /**
+   * Remove the next element without waiting. Must only be called by the consumer
+   * thread.
+   *
+   * @return the next element or null if the buffer is empty
+   */
+  @SuppressWarnings("unchecked")
+  public E poll() {
+    final int index = (int) head & mask;
+    if (sequences.get(index) != head + 1) {
+      return null;
+    }
+    final E element = (E) buffer[index];
+    buffer[index] = null;
+    sequences.lazySet(index, head + buffer.length);
+    head++;
+    return element;
+  }
+
+  /**
+   * Remove the next element, parking the calling thread until a producer
+   * publishes one. Must only be called by the consumer thread.
+   *
+   * @return the next element
+   *
+   * @throws InterruptedException if the consumer thread is interrupted while
+   *                              waiting
+   */
+  public E take() throws InterruptedException {
+    E element = poll();
+    if (element != null) {
+      return element;
+    }
+    waiter = Thread.currentThread();
+    try {
+      // waiter is published before checking the buffer again, so a producer either
+      // sees the waiter and unparks it or the consumer sees the element.
+      while ((element = poll()) == null) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException("Interrupted while waiting for scanner messages");
+        }
+        LockSupport.park(this);
+      }
+    } finally {
+      waiter = null;
+    }
+    return element;
+  }
+
+  /**
+   * @return number of elements the buffer can hold
+   */
+  public int capacity() {
+    return buffer.length;
+  }
+}
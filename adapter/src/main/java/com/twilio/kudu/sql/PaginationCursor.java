@@ -0,0 +1,160 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Position of a sorted query after one page of rows. It holds the encoded
+ * primary key of the last row returned and the snapshot timestamp each tablet
+ * was read at. The next page scans every tablet from just after that key at the
+ * same snapshot, instead of reading and skipping an {@code OFFSET} worth of
+ * rows.
+ *
+ * The cursor is handed to clients as an opaque string, see {@link #encode()}
+ * and {@link #decode(String)}.
+ */
+public final class PaginationCursor {
+
+  private static final byte VERSION = 1;
+
+  private final String tableId;
+  private final byte[] primaryKey;
+  // tablet id to the raw hybrid time the tablet was scanned at
+  private final Map<String, Long> snapshotTimestamps;
+
+  /**
+   * @param tableId            id of the Kudu table the page was read from
+   * @param primaryKey         encoded primary key of the last row of the page
+   * @param snapshotTimestamps raw snapshot timestamp of every tablet that was
+   *                           scanned, keyed by tablet id
+   */
+  public PaginationCursor(final String tableId, final byte[] primaryKey, final Map<String, Long> snapshotTimestamps) {
+    this.tableId = tableId;
+    this.primaryKey = primaryKey;
+    this.snapshotTimestamps = Collections.unmodifiableMap(new LinkedHashMap<>(snapshotTimestamps));
+  }
+
+  public String getTableId() {
+    return tableId;
+  }
+
+  public byte[] getPrimaryKey() {
+    return primaryKey;
+  }
+
+  public Map<String, Long> getSnapshotTimestamps() {
+    return snapshotTimestamps;
+  }
+
+  /**
+   * Snapshot timestamp a tablet should be read at. Tablets the previous page
+   * didn't scan, for instance the tablets of a range partition that was added
+   * since, are read at the newest timestamp of the cursor.
+   *
+   * @param tabletId id of the tablet
+   * @return the raw timestamp or {@link Long#MIN_VALUE} if the cursor has none
+   */
+  public long getSnapshotTimestamp(final String tabletId) {
+    final Long snapshotTimestamp = snapshotTimestamps.get(tabletId);
+    if (snapshotTimestamp != null) {
+      return snapshotTimestamp;
+    }
+    return snapshotTimestamps.values().stream().mapToLong(Long::longValue).max().orElse(Long.MIN_VALUE);
+  }
+
+  /**
+   * @return the cursor as a URL safe string
+   */
+  public String encode() {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(VERSION);
+      out.writeUTF(tableId);
+      out.writeInt(primaryKey.length);
+      out.write(primaryKey);
+      out.writeInt(snapshotTimestamps.size());
+      for (Map.Entry<String, Long> snapshotTimestamp : snapshotTimestamps.entrySet()) {
+        out.writeUTF(snapshotTimestamp.getKey());
+        out.writeLong(snapshotTimestamp.getValue());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to encode pagination cursor", e);
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+  }
+
+  /**
+   * Parses a cursor returned by {@link #encode()}.
+   *
+   * @param cursor the encoded cursor
+   * @return the cursor
+   * @throws IllegalArgumentException if the string isn't a cursor
+   */
+  public static PaginationCursor decode(final String cursor) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+      final byte version = in.readByte();
+      if (version != VERSION) {
+        throw new IllegalArgumentException("Unsupported pagination cursor version " + version);
+      }
+      final String tableId = in.readUTF();
+      final byte[] primaryKey = new byte[in.readInt()];
+      in.readFully(primaryKey);
+      final int tabletCount = in.readInt();
+      final Map<String, Long> snapshotTimestamps = new LinkedHashMap<>();
+      for (int i = 0; i < tabletCount; i++) {
+        snapshotTimestamps.put(in.readUTF(), in.readLong());
+      }
+      if (in.available() != 0) {
+        throw new IllegalArgumentException("Pagination cursor has trailing bytes");
+      }
+      return new PaginationCursor(tableId, primaryKey, snapshotTimestamps);
+    } catch (IOException | NegativeArraySizeException e) {
+      throw new IllegalArgumentException("Invalid pagination cursor " + cursor, e);
+    }
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PaginationCursor)) {
+      return false;
+    }
+    final PaginationCursor other = (PaginationCursor) o;
+    return tableId.equals(other.tableId) && Arrays.equals(primaryKey, other.primaryKey)
+        && snapshotTimestamps.equals(other.snapshotTimestamps);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * (31 * tableId.hashCode() + Arrays.hashCode(primaryKey)) + snapshotTimestamps.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return encode();
+  }
+}
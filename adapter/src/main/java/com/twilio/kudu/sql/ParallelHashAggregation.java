@@ -0,0 +1,521 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.function.Function0;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.function.Function2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hash aggregation that spreads the groups of a query across worker threads.
+ * The thread reading the rows computes the group key of each row and hands the
+ * row to the worker that owns the key's hash partition. Every group is
+ * accumulated by a single worker, so the accumulators never need to be merged
+ * and the result is the results of every worker concatenated.
+ *
+ * The worker threads are shared by every query in the JVM and there is one per
+ * core, but at least two. A query only uses the workers that are idle when it
+ * starts, up to its parallelism, so every worker it hands rows to is running
+ * and concurrent queries never add threads. If fewer than two workers are idle
+ * the calling thread aggregates the rows itself.
+ *
+ * Workers keep their groups in open addressing tables. Integer and long keys
+ * are stored unboxed in a {@code long[]}, other keys (strings and the lists of
+ * multiple group keys) are stored with their hash, which is compared before
+ * calling {@code equals}.
+ *
+ * @param <TKey>        group key
+ * @param <TAccumulate> accumulator of a group
+ * @param <TResult>     result row of a group
+ */
+public final class ParallelHashAggregation<TKey, TAccumulate, TResult> {
+
+  /**
+   * Number of rows handed to a worker at once. Inputs that fit in a single batch
+   * are aggregated by the calling thread.
+   */
+  public static final int BATCH_SIZE = 1024;
+
+  // batches queued for a worker before the thread reading the rows waits for it
+  private static final int QUEUED_BATCHES_PER_WORKER = 4;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  static final int WORKER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  // shared by every query in the JVM, threads are only busy while a query is
+  // aggregating
+  private static final ExecutorService WORKERS = Executors.newFixedThreadPool(WORKER_THREADS, runnable -> {
+    final Thread thread = new Thread(runnable, "kudu-aggregation-" + THREAD_COUNT.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // workers that aren't used by a query
+  private static final Semaphore IDLE_WORKERS = new Semaphore(WORKER_THREADS);
+
+  private final Function1<Object, TKey> keySelector;
+  private final Function0<TAccumulate> accumulatorInitializer;
+  private final Function2<TAccumulate, Object, TAccumulate> accumulatorAdder;
+  private final Function2<TKey, TAccumulate, TResult> resultSelector;
+  private final int parallelism;
+
+  // queued after the last batch of a worker
+  private final Batch end = new Batch(0);
+
+  /**
+   * @param keySelector            computes the group key of a row
+   * @param accumulatorInitializer creates the accumulator of a new group
+   * @param accumulatorAdder       adds a row to the accumulator of its group
+   * @param resultSelector         computes the result of a group
+   * @param parallelism            maximum number of worker threads
+   */
+  public ParallelHashAggregation(final Function1<Object, TKey> keySelector,
+      final Function0<TAccumulate> accumulatorInitializer,
+      final Function2<TAccumulate, Object, TAccumulate> accumulatorAdder,
+      final Function2<TKey, TAccumulate, TResult> resultSelector, final int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Aggregation parallelism must be positive, it was " + parallelism);
+    }
+    this.keySelector = keySelector;
+    this.accumulatorInitializer = accumulatorInitializer;
+    this.accumulatorAdder = accumulatorAdder;
+    this.resultSelector = resultSelector;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Aggregates every row of the enumerator. The caller remains responsible for
+   * closing it.
+   *
+   * @param rows rows to aggregate
+   *
+   * @return the result of every group, in no particular order
+   */
+  public List<TResult> aggregate(final Enumerator<Object> rows) {
+    final Batch first = new Batch(BATCH_SIZE);
+    boolean more = true;
+    while (first.size < BATCH_SIZE && (more = rows.moveNext())) {
+      first.add(rows.current());
+    }
+    final int workerCount = more && parallelism > 1 ? acquireWorkers() : 0;
+    if (workerCount < 2) {
+      IDLE_WORKERS.release(workerCount);
+      final Groups groups = new Groups();
+      groups.addAll(first);
+      while (more && rows.moveNext()) {
+        final Object row = rows.current();
+        final TKey key = keySelector.apply(row);
+        groups.add(key, hash(key), row);
+      }
+      return groups.results();
+    }
+
+    final List<Worker> workers = new ArrayList<>(workerCount);
+    for (int i = 0; i < workerCount; i++) {
+      workers.add(new Worker());
+    }
+    boolean finished = false;
+    try {
+      for (Worker worker : workers) {
+        worker.future = WORKERS.submit(worker);
+      }
+      for (int i = 0; i < first.size; i++) {
+        dispatch(workers, (TKey) first.keys[i], first.hashes[i], first.rows[i]);
+      }
+      while (rows.moveNext()) {
+        final Object row = rows.current();
+        final TKey key = keySelector.apply(row);
+        dispatch(workers, key, hash(key), row);
+      }
+      for (Worker worker : workers) {
+        if (worker.pending.size > 0) {
+          worker.hand(worker.pending);
+        }
+        worker.hand(end);
+      }
+      final List<TResult> results = new ArrayList<>();
+      for (Worker worker : workers) {
+        results.addAll(worker.results());
+      }
+      finished = true;
+      return results;
+    } finally {
+      if (!finished) {
+        for (Worker worker : workers) {
+          if (worker.future != null) {
+            worker.future.cancel(true);
+          }
+        }
+      }
+      IDLE_WORKERS.release(workerCount);
+    }
+  }
+
+  /**
+   * @return the number of idle workers taken for this query, at most its
+   *         parallelism
+   */
+  private int acquireWorkers() {
+    int acquired = 0;
+    while (acquired < parallelism && IDLE_WORKERS.tryAcquire()) {
+      acquired++;
+    }
+    return acquired;
+  }
+
+  private void dispatch(final List<Worker> workers, final TKey key, final int hash, final Object row) {
+    // the partition uses the high bits of the hash, the tables of the workers use
+    // the low bits
+    final Worker worker = workers.get((int) (((hash & 0xffffffffL) * workers.size()) >>> 32));
+    worker.pending.add(key, hash, row);
+    if (worker.pending.size == BATCH_SIZE) {
+      worker.hand(worker.pending);
+      worker.pending = new Batch(BATCH_SIZE);
+    }
+  }
+
+  private static int hash(final Object key) {
+    return key == null ? 0 : spread(key.hashCode());
+  }
+
+  private static int spread(final int hashCode) {
+    final int h = hashCode * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Rows handed to a worker with their group keys and the hashes of the keys.
+   */
+  private final class Batch {
+    final Object[] keys;
+    final int[] hashes;
+    final Object[] rows;
+    int size = 0;
+
+    Batch(final int capacity) {
+      this.keys = new Object[capacity];
+      this.hashes = new int[capacity];
+      this.rows = new Object[capacity];
+    }
+
+    void add(final Object row) {
+      final TKey key = keySelector.apply(row);
+      add(key, hash(key), row);
+    }
+
+    void add(final TKey key, final int hash, final Object row) {
+      keys[size] = key;
+      hashes[size] = hash;
+      rows[size] = row;
+      size++;
+    }
+  }
+
+  /**
+   * Aggregates the rows of one hash partition.
+   */
+  private final class Worker implements Callable<List<TResult>> {
+    final BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(QUEUED_BATCHES_PER_WORKER);
+    final Groups groups = new Groups();
+    Batch pending = new Batch(BATCH_SIZE);
+    Future<List<TResult>> future;
+
+    @Override
+    public List<TResult> call() throws InterruptedException {
+      for (Batch batch = batches.take(); batch != end; batch = batches.take()) {
+        groups.addAll(batch);
+      }
+      return groups.results();
+    }
+
+    /**
+     * Queues a batch, waiting while the worker is behind. Fails if the worker
+     * failed instead of waiting for it forever.
+     */
+    void hand(final Batch batch) {
+      try {
+        while (!batches.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+          if (future.isDone()) {
+            results();
+          }
+        }
+      } catch (InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while aggregating rows", interrupted);
+      }
+    }
+
+    List<TResult> results() {
+      try {
+        return future.get();
+      } catch (InterruptedException interrupted) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while aggregating rows", interrupted);
+      } catch (ExecutionException failure) {
+        if (failure.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) failure.getCause();
+        }
+        throw new RuntimeException("An aggregation worker failed, failing query", failure.getCause());
+      }
+    }
+  }
+
+  /**
+   * Groups of a single thread. Starts with the table that suits the type of the
+   * first key and switches to an {@link ObjectKeyTable} if a key of another type
+   * shows up.
+   */
+  private final class Groups {
+    private GroupTable table = null;
+    private boolean hasNullGroup = false;
+    private TAccumulate nullAccumulator = null;
+
+    void addAll(final Batch batch) {
+      for (int i = 0; i < batch.size; i++) {
+        add((TKey) batch.keys[i], batch.hashes[i], batch.rows[i]);
+      }
+    }
+
+    void add(final TKey key, final int hash, final Object row) {
+      if (key == null) {
+        nullAccumulator = accumulatorAdder.apply(hasNullGroup ? nullAccumulator : accumulatorInitializer.apply(), row);
+        hasNullGroup = true;
+        return;
+      }
+      if (table == null) {
+        table = key instanceof Long || key instanceof Integer ? new LongKeyTable(key instanceof Integer)
+            : new ObjectKeyTable();
+      } else if (!table.accepts(key)) {
+        table = table.toObjectKeyTable();
+      }
+      table.add(key, hash, row);
+    }
+
+    List<TResult> results() {
+      final List<TResult> results = new ArrayList<>((table != null ? table.size : 0) + 1);
+      if (table != null) {
+        table.addResults(results);
+      }
+      if (hasNullGroup) {
+        results.add(resultSelector.apply(null, nullAccumulator));
+      }
+      return results;
+    }
+  }
+
+  /**
+   * Open addressing table with linear probing from a key to the accumulator of
+   * its group. Doubles in size once half of its slots are used.
+   */
+  private abstract class GroupTable {
+    Object[] accumulators = new Object[INITIAL_CAPACITY];
+    int size = 0;
+
+    /**
+     * @return whether the table can store the key
+     */
+    abstract boolean accepts(Object key);
+
+    abstract void add(TKey key, int hash, Object row);
+
+    abstract void addResults(List<TResult> results);
+
+    abstract ObjectKeyTable toObjectKeyTable();
+
+    void accumulate(final int slot, final Object row) {
+      accumulators[slot] = accumulatorAdder.apply((TAccumulate) accumulators[slot], row);
+    }
+  }
+
+  /**
+   * Table of {@code Integer} or {@code Long} keys, stored as {@code long}s.
+   */
+  private final class LongKeyTable extends GroupTable {
+    private final boolean intKeys;
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private boolean[] used = new boolean[INITIAL_CAPACITY];
+
+    LongKeyTable(final boolean intKeys) {
+      this.intKeys = intKeys;
+    }
+
+    @Override
+    boolean accepts(final Object key) {
+      return intKeys ? key instanceof Integer : key instanceof Long;
+    }
+
+    @Override
+    void add(final TKey key, final int hash, final Object row) {
+      final long value = ((Number) key).longValue();
+      final int mask = keys.length - 1;
+      int slot = hash & mask;
+      while (used[slot]) {
+        if (keys[slot] == value) {
+          accumulate(slot, row);
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      used[slot] = true;
+      keys[slot] = value;
+      accumulators[slot] = accumulatorInitializer.apply();
+      accumulate(slot, row);
+      if (++size * 2 > keys.length) {
+        grow();
+      }
+    }
+
+    private void grow() {
+      final long[] oldKeys = keys;
+      final boolean[] oldUsed = used;
+      final Object[] oldAccumulators = accumulators;
+      keys = new long[oldKeys.length * 2];
+      used = new boolean[oldKeys.length * 2];
+      accumulators = new Object[oldKeys.length * 2];
+      final int mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldUsed[i]) {
+          int slot = hash(key(oldKeys[i])) & mask;
+          while (used[slot]) {
+            slot = (slot + 1) & mask;
+          }
+          used[slot] = true;
+          keys[slot] = oldKeys[i];
+          accumulators[slot] = oldAccumulators[i];
+        }
+      }
+    }
+
+    private Object key(final long value) {
+      // not a conditional expression, which would promote the Integer to a Long
+      if (intKeys) {
+        return Integer.valueOf((int) value);
+      }
+      return Long.valueOf(value);
+    }
+
+    @Override
+    void addResults(final List<TResult> results) {
+      for (int i = 0; i < keys.length; i++) {
+        if (used[i]) {
+          results.add(resultSelector.apply((TKey) key(keys[i]), (TAccumulate) accumulators[i]));
+        }
+      }
+    }
+
+    @Override
+    ObjectKeyTable toObjectKeyTable() {
+      final ObjectKeyTable table = new ObjectKeyTable();
+      for (int i = 0; i < keys.length; i++) {
+        if (used[i]) {
+          final Object key = key(keys[i]);
+          table.put(key, hash(key), accumulators[i]);
+        }
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Table of any other key, a slot is empty when its key is null.
+   */
+  private final class ObjectKeyTable extends GroupTable {
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+
+    @Override
+    boolean accepts(final Object key) {
+      return true;
+    }
+
+    @Override
+    void add(final TKey key, final int hash, final Object row) {
+      final int mask = keys.length - 1;
+      int slot = hash & mask;
+      while (keys[slot] != null) {
+        if (hashes[slot] == hash && keys[slot].equals(key)) {
+          accumulate(slot, row);
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      put(slot, key, hash, accumulatorAdder.apply(accumulatorInitializer.apply(), row));
+    }
+
+    void put(final Object key, final int hash, final Object accumulator) {
+      final int mask = keys.length - 1;
+      int slot = hash & mask;
+      while (keys[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      put(slot, key, hash, accumulator);
+    }
+
+    private void put(final int slot, final Object key, final int hash, final Object accumulator) {
+      keys[slot] = key;
+      hashes[slot] = hash;
+      accumulators[slot] = accumulator;
+      if (++size * 2 > keys.length) {
+        grow();
+      }
+    }
+
+    private void grow() {
+      final Object[] oldKeys = keys;
+      final int[] oldHashes = hashes;
+      final Object[] oldAccumulators = accumulators;
+      keys = new Object[oldKeys.length * 2];
+      hashes = new int[oldKeys.length * 2];
+      accumulators = new Object[oldKeys.length * 2];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          put(oldKeys[i], oldHashes[i], oldAccumulators[i]);
+        }
+      }
+    }
+
+    @Override
+    void addResults(final List<TResult> results) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] != null) {
+          results.add(resultSelector.apply((TKey) keys[i], (TAccumulate) accumulators[i]));
+        }
+      }
+    }
+
+    @Override
+    ObjectKeyTable toObjectKeyTable() {
+      return this;
+    }
+  }
+}
@@ -0,0 +1,260 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash aggregation of the rows a single scanner produces into one partial row
+ * per group. The partial rows are what the scanner hands to the consumer, which
+ * merges the partial rows of every scanner with the final aggregation.
+ *
+ * An instance describes the aggregation and is shared by every scanner of a
+ * query, each scanner accumulates into its own {@link Groups}. The projected
+ * rows contain the group keys and the arguments of the aggregate calls, a
+ * partial row contains the group keys in the order of {@code groupFields}
+ * followed by the value of each aggregate call.
+ */
+public final class PartialAggregation {
+
+  /**
+   * How an aggregate call accumulates its argument. Integer sums are accumulated
+   * in a {@code long} and narrowed to the type of the sum, which wraps around the
+   * same way as adding the values in the narrower type.
+   */
+  public enum Function {
+    COUNT, SUM_TINYINT, SUM_SMALLINT, SUM_INTEGER, SUM_BIGINT, SUM_REAL, SUM_DOUBLE, SUM_DECIMAL, MIN, MAX
+  }
+
+  private final int[] groupFields;
+  private final Function[] functions;
+  // projected field of the argument of each call, -1 for COUNT(*)
+  private final int[] argFields;
+
+  /**
+   * @param groupFields fields of the projected row that are the group keys
+   * @param functions   function of each aggregate call
+   * @param argFields   field of the projected row each aggregate call aggregates,
+   *                    -1 for {@code COUNT(*)}
+   */
+  public PartialAggregation(final List<Integer> groupFields, final List<Function> functions,
+      final List<Integer> argFields) {
+    if (functions.size() != argFields.size()) {
+      throw new IllegalArgumentException(
+          "Every aggregate call needs an argument field, functions: " + functions + " argument fields: " + argFields);
+    }
+    this.groupFields = groupFields.stream().mapToInt(Integer::intValue).toArray();
+    this.functions = functions.toArray(new Function[0]);
+    this.argFields = argFields.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * @return empty groups for a single scanner to accumulate into
+   */
+  public Groups newGroups() {
+    return new Groups();
+  }
+
+  /**
+   * @return number of fields of a partial row
+   */
+  public int getPartialRowSize() {
+    return groupFields.length + functions.length;
+  }
+
+  @Override
+  public String toString() {
+    return "PartialAggregation{groupFields=" + Arrays.toString(groupFields) + ", functions="
+        + Arrays.toString(functions) + ", argFields=" + Arrays.toString(argFields) + "}";
+  }
+
+  /**
+   * Key of a group, compares the values of the group keys.
+   */
+  private static final class GroupKey {
+    final Object[] values;
+    int hash;
+
+    GroupKey(final Object[] values, final int hash) {
+      this.values = values;
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      return o instanceof GroupKey && Arrays.equals(values, ((GroupKey) o).values);
+    }
+  }
+
+  /**
+   * Accumulated state of a single group.
+   */
+  private static final class Group {
+    final Object[] keys;
+    // number of non null arguments, the value of a COUNT
+    final long[] counts;
+    final long[] longSums;
+    final double[] doubleSums;
+    // DECIMAL sums and the values of MIN and MAX
+    final Object[] values;
+
+    Group(final Object[] keys, final int callCount) {
+      this.keys = keys;
+      this.counts = new long[callCount];
+      this.longSums = new long[callCount];
+      this.doubleSums = new double[callCount];
+      this.values = new Object[callCount];
+    }
+  }
+
+  /**
+   * Groups accumulated by a single scanner. Not thread safe, it is only used by
+   * the callback that is fetching the scanner's next batch.
+   */
+  public final class Groups {
+    private final Map<GroupKey, Group> groups = new HashMap<>();
+    // reused to look up the group of every row, only copied for a new group
+    private final GroupKey probe = new GroupKey(new Object[groupFields.length], 0);
+
+    private Groups() {
+    }
+
+    /**
+     * Adds a projected row to its group.
+     *
+     * @param row projected row
+     */
+    public void add(final Object[] row) {
+      int hash = 1;
+      for (int i = 0; i < groupFields.length; i++) {
+        final Object key = row[groupFields[i]];
+        probe.values[i] = key;
+        hash = 31 * hash + (key == null ? 0 : key.hashCode());
+      }
+      probe.hash = hash;
+      Group group = groups.get(probe);
+      if (group == null) {
+        final GroupKey key = new GroupKey(probe.values.clone(), hash);
+        group = new Group(key.values, functions.length);
+        groups.put(key, group);
+      }
+      for (int call = 0; call < functions.length; call++) {
+        if (argFields[call] < 0) {
+          group.counts[call]++;
+          continue;
+        }
+        final Object value = row[argFields[call]];
+        if (value == null) {
+          continue;
+        }
+        group.counts[call]++;
+        switch (functions[call]) {
+        case COUNT:
+          break;
+        case SUM_TINYINT:
+        case SUM_SMALLINT:
+        case SUM_INTEGER:
+        case SUM_BIGINT:
+          group.longSums[call] += ((Number) value).longValue();
+          break;
+        case SUM_REAL:
+          group.doubleSums[call] = (float) (group.doubleSums[call] + ((Number) value).floatValue());
+          break;
+        case SUM_DOUBLE:
+          group.doubleSums[call] += ((Number) value).doubleValue();
+          break;
+        case SUM_DECIMAL:
+          group.values[call] = group.values[call] == null ? value
+              : ((BigDecimal) group.values[call]).add((BigDecimal) value);
+          break;
+        case MIN:
+          if (group.values[call] == null || ((Comparable) value).compareTo(group.values[call]) < 0) {
+            group.values[call] = value;
+          }
+          break;
+        case MAX:
+          if (group.values[call] == null || ((Comparable) value).compareTo(group.values[call]) > 0) {
+            group.values[call] = value;
+          }
+          break;
+        default:
+          throw new IllegalStateException("Unsupported aggregate function " + functions[call]);
+        }
+      }
+    }
+
+    /**
+     * @return number of groups accumulated since the last {@link #drain()}
+     */
+    public int size() {
+      return groups.size();
+    }
+
+    /**
+     * Removes every group.
+     *
+     * @return the partial row of each group
+     */
+    public List<Object[]> drain() {
+      final List<Object[]> partialRows = new ArrayList<>(groups.size());
+      for (Group group : groups.values()) {
+        final Object[] partialRow = new Object[getPartialRowSize()];
+        System.arraycopy(group.keys, 0, partialRow, 0, groupFields.length);
+        for (int call = 0; call < functions.length; call++) {
+          partialRow[groupFields.length + call] = value(group, call);
+        }
+        partialRows.add(partialRow);
+      }
+      groups.clear();
+      return partialRows;
+    }
+
+    private Object value(final Group group, final int call) {
+      if (functions[call] == Function.COUNT) {
+        return group.counts[call];
+      }
+      // SUM, MIN and MAX of only null values is null
+      if (group.counts[call] == 0) {
+        return null;
+      }
+      switch (functions[call]) {
+      case SUM_TINYINT:
+        return (byte) group.longSums[call];
+      case SUM_SMALLINT:
+        return (short) group.longSums[call];
+      case SUM_INTEGER:
+        return (int) group.longSums[call];
+      case SUM_BIGINT:
+        return group.longSums[call];
+      case SUM_REAL:
+        return (float) group.doubleSums[call];
+      case SUM_DOUBLE:
+        return group.doubleSums[call];
+      default:
+        return group.values[call];
+      }
+    }
+  }
+}
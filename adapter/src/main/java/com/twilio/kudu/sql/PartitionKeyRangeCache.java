@@ -0,0 +1,90 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.apache.kudu.client.AbstractKuduScannerBuilder;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduScannerUtil;
+import org.apache.kudu.util.Pair;
+
+/**
+ * Least recently used cache of the partition key ranges a scan of a
+ * {@link CalciteKuduTable} needs to read, keyed by the scan's predicates on
+ * partition columns. Queries that filter the partition columns the same way
+ * skip partition pruning, which enumerates every combination of hash buckets
+ * and IN list values.
+ *
+ * The ranges only depend on the partition schema and the predicates. Tablets
+ * are still looked up from the ranges on every scan, through the client's
+ * tablet location cache, so adding or dropping range partitions doesn't
+ * invalidate an entry. The cache belongs to a single {@link CalciteKuduTable}
+ * which is replaced when the table is altered.
+ */
+public final class PartitionKeyRangeCache {
+
+  /**
+   * Number of predicate sets cached per table.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+  private final Cache<Set<KuduPredicate>, List<Pair<byte[], byte[]>>> ranges;
+
+  public PartitionKeyRangeCache() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * @param maxEntries number of predicate sets to cache
+   */
+  public PartitionKeyRangeCache(final int maxEntries) {
+    this.ranges = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+  }
+
+  /**
+   * Returns the partition key ranges of a scan, pruning the partitions if the
+   * predicates on partition columns haven't been seen before.
+   *
+   * @param builder builder with the predicates of the scan
+   * @return the partition key ranges to read, empty if the scan can't match any
+   *         row
+   */
+  public List<Pair<byte[], byte[]>> getPartitionKeyRanges(final AbstractKuduScannerBuilder<?, ?> builder) {
+    final Optional<Set<KuduPredicate>> partitionPredicates = KuduScannerUtil.partitionPredicates(builder);
+    if (!partitionPredicates.isPresent()) {
+      return Collections.emptyList();
+    }
+    return ranges.asMap().computeIfAbsent(partitionPredicates.get(),
+        predicates -> Collections.unmodifiableList(KuduScannerUtil.partitionKeyRanges(builder)));
+  }
+
+  /**
+   * Drops every cached entry.
+   */
+  public void invalidateAll() {
+    ranges.invalidateAll();
+  }
+
+  public long size() {
+    return ranges.size();
+  }
+}
@@ -0,0 +1,171 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.PartialRow;
+
+// This class resides in this project under the org.apache namespace
+import org.apache.kudu.client.KuduScannerUtil;
+
+/**
+ * A row value comparison on a prefix of the primary key columns, for example
+ * {@code (A, B, C) > ('a1', 'b1', 'c1')} when the primary key is
+ * {@code (A, B, C, D)}. It isn't a predicate on a column, it becomes the
+ * primary key lower bound or exclusive upper bound of every scanner of the
+ * query, so the comparison reads a single key range of each tablet. The bounds
+ * of a scan are kept apart from its {@link CalciteKuduPredicate}s, see
+ * {@link KuduRelNode.Implementor#primaryKeyBounds}.
+ *
+ * The comparison follows the order rows are stored in, a descending column
+ * compares the other way, the same as {@code RowValueExpressionConverter}.
+ */
+public final class PrimaryKeyBound {
+  public final KuduPredicate.ComparisonOp operation;
+  // values of the primary key columns 0 .. n-1
+  public final List<Object> values;
+  private final List<String> columnNames;
+
+  /**
+   * @param operation   one of GREATER, GREATER_EQUAL, LESS or LESS_EQUAL
+   * @param values      value of each primary key column in the prefix, in key
+   *                    order
+   * @param columnNames names of the columns in the prefix, used in the explain
+   *                    plan
+   */
+  public PrimaryKeyBound(final KuduPredicate.ComparisonOp operation, final List<Object> values,
+      final List<String> columnNames) {
+    if (operation == KuduPredicate.ComparisonOp.EQUAL) {
+      throw new IllegalArgumentException("Primary key bounds don't support " + operation);
+    }
+    this.operation = operation;
+    this.values = values;
+    this.columnNames = columnNames;
+  }
+
+  /**
+   * @return true if this bound restricts the smallest key of the scan
+   */
+  public boolean isLowerBound() {
+    return operation == KuduPredicate.ComparisonOp.GREATER || operation == KuduPredicate.ComparisonOp.GREATER_EQUAL;
+  }
+
+  /**
+   * Encodes the bound in the format of
+   * {@link org.apache.kudu.client.AbstractKuduScannerBuilder#lowerBoundRaw(byte[])}
+   * or
+   * {@link org.apache.kudu.client.AbstractKuduScannerBuilder#exclusiveUpperBoundRaw(byte[])}.
+   *
+   * @param calciteKuduTable table that is scanned
+   *
+   * @return the encoded key, null if no key satisfies a lower bound or every key
+   *         satisfies an upper bound
+   */
+  public byte[] encode(final CalciteKuduTable calciteKuduTable) {
+    final Schema schema = calciteKuduTable.getKuduTable().getSchema();
+    final PartialRow prefix = schema.newPartialRow();
+    for (int i = 0; i < values.size(); i++) {
+      addStoredValue(prefix, schema.getColumnByIndex(i), i, values.get(i), calciteKuduTable.isColumnOrderedDesc(i));
+    }
+    // (A, B) > (a, b) and (A, B) <= (a, b) start at the first key after every key
+    // with the prefix (a, b)
+    final boolean afterPrefix = operation == KuduPredicate.ComparisonOp.GREATER
+        || operation == KuduPredicate.ComparisonOp.LESS_EQUAL;
+    return KuduScannerUtil.primaryKeyPrefixBound(prefix, values.size(), afterPrefix);
+  }
+
+  /**
+   * Sets a column to the value Kudu stores, see
+   * {@link ComparisonPredicate#toPredicate(ColumnSchema, boolean)} for how
+   * descending columns are inverted.
+   */
+  private static void addStoredValue(final PartialRow row, final ColumnSchema columnSchema, final int columnIdx,
+      final Object value, final boolean invertValue) {
+    switch (columnSchema.getType()) {
+    case INT8:
+      final byte byteValue = ((Number) value).byteValue();
+      row.addByte(columnIdx, invertValue ? (byte) (-1 - byteValue) : byteValue);
+      break;
+    case INT16:
+      final short shortValue = ((Number) value).shortValue();
+      row.addShort(columnIdx, invertValue ? (short) (-1 - shortValue) : shortValue);
+      break;
+    case INT32:
+      final int intValue = ((Number) value).intValue();
+      row.addInt(columnIdx, invertValue ? -1 - intValue : intValue);
+      break;
+    case INT64:
+      final long longValue = ((Number) value).longValue();
+      row.addLong(columnIdx, invertValue ? -1L - longValue : longValue);
+      break;
+    case UNIXTIME_MICROS:
+      final long micros = ((Number) value).longValue();
+      row.addLong(columnIdx, invertValue ? CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MICROSECONDS - micros : micros);
+      break;
+    case DECIMAL:
+      row.addDecimal(columnIdx,
+          value instanceof BigDecimal ? (BigDecimal) value : BigDecimal.valueOf(((Number) value).longValue()));
+      break;
+    case STRING:
+      row.addString(columnIdx, (String) value);
+      break;
+    case BINARY:
+      row.addBinary(columnIdx, (byte[]) value);
+      break;
+    case BOOL:
+      row.addBoolean(columnIdx, (Boolean) value);
+      break;
+    default:
+      throw new IllegalArgumentException(
+          "Cannot bound primary key column " + columnSchema.getName() + " of type " + columnSchema.getType());
+    }
+  }
+
+  /**
+   * @return description of the bound for the explain plan
+   */
+  public String explain() {
+    return String.format("(%s) %s (%s)", String.join(", ", columnNames), operation.name(),
+        values.stream().map(String::valueOf).reduce((left, right) -> left + ", " + right).orElse(""));
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(operation, values);
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+    final PrimaryKeyBound other = (PrimaryKeyBound) obj;
+    return operation == other.operation && values.equals(other.values);
+  }
+
+  @Override
+  public String toString() {
+    return "PrimaryKeyBound [operation=" + operation + ", values=" + values + "]";
+  }
+}
@@ -0,0 +1,130 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the number of bytes a single query has buffered between the
+ * {@link ScannerCallback}s and the consumer. When the buffered bytes exceed the
+ * budget, {@link ScannerCallback#nextBatch()} parks the fetch here instead of
+ * issuing the next RPC. Parked fetches are resumed from {@link #release(long)}
+ * once the consumer has drained enough rows, this keeps the Kudu I/O threads
+ * from ever blocking on a full buffer.
+ *
+ * Sizes are an estimate based on {@link org.apache.kudu.Schema#getRowSize()} of
+ * the projection.
+ */
+public final class ScanBufferBudget {
+  private static final Logger logger = LoggerFactory.getLogger(ScanBufferBudget.class);
+
+  /**
+   * Budget used when the connection doesn't configure one, 256 MiB.
+   */
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024L * 1024L;
+
+  private final long maxBytes;
+  private final KuduScanStats scanStats;
+  private final AtomicLong bufferedBytes = new AtomicLong(0L);
+  private final AtomicLong bufferedBatches = new AtomicLong(0L);
+  private final Queue<Runnable> deferred = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Create a budget for a single query.
+   *
+   * @param maxBytes  number of bytes the query can buffer before callbacks are
+   *                  deferred. Less than or equal to 0 disables the budget.
+   * @param scanStats stats for the query, receives the high-water marks.
+   */
+  public ScanBufferBudget(final long maxBytes, final KuduScanStats scanStats) {
+    this.maxBytes = maxBytes;
+    this.scanStats = scanStats;
+  }
+
+  /**
+   * Account for a batch that has been produced and is waiting to be consumed.
+   *
+   * @param bytes estimated size of the batch
+   */
+  public void reserve(final long bytes) {
+    final long currentBytes = bufferedBytes.addAndGet(bytes);
+    final long currentBatches = bufferedBatches.incrementAndGet();
+    scanStats.updateBufferHighWaterMarks(currentBytes, currentBatches);
+  }
+
+  /**
+   * Return bytes of a batch that has been consumed and resume any callbacks that
+   * were deferred while the budget was exhausted.
+   *
+   * @param bytes estimated size of the batch, must match what was reserved
+   */
+  public void release(final long bytes) {
+    bufferedBytes.addAndGet(-bytes);
+    bufferedBatches.decrementAndGet();
+    resumeDeferred();
+  }
+
+  /**
+   * Defer the fetch if the query has buffered more than it is allowed to.
+   *
+   * @param fetch fetches the next batch, usually
+   *              {@link ScannerCallback#nextBatch()}
+   *
+   * @return true if the fetch has been deferred and will be run by a later
+   *         {@link #release(long)}, false if the RPC can be issued now.
+   */
+  public boolean deferIfExhausted(final Runnable fetch) {
+    if (!isExhausted()) {
+      return false;
+    }
+    logger.debug("Buffered {} bytes exceeds budget of {}, deferring fetch", bufferedBytes.get(), maxBytes);
+    scanStats.incrementDeferredRpcCount(1L);
+    deferred.add(fetch);
+    // The consumer may have drained the buffer between the check and the add.
+    resumeDeferred();
+    return true;
+  }
+
+  /**
+   * Run every deferred fetch regardless of the budget. Used when the query is
+   * closing so each {@link ScannerCallback} gets the chance to close its scanner.
+   */
+  public void resumeAll() {
+    Runnable fetch;
+    while ((fetch = deferred.poll()) != null) {
+      fetch.run();
+    }
+  }
+
+  public long getBufferedBytes() {
+    return bufferedBytes.get();
+  }
+
+  private boolean isExhausted() {
+    return maxBytes > 0 && bufferedBytes.get() > maxBytes;
+  }
+
+  private void resumeDeferred() {
+    Runnable fetch;
+    while (!isExhausted() && (fetch = deferred.poll()) != null) {
+      fetch.run();
+    }
+  }
+}
@@ -0,0 +1,446 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides when the scanners of a query are started. Each
+ * {@link com.twilio.kudu.sql.schema.KuduSchema} has its own instance, shared by
+ * every query over the tables of the schema, so it can limit how many scanners
+ * run concurrently per query and per tablet server of the cluster. Tables built
+ * without a schema share {@link #getInstance()}.
+ *
+ * Queries that have scanners waiting take turns starting one scanner at a time,
+ * so a query with hundreds of scanners doesn't delay the scanners of a query
+ * submitted after it. A scanner is running from the time it is started until
+ * its {@link ScannerCallback} closes it or the query is closed.
+ *
+ * Two exceptions keep queries from waiting forever:
+ * <ul>
+ * <li>A query that has no running scanners may always start one, regardless of
+ * the tablet server limit. Running scanners only finish once their query
+ * consumes their rows, which can depend on another query making progress (for
+ * instance the inner side of a nested join).</li>
+ * <li>Sorted queries start every scanner at once because the merge needs a row
+ * from each of them, so they ignore the per query limit. A sorted query waits
+ * until every tablet server it reads has fewer running scanners than the tablet
+ * server limit and then starts all of its scanners, even if a tablet server
+ * ends up over the limit because it leads more of the query's tablets than the
+ * limit allows. A sorted query that has waited for
+ * {@link #SORTED_QUERY_MAX_WAIT_MS} starts its scanners regardless, since the
+ * scanners holding the capacity may only finish once it makes progress. The
+ * scanners are then started by a timer thread of the scheduler, the thread
+ * consuming the rows of the query never waits for them to start.</li>
+ * </ul>
+ */
+public final class ScanScheduler {
+  private static final Logger logger = LoggerFactory.getLogger(ScanScheduler.class);
+
+  /**
+   * Number of scanners a query can run at once when not configured.
+   */
+  public static final int DEFAULT_MAX_SCANNERS_PER_QUERY = 64;
+
+  /**
+   * Number of scanners that can run at once against a single tablet server when
+   * not configured.
+   */
+  public static final int DEFAULT_MAX_SCANNERS_PER_TABLET_SERVER = 32;
+
+  /**
+   * How long a sorted query waits for the tablet servers it reads to be below the
+   * limit before starting its scanners anyway.
+   */
+  public static final long SORTED_QUERY_MAX_WAIT_MS = 1000;
+
+  private static final ScanScheduler INSTANCE = new ScanScheduler(DEFAULT_MAX_SCANNERS_PER_QUERY,
+      DEFAULT_MAX_SCANNERS_PER_TABLET_SERVER);
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  // starts the scanners of sorted queries that waited too long, shared by every
+  // scheduler in the JVM
+  private static final ScheduledExecutorService ADMISSION_TIMER = Executors
+      .newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "kudu-scan-scheduler-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private int maxScannersPerQuery;
+  private int maxScannersPerTabletServer;
+  private final long sortedQueryMaxWaitMs;
+
+  // running scanners for each tablet server, scanners with an unknown tablet
+  // server are not tracked
+  private final Map<String, Integer> runningPerTabletServer = new HashMap<>();
+  // queries with scanners waiting to start, in the order they get their next turn
+  private final ArrayDeque<Query> waitingQueries = new ArrayDeque<>();
+  private int queuedScanCount = 0;
+  private int runningScanCount = 0;
+
+  private final AtomicLong startedScanCount = new AtomicLong(0L);
+  private final AtomicLong totalQueueWaitNanos = new AtomicLong(0L);
+  private final AtomicLong maxQueueWaitNanos = new AtomicLong(0L);
+
+  /**
+   * Create a scheduler. Queries should use the shared {@link #getInstance()}.
+   *
+   * @param maxScannersPerQuery        number of scanners a query can run at once
+   * @param maxScannersPerTabletServer number of scanners that can run at once
+   *                                   against a single tablet server
+   */
+  public ScanScheduler(final int maxScannersPerQuery, final int maxScannersPerTabletServer) {
+    this(maxScannersPerQuery, maxScannersPerTabletServer, SORTED_QUERY_MAX_WAIT_MS);
+  }
+
+  /**
+   * Create a scheduler. Queries should use the shared {@link #getInstance()}.
+   *
+   * @param maxScannersPerQuery        number of scanners a query can run at once
+   * @param maxScannersPerTabletServer number of scanners that can run at once
+   *                                   against a single tablet server
+   * @param sortedQueryMaxWaitMs       how long a sorted query waits for the
+   *                                   tablet servers it reads to be below the
+   *                                   limit
+   */
+  public ScanScheduler(final int maxScannersPerQuery, final int maxScannersPerTabletServer,
+      final long sortedQueryMaxWaitMs) {
+    this.sortedQueryMaxWaitMs = sortedQueryMaxWaitMs;
+    setLimits(maxScannersPerQuery, maxScannersPerTabletServer);
+  }
+
+  /**
+   * @return the scheduler shared by the tables that aren't created by a
+   *         {@link com.twilio.kudu.sql.schema.KuduSchema}
+   */
+  public static ScanScheduler getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Change the limits. Scanners already running are not stopped.
+   *
+   * @param maxScannersPerQuery        number of scanners a query can run at once
+   * @param maxScannersPerTabletServer number of scanners that can run at once
+   *                                   against a single tablet server
+   */
+  public void setLimits(final int maxScannersPerQuery, final int maxScannersPerTabletServer) {
+    if (maxScannersPerQuery < 1 || maxScannersPerTabletServer < 1) {
+      throw new IllegalArgumentException(
+          String.format("Scanner limits must be positive, per query %d per tablet " + "server %d", maxScannersPerQuery,
+              maxScannersPerTabletServer));
+    }
+    synchronized (this) {
+      this.maxScannersPerQuery = maxScannersPerQuery;
+      this.maxScannersPerTabletServer = maxScannersPerTabletServer;
+    }
+    schedule();
+  }
+
+  public synchronized int getMaxScannersPerQuery() {
+    return maxScannersPerQuery;
+  }
+
+  public synchronized int getMaxScannersPerTabletServer() {
+    return maxScannersPerTabletServer;
+  }
+
+  /**
+   * Register a query with the scheduler.
+   *
+   * @param scanStats stats of the query, receives the time its scanners waited
+   * @param sorted    whether the query merges the scanners in sorted order, if so
+   *                  every scanner is started at once
+   *
+   * @return the query to create scans on, must be closed when the query is
+   */
+  public Query newQuery(final KuduScanStats scanStats, final boolean sorted) {
+    return new Query(scanStats, sorted);
+  }
+
+  public synchronized int getQueuedScanCount() {
+    return queuedScanCount;
+  }
+
+  public synchronized int getRunningScanCount() {
+    return runningScanCount;
+  }
+
+  public synchronized int getRunningScanCount(final String tabletServer) {
+    return runningPerTabletServer.getOrDefault(tabletServer, 0);
+  }
+
+  public long getStartedScanCount() {
+    return startedScanCount.get();
+  }
+
+  public long getTotalQueueWaitMs() {
+    return TimeUnit.NANOSECONDS.toMillis(totalQueueWaitNanos.get());
+  }
+
+  public long getMaxQueueWaitMs() {
+    return TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos.get());
+  }
+
+  private boolean tabletServerHasCapacity(final String tabletServer) {
+    return tabletServer == null || runningPerTabletServer.getOrDefault(tabletServer, 0) < maxScannersPerTabletServer;
+  }
+
+  /**
+   * Start scans until every waiting query is either at its limit or only has
+   * scans for tablet servers that are at theirs. The scans are started outside of
+   * the lock.
+   */
+  private void schedule() {
+    final List<ScanTask> toStart = new ArrayList<>();
+    synchronized (this) {
+      // number of queries in a row that got a turn without starting anything
+      int idle = 0;
+      while (!waitingQueries.isEmpty() && idle < waitingQueries.size()) {
+        final Query query = waitingQueries.pollFirst();
+        final ScanTask task = query.takeStartable();
+        if (task != null) {
+          task.markRunning();
+          toStart.add(task);
+          idle = 0;
+        } else {
+          idle++;
+        }
+        if (!query.pending.isEmpty()) {
+          waitingQueries.addLast(query);
+        }
+      }
+    }
+    for (ScanTask task : toStart) {
+      task.start();
+    }
+  }
+
+  /**
+   * The scans of a single query.
+   */
+  public final class Query {
+    private final KuduScanStats scanStats;
+    private final boolean sorted;
+    private final ArrayDeque<ScanTask> pending = new ArrayDeque<>();
+    private final Set<ScanTask> running = new HashSet<>();
+    private boolean closed = false;
+    // scans created by newScan that haven't been submitted yet
+    private int unsubmitted = 0;
+    // whether the scanners of a sorted query may start
+    private boolean admitted = false;
+    // admits a sorted query that waited too long, null until every scan of the
+    // query is submitted
+    private ScheduledFuture<?> admissionTimeout = null;
+
+    private Query(final KuduScanStats scanStats, final boolean sorted) {
+      this.scanStats = scanStats;
+      this.sorted = sorted;
+    }
+
+    /**
+     * Create a scan that will be started by the scheduler once it is submitted.
+     *
+     * @param tabletServer host and port of the tablet server the scanner reads
+     *                     from, null if it isn't known.
+     *
+     * @return the scan
+     */
+    public ScanTask newScan(final String tabletServer) {
+      synchronized (ScanScheduler.this) {
+        unsubmitted++;
+      }
+      return new ScanTask(this, tabletServer);
+    }
+
+    /**
+     * Lets the scanners of a sorted query start regardless of the tablet server
+     * limit. Run by {@link #ADMISSION_TIMER} once the query has waited too long.
+     */
+    private void admit() {
+      synchronized (ScanScheduler.this) {
+        if (admitted || closed) {
+          return;
+        }
+        logger.debug("Starting the scanners of a sorted query after waiting {} ms", sortedQueryMaxWaitMs);
+        admitted = true;
+      }
+      schedule();
+    }
+
+    // Called with the scheduler lock held.
+    private void cancelAdmissionTimeout() {
+      if (admissionTimeout != null) {
+        admissionTimeout.cancel(false);
+        admissionTimeout = null;
+      }
+    }
+
+    /**
+     * Drop the scans that haven't started and release the ones that are running.
+     */
+    public void close() {
+      synchronized (ScanScheduler.this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        cancelAdmissionTimeout();
+        queuedScanCount -= pending.size();
+        pending.clear();
+        waitingQueries.remove(this);
+        for (ScanTask task : new ArrayList<>(running)) {
+          task.release();
+        }
+      }
+      schedule();
+    }
+
+    // Called with the scheduler lock held.
+    private ScanTask takeStartable() {
+      if (sorted) {
+        if (!admitted) {
+          if (unsubmitted > 0) {
+            return null;
+          }
+          for (ScanTask task : pending) {
+            if (!tabletServerHasCapacity(task.tabletServer)) {
+              return null;
+            }
+          }
+          admitted = true;
+          cancelAdmissionTimeout();
+        }
+        return pending.pollFirst();
+      }
+      final boolean canIgnoreTabletServerLimit = running.isEmpty();
+      if (running.size() >= maxScannersPerQuery) {
+        return null;
+      }
+      final Iterator<ScanTask> tasks = pending.iterator();
+      while (tasks.hasNext()) {
+        final ScanTask task = tasks.next();
+        if (canIgnoreTabletServerLimit || tabletServerHasCapacity(task.tabletServer)) {
+          tasks.remove();
+          return task;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A single scanner of a {@link Query}.
+   */
+  public final class ScanTask {
+    private final Query query;
+    private final String tabletServer;
+    private Runnable startFunction;
+    private long enqueuedNanos;
+    private boolean finished = false;
+
+    private ScanTask(final Query query, final String tabletServer) {
+      this.query = query;
+      this.tabletServer = tabletServer;
+    }
+
+    /**
+     * Queue the scan, it is started as soon as the limits allow.
+     *
+     * @param startFunction starts the scanner, called once outside of any lock
+     */
+    public void submit(final Runnable startFunction) {
+      synchronized (ScanScheduler.this) {
+        if (query.closed) {
+          return;
+        }
+        query.unsubmitted--;
+        if (query.sorted && query.unsubmitted == 0 && !query.admitted) {
+          // the scheduler starts the scanners once the query waited too long
+          query.admissionTimeout = ADMISSION_TIMER.schedule(query::admit, sortedQueryMaxWaitMs, TimeUnit.MILLISECONDS);
+        }
+        this.startFunction = startFunction;
+        this.enqueuedNanos = System.nanoTime();
+        query.pending.addLast(this);
+        queuedScanCount++;
+        if (!waitingQueries.contains(query)) {
+          waitingQueries.addLast(query);
+        }
+      }
+      schedule();
+    }
+
+    /**
+     * Called once the scanner has been closed, lets the next scan start. Calling it
+     * more than once or after the query was closed has no effect.
+     */
+    public void finished() {
+      synchronized (ScanScheduler.this) {
+        release();
+      }
+      schedule();
+    }
+
+    // Called with the scheduler lock held.
+    private void markRunning() {
+      queuedScanCount--;
+      runningScanCount++;
+      query.running.add(this);
+      if (tabletServer != null) {
+        runningPerTabletServer.merge(tabletServer, 1, Integer::sum);
+      }
+    }
+
+    // Called with the scheduler lock held.
+    private void release() {
+      if (finished || !query.running.remove(this)) {
+        return;
+      }
+      finished = true;
+      runningScanCount--;
+      if (tabletServer != null) {
+        runningPerTabletServer.computeIfPresent(tabletServer, (server, count) -> count == 1 ? null : count - 1);
+      }
+    }
+
+    private void start() {
+      final long waitNanos = System.nanoTime() - enqueuedNanos;
+      startedScanCount.incrementAndGet();
+      totalQueueWaitNanos.addAndGet(waitNanos);
+      maxQueueWaitNanos.accumulateAndGet(waitNanos, Math::max);
+      query.scanStats.recordScannerQueueWait(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+      logger.debug("Starting scan on {} after waiting {} ns", tabletServer, waitNanos);
+      startFunction.run();
+    }
+  }
+}
@@ -15,12 +15,12 @@
 package com.twilio.kudu.sql;
 
 import java.util.Collections;
-import java.util.concurrent.BlockingQueue;
 import com.stumbleupon.async.Callback;
 import org.apache.kudu.client.RowResultIterator;
 import org.apache.kudu.client.RowResult;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.kudu.client.Partition;
 import java.util.List;
 
@@ -36,10 +36,16 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Scanner Callback that produces {@link CalciteScannerMessage} into a
- * {@link BlockingQueue}. This will contain rows from Kudu in Scanner order
+ * {@link MpscRingBuffer}. Each {@link RowResultIterator} is projected and
+ * produced as a single {@link CalciteScannerMessage.MessageType#BATCH} message.
+ * Up to {@code readAheadDepth} batches are fetched before the consumer asks for
+ * them, one RPC at a time. This will contain rows from Kudu in Scanner order
  * which is different from sorted order. To get sorted order out of this
  * {@link Callback} it needs to be used on a {@link AsyncKuduScanner} over
  * exactly one {@link Partition}
+ *
+ * With a {@link PartialAggregation} the projected rows are aggregated by the
+ * callback and only the partial rows of its groups are produced.
  */
 final public class ScannerCallback implements Callback<Deferred<Void>, RowResultIterator> {
 
@@ -47,8 +53,22 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
   private static final CalciteScannerMessage<CalciteRow> CLOSE_MESSAGE = CalciteScannerMessage
       .<CalciteRow>createEndMessage();
 
+  /**
+   * Number of batches a scanner fetches ahead of the consumer when the connection
+   * doesn't configure it. Two keeps the next RPC in flight while the consumer
+   * iterates the current batch.
+   */
+  public static final int DEFAULT_READ_AHEAD_DEPTH = 2;
+
+  /**
+   * Number of groups a partial aggregation accumulates before they are produced
+   * as partial rows, which bounds the memory of a scanner over a high cardinality
+   * group key.
+   */
+  public static final int MAX_PARTIAL_GROUPS = 4096;
+
   final AsyncKuduScanner scanner;
-  final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults;
+  final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> rowResults;
   final AtomicBoolean scansShouldStop;
   final AtomicBoolean cancelFlag;
   final AtomicBoolean earlyExit = new AtomicBoolean(false);
@@ -58,12 +78,40 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
   final Function1<Object, Object> projectionMapper;
   final Predicate1<Object> filterFunction;
   final boolean isSingleObject;
+  final boolean isScannerSorted;
+  final ScanBufferBudget scanBufferBudget;
+  final long estimatedRowSize;
+  final int readAheadDepth;
+  // batches produced by this callback that the consumer hasn't finished with
+  final AtomicInteger bufferedBatches = new AtomicInteger(0);
+  // true while a nextRows() RPC is outstanding or deferred by the budget, and
+  // once the scanner has been closed. Only one RPC per scanner is allowed.
+  final AtomicBoolean fetching = new AtomicBoolean(false);
+  final ScanScheduler.ScanTask scanTask;
+  // rows this scanner needs to produce at most, Long.MAX_VALUE if there is no
+  // limit
+  final long rowLimit;
+  // rows that passed the filter so far, only used by the callback that holds
+  // fetching
+  private long rowsProduced = 0;
+  // sorted scans with a limit keep the Kudu rows so the last one returned can
+  // become a PaginationCursor
+  final boolean keepRowResults;
+  // filters and projects a whole batch at once, null to use projectionMapper and
+  // filterFunction on every row
+  final ColumnarProjection columnarProjection;
+  final Schema projectedSchema;
+  // groups of the partial aggregation of the rows this scanner produced, null if
+  // the rows are produced as they are
+  final PartialAggregation.Groups partialGroups;
 
   public ScannerCallback(final CalciteKuduTable calciteKuduTable, final AsyncKuduScanner scanner,
-      final BlockingQueue<CalciteScannerMessage<CalciteRow>> rowResults, final AtomicBoolean scansShouldStop,
+      final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> rowResults, final AtomicBoolean scansShouldStop,
       final AtomicBoolean cancelFlag, final Schema projectedSchema, final KuduScanStats scanStats,
       final boolean isScannerSorted, final Function1<Object, Object> projectionMapper,
-      final Predicate1<Object> filterFunction, final boolean isSingleObject) {
+      final Predicate1<Object> filterFunction, final boolean isSingleObject, final ScanBufferBudget scanBufferBudget,
+      final int readAheadDepth, final ScanScheduler.ScanTask scanTask, final long rowLimit,
+      final ColumnarProjection columnarProjection, final PartialAggregation partialAggregation) {
 
     this.scanner = scanner;
     this.rowResults = rowResults;
@@ -84,55 +132,172 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
     this.projectionMapper = projectionMapper;
     this.filterFunction = filterFunction;
     this.isSingleObject = isSingleObject;
+    this.isScannerSorted = isScannerSorted;
+    this.scanBufferBudget = scanBufferBudget;
+    this.estimatedRowSize = projectedSchema.getRowSize();
+    this.readAheadDepth = Math.max(1, readAheadDepth);
+    this.scanTask = scanTask;
+    this.rowLimit = rowLimit;
+    this.keepRowResults = isScannerSorted && rowLimit != Long.MAX_VALUE;
+    // a batch has no RowResult per row to keep
+    this.columnarProjection = keepRowResults ? null : columnarProjection;
+    this.projectedSchema = projectedSchema;
+    this.partialGroups = partialAggregation != null ? partialAggregation.newGroups() : null;
 
     logger.debug("ScannerCallback created for scanner" + scanner);
   }
 
   /**
-   * After an Batch is completed, this method should be called to fetch the next
+   * Maximum number of messages a single callback can have in the ring buffer at
+   * once: the batches read ahead, an error and the close message.
+   *
+   * @param readAheadDepth number of batches each scanner fetches ahead
+   *
+   * @return size of the ring buffer needed per scanner
+   */
+  public static int maxOutstandingMessages(final int readAheadDepth) {
+    return Math.max(1, readAheadDepth) + 2;
+  }
+
+  /**
+   * Fetch the next batch if the scanner has fewer than the read ahead depth
+   * batches waiting for the consumer and no RPC outstanding. Called by the
+   * {@link ScanScheduler} to start the scan, when a batch arrives and when the
+   * consumer finishes a batch. A scanner that should stop is closed regardless of
+   * the batches it has buffered.
    */
   public void nextBatch() {
-    // @TODO: How to protect this method from being called while a batch is being
-    // processed?
+    if ((bufferedBatches.get() >= readAheadDepth && !shouldStop()) || !fetching.compareAndSet(false, true)) {
+      return;
+    }
+    fetch();
+  }
 
+  private boolean shouldStop() {
+    // allow `null` as cancel flag isn't guaranteed to be set
+    return earlyExit.get() || scansShouldStop.get() || (cancelFlag != null && cancelFlag.get());
+  }
+
+  /**
+   * Issue the next RPC or close the scanner. Must only be called by the thread
+   * that set {@link #fetching}.
+   */
+  private void fetch() {
     // If the scanner can continue and we are not stopping
-    if (scanner.hasMoreRows() && !earlyExit.get() && !scansShouldStop.get() &&
-    // allow `null` as cancel flag isn't guaranteed to be set. Instead of handling
-    // null
-    // in constructor check it here, .get() can be costly as it is atomic.
-        (cancelFlag == null || !cancelFlag.get())) {
+    if (scanner.hasMoreRows() && rowsProduced < rowLimit && !shouldStop()) {
+      // A sorted scan needs a row from every scanner to make progress, so each of
+      // them is always allowed to fetch one batch.
+      if (!isScannerSorted && scanBufferBudget.deferIfExhausted(this::fetch)) {
+        return;
+      }
       final Deferred<RowResultIterator> nextRowsRpc = scanner.nextRows();
       nextRowsRpc.addCallbackDeferring(this).addErrback(new Callback<Void, Exception>() {
         @Override
         public Void call(Exception failure) {
           logger.error("Closing scanner with failure and setting earlyExit", failure);
           exitScansWithFailure(failure);
+          scanTask.finished();
           return null;
         }
       });
     } else {
-      // Else -> scanner has completed, notify the consumer of rowResults
-      try {
-        // This blocks to ensure the query finishes.
-        logger.debug("Closing scanner: {} {} {} {}", scanner.hasMoreRows(), earlyExit.get(), scansShouldStop.get(),
-            cancelFlag.get());
-        rowResults.put(CLOSE_MESSAGE);
-      } catch (InterruptedException threadInterrupted) {
-        logger.error("Interrupted while closing. Means queue is full. Closing scanner");
-        Thread.currentThread().interrupt();
-      }
+      // Else -> scanner has completed, release it and notify the consumer of
+      // rowResults. fetching stays set so the scanner is only closed once.
+      logger.debug("Closing scanner: {} {} {} {}", scanner.hasMoreRows(), earlyExit.get(), scansShouldStop.get(),
+          cancelFlag);
+      scanner.close();
+      scanTask.finished();
+      rowResults.put(CLOSE_MESSAGE);
+    }
+  }
+
+  /**
+   * Close the scanner right away if it has no RPC outstanding, otherwise it is
+   * closed once the RPC completes as long as {@link #scansShouldStop} is set.
+   * Called by the consumer when it no longer needs rows from this scanner.
+   */
+  public void close() {
+    if (fetching.compareAndSet(false, true)) {
+      logger.debug("Closing idle scanner: {}", scanner);
       scanner.close();
+      scanTask.finished();
     }
   }
 
+  /**
+   * Called by the consumer once it has iterated every row of a batch produced by
+   * this callback. Returns the batch to the {@link ScanBufferBudget} and fetches
+   * the next one if the scanner was waiting on the read ahead depth.
+   *
+   * @param batch the {@link CalciteScannerMessage.MessageType#BATCH} message that
+   *              was consumed
+   */
+  public void batchConsumed(final CalciteScannerMessage<CalciteRow> batch) {
+    scanBufferBudget.release(batch.sizeInBytes);
+    bufferedBatches.decrementAndGet();
+    nextBatch();
+  }
+
   private void exitScansWithFailure(final Exception failure) {
     earlyExit.set(true);
-    try {
-      rowResults.put(new CalciteScannerMessage<CalciteRow>(failure));
-    } catch (InterruptedException ignored) {
-      logger.error("Interrupted during put, moving to close scanner");
-      Thread.currentThread().interrupt();
+    rowResults.put(new CalciteScannerMessage<CalciteRow>(failure));
+  }
+
+  /**
+   * Decodes the batch into a {@link ColumnarBatch} and filters and projects it
+   * with the {@link ColumnarProjection}.
+   *
+   * @return number of rows written to {@code rows}
+   */
+  private int projectBatch(final RowResultIterator nextBatch, final CalciteRow[] rows) {
+    if (nextBatch == null || rows.length == 0) {
+      return 0;
+    }
+    final ColumnarBatch batch = ColumnarBatch.decode(projectedSchema, nextBatch, rows.length);
+    final Object[] projected = new Object[batch.getRowCount()];
+    final int rowCount = (int) Math.min(columnarProjection.project(batch, projected), rowLimit - rowsProduced);
+    for (int i = 0; i < rowCount; i++) {
+      final Object[] rowData = isSingleObject ? new Object[] { projected[i] } : (Object[]) projected[i];
+      rows[i] = new CalciteRow(projectedSchema, rowData, primaryKeyColumnsInProjection, descendingSortedFieldIndices);
     }
+    return rowCount;
+  }
+
+  /**
+   * Filters and projects the batch and adds the projected rows to
+   * {@link #partialGroups}. The groups are produced as partial rows once the
+   * scanner has returned its last batch or there are too many of them.
+   *
+   * @return the partial rows, an empty array if the groups are kept
+   */
+  private CalciteRow[] aggregateBatch(final RowResultIterator nextBatch) {
+    if (nextBatch != null && nextBatch.getNumRows() > 0) {
+      if (columnarProjection != null) {
+        final ColumnarBatch batch = ColumnarBatch.decode(projectedSchema, nextBatch, nextBatch.getNumRows());
+        final Object[] projected = new Object[batch.getRowCount()];
+        final int rowCount = columnarProjection.project(batch, projected);
+        for (int i = 0; i < rowCount; i++) {
+          partialGroups.add((Object[]) projected[i]);
+        }
+      } else {
+        while (nextBatch.hasNext()) {
+          final RowResult row = nextBatch.next();
+          if (filterFunction.apply(row)) {
+            partialGroups.add((Object[]) projectionMapper.apply(row));
+          }
+        }
+      }
+    }
+    if (scanner.hasMoreRows() && partialGroups.size() < MAX_PARTIAL_GROUPS) {
+      return new CalciteRow[0];
+    }
+    final List<Object[]> partialRows = partialGroups.drain();
+    final CalciteRow[] rows = new CalciteRow[partialRows.size()];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = new CalciteRow(projectedSchema, partialRows.get(i), primaryKeyColumnsInProjection,
+          descendingSortedFieldIndices);
+    }
+    return rows;
   }
 
   @Override
@@ -141,27 +306,32 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
     if (nextBatch != null) {
       scanStats.incrementRowsScannedCount(nextBatch.getNumRows());
     }
+    // Rows that pass the filter are collected into a single array and handed off
+    // as one message. The array is sized for the whole batch, filtered rows leave
+    // unused slots at the end. A partial aggregation only hands off its partial
+    // rows.
+    CalciteRow[] rows = new CalciteRow[nextBatch != null && partialGroups == null ? nextBatch.getNumRows() : 0];
+    int rowCount = 0;
     try {
-      if (!earlyExit.get()) {
-        while (nextBatch != null && nextBatch.hasNext()) {
+      if (!earlyExit.get() && partialGroups != null) {
+        rows = aggregateBatch(nextBatch);
+        rowCount = rows.length;
+      } else if (!earlyExit.get() && columnarProjection != null) {
+        rowCount = projectBatch(nextBatch, rows);
+      } else if (!earlyExit.get()) {
+        while (nextBatch != null && nextBatch.hasNext() && rowsProduced + rowCount < rowLimit) {
           final RowResult row = nextBatch.next();
           if (!filterFunction.apply(row)) {
             continue;
           }
-          final CalciteScannerMessage<CalciteRow> wrappedRow;
+          final Object[] rowData;
           if (!isSingleObject) {
-            wrappedRow = new CalciteScannerMessage<>(new CalciteRow(row.getSchema(),
-                ((Object[]) projectionMapper.apply(row)), primaryKeyColumnsInProjection, descendingSortedFieldIndices));
+            rowData = (Object[]) projectionMapper.apply(row);
           } else {
-            final Object mapResult = ((Object) projectionMapper.apply(row));
-            final Object[] rowData = new Object[] { mapResult };
-            wrappedRow = new CalciteScannerMessage<>(
-                new CalciteRow(row.getSchema(), rowData, primaryKeyColumnsInProjection, descendingSortedFieldIndices));
+            rowData = new Object[] { projectionMapper.apply(row) };
           }
-          // Blocks if the queue is full.
-          // @TODO: How to we protect it from locking up here because nothing is consuming
-          // from the queue.
-          rowResults.put(wrappedRow);
+          rows[rowCount++] = new CalciteRow(row.getSchema(), rowData, primaryKeyColumnsInProjection,
+              descendingSortedFieldIndices, keepRowResults ? row : null);
         }
       }
     } catch (Exception failure) {
@@ -169,15 +339,20 @@ final public class ScannerCallback implements Callback<Deferred<Void>, RowResult
       // this means we have to abort this scan.
       logger.error("Failed to parse out row. Setting early exit", failure);
       exitScansWithFailure(failure);
+      rowCount = 0;
     }
+    rowsProduced += rowCount;
 
-    try {
-      rowResults.put(new CalciteScannerMessage<CalciteRow>(this));
-    } catch (InterruptedException ignored) {
-      // Set the early exit to protect ourselves and close the scanner.
-      exitScansWithFailure(ignored);
-      Thread.currentThread().interrupt();
-    }
+    // The ring buffer is sized for maxOutstandingMessages per callback, so this
+    // never waits on the consumer.
+    final long sizeInBytes = rowCount * estimatedRowSize;
+    scanBufferBudget.reserve(sizeInBytes);
+    bufferedBatches.incrementAndGet();
+    rowResults.put(new CalciteScannerMessage<CalciteRow>(this, rows, rowCount, sizeInBytes));
+
+    // The RPC has completed, read ahead while the consumer works on the batch.
+    fetching.set(false);
+    nextBatch();
     return null;
   }
 }
@@ -0,0 +1,170 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.function.Function0;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.function.Function2;
+
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Aggregates rows that arrive sorted by their group key. A group is complete
+ * once the key changes, so each group is returned as soon as the first row of
+ * the next group is read and only the group being accumulated is kept in
+ * memory.
+ *
+ * The first {@code offset} groups are skipped without being accumulated. Once
+ * {@code groupFetchLimit} groups have been read the source is closed, which
+ * stops the scanners that are still fetching rows.
+ *
+ * @param <TKey>        group key
+ * @param <TAccumulate> accumulator of a group
+ * @param <TResult>     result row of a group
+ */
+public final class SortedGroupEnumerator<TKey, TAccumulate, TResult> implements Enumerator<TResult> {
+  private final Enumerator<Object> source;
+  private final Function1<Object, TKey> keySelector;
+  private final Function0<TAccumulate> accumulatorInitializer;
+  private final Function2<TAccumulate, Object, TAccumulate> accumulatorAdder;
+  private final Function2<TKey, TAccumulate, TResult> resultSelector;
+  private final long offset;
+  private final long groupFetchLimit;
+
+  private long uniqueGroupCount = 0;
+  // first row of the next group, already read from the source
+  private boolean hasNextGroupRow = false;
+  private Object nextGroupRow;
+  private TKey nextGroupKey;
+  private boolean sourceClosed = false;
+  private boolean hasCurrent = false;
+  private TResult current;
+
+  /**
+   * @param source                 rows sorted by their group key
+   * @param keySelector            computes the group key of a row
+   * @param accumulatorInitializer creates the accumulator of a new group
+   * @param accumulatorAdder       adds a row to the accumulator of its group
+   * @param resultSelector         computes the result of a group
+   * @param offset                 number of groups to skip, 0 or less to skip
+   *                               none
+   * @param groupFetchLimit        number of groups to read from the source,
+   *                               including the skipped ones
+   */
+  public SortedGroupEnumerator(final Enumerator<Object> source, final Function1<Object, TKey> keySelector,
+      final Function0<TAccumulate> accumulatorInitializer,
+      final Function2<TAccumulate, Object, TAccumulate> accumulatorAdder,
+      final Function2<TKey, TAccumulate, TResult> resultSelector, final long offset, final long groupFetchLimit) {
+    this.source = source;
+    this.keySelector = keySelector;
+    this.accumulatorInitializer = accumulatorInitializer;
+    this.accumulatorAdder = accumulatorAdder;
+    this.resultSelector = resultSelector;
+    this.offset = offset;
+    this.groupFetchLimit = groupFetchLimit;
+  }
+
+  @Override
+  public TResult current() {
+    if (!hasCurrent) {
+      throw new NoSuchElementException("moveNext() hasn't returned a group");
+    }
+    return current;
+  }
+
+  @Override
+  public boolean moveNext() {
+    hasCurrent = false;
+    while (!sourceClosed) {
+      if (!hasNextGroupRow && !readNextRow()) {
+        return false;
+      }
+      uniqueGroupCount++;
+      // When we have seen limit + 1 unique group by keys, exit.
+      // or in the case of an offset, limit + offset + 1 unique group by keys.
+      if (uniqueGroupCount > groupFetchLimit) {
+        closeSource();
+        return false;
+      }
+      final TKey key = nextGroupKey;
+      // When we are still skipping group by keys.
+      final boolean skipped = offset > 0 && uniqueGroupCount <= offset;
+      TAccumulate accumulator = skipped ? null : accumulatorAdder.apply(accumulatorInitializer.apply(), nextGroupRow);
+      hasNextGroupRow = false;
+      while (readNextRow()) {
+        if (!Objects.equals(key, nextGroupKey)) {
+          break;
+        }
+        hasNextGroupRow = false;
+        if (!skipped) {
+          accumulator = accumulatorAdder.apply(accumulator, nextGroupRow);
+        }
+      }
+      if (hasNextGroupRow && uniqueGroupCount >= groupFetchLimit) {
+        // the next group is past the limit, stop the scanners before the consumer
+        // processes this group
+        closeSource();
+      }
+      if (!skipped) {
+        current = resultSelector.apply(key, accumulator);
+        hasCurrent = true;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads the next row of the source into {@code nextGroupRow}, closing the
+   * source once it runs out of rows.
+   *
+   * @return false if the source has no more rows
+   */
+  private boolean readNextRow() {
+    if (sourceClosed) {
+      return false;
+    }
+    if (!source.moveNext()) {
+      closeSource();
+      return false;
+    }
+    nextGroupRow = source.current();
+    nextGroupKey = keySelector.apply(nextGroupRow);
+    hasNextGroupRow = true;
+    return true;
+  }
+
+  private void closeSource() {
+    if (!sourceClosed) {
+      sourceClosed = true;
+      hasNextGroupRow = false;
+      nextGroupRow = null;
+      nextGroupKey = null;
+      source.close();
+    }
+  }
+
+  @Override
+  public void reset() {
+    throw new IllegalStateException("Cannot reset a sorted aggregation");
+  }
+
+  @Override
+  public void close() {
+    closeSource();
+  }
+}
@@ -0,0 +1,187 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.mutation;
+
+import com.stumbleupon.async.Deferred;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.AsyncKuduClient;
+import org.apache.kudu.client.AsyncKuduSession;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.Operation;
+import org.apache.kudu.client.OperationResponse;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.PleaseThrottleException;
+import org.apache.kudu.client.RowError;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends operations to kudu without waiting for them to be applied. Operations
+ * are buffered in an {@link AsyncKuduSession} in {@code MANUAL_FLUSH} mode and
+ * the buffer is sent once it holds half of {@code windowBytes}, while it is in
+ * flight the next buffer is filled. Once two buffers are in flight the writer
+ * waits for the oldest one, so at most {@code windowBytes} of operations are
+ * buffered or in flight.
+ *
+ * The row errors of the buffers are collected and returned by {@link #flush()},
+ * which sends the last buffer and completes once every buffer was applied.
+ */
+public class AsyncWritePipeline {
+
+  public static final long DEFAULT_WINDOW_BYTES = 16L * 1024 * 1024;
+
+  // maximum number of operations sent by a single buffer
+  private static final int MAX_BUFFER_OPERATIONS = 10_000;
+
+  // number of buffers that are in flight before the writer waits
+  private static final int MAX_IN_FLIGHT_BUFFERS = 2;
+
+  private final AsyncKuduSession session;
+  private final long bufferBytes;
+
+  // buffers that were sent and whose responses weren't read
+  private final ArrayDeque<Deferred<List<OperationResponse>>> inFlightBuffers = new ArrayDeque<>();
+  // row errors of the buffers that were waited for since the last flush
+  private final List<RowError> rowErrors = new ArrayList<>();
+  private long bufferedBytes = 0;
+  private int bufferedOperations = 0;
+
+  // row size of the last schema an operation was applied to
+  private Schema rowSizeSchema;
+  private int fixedRowBytes;
+  private int[] varLengthColumnIndexes;
+
+  public AsyncWritePipeline(AsyncKuduClient client, long windowBytes) {
+    if (windowBytes < 2) {
+      throw new IllegalArgumentException("windowBytes must be at least 2, was " + windowBytes);
+    }
+    this.session = client.newSession();
+    session.setFlushMode(AsyncKuduSession.FlushMode.MANUAL_FLUSH);
+    session.setMutationBufferSpace(MAX_BUFFER_OPERATIONS);
+    this.bufferBytes = windowBytes / MAX_IN_FLIGHT_BUFFERS;
+  }
+
+  /**
+   * Buffers the operation, the buffer is sent once it is full
+   */
+  public void apply(Operation operation) {
+    while (true) {
+      try {
+        session.apply(operation);
+        break;
+      } catch (PleaseThrottleException e) {
+        // every buffer is in flight
+        join(e.getDeferred());
+      } catch (KuduException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    bufferedBytes += estimateRowBytes(operation.getRow());
+    if (++bufferedOperations >= MAX_BUFFER_OPERATIONS || bufferedBytes >= bufferBytes) {
+      sendBuffer();
+    }
+  }
+
+  /**
+   * Sends the buffered operations without waiting for them to be applied
+   *
+   * @return the row errors of every operation applied since the last flush, once
+   *         they are all applied
+   */
+  public Deferred<List<RowError>> flush() {
+    if (bufferedOperations > 0) {
+      sendBuffer();
+    }
+    final List<RowError> errors = new ArrayList<>(rowErrors);
+    rowErrors.clear();
+    if (inFlightBuffers.isEmpty()) {
+      return Deferred.fromResult(errors);
+    }
+    final List<Deferred<List<OperationResponse>>> buffers = new ArrayList<>(inFlightBuffers);
+    inFlightBuffers.clear();
+    return Deferred.groupInOrder(buffers).addCallback(responses -> {
+      for (List<OperationResponse> bufferResponses : responses) {
+        errors.addAll(OperationResponse.collectErrors(bufferResponses));
+      }
+      return errors;
+    });
+  }
+
+  private void sendBuffer() {
+    inFlightBuffers.add(session.flush());
+    bufferedBytes = 0;
+    bufferedOperations = 0;
+    while (inFlightBuffers.size() >= MAX_IN_FLIGHT_BUFFERS) {
+      rowErrors.addAll(OperationResponse.collectErrors(join(inFlightBuffers.poll())));
+    }
+  }
+
+  /**
+   * @return the number of bytes of the row, the length of strings is used as
+   *         their size
+   */
+  private int estimateRowBytes(PartialRow row) {
+    final Schema schema = row.getSchema();
+    if (schema != rowSizeSchema) {
+      final List<Integer> varLengthColumns = new ArrayList<>();
+      for (int i = 0; i < schema.getColumnCount(); i++) {
+        final ColumnSchema columnSchema = schema.getColumnByIndex(i);
+        switch (columnSchema.getType()) {
+        case STRING:
+        case VARCHAR:
+        case BINARY:
+          varLengthColumns.add(i);
+          break;
+        default:
+        }
+      }
+      rowSizeSchema = schema;
+      fixedRowBytes = schema.getRowSize();
+      varLengthColumnIndexes = varLengthColumns.stream().mapToInt(Integer::intValue).toArray();
+    }
+    int rowBytes = fixedRowBytes;
+    for (int colIndex : varLengthColumnIndexes) {
+      if (!row.isSet(colIndex) || row.isNull(colIndex)) {
+        continue;
+      }
+      switch (schema.getColumnByIndex(colIndex).getType()) {
+      case STRING:
+        rowBytes += row.getString(colIndex).length();
+        break;
+      case VARCHAR:
+        rowBytes += row.getVarchar(colIndex).length();
+        break;
+      default:
+        rowBytes += row.getBinary(colIndex).remaining();
+      }
+    }
+    return rowBytes;
+  }
+
+  /**
+   * Waits for the result of an operation that was sent to kudu
+   */
+  public static <T> T join(Deferred<T> deferred) {
+    try {
+      return deferred.join();
+    } catch (Exception e) {
+      throw new RuntimeException("Unable to write to kudu", e);
+    }
+  }
+
+}
@@ -0,0 +1,562 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.mutation;
+
+import com.stumbleupon.async.Deferred;
+import com.twilio.kudu.sql.CalciteKuduTable;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.AsyncKuduClient;
+import org.apache.kudu.client.AsyncKuduScanner;
+import org.apache.kudu.client.AsyncKuduSession;
+import org.apache.kudu.client.Delete;
+import org.apache.kudu.client.Insert;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduScanToken;
+import org.apache.kudu.client.KuduScanner;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.Operation;
+import org.apache.kudu.client.OperationResponse;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.RowResultIterator;
+import org.apache.kudu.client.Update;
+import org.apache.kudu.client.Upsert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Folds the deltas written to the delta table of a cube (see
+ * {@link CubeDeltaTables}) into the cube table, one delta tablet at a time.
+ *
+ * The deltas of a tablet are summed per cube row and added to the measures
+ * stored in the cube. Kudu only applies single row operations atomically, so
+ * before the cube is upserted and the deltas are deleted the totals and the pks
+ * of the consumed deltas are written to the log table followed by a commit row.
+ * A compaction that has a commit row is redone when the compactor runs again,
+ * upserting the same totals and marking the same deltas as consumed is
+ * idempotent. A compaction without one is discarded.
+ *
+ * Consumed deltas aren't deleted right away, they are kept as tombstones for
+ * {@code tombstoneRetentionMs} so that a writer that sends a delta again after
+ * a failure whose outcome it doesn't know fails with ALREADY_PRESENT instead of
+ * having the delta folded twice.
+ *
+ * The totals are computed from the rows stored in the cube so only one
+ * compactor may run for a cube at a time, while any number of processes can
+ * write deltas.
+ */
+public class CubeCompactor {
+
+  private static final Logger logger = LoggerFactory.getLogger(CubeCompactor.class);
+
+  public static final int DEFAULT_MAX_DELTAS_PER_PASS = 100_000;
+
+  public static final long DEFAULT_TOMBSTONE_RETENTION_MS = 60 * 60 * 1000L;
+
+  // number of cube rows that are read from kudu concurrently
+  private static final int LOOKUP_BATCH_SIZE = 128;
+
+  private static final int FLUSH_BATCH_SIZE = 1000;
+
+  // kinds of log rows
+  private static final byte TOTAL = 0;
+  private static final byte CONSUMED_DELTA = 1;
+  private static final byte COMMIT = 2;
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  // shared by every compactor in the JVM
+  private static final ScheduledExecutorService COMPACTORS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    final Thread thread = new Thread(runnable, "kudu-cube-compactor-" + THREAD_COUNT.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final AsyncKuduClient client;
+  private final KuduTable cubeTable;
+  private final int maxDeltasPerPass;
+  private final long tombstoneRetentionMs;
+  private final Schema cubeSchema;
+  private final int pkColumnCount;
+  private final KuduSession session;
+
+  // opened by the first compaction
+  private KuduTable deltaTable;
+  private KuduTable logTable;
+
+  private long lastCompactionId = 0;
+  private int pendingOperations = 0;
+  private ScheduledFuture<?> scheduledCompaction;
+
+  /**
+   * The deltas folded by a compaction and the cube rows they result in
+   */
+  private static final class Compaction {
+    final long id;
+    // the values of every cube column of the rows to upsert
+    final List<Object[]> totals = new ArrayList<>();
+    // the pks of the delta rows to delete
+    final List<Object[]> consumedDeltas = new ArrayList<>();
+    boolean committed = false;
+    int logRowCount = 0;
+
+    Compaction(long id) {
+      this.id = id;
+    }
+  }
+
+  public CubeCompactor(CalciteKuduTable cubeCalciteKuduTable) {
+    this(cubeCalciteKuduTable, DEFAULT_MAX_DELTAS_PER_PASS);
+  }
+
+  public CubeCompactor(CalciteKuduTable cubeCalciteKuduTable, int maxDeltasPerPass) {
+    this(cubeCalciteKuduTable, maxDeltasPerPass, DEFAULT_TOMBSTONE_RETENTION_MS);
+  }
+
+  public CubeCompactor(CalciteKuduTable cubeCalciteKuduTable, int maxDeltasPerPass, long tombstoneRetentionMs) {
+    if (maxDeltasPerPass < 1) {
+      throw new IllegalArgumentException("maxDeltasPerPass must be positive, was " + maxDeltasPerPass);
+    }
+    if (tombstoneRetentionMs < 0) {
+      throw new IllegalArgumentException("tombstoneRetentionMs must not be negative, was " + tombstoneRetentionMs);
+    }
+    this.tombstoneRetentionMs = tombstoneRetentionMs;
+    this.client = cubeCalciteKuduTable.getClient();
+    this.cubeTable = cubeCalciteKuduTable.getKuduTable();
+    this.maxDeltasPerPass = maxDeltasPerPass;
+    this.cubeSchema = cubeTable.getSchema();
+    this.pkColumnCount = cubeSchema.getPrimaryKeyColumnCount();
+    this.session = client.syncClient().newSession();
+    session.setFlushMode(AsyncKuduSession.FlushMode.MANUAL_FLUSH);
+  }
+
+  /**
+   * Compacts the deltas every {@code intervalMs} milliseconds on a background
+   * thread
+   *
+   * @return this compactor
+   */
+  public synchronized CubeCompactor start(long intervalMs) {
+    if (scheduledCompaction == null) {
+      scheduledCompaction = COMPACTORS.scheduleWithFixedDelay(() -> {
+        try {
+          compact();
+        } catch (RuntimeException e) {
+          // the deltas are compacted again by the next run
+          logger.error("Unable to compact the deltas of cube " + cubeTable.getName(), e);
+        }
+      }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+    return this;
+  }
+
+  public synchronized void stop() {
+    if (scheduledCompaction != null) {
+      scheduledCompaction.cancel(false);
+      scheduledCompaction = null;
+    }
+  }
+
+  /**
+   * Redoes any committed compaction that wasn't completed, folds the deltas of
+   * each tablet of the delta table into the cube and then deletes the tombstones
+   * that are older than {@code tombstoneRetentionMs}
+   *
+   * @return the number of delta rows that were folded
+   */
+  public synchronized long compact() {
+    final long startTime = System.currentTimeMillis();
+    long deltaCount = 0;
+    try {
+      if (deltaTable == null) {
+        deltaTable = CubeDeltaTables.openDeltaTable(client.syncClient(), cubeTable);
+        logTable = CubeDeltaTables.openLogTable(client.syncClient(), cubeTable);
+      }
+      recover();
+      final ColumnSchema consumedBy = deltaTable.getSchema().getColumn(CubeDeltaTables.CONSUMED_BY_COLUMN);
+      for (KuduScanToken token : client.syncClient().newScanTokenBuilder(deltaTable)
+          .addPredicate(KuduPredicate.newIsNullPredicate(consumedBy)).build()) {
+        int foldedDeltas;
+        do {
+          foldedDeltas = compactTablet(token);
+          deltaCount += foldedDeltas;
+        } while (foldedDeltas >= maxDeltasPerPass);
+      }
+      purgeTombstones();
+    } catch (Exception e) {
+      throw new RuntimeException("Unable to compact the deltas of cube " + cubeTable.getName(), e);
+    }
+    if (deltaCount > 0) {
+      logger.info("Folded " + deltaCount + " delta rows into cube " + cubeTable.getName() + " in "
+          + (System.currentTimeMillis() - startTime) + " ms.");
+    }
+    return deltaCount;
+  }
+
+  /**
+   * Reads the log table, redoes the committed compactions and discards the rest
+   */
+  private void recover() throws Exception {
+    final int firstCubeColIndex = logTable.getSchema().getColumnIndex(CubeDeltaTables.KIND_COLUMN) + 1;
+    final int writerIdColIndex = firstCubeColIndex + cubeSchema.getColumnCount();
+    final Map<Long, Compaction> compactions = new TreeMap<>();
+    final KuduScanner scanner = client.syncClient().newScannerBuilder(logTable).build();
+    while (scanner.hasMoreRows()) {
+      for (RowResult row : scanner.nextRows()) {
+        final Compaction compaction = compactions.computeIfAbsent(row.getLong(0), Compaction::new);
+        compaction.logRowCount = Math.max(compaction.logRowCount, row.getInt(1) + 1);
+        switch (row.getByte(2)) {
+        case TOTAL:
+          final Object[] total = new Object[cubeSchema.getColumnCount()];
+          for (int i = 0; i < total.length; i++) {
+            total[i] = getValue(row, firstCubeColIndex + i);
+          }
+          compaction.totals.add(total);
+          break;
+        case CONSUMED_DELTA:
+          final Object[] deltaPk = new Object[pkColumnCount + 2];
+          for (int i = 0; i < pkColumnCount; i++) {
+            deltaPk[i] = getValue(row, firstCubeColIndex + i);
+          }
+          deltaPk[pkColumnCount] = row.getString(writerIdColIndex);
+          deltaPk[pkColumnCount + 1] = row.getLong(writerIdColIndex + 1);
+          compaction.consumedDeltas.add(deltaPk);
+          break;
+        default:
+          compaction.committed = true;
+        }
+      }
+    }
+    scanner.close();
+    for (Compaction compaction : compactions.values()) {
+      lastCompactionId = Math.max(lastCompactionId, compaction.id);
+      if (compaction.committed) {
+        logger.info("Redoing compaction " + compaction.id + " of cube " + cubeTable.getName());
+        applyCompaction(compaction);
+      } else {
+        deleteLog(compaction);
+      }
+    }
+  }
+
+  /**
+   * Folds up to {@link #maxDeltasPerPass} deltas of a tablet of the delta table
+   *
+   * @return the number of delta rows that were folded
+   */
+  private int compactTablet(KuduScanToken token) throws Exception {
+    final Compaction compaction = new Compaction(nextCompactionId());
+    // cube pk to the values of every cube column
+    final Map<List<Object>, Object[]> cubeRows = new LinkedHashMap<>();
+    final KuduScanner scanner = token.intoScanner(client.syncClient());
+    while (scanner.hasMoreRows() && compaction.consumedDeltas.size() < maxDeltasPerPass) {
+      for (RowResult row : scanner.nextRows()) {
+        final Object[] deltaPk = new Object[pkColumnCount + 2];
+        for (int i = 0; i < pkColumnCount; i++) {
+          deltaPk[i] = getValue(row, i);
+        }
+        deltaPk[pkColumnCount] = row.getString(pkColumnCount);
+        deltaPk[pkColumnCount + 1] = row.getLong(pkColumnCount + 1);
+        compaction.consumedDeltas.add(deltaPk);
+
+        final Object[] cubeRow = cubeRows.computeIfAbsent(dimensionsKey(deltaPk),
+            key -> Arrays.copyOf(Arrays.copyOf(deltaPk, pkColumnCount), cubeSchema.getColumnCount()));
+        for (int colIndex = pkColumnCount; colIndex < cubeRow.length; colIndex++) {
+          addMeasure(cubeRow, colIndex, getValue(row, colIndex + 2));
+        }
+      }
+    }
+    scanner.close();
+    if (compaction.consumedDeltas.isEmpty()) {
+      return 0;
+    }
+    readStoredMeasures(new ArrayList<>(cubeRows.values()));
+    compaction.totals.addAll(cubeRows.values());
+    writeLog(compaction);
+    applyCompaction(compaction);
+    return compaction.consumedDeltas.size();
+  }
+
+  private long nextCompactionId() {
+    lastCompactionId = Math.max(lastCompactionId + 1, System.currentTimeMillis());
+    return lastCompactionId;
+  }
+
+  private static List<Object> dimensionsKey(Object[] deltaPk) {
+    final List<Object> key = new ArrayList<>(deltaPk.length - 2);
+    for (int i = 0; i < deltaPk.length - 2; i++) {
+      // arrays aren't compared by value
+      key.add(deltaPk[i] instanceof byte[] ? ByteBuffer.wrap((byte[]) deltaPk[i]) : deltaPk[i]);
+    }
+    return key;
+  }
+
+  /**
+   * Adds the measures stored in kudu to the cube rows. Rows are looked up
+   * concurrently in batches of {@link #LOOKUP_BATCH_SIZE}.
+   */
+  private void readStoredMeasures(List<Object[]> cubeRows) throws Exception {
+    final List<Integer> measureColumns = new ArrayList<>();
+    for (int colIndex = pkColumnCount; colIndex < cubeSchema.getColumnCount(); colIndex++) {
+      measureColumns.add(colIndex);
+    }
+    for (int batchStart = 0; batchStart < cubeRows.size(); batchStart += LOOKUP_BATCH_SIZE) {
+      final List<Object[]> batch = cubeRows.subList(batchStart,
+          Math.min(cubeRows.size(), batchStart + LOOKUP_BATCH_SIZE));
+      final List<AsyncKuduScanner> scanners = new ArrayList<>(batch.size());
+      final List<Deferred<RowResultIterator>> lookups = new ArrayList<>(batch.size());
+      for (Object[] cubeRow : batch) {
+        final AsyncKuduScanner.AsyncKuduScannerBuilder builder = client.newScannerBuilder(cubeTable)
+            .setProjectedColumnIndexes(measureColumns);
+        for (int i = 0; i < pkColumnCount; i++) {
+          builder.addPredicate(KuduPredicate.newComparisonPredicate(cubeSchema.getColumnByIndex(i),
+              KuduPredicate.ComparisonOp.EQUAL, cubeRow[i]));
+        }
+        final AsyncKuduScanner scanner = builder.build();
+        scanners.add(scanner);
+        lookups.add(scanner.nextRows());
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        final AsyncKuduScanner scanner = scanners.get(i);
+        RowResultIterator rows = lookups.get(i).join();
+        while (true) {
+          while (rows != null && rows.hasNext()) {
+            final RowResult row = rows.next();
+            // the projection only contains the measures
+            for (int measure = 0; measure < measureColumns.size(); measure++) {
+              addMeasure(batch.get(i), pkColumnCount + measure, getValue(row, measure));
+            }
+          }
+          if (!scanner.hasMoreRows()) {
+            break;
+          }
+          rows = scanner.nextRows().join();
+        }
+      }
+    }
+  }
+
+  private void addMeasure(Object[] cubeRow, int colIndex, Object value) {
+    if (value == null) {
+      return;
+    }
+    final Object current = cubeRow[colIndex];
+    switch (cubeSchema.getColumnByIndex(colIndex).getType()) {
+    case INT8:
+    case INT16:
+    case INT32:
+    case INT64:
+      cubeRow[colIndex] = (current == null ? 0L : ((Number) current).longValue()) + ((Number) value).longValue();
+      break;
+    case FLOAT:
+    case DOUBLE:
+      cubeRow[colIndex] = (current == null ? 0d : ((Number) current).doubleValue()) + ((Number) value).doubleValue();
+      break;
+    case DECIMAL:
+      cubeRow[colIndex] = current == null ? value : ((BigDecimal) current).add((BigDecimal) value);
+      break;
+    default:
+      throw new UnsupportedOperationException(
+          "Aggregation over type " + cubeSchema.getColumnByIndex(colIndex).getType() + " is not supported");
+    }
+  }
+
+  /**
+   * Writes the totals and the consumed deltas of the compaction to the log table
+   * and then commits it
+   */
+  private void writeLog(Compaction compaction) throws KuduException {
+    final int firstCubeColIndex = logTable.getSchema().getColumnIndex(CubeDeltaTables.KIND_COLUMN) + 1;
+    final int writerIdColIndex = firstCubeColIndex + cubeSchema.getColumnCount();
+    int seq = 0;
+    for (Object[] total : compaction.totals) {
+      final Insert insert = newLogRow(compaction, seq++, TOTAL);
+      for (int i = 0; i < total.length; i++) {
+        setValue(insert.getRow(), firstCubeColIndex + i, cubeSchema.getColumnByIndex(i), total[i]);
+      }
+      applyOperation(insert);
+    }
+    for (Object[] deltaPk : compaction.consumedDeltas) {
+      final Insert insert = newLogRow(compaction, seq++, CONSUMED_DELTA);
+      for (int i = 0; i < pkColumnCount; i++) {
+        setValue(insert.getRow(), firstCubeColIndex + i, cubeSchema.getColumnByIndex(i), deltaPk[i]);
+      }
+      insert.getRow().addString(writerIdColIndex, (String) deltaPk[pkColumnCount]);
+      insert.getRow().addLong(writerIdColIndex + 1, (Long) deltaPk[pkColumnCount + 1]);
+      applyOperation(insert);
+    }
+    flushOperations();
+    // the compaction is redone once the commit row is stored
+    applyOperation(newLogRow(compaction, seq++, COMMIT));
+    flushOperations();
+    compaction.logRowCount = seq;
+  }
+
+  private Insert newLogRow(Compaction compaction, int seq, byte kind) {
+    final Insert insert = logTable.newInsert();
+    final PartialRow row = insert.getRow();
+    row.addLong(0, compaction.id);
+    row.addInt(1, seq);
+    row.addByte(2, kind);
+    return insert;
+  }
+
+  /**
+   * Upserts the totals into the cube, marks the consumed deltas as consumed by
+   * the compaction and then deletes its log rows
+   */
+  private void applyCompaction(Compaction compaction) throws KuduException {
+    for (Object[] total : compaction.totals) {
+      final Upsert upsert = cubeTable.newUpsert();
+      for (int i = 0; i < total.length; i++) {
+        setValue(upsert.getRow(), i, cubeSchema.getColumnByIndex(i), total[i]);
+      }
+      applyOperation(upsert);
+    }
+    final Schema deltaSchema = deltaTable.getSchema();
+    final int consumedByColIndex = deltaSchema.getColumnIndex(CubeDeltaTables.CONSUMED_BY_COLUMN);
+    for (Object[] deltaPk : compaction.consumedDeltas) {
+      final Update update = deltaTable.newUpdate();
+      for (int i = 0; i < deltaPk.length; i++) {
+        setValue(update.getRow(), i, deltaSchema.getColumnByIndex(i), deltaPk[i]);
+      }
+      update.getRow().addLong(consumedByColIndex, compaction.id);
+      applyOperation(update);
+    }
+    flushOperations();
+    deleteLog(compaction);
+  }
+
+  /**
+   * Deletes the deltas that were consumed by a compaction that started more than
+   * {@code tombstoneRetentionMs} ago, compaction ids are not smaller than the
+   * time the compaction started
+   */
+  private void purgeTombstones() throws KuduException {
+    final Schema deltaSchema = deltaTable.getSchema();
+    final int deltaPkColumnCount = deltaSchema.getPrimaryKeyColumnCount();
+    final List<Integer> pkColumns = new ArrayList<>(deltaPkColumnCount);
+    for (int i = 0; i < deltaPkColumnCount; i++) {
+      pkColumns.add(i);
+    }
+    final KuduScanner scanner = client.syncClient().newScannerBuilder(deltaTable).setProjectedColumnIndexes(pkColumns)
+        .addPredicate(KuduPredicate.newComparisonPredicate(deltaSchema.getColumn(CubeDeltaTables.CONSUMED_BY_COLUMN),
+            KuduPredicate.ComparisonOp.LESS, System.currentTimeMillis() - tombstoneRetentionMs))
+        .build();
+    while (scanner.hasMoreRows()) {
+      for (RowResult row : scanner.nextRows()) {
+        final Delete delete = deltaTable.newDelete();
+        for (int i = 0; i < deltaPkColumnCount; i++) {
+          setValue(delete.getRow(), i, deltaSchema.getColumnByIndex(i), getValue(row, i));
+        }
+        applyOperation(delete);
+      }
+    }
+    scanner.close();
+    flushOperations();
+  }
+
+  private void deleteLog(Compaction compaction) throws KuduException {
+    for (int seq = 0; seq < compaction.logRowCount; seq++) {
+      final Delete delete = logTable.newDelete();
+      delete.getRow().addLong(0, compaction.id);
+      delete.getRow().addInt(1, seq);
+      applyOperation(delete);
+    }
+    flushOperations();
+  }
+
+  private void applyOperation(Operation operation) throws KuduException {
+    session.apply(operation);
+    if (++pendingOperations % FLUSH_BATCH_SIZE == 0) {
+      flushOperations();
+    }
+  }
+
+  /**
+   * Flushes the session, rows that were already deleted are ignored so that a
+   * compaction can be redone
+   */
+  private void flushOperations() throws KuduException {
+    for (OperationResponse response : session.flush()) {
+      if (response != null && response.hasRowError() && !response.getRowError().getErrorStatus().isNotFound()) {
+        throw new RuntimeException("Unable to apply " + response.getRowError());
+      }
+    }
+    pendingOperations = 0;
+  }
+
+  private static Object getValue(RowResult row, int colIndex) {
+    if (row.isNull(colIndex)) {
+      return null;
+    }
+    switch (row.getColumnType(colIndex)) {
+    case UNIXTIME_MICROS:
+      return row.getLong(colIndex);
+    case BINARY:
+      return row.getBinaryCopy(colIndex);
+    default:
+      return row.getObject(colIndex);
+    }
+  }
+
+  private static void setValue(PartialRow row, int colIndex, ColumnSchema columnSchema, Object value) {
+    if (value == null) {
+      row.setNull(colIndex);
+      return;
+    }
+    switch (columnSchema.getType()) {
+    case INT8:
+      row.addByte(colIndex, ((Number) value).byteValue());
+      break;
+    case INT16:
+      row.addShort(colIndex, ((Number) value).shortValue());
+      break;
+    case INT32:
+      row.addInt(colIndex, ((Number) value).intValue());
+      break;
+    case INT64:
+    case UNIXTIME_MICROS:
+      row.addLong(colIndex, ((Number) value).longValue());
+      break;
+    case FLOAT:
+      row.addFloat(colIndex, ((Number) value).floatValue());
+      break;
+    case DOUBLE:
+      row.addDouble(colIndex, ((Number) value).doubleValue());
+      break;
+    default:
+      row.addObject(colIndex, value);
+    }
+  }
+
+}
@@ -0,0 +1,141 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.mutation;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.KuduClient;
+import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartitionSchema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Staging tables of a cube whose rows are written as deltas.
+ *
+ * The delta table {@code <cube>-Delta} has the pk columns of the cube followed
+ * by {@code writer_id} and {@code batch_id}, every batch a writer flushes is
+ * inserted with a new batch id. Its non-pk columns are the measures of the cube
+ * followed by {@code consumed_by}, the id of the compaction that folded the
+ * delta into the cube. Folded deltas are kept as tombstones for a while so that
+ * a writer that sends a delta again fails with ALREADY_PRESENT.
+ *
+ * The log table {@code <cube>-DeltaLog} is used by {@link CubeCompactor} to
+ * make folding deltas into the cube restartable. Its pk is
+ * {@code compaction_id} and {@code seq}, every other column is nullable: the
+ * {@code kind} of the log row, the columns of the cube and the
+ * {@code writer_id} and {@code batch_id} of a consumed delta row.
+ */
+public final class CubeDeltaTables {
+
+  public static final String DELTA_TABLE_SUFFIX = "-Delta";
+  public static final String LOG_TABLE_SUFFIX = "-DeltaLog";
+
+  static final String WRITER_ID_COLUMN = "writer_id";
+  static final String BATCH_ID_COLUMN = "batch_id";
+  static final String CONSUMED_BY_COLUMN = "consumed_by";
+  static final String COMPACTION_ID_COLUMN = "compaction_id";
+  static final String SEQUENCE_COLUMN = "seq";
+  static final String KIND_COLUMN = "kind";
+
+  private CubeDeltaTables() {
+  }
+
+  /**
+   * @return whether the table is the delta or log table of a cube, these tables
+   *         are not exposed in the schema
+   */
+  public static boolean isDeltaTable(String tableName) {
+    return tableName.endsWith("Aggregation" + DELTA_TABLE_SUFFIX)
+        || tableName.endsWith("Aggregation" + LOG_TABLE_SUFFIX);
+  }
+
+  /**
+   * Opens the delta table of the cube, the table is created if it doesn't exist
+   * with the same hash partitioning as the cube
+   */
+  public static KuduTable openDeltaTable(KuduClient client, KuduTable cubeTable) throws KuduException {
+    final Schema cubeSchema = cubeTable.getSchema();
+    final int pkColumnCount = cubeSchema.getPrimaryKeyColumnCount();
+    final List<ColumnSchema> columns = new ArrayList<>(cubeSchema.getColumnCount() + 3);
+    for (int i = 0; i < pkColumnCount; i++) {
+      columns.add(copyColumn(cubeSchema.getColumnByIndex(i), true, false));
+    }
+    columns.add(new ColumnSchema.ColumnSchemaBuilder(WRITER_ID_COLUMN, Type.STRING).key(true).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder(BATCH_ID_COLUMN, Type.INT64).key(true).build());
+    for (int i = pkColumnCount; i < cubeSchema.getColumnCount(); i++) {
+      final ColumnSchema columnSchema = cubeSchema.getColumnByIndex(i);
+      columns.add(copyColumn(columnSchema, false, columnSchema.isNullable()));
+    }
+    columns.add(new ColumnSchema.ColumnSchemaBuilder(CONSUMED_BY_COLUMN, Type.INT64).nullable(true).build());
+
+    final CreateTableOptions options = new CreateTableOptions().setNumReplicas(cubeTable.getNumReplicas())
+        .setRangePartitionColumns(Collections.emptyList());
+    for (PartitionSchema.HashBucketSchema hashBucketSchema : cubeTable.getPartitionSchema().getHashBucketSchemas()) {
+      final List<String> hashColumns = new ArrayList<>();
+      for (int columnId : hashBucketSchema.getColumnIds()) {
+        hashColumns.add(cubeSchema.getColumnByIndex(cubeSchema.getColumnIndex(columnId)).getName());
+      }
+      options.addHashPartitions(hashColumns, hashBucketSchema.getNumBuckets());
+    }
+    return openOrCreate(client, cubeTable.getName() + DELTA_TABLE_SUFFIX, new Schema(columns), options);
+  }
+
+  /**
+   * Opens the log table of the cube, the table is created if it doesn't exist
+   */
+  public static KuduTable openLogTable(KuduClient client, KuduTable cubeTable) throws KuduException {
+    final Schema cubeSchema = cubeTable.getSchema();
+    final List<ColumnSchema> columns = new ArrayList<>(cubeSchema.getColumnCount() + 5);
+    columns.add(new ColumnSchema.ColumnSchemaBuilder(COMPACTION_ID_COLUMN, Type.INT64).key(true).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder(SEQUENCE_COLUMN, Type.INT32).key(true).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder(KIND_COLUMN, Type.INT8).build());
+    for (ColumnSchema columnSchema : cubeSchema.getColumns()) {
+      columns.add(copyColumn(columnSchema, false, true));
+    }
+    columns.add(new ColumnSchema.ColumnSchemaBuilder(WRITER_ID_COLUMN, Type.STRING).nullable(true).build());
+    columns.add(new ColumnSchema.ColumnSchemaBuilder(BATCH_ID_COLUMN, Type.INT64).nullable(true).build());
+
+    final CreateTableOptions options = new CreateTableOptions().setNumReplicas(cubeTable.getNumReplicas())
+        .setRangePartitionColumns(Collections.singletonList(COMPACTION_ID_COLUMN));
+    return openOrCreate(client, cubeTable.getName() + LOG_TABLE_SUFFIX, new Schema(columns), options);
+  }
+
+  private static ColumnSchema copyColumn(ColumnSchema columnSchema, boolean key, boolean nullable) {
+    return new ColumnSchema.ColumnSchemaBuilder(columnSchema.getName(), columnSchema.getType()).key(key)
+        .nullable(nullable).typeAttributes(columnSchema.getTypeAttributes()).build();
+  }
+
+  private static KuduTable openOrCreate(KuduClient client, String tableName, Schema schema, CreateTableOptions options)
+      throws KuduException {
+    if (!client.tableExists(tableName)) {
+      try {
+        client.createTable(tableName, schema, options);
+      } catch (KuduException e) {
+        // another writer created the table first
+        if (!e.getStatus().isAlreadyPresent()) {
+          throw e;
+        }
+      }
+    }
+    return client.openTable(tableName);
+  }
+
+}
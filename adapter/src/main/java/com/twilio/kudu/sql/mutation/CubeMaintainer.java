@@ -18,49 +18,81 @@ import com.twilio.kudu.sql.metadata.CubeTableInfo;
 import org.apache.calcite.avatica.util.DateTimeUtils;
 import com.twilio.kudu.sql.CalciteKuduTable;
 import org.apache.calcite.runtime.SqlFunctions;
-import org.apache.calcite.util.Pair;
+import org.apache.kudu.ColumnSchema;
 import org.apache.kudu.Schema;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Used to calculate aggregated values and upsert rows to the kudu cube tables
  */
 public class CubeMaintainer {
 
-  private final Map<Integer, Integer> pkColIndexMap = new HashMap<>();
-  private final Map<Integer, Integer> nonPkColIndexMap = new HashMap<>();
+  private final Schema cubeSchema;
+  // fact column index of each cube pk column (dimension)
+  private final int[] dimensionFactIndexes;
+  // fact column index of each cube non-pk column (measure), -1 for count_records
+  private final int[] measureFactIndexes;
   private final int timestampColIndex;
   private final boolean timestampOrderedDesc;
   private final CubeTableInfo.EventTimeAggregationType eventTimeAggregationType;
-  private int countRecordsColIndex;
+  private int countRecordsColIndex = -1;
+
+  /**
+   * Scratch space that the dimensions of a fact row are encoded into. Cube tables
+   * are shared by every connection, so each writer keeps its own buffer.
+   */
+  public static final class KeyBuffer {
+    private ByteBuffer buffer = ByteBuffer.allocate(64);
+
+    private ByteBuffer ensureCapacity(int length) {
+      if (buffer.remaining() < length) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+      }
+      return buffer;
+    }
+
+    private void putBytes(byte[] bytes) {
+      ensureCapacity(4 + bytes.length).putInt(bytes.length).put(bytes);
+    }
+  }
 
   public CubeMaintainer(CalciteKuduTable cubeCalciteKuduTable, CalciteKuduTable factCalciteKuduTable) {
-    Schema cubeSchema = cubeCalciteKuduTable.getKuduTable().getSchema();
+    cubeSchema = cubeCalciteKuduTable.getKuduTable().getSchema();
     Schema factSchema = factCalciteKuduTable.getKuduTable().getSchema();
     timestampColIndex = cubeCalciteKuduTable.getTimestampColumnIndex();
     timestampOrderedDesc = cubeCalciteKuduTable.isColumnOrderedDesc(timestampColIndex);
     eventTimeAggregationType = cubeCalciteKuduTable.getEventTimeAggregationType();
 
     // build map from cube pk column index to fact column index
+    dimensionFactIndexes = new int[cubeSchema.getPrimaryKeyColumnCount()];
     for (int cubeColIndex = 0; cubeColIndex < cubeSchema.getPrimaryKeyColumnCount(); ++cubeColIndex) {
       String cubeColumnName = cubeSchema.getColumnByIndex(cubeColIndex).getName();
-      pkColIndexMap.put(cubeColIndex, factSchema.getColumnIndex(cubeColumnName));
+      dimensionFactIndexes[cubeColIndex] = factSchema.getColumnIndex(cubeColumnName);
     }
 
     // build map from cube non-pk column index to fact column index
+    measureFactIndexes = new int[cubeSchema.getColumnCount() - cubeSchema.getPrimaryKeyColumnCount()];
     for (int cubeColIndex = cubeSchema.getPrimaryKeyColumnCount(); cubeColIndex < cubeSchema
         .getColumnCount(); ++cubeColIndex) {
       // non pk columns are measure of the format {measure}_{column_name} for eg
       // sum_amount
       // count_records is handled as a special case
       String cubeColumnName = cubeSchema.getColumnByIndex(cubeColIndex).getName();
+      int measure = cubeColIndex - cubeSchema.getPrimaryKeyColumnCount();
       if (cubeColumnName.equals("count_records")) {
         countRecordsColIndex = cubeColIndex;
+        measureFactIndexes[measure] = -1;
       } else {
         String factColumnName = cubeColumnName.substring(cubeColumnName.indexOf("_") + 1);
-        nonPkColIndexMap.put(cubeColIndex, factSchema.getColumnIndex(factColumnName));
+        measureFactIndexes[measure] = factSchema.getColumnIndex(factColumnName);
       }
     }
   }
@@ -85,52 +117,166 @@ public class CubeMaintainer {
     }
   }
 
+  /**
+   * @return the number of non-pk columns of the cube, measure {@code i} is the
+   *         cube column {@code primary key column count + i}
+   */
+  public int getMeasureCount() {
+    return measureFactIndexes.length;
+  }
+
+  /**
+   * @return the fact column index whose values are added to the measure, -1 for
+   *         the count_records column that is incremented by one for every row
+   */
+  public int getMeasureFactColumnIndex(int measure) {
+    return measureFactIndexes[measure];
+  }
+
+  /**
+   * @return the cube column index of count_records, -1 if the cube doesn't have
+   *         one
+   */
+  public int getCountRecordsColumnIndex() {
+    return countRecordsColIndex;
+  }
+
+  /**
+   * Truncates the event time column to the cube rollup time
+   *
+   * @param timestamp the event time as stored in the fact table
+   * @return the event time as stored in the cube table
+   */
+  private long truncateTimestamp(long timestamp) {
+    if (timestampOrderedDesc) {
+      long millis = CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MILLISECONDS - timestamp / 1000;
+      long truncatedMillis = SqlFunctions.floor(millis, getFloorMod());
+      return CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MICROSECONDS - truncatedMillis * 1000;
+    } else {
+      long truncatedMillis = SqlFunctions.floor(timestamp / 1000, getFloorMod());
+      return truncatedMillis * 1000;
+    }
+  }
+
   /**
    * Remaps the fact table columns to the cube table pk columns (dimensions) and
-   * the cube table non pk columns (measures) Also truncates the event time column
-   * to the cube rollup time
-   * 
-   * @param colIndexToValueMap map from fact table column index to column value
-   * @return pair of ( map from cube table pk column index to column value, map
-   *         from cube table non-pk column index to column value)
+   * encodes them, the event time column is truncated to the cube rollup time.
+   * Rows of the same cube row have equal keys.
+   *
+   * @param factRow   fact table column values indexed by fact table column index
+   * @param keyBuffer scratch space of the calling writer
+   * @return the encoded values of the cube pk columns
    */
-  public Pair<Map<Integer, Object>, Map<Integer, Object>> generateCubeDelta(Map<Integer, Object> colIndexToValueMap) {
-    Map<Integer, Object> pkColumnValuesMap = new HashMap<>();
-    Map<Integer, Object> nonPkColumnValuesMap = new HashMap<>();
-
-    // set column values for dimensions
-    for (Map.Entry<Integer, Integer> entry : pkColIndexMap.entrySet()) {
-      int cubeColIndex = entry.getKey();
-      int factColIndex = entry.getValue();
-      Object columnValue = colIndexToValueMap.get(factColIndex);
+  public byte[] encodeDimensions(Object[] factRow, KeyBuffer keyBuffer) {
+    keyBuffer.buffer.clear();
+    for (int cubeColIndex = 0; cubeColIndex < dimensionFactIndexes.length; ++cubeColIndex) {
+      Object columnValue = factRow[dimensionFactIndexes[cubeColIndex]];
+      ColumnSchema columnSchema = cubeSchema.getColumnByIndex(cubeColIndex);
+      if (columnValue == null) {
+        throw new IllegalArgumentException("Cube dimension " + columnSchema.getName() + " cannot be null");
+      }
       // if this is the timestamp column apply any truncation that is required to do
       // the rollup
       if (cubeColIndex == timestampColIndex) {
-        if (timestampOrderedDesc) {
-          Long timestamp = CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MILLISECONDS - (Long) columnValue / 1000;
-          Long truncatedTimestamp = SqlFunctions.floor(timestamp, getFloorMod());
-          pkColumnValuesMap.put(cubeColIndex,
-              CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MICROSECONDS - truncatedTimestamp * 1000);
-        } else {
-          Long timestamp = (Long) columnValue / 1000;
-          Long truncatedTimestamp = SqlFunctions.floor(timestamp, getFloorMod());
-          pkColumnValuesMap.put(cubeColIndex, truncatedTimestamp * 1000);
-        }
-      } else {
-        pkColumnValuesMap.put(cubeColIndex, columnValue);
+        columnValue = truncateTimestamp((Long) columnValue);
+      }
+      switch (columnSchema.getType()) {
+      case BOOL:
+        keyBuffer.ensureCapacity(1).put((byte) ((Boolean) columnValue ? 1 : 0));
+        break;
+      case INT8:
+        keyBuffer.ensureCapacity(1).put((Byte) columnValue);
+        break;
+      case INT16:
+        keyBuffer.ensureCapacity(2).putShort((Short) columnValue);
+        break;
+      case INT32:
+        keyBuffer.ensureCapacity(4).putInt((Integer) columnValue);
+        break;
+      case INT64:
+      case UNIXTIME_MICROS:
+        keyBuffer.ensureCapacity(8).putLong((Long) columnValue);
+        break;
+      case FLOAT:
+        keyBuffer.ensureCapacity(4).putFloat((Float) columnValue);
+        break;
+      case DOUBLE:
+        keyBuffer.ensureCapacity(8).putDouble((Double) columnValue);
+        break;
+      case STRING:
+      case VARCHAR:
+        keyBuffer.putBytes(((String) columnValue).getBytes(StandardCharsets.UTF_8));
+        break;
+      case BINARY:
+        keyBuffer.putBytes((byte[]) columnValue);
+        break;
+      case DECIMAL:
+        keyBuffer.putBytes(((BigDecimal) columnValue).setScale(columnSchema.getTypeAttributes().getScale())
+            .unscaledValue().toByteArray());
+        break;
+      default:
+        throw new UnsupportedOperationException(
+            "Cube dimension of type " + columnSchema.getType() + " is not " + "supported");
       }
     }
+    return Arrays.copyOf(keyBuffer.buffer.array(), keyBuffer.buffer.position());
+  }
 
-    // set column values for measures
-    for (Map.Entry<Integer, Integer> entry : nonPkColIndexMap.entrySet()) {
-      int cubeColIndex = entry.getKey();
-      int factColIndex = entry.getValue();
-      nonPkColumnValuesMap.put(cubeColIndex, colIndexToValueMap.get(factColIndex));
+  /**
+   * @param key encoded by {@link #encodeDimensions(Object[], KeyBuffer)}
+   * @return the values of the cube pk columns
+   */
+  public Object[] decodeDimensions(byte[] key) {
+    final ByteBuffer buffer = ByteBuffer.wrap(key);
+    final Object[] values = new Object[dimensionFactIndexes.length];
+    for (int cubeColIndex = 0; cubeColIndex < values.length; ++cubeColIndex) {
+      ColumnSchema columnSchema = cubeSchema.getColumnByIndex(cubeColIndex);
+      switch (columnSchema.getType()) {
+      case BOOL:
+        values[cubeColIndex] = buffer.get() == 1;
+        break;
+      case INT8:
+        values[cubeColIndex] = buffer.get();
+        break;
+      case INT16:
+        values[cubeColIndex] = buffer.getShort();
+        break;
+      case INT32:
+        values[cubeColIndex] = buffer.getInt();
+        break;
+      case INT64:
+      case UNIXTIME_MICROS:
+        values[cubeColIndex] = buffer.getLong();
+        break;
+      case FLOAT:
+        values[cubeColIndex] = buffer.getFloat();
+        break;
+      case DOUBLE:
+        values[cubeColIndex] = buffer.getDouble();
+        break;
+      case STRING:
+      case VARCHAR:
+        values[cubeColIndex] = new String(getBytes(buffer), StandardCharsets.UTF_8);
+        break;
+      case BINARY:
+        values[cubeColIndex] = getBytes(buffer);
+        break;
+      case DECIMAL:
+        values[cubeColIndex] = new BigDecimal(new BigInteger(getBytes(buffer)),
+            columnSchema.getTypeAttributes().getScale());
+        break;
+      default:
+        throw new UnsupportedOperationException(
+            "Cube dimension of type " + columnSchema.getType() + " is not " + "supported");
+      }
     }
-    // add 1 for the count_records columns
-    nonPkColumnValuesMap.put(countRecordsColIndex, 1l);
+    return values;
+  }
 
-    return new Pair<>(pkColumnValuesMap, nonPkColumnValuesMap);
+  private static byte[] getBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return bytes;
   }
 
 }
@@ -14,120 +14,512 @@
  */
 package com.twilio.kudu.sql.mutation;
 
+import com.stumbleupon.async.Deferred;
 import com.twilio.kudu.sql.CalciteModifiableKuduTable;
-import org.apache.calcite.util.Pair;
-import org.apache.kudu.Type;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.AsyncKuduScanner;
 import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.Operation;
 import org.apache.kudu.client.PartialRow;
-import org.apache.kudu.client.Upsert;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.RowResultIterator;
+import org.apache.kudu.client.RowError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
+/**
+ * Aggregates the rows written to a fact table into the rows of one of its cube
+ * tables. The dimensions of a cube row are encoded into a byte array by
+ * {@link CubeMaintainer} and its measures are kept in primitive arrays.
+ *
+ * At most {@code maxCachedRows} cube rows are kept in memory. Once a cube row
+ * has been flushed it can be evicted, the least recently written rows are
+ * evicted first. When every cached row still has to be flushed the rows are
+ * flushed early. A cube row that isn't in memory is aggregated from zero and
+ * the measures stored in Kudu are read and added to it before it is flushed.
+ *
+ * When the cube table is written as deltas the rows aren't read back, every
+ * flush inserts the measures aggregated since the previous flush into the delta
+ * table of the cube (see {@link CubeDeltaTables}) and clears the cached rows.
+ * The deltas of every writer are folded into the cube by a
+ * {@link CubeCompactor}. A delta row that failed is sent again unchanged with
+ * the same batch id, rows that succeeded are never sent again.
+ */
 public class CubeMutationState extends MutationState {
 
   private static final Logger logger = LoggerFactory.getLogger(CubeMutationState.class);
 
-  // map from dimensions (pk columns of cube table) to measures (non pk columns)
-  // the inner map is from column index to column value
-  // the event time column value is truncated to the cube time rollup
-  private final Map<Map<Integer, Object>, Map<Integer, Object>> aggregatedValues = new HashMap<>();
+  public static final int DEFAULT_MAX_CACHED_ROWS = 100_000;
+
+  // number of cube rows that are read from kudu concurrently
+  private static final int LOOKUP_BATCH_SIZE = 128;
+
+  /**
+   * How a measure is aggregated, the integer measures and the decimal measures
+   * that fit in a long are summed as longs.
+   */
+  private enum MeasureKind {
+    LONG, DECIMAL_LONG, DOUBLE, DECIMAL
+  }
+
+  private final CubeMaintainer cubeMaintainer;
+  private final CubeMaintainer.KeyBuffer keyBuffer = new CubeMaintainer.KeyBuffer();
+  private final int maxCachedRows;
+  private final int firstMeasureColIndex;
+  private final int countRecordsMeasure;
+  private final MeasureKind[] measureKinds;
+  // index of each measure in the longs, doubles or decimals of a cube row
+  private final int[] measureSlots;
+  private final int longCount;
+  private final int doubleCount;
+  private final int decimalCount;
+  private final boolean hasNullableMeasures;
+
+  // delta table the rows are inserted into, null when the cube rows are upserted
+  private final KuduTable deltaTable;
+  // identifies the deltas written by this state
+  private final String writerId = UUID.randomUUID().toString();
+  private long batchId = 0;
+
+  // cube rows in least recently written order
+  private final LinkedHashMap<CubeRowKey, CubeRow> cachedRows = new LinkedHashMap<>(16, 0.75f, true);
 
-  // set containing the cube pk row values that represent the current fact rows in
-  // the batch that
-  // were aggregated
-  // used so that we limit the data being upserted to each cube that is maintained
-  private final Set<Map<Integer, Object>> currentBatchAggregations = new HashSet<>();
+  // cube rows that were written to since the last flush, used so that we limit
+  // the data being upserted to each cube that is maintained
+  private final List<CubeRow> currentBatchAggregations = new ArrayList<>();
+
+  // delta rows that were sent and aren't known to be inserted, in the order they
+  // were sent
+  private final List<CubeRow> unacknowledgedDeltas = new ArrayList<>();
+  // the cube row of each operation sent by the last flush
+  private final Map<Operation, CubeRow> sentRows = new IdentityHashMap<>();
 
   public CubeMutationState(CalciteModifiableKuduTable calciteModifiableKuduTable) {
-    super(calciteModifiableKuduTable);
-  }
-
-  private Object increment(int columnIndex, Object currentValue, Object deltaValue) {
-    Type columnType = calciteModifiableKuduTable.getKuduTable().getSchema().getColumnByIndex(columnIndex).getType();
-    switch (columnType) {
-    case INT8:
-      return (byte) ((byte) currentValue + (byte) deltaValue);
-    case INT16:
-      return (short) ((short) currentValue + (short) deltaValue);
-    case INT32:
-      return (int) currentValue + (int) deltaValue;
-    case INT64:
-      return (long) currentValue + (long) deltaValue;
-    case FLOAT:
-      return (float) currentValue + (float) deltaValue;
-    case DOUBLE:
-      return (double) currentValue + (double) deltaValue;
-    case DECIMAL:
-      return ((BigDecimal) currentValue).add((BigDecimal) deltaValue);
-    default:
-      throw new UnsupportedOperationException("Aggregation over type " + columnType + " is not " + "supported");
+    this(calciteModifiableKuduTable, DEFAULT_MAX_CACHED_ROWS);
+  }
+
+  public CubeMutationState(CalciteModifiableKuduTable calciteModifiableKuduTable, int maxCachedRows) {
+    this(calciteModifiableKuduTable, maxCachedRows,
+        calciteModifiableKuduTable.isCubeDeltaWrites() ? openDeltaTable(calciteModifiableKuduTable) : null);
+  }
+
+  private CubeMutationState(CalciteModifiableKuduTable calciteModifiableKuduTable, int maxCachedRows,
+      KuduTable deltaTable) {
+    super(calciteModifiableKuduTable, deltaTable != null ? deltaTable : calciteModifiableKuduTable.getKuduTable());
+    if (maxCachedRows < 1) {
+      throw new IllegalArgumentException("maxCachedRows must be positive, was " + maxCachedRows);
+    }
+    this.cubeMaintainer = calciteModifiableKuduTable.getCubeMaintainer();
+    this.maxCachedRows = maxCachedRows;
+    final Schema cubeSchema = kuduTable.getSchema();
+    this.firstMeasureColIndex = cubeSchema.getPrimaryKeyColumnCount();
+    this.countRecordsMeasure = cubeMaintainer.getCountRecordsColumnIndex() - firstMeasureColIndex;
+    this.measureKinds = new MeasureKind[cubeMaintainer.getMeasureCount()];
+    this.measureSlots = new int[measureKinds.length];
+    int longs = 0;
+    int doubles = 0;
+    int decimals = 0;
+    boolean nullableMeasures = false;
+    for (int measure = 0; measure < measureKinds.length; measure++) {
+      final ColumnSchema columnSchema = cubeSchema.getColumnByIndex(firstMeasureColIndex + measure);
+      nullableMeasures |= columnSchema.isNullable();
+      switch (columnSchema.getType()) {
+      case INT8:
+      case INT16:
+      case INT32:
+      case INT64:
+        measureKinds[measure] = MeasureKind.LONG;
+        measureSlots[measure] = longs++;
+        break;
+      case DECIMAL:
+        if (columnSchema.getTypeAttributes().getPrecision() <= 18) {
+          measureKinds[measure] = MeasureKind.DECIMAL_LONG;
+          measureSlots[measure] = longs++;
+        } else {
+          measureKinds[measure] = MeasureKind.DECIMAL;
+          measureSlots[measure] = decimals++;
+        }
+        break;
+      case FLOAT:
+      case DOUBLE:
+        measureKinds[measure] = MeasureKind.DOUBLE;
+        measureSlots[measure] = doubles++;
+        break;
+      default:
+        throw new UnsupportedOperationException(
+            "Aggregation over type " + columnSchema.getType() + " is not " + "supported");
+      }
+    }
+    this.longCount = longs;
+    this.doubleCount = doubles;
+    this.decimalCount = decimals;
+    this.hasNullableMeasures = nullableMeasures;
+    this.deltaTable = deltaTable;
+  }
+
+  private static KuduTable openDeltaTable(CalciteModifiableKuduTable calciteModifiableKuduTable) {
+    final KuduTable cubeTable = calciteModifiableKuduTable.getKuduTable();
+    try {
+      return CubeDeltaTables.openDeltaTable(calciteModifiableKuduTable.getClient().syncClient(), cubeTable);
+    } catch (KuduException e) {
+      throw new RuntimeException("Unable to open the delta table of cube " + cubeTable.getName(), e);
+    }
+  }
+
+  /**
+   * Encoded dimensions of a cube row
+   */
+  private static final class CubeRowKey {
+    final byte[] dimensions;
+    final int hash;
+
+    CubeRowKey(byte[] dimensions) {
+      this.dimensions = dimensions;
+      this.hash = Arrays.hashCode(dimensions);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof CubeRowKey && Arrays.equals(dimensions, ((CubeRowKey) o).dimensions);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Aggregated measures of a cube row
+   */
+  private final class CubeRow {
+    final byte[] dimensions;
+    final long[] longs = new long[longCount];
+    final double[] doubles = doubleCount == 0 ? null : new double[doubleCount];
+    final BigDecimal[] decimals = decimalCount == 0 ? null : new BigDecimal[decimalCount];
+    // bit set of the measures that have a value, only used when a measure can be
+    // null
+    final long[] nonNullMeasures = hasNullableMeasures ? new long[(measureKinds.length + 63) >>> 6] : null;
+    // whether the row has to be upserted
+    boolean dirty = false;
+    // whether the measures include the values stored in kudu
+    boolean stored = false;
+    // the batch the row was inserted into the delta table with
+    long batchId;
+
+    CubeRow(byte[] dimensions) {
+      this.dimensions = dimensions;
+    }
+
+    boolean hasValue(int measure) {
+      return nonNullMeasures == null || (nonNullMeasures[measure >>> 6] & (1L << measure)) != 0;
     }
+
+    void add(int measure, Object value) {
+      if (value == null) {
+        return;
+      }
+      final int slot = measureSlots[measure];
+      switch (measureKinds[measure]) {
+      case LONG:
+        longs[slot] += ((Number) value).longValue();
+        break;
+      case DECIMAL_LONG:
+        longs[slot] = Math.addExact(longs[slot],
+            ((BigDecimal) value).setScale(decimalScale(measure)).unscaledValue().longValueExact());
+        break;
+      case DOUBLE:
+        doubles[slot] += ((Number) value).doubleValue();
+        break;
+      default:
+        decimals[slot] = decimals[slot] == null ? (BigDecimal) value : decimals[slot].add((BigDecimal) value);
+      }
+      if (nonNullMeasures != null) {
+        nonNullMeasures[measure >>> 6] |= 1L << measure;
+      }
+    }
+  }
+
+  private int decimalScale(int measure) {
+    return kuduTable.getSchema().getColumnByIndex(firstMeasureColIndex + measure).getTypeAttributes().getScale();
+  }
+
+  public int getCachedRowCount() {
+    return cachedRows.size();
   }
 
   /**
    * Updates the aggregated values for this cube table that is used to generate an
    * upsert when commit is called
+   *
+   * @param factRow the values of the fact row as stored in kudu, indexed by fact
+   *                column index
    */
-  @Override
-  protected void updateMutationState(Map<Integer, Object> colIndexToValueMap) {
-    Pair<Map<Integer, Object>, Map<Integer, Object>> cubeDeltaRow = calciteModifiableKuduTable.getCubeMaintainer()
-        .generateCubeDelta(colIndexToValueMap);
-
-    if (aggregatedValues.containsKey(cubeDeltaRow.left)) {
-      Map<Integer, Object> currentAggregatedColValues = aggregatedValues.get(cubeDeltaRow.left);
-      for (Map.Entry<Integer, Object> entry : currentAggregatedColValues.entrySet()) {
-        Integer colIndex = entry.getKey();
-        Object currentValue = entry.getValue();
-        Object deltaValue = cubeDeltaRow.right.get(colIndex);
-        currentAggregatedColValues.put(colIndex, increment(colIndex, currentValue, deltaValue));
+  void updateMutationState(Object[] factRow) {
+    final byte[] dimensions = cubeMaintainer.encodeDimensions(factRow, keyBuffer);
+    final CubeRowKey key = new CubeRowKey(dimensions);
+    CubeRow cubeRow = cachedRows.get(key);
+    if (cubeRow == null) {
+      cubeRow = new CubeRow(dimensions);
+      cachedRows.put(key, cubeRow);
+    }
+    for (int measure = 0; measure < measureKinds.length; measure++) {
+      if (measure == countRecordsMeasure) {
+        // add 1 for the count_records columns
+        cubeRow.add(measure, 1L);
+      } else {
+        cubeRow.add(measure, factRow[cubeMaintainer.getMeasureFactColumnIndex(measure)]);
       }
-    } else {
-      aggregatedValues.put(cubeDeltaRow.left, cubeDeltaRow.right);
     }
-    currentBatchAggregations.add(cubeDeltaRow.left);
+    if (!cubeRow.dirty) {
+      cubeRow.dirty = true;
+      currentBatchAggregations.add(cubeRow);
+    }
+    evict();
   }
 
-  @Override
-  public void flush() {
-    if (currentBatchAggregations.isEmpty()) {
-      return;
+  /**
+   * Evicts the least recently written rows that were flushed. Rows become dirty
+   * when they are written to, which moves them after every flushed row, so when
+   * the eldest row is dirty every row is and they are flushed first.
+   */
+  private void evict() {
+    while (cachedRows.size() > maxCachedRows) {
+      final Iterator<CubeRow> eldest = cachedRows.values().iterator();
+      if (eldest.next().dirty) {
+        flush();
+      } else {
+        eldest.remove();
+      }
     }
-    long startTime = System.currentTimeMillis();
-    int mutationCount = 0;
-    try {
-      for (Map<Integer, Object> cubePK : currentBatchAggregations) {
-        final Upsert upsert = kuduTable.newUpsert();
-        final PartialRow partialRow = upsert.getRow();
-        // set the pk values
-        for (Map.Entry<Integer, Object> pkEntry : cubePK.entrySet()) {
-          partialRow.addObject(pkEntry.getKey(), pkEntry.getValue());
+  }
+
+  /**
+   * Adds the measures stored in kudu to the cube rows that weren't read yet. Rows
+   * are looked up concurrently in batches of {@link #LOOKUP_BATCH_SIZE}.
+   */
+  private void readStoredMeasures() {
+    final List<CubeRow> unreadRows = new ArrayList<>();
+    for (CubeRow cubeRow : currentBatchAggregations) {
+      if (!cubeRow.stored) {
+        unreadRows.add(cubeRow);
+      }
+    }
+    final Schema cubeSchema = kuduTable.getSchema();
+    final List<Integer> measureColumns = new ArrayList<>(measureKinds.length);
+    for (int measure = 0; measure < measureKinds.length; measure++) {
+      measureColumns.add(firstMeasureColIndex + measure);
+    }
+    for (int batchStart = 0; batchStart < unreadRows.size(); batchStart += LOOKUP_BATCH_SIZE) {
+      final List<CubeRow> batch = unreadRows.subList(batchStart,
+          Math.min(unreadRows.size(), batchStart + LOOKUP_BATCH_SIZE));
+      final List<AsyncKuduScanner> scanners = new ArrayList<>(batch.size());
+      final List<Deferred<RowResultIterator>> lookups = new ArrayList<>(batch.size());
+      for (CubeRow cubeRow : batch) {
+        final AsyncKuduScanner.AsyncKuduScannerBuilder builder = calciteModifiableKuduTable.getClient()
+            .newScannerBuilder(kuduTable).setProjectedColumnIndexes(measureColumns);
+        final Object[] dimensionValues = cubeMaintainer.decodeDimensions(cubeRow.dimensions);
+        for (int i = 0; i < dimensionValues.length; i++) {
+          builder.addPredicate(KuduPredicate.newComparisonPredicate(cubeSchema.getColumnByIndex(i),
+              KuduPredicate.ComparisonOp.EQUAL, dimensionValues[i]));
         }
-        // set the non pk values
-        for (Map.Entry<Integer, Object> nonPkEntry : aggregatedValues.get(cubePK).entrySet()) {
-          partialRow.addObject(nonPkEntry.getKey(), nonPkEntry.getValue());
+        final AsyncKuduScanner scanner = builder.build();
+        scanners.add(scanner);
+        lookups.add(scanner.nextRows());
+      }
+      try {
+        for (int i = 0; i < batch.size(); i++) {
+          final AsyncKuduScanner scanner = scanners.get(i);
+          RowResultIterator rows = lookups.get(i).join();
+          while (true) {
+            while (rows != null && rows.hasNext()) {
+              addStoredMeasures(batch.get(i), rows.next());
+            }
+            if (!scanner.hasMoreRows()) {
+              break;
+            }
+            rows = scanner.nextRows().join();
+          }
+          batch.get(i).stored = true;
         }
-        session.apply(upsert);
-        // TODO make this configurable
-        if (mutationCount++ % 1000 == 0) {
-          session.flush();
+      } catch (Exception e) {
+        throw new RuntimeException("Unable to read the stored rows of cube " + kuduTable.getName(), e);
+      }
+    }
+  }
+
+  private void addStoredMeasures(CubeRow cubeRow, RowResult rowResult) {
+    // the projection only contains the measures
+    for (int measure = 0; measure < measureKinds.length; measure++) {
+      if (rowResult.isNull(measure)) {
+        continue;
+      }
+      cubeRow.add(measure, rowResult.getObject(measure));
+    }
+  }
+
+  /**
+   * @param firstColIndex index of the column of the first measure in the row
+   */
+  private void setMeasures(CubeRow cubeRow, PartialRow partialRow, int firstColIndex) {
+    final Schema cubeSchema = kuduTable.getSchema();
+    for (int measure = 0; measure < measureKinds.length; measure++) {
+      final int colIndex = firstColIndex + measure;
+      final ColumnSchema columnSchema = cubeSchema.getColumnByIndex(firstMeasureColIndex + measure);
+      if (!cubeRow.hasValue(measure) && columnSchema.isNullable()) {
+        partialRow.setNull(colIndex);
+        continue;
+      }
+      final int slot = measureSlots[measure];
+      switch (columnSchema.getType()) {
+      case INT8:
+        partialRow.addByte(colIndex, (byte) cubeRow.longs[slot]);
+        break;
+      case INT16:
+        partialRow.addShort(colIndex, (short) cubeRow.longs[slot]);
+        break;
+      case INT32:
+        partialRow.addInt(colIndex, (int) cubeRow.longs[slot]);
+        break;
+      case INT64:
+        partialRow.addLong(colIndex, cubeRow.longs[slot]);
+        break;
+      case FLOAT:
+        partialRow.addFloat(colIndex, (float) cubeRow.doubles[slot]);
+        break;
+      case DOUBLE:
+        partialRow.addDouble(colIndex, cubeRow.doubles[slot]);
+        break;
+      default:
+        if (measureKinds[measure] == MeasureKind.DECIMAL_LONG) {
+          partialRow.addDecimal(colIndex, BigDecimal.valueOf(cubeRow.longs[slot], decimalScale(measure)));
+        } else {
+          partialRow.addDecimal(colIndex,
+              cubeRow.decimals[slot] == null ? BigDecimal.ZERO.setScale(decimalScale(measure))
+                  : cubeRow.decimals[slot]);
         }
       }
-      // send the last batch
-      session.flush();
-    } catch (KuduException e) {
-      throw new RuntimeException(e);
-    } finally {
-      // clear the list of cube pk values
+    }
+  }
+
+  @Override
+  public void flush() {
+    completeFlush(AsyncWritePipeline.join(startFlush()));
+  }
+
+  /**
+   * Sends the cube rows that were written to since the last flush without waiting
+   * for them to be applied.
+   *
+   * When the cube table is written as deltas the rows are inserted into its delta
+   * table as a new batch. The rows of the batch are no longer written to, the
+   * rows written from now on are aggregated from zero into the next batch. Rows
+   * whose insert isn't known to have succeeded are sent again by the next flush
+   * with the batch id they were first sent with, so a row that was already
+   * inserted fails with ALREADY_PRESENT even if it was folded into the cube since
+   * (see {@link CubeCompactor}).
+   *
+   * @return the row errors of the cube rows, once they are all applied
+   */
+  Deferred<List<RowError>> startFlush() {
+    sentRows.clear();
+    final List<CubeRow> rows;
+    if (deltaTable == null) {
+      readStoredMeasures();
+      rows = currentBatchAggregations;
+    } else {
+      if (!currentBatchAggregations.isEmpty()) {
+        for (CubeRow cubeRow : currentBatchAggregations) {
+          cubeRow.batchId = batchId;
+        }
+        unacknowledgedDeltas.addAll(currentBatchAggregations);
+        currentBatchAggregations.clear();
+        cachedRows.clear();
+        batchId++;
+      }
+      rows = unacknowledgedDeltas;
+    }
+    if (rows.isEmpty()) {
+      return Deferred.fromResult(Collections.emptyList());
+    }
+    for (CubeRow cubeRow : rows) {
+      final Operation operation = deltaTable == null ? kuduTable.newUpsert() : deltaTable.newInsert();
+      final PartialRow partialRow = operation.getRow();
+      // set the pk values
+      final Object[] dimensionValues = cubeMaintainer.decodeDimensions(cubeRow.dimensions);
+      for (int i = 0; i < dimensionValues.length; i++) {
+        partialRow.addObject(i, dimensionValues[i]);
+      }
+      // set the non pk values
+      if (deltaTable == null) {
+        setMeasures(cubeRow, partialRow, firstMeasureColIndex);
+      } else {
+        partialRow.addString(firstMeasureColIndex, writerId);
+        partialRow.addLong(firstMeasureColIndex + 1, cubeRow.batchId);
+        setMeasures(cubeRow, partialRow, firstMeasureColIndex + 2);
+      }
+      sentRows.put(operation, cubeRow);
+      writePipeline.apply(operation);
+    }
+    return writePipeline.flush();
+  }
+
+  /**
+   * Called once the rows sent by {@link #startFlush()} were applied. When the
+   * cube rows are upserted they stay dirty and are sent again by the next flush
+   * if any of them failed, when they are written as deltas only the rows that
+   * failed are sent again.
+   */
+  void completeFlush(List<RowError> rowErrors) {
+    if (sentRows.isEmpty()) {
+      return;
+    }
+    final Set<CubeRow> failedRows = Collections.newSetFromMap(new IdentityHashMap<>());
+    RowError firstError = null;
+    for (RowError rowError : rowErrors) {
+      // a delta row that was inserted by an earlier attempt
+      if (deltaTable != null && rowError.getErrorStatus().isAlreadyPresent()) {
+        continue;
+      }
+      failedRows.add(sentRows.get(rowError.getOperation()));
+      if (firstError == null) {
+        firstError = rowError;
+      }
+    }
+    final int rowCount = sentRows.size();
+    sentRows.clear();
+    if (deltaTable == null) {
+      if (firstError != null) {
+        throw new RuntimeException("Unable to write cube row " + firstError);
+      }
+      // the rows can be evicted once they are flushed
+      for (CubeRow cubeRow : currentBatchAggregations) {
+        cubeRow.dirty = false;
+      }
       currentBatchAggregations.clear();
+    } else {
+      unacknowledgedDeltas.removeIf(cubeRow -> !failedRows.contains(cubeRow));
+      if (firstError != null) {
+        throw new RuntimeException("Unable to write " + failedRows.size() + " delta rows of cube " + kuduTable.getName()
+            + ", they are sent again by the next flush " + firstError);
+      }
     }
-    logger.info("Map size " + aggregatedValues.size() + " rows. Flushed " + mutationCount + " cube " + "rows in "
-        + (System.currentTimeMillis() - startTime) + " ms.");
+    logger.info("Cached " + cachedRows.size() + " rows. Flushed " + rowCount + " rows of cube " + kuduTable.getName());
   }
 
 }
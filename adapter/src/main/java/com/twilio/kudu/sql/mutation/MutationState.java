@@ -14,129 +14,92 @@
  */
 package com.twilio.kudu.sql.mutation;
 
+import com.stumbleupon.async.Deferred;
 import com.twilio.kudu.sql.CalciteModifiableKuduTable;
-import org.apache.calcite.avatica.util.ByteString;
 import com.twilio.kudu.sql.CalciteKuduTable;
 import org.apache.calcite.rex.RexLiteral;
-import org.apache.kudu.ColumnSchema;
-import org.apache.kudu.client.AsyncKuduSession;
 import org.apache.kudu.client.Insert;
-import org.apache.kudu.client.KuduException;
-import org.apache.kudu.client.KuduSession;
 import org.apache.kudu.client.KuduTable;
-import org.apache.kudu.client.OperationResponse;
-import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Buffers the rows written to a table and the rows of its cube tables that they
+ * change. The rows are sent by an {@link AsyncWritePipeline} for each table,
+ * {@link #flush()} sends the last rows of the fact table and of every cube
+ * table at once and then waits for all of them to be applied.
+ */
 public class MutationState {
 
   private static final Logger logger = LoggerFactory.getLogger(MutationState.class);
 
   protected final CalciteModifiableKuduTable calciteModifiableKuduTable;
   protected final KuduTable kuduTable;
-  protected final KuduSession session;
+  protected final AsyncWritePipeline writePipeline;
 
   private int numFactRowsInBatch = 0;
 
   private List<CubeMutationState> cubeMutationStateList = new ArrayList<>();
 
+  // encoder of each list of columns that was inserted
+  private final Map<List<Integer>, RowEncoder> rowEncoders = new HashMap<>();
+  // reused to pass the values of each row to the cube tables, null if there
+  // aren't any
+  private final Object[] factRow;
+
   public MutationState(final CalciteModifiableKuduTable calciteModifiableKuduTable) {
+    this(calciteModifiableKuduTable, calciteModifiableKuduTable.getKuduTable());
+  }
+
+  /**
+   * @param writeTable the table whose operations are routed to the tablet servers
+   *                   that lead their tablets when partitioned writes are enabled
+   */
+  protected MutationState(final CalciteModifiableKuduTable calciteModifiableKuduTable, final KuduTable writeTable) {
     this.calciteModifiableKuduTable = calciteModifiableKuduTable;
     this.kuduTable = calciteModifiableKuduTable.getKuduTable();
-    this.session = calciteModifiableKuduTable.getClient().syncClient().newSession();
-    session.setFlushMode(AsyncKuduSession.FlushMode.MANUAL_FLUSH);
+    this.writePipeline = calciteModifiableKuduTable.isPartitionedWrites()
+        ? new PartitionedWritePipeline(calciteModifiableKuduTable.getClient(),
+            calciteModifiableKuduTable.getWriteWindowBytes(), writeTable)
+        : new AsyncWritePipeline(calciteModifiableKuduTable.getClient(),
+            calciteModifiableKuduTable.getWriteWindowBytes());
     for (CalciteKuduTable cubeTable : this.calciteModifiableKuduTable.getCubeTables()) {
       cubeMutationStateList.add(new CubeMutationState((CalciteModifiableKuduTable) cubeTable));
     }
+    this.factRow = cubeMutationStateList.isEmpty() ? null : new Object[kuduTable.getSchema().getColumnCount()];
   }
 
   /**
-   * Returns the Java type that a literal should be converted to
+   * @return the encoder of the columns, encoders are created once for each list
+   *         of columns that is inserted
    */
-  private Class getDataType(int columnIndex) {
-    ColumnSchema col = kuduTable.getSchema().getColumnByIndex(columnIndex);
-    switch (col.getType()) {
-    case BOOL:
-      return Boolean.class;
-    case INT8:
-      return Byte.class;
-    case INT16:
-      return Short.class;
-    case INT32:
-      return Integer.class;
-    case INT64:
-    case UNIXTIME_MICROS:
-      return Long.class;
-    case FLOAT:
-      return Float.class;
-    case DOUBLE:
-      return Double.class;
-    case STRING:
-      return String.class;
-    case BINARY:
-      return byte[].class;
-    case DECIMAL:
-      return BigDecimal.class;
-    default:
-      throw new IllegalArgumentException("Unsupported column type: " + col.getType());
+  private RowEncoder getRowEncoder(final List<Integer> columnIndexes) {
+    RowEncoder rowEncoder = rowEncoders.get(columnIndexes);
+    if (rowEncoder == null) {
+      rowEncoder = new RowEncoder(calciteModifiableKuduTable, columnIndexes);
+      rowEncoders.put(new ArrayList<>(columnIndexes), rowEncoder);
     }
+    return rowEncoder;
   }
 
   /**
-   * Returns the column value to be stored in kudu. For primary columns that are
-   * stored in descending order, we invert the column value so that they natural
-   * ordering is inverted To invert a column value : COL_MAX_VAL - value +
-   * COL_MIN_VAL which can be simplified to : -1 - value This translates the max
-   * column value to the min column value, min column value to the max column
-   * value and all the values in between are similarly translated.
-   *
-   * For descending ordered timestamps, we just subtract from
-   * EPOCH_DAY_FOR_REVERSE_SORT since we don't allow negative timestamps
+   * @return the array the values stored in kudu are set in for the cube tables,
+   *         null if there aren't any
    */
-  private Object getColumnValue(int colIndex, Object value) {
-    if (value == null) {
-      return value;
-    }
-    ColumnSchema col = kuduTable.getSchema().getColumnByIndex(colIndex);
-    if (calciteModifiableKuduTable.isColumnOrderedDesc(colIndex)) {
-      switch (col.getType()) {
-      case INT8:
-        return (byte) (-1 - (byte) value);
-      case INT16:
-        return (short) (-1 - (short) value);
-      case INT32:
-        return -1 - (int) value;
-      case INT64:
-        return -1l - (long) value;
-      case UNIXTIME_MICROS:
-        long timestamp = (long) value;
-        if (timestamp < 0) {
-          throw new IllegalArgumentException(
-              "Storing negative timstamp values for a column " + "ordered descending is not supported");
-        }
-        return (CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MILLISECONDS - timestamp) * 1000;
-      case BINARY:
-        return ((ByteString) value).getBytes();
-      default:
-        return value;
-      }
-    } else {
-      switch (col.getType()) {
-      case UNIXTIME_MICROS:
-        return ((Long) value) * 1000;
-      case BINARY:
-        return ((ByteString) value).getBytes();
-      default:
-        return value;
-      }
+  private Object[] clearFactRow() {
+    if (factRow != null) {
+      Arrays.fill(factRow, null);
     }
+    return factRow;
   }
 
   /**
@@ -148,15 +111,14 @@ public class MutationState {
    * @return number of rows inserted
    */
   public int mutateTuples(final List<Integer> columnIndexes, final List<List<RexLiteral>> tuples) {
+    final RowEncoder rowEncoder = getRowEncoder(columnIndexes);
     for (List<RexLiteral> tuple : tuples) {
-      Map<Integer, Object> colIndexToValueMap = new HashMap<>();
-      for (int i = 0; i < columnIndexes.size(); ++i) {
-        int columnIndex = columnIndexes.get(i);
-        Class dataType = getDataType(columnIndexes.get(i));
-        Object value = getColumnValue(columnIndex, tuple.get(i).getValueAs(dataType));
-        colIndexToValueMap.put(columnIndex, value);
+      final Insert insert = kuduTable.newInsert();
+      final Object[] factRow = clearFactRow();
+      for (int i = 0; i < rowEncoder.getColumnCount(); ++i) {
+        rowEncoder.encode(insert.getRow(), factRow, i, tuple.get(i).getValueAs(rowEncoder.getLiteralType(i)));
       }
-      updateMutationState(colIndexToValueMap);
+      apply(insert, factRow);
     }
     return tuples.size();
   }
@@ -169,64 +131,115 @@ public class MutationState {
    * @return number of rows inserted
    */
   public int mutateRow(final List<Integer> columnIndexes, final List<Object> values) {
-    Map<Integer, Object> colIndexToValueMap = new HashMap<>();
-    for (int i = 0; i < columnIndexes.size(); ++i) {
-      int columnIndex = columnIndexes.get(i);
-      colIndexToValueMap.put(columnIndex, getColumnValue(columnIndex, values.get(i)));
+    final RowEncoder rowEncoder = getRowEncoder(columnIndexes);
+    final Insert insert = kuduTable.newInsert();
+    final Object[] factRow = clearFactRow();
+    for (int i = 0; i < rowEncoder.getColumnCount(); ++i) {
+      rowEncoder.encode(insert.getRow(), factRow, i, values.get(i));
     }
-    updateMutationState(colIndexToValueMap);
+    apply(insert, factRow);
     return 1;
   }
 
   /**
-   * Creates a mutation for the row being inserted and adds it to the kudu
-   * session. Also calls {@code updateMutationState()} for all cube tables (if any
-   * exist).
+   * Mutate Kudu table using the parameter values of a batch of rows.
    *
-   * @param colIndexToValueMap Kudu index to new value mapping
+   * @param columnIndexes the kudu indexes to mutate
+   * @param rows          the values of each row in the order of
+   *                      {@code columnIndexes}
+   * @return number of rows inserted
    */
-  protected void updateMutationState(Map<Integer, Object> colIndexToValueMap) {
-    final Insert insert = kuduTable.newInsert();
-    final PartialRow partialRow = insert.getRow();
-    for (Map.Entry<Integer, Object> entry : colIndexToValueMap.entrySet()) {
-      partialRow.addObject(entry.getKey(), entry.getValue());
-    }
-    try {
-      session.apply(insert);
-      ++numFactRowsInBatch;
-    } catch (KuduException e) {
-      throw new RuntimeException(e);
+  public int mutateRows(final List<Integer> columnIndexes, final List<Object[]> rows) {
+    final RowEncoder rowEncoder = getRowEncoder(columnIndexes);
+    for (Object[] values : rows) {
+      final Insert insert = kuduTable.newInsert();
+      final Object[] factRow = clearFactRow();
+      for (int i = 0; i < rowEncoder.getColumnCount(); ++i) {
+        rowEncoder.encode(insert.getRow(), factRow, i, values[i]);
+      }
+      apply(insert, factRow);
     }
+    return rows.size();
+  }
+
+  /**
+   * Adds the mutation of the row being inserted to the kudu session. Also calls
+   * {@code updateMutationState()} for all cube tables (if any exist).
+   *
+   * @param factRow the values stored in kudu indexed by kudu column index
+   */
+  private void apply(Insert insert, Object[] factRow) {
+    writePipeline.apply(insert);
+    ++numFactRowsInBatch;
 
     // update aggregated values for each cube table
-    for (MutationState cubeMutationState : cubeMutationStateList) {
-      cubeMutationState.updateMutationState(colIndexToValueMap);
+    for (CubeMutationState cubeMutationState : cubeMutationStateList) {
+      cubeMutationState.updateMutationState(factRow);
     }
   }
 
   public void flush() {
-    if (numFactRowsInBatch == 0) {
+    flush(Collections.singletonList(this));
+  }
+
+  /**
+   * Sends the rows of every fact table and of their cube tables before waiting
+   * for any of them to be applied
+   */
+  public static void flush(Collection<MutationState> mutationStates) {
+    final long startTime = System.currentTimeMillis();
+    final List<MutationState> flushedStates = new ArrayList<>(mutationStates.size());
+    final List<Deferred<ArrayList<List<RowError>>>> flushes = new ArrayList<>(mutationStates.size());
+    for (MutationState mutationState : mutationStates) {
+      if (mutationState.numFactRowsInBatch > 0) {
+        flushedStates.add(mutationState);
+        flushes.add(mutationState.startFlushes());
+      }
+    }
+    if (flushes.isEmpty()) {
       return;
     }
-    try {
-      long startTime = System.currentTimeMillis();
-      // flush fact table rows
-      List<OperationResponse> responseList = session.flush();
-      for (OperationResponse op : responseList) {
-        if (op != null && op.hasRowError() && op.getRowError().getErrorStatus().isAlreadyPresent()) {
-          throw new RuntimeException("Row already exists " + op.getRowError().getOperation());
+    final List<ArrayList<List<RowError>>> rowErrors = AsyncWritePipeline.join(Deferred.groupInOrder(flushes));
+    RuntimeException failure = null;
+    for (int i = 0; i < flushedStates.size(); i++) {
+      try {
+        flushedStates.get(i).completeFlushes(rowErrors.get(i), startTime);
+      } catch (RuntimeException e) {
+        // the other tables are still completed
+        if (failure == null) {
+          failure = e;
         }
       }
-      logger
-          .info("Flushed " + numFactRowsInBatch + " fact rows in " + (System.currentTimeMillis() - startTime) + " ms");
-      numFactRowsInBatch = 0;
-      // flush aggregated values for each cube table
-      for (MutationState cubeMutationState : cubeMutationStateList) {
-        cubeMutationState.flush();
-      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
 
-    } catch (KuduException e) {
-      throw new RuntimeException(e);
+  /**
+   * @return the row errors of the fact table followed by those of each cube
+   *         table, once every row was applied
+   */
+  private Deferred<ArrayList<List<RowError>>> startFlushes() {
+    final List<Deferred<List<RowError>>> flushes = new ArrayList<>(cubeMutationStateList.size() + 1);
+    flushes.add(writePipeline.flush());
+    for (CubeMutationState cubeMutationState : cubeMutationStateList) {
+      flushes.add(cubeMutationState.startFlush());
+    }
+    return Deferred.groupInOrder(flushes);
+  }
+
+  private void completeFlushes(List<List<RowError>> rowErrors, long startTime) {
+    logger.info("Flushed " + numFactRowsInBatch + " fact rows of " + kuduTable.getName() + " and "
+        + cubeMutationStateList.size() + " cubes in " + (System.currentTimeMillis() - startTime) + " ms");
+    numFactRowsInBatch = 0;
+    for (int i = 0; i < cubeMutationStateList.size(); i++) {
+      cubeMutationStateList.get(i).completeFlush(rowErrors.get(i + 1));
+    }
+    for (RowError rowError : rowErrors.get(0)) {
+      if (rowError.getErrorStatus().isAlreadyPresent()) {
+        throw new RuntimeException("Row already exists " + rowError.getOperation());
+      }
     }
   }
 
@@ -0,0 +1,140 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.mutation;
+
+import com.stumbleupon.async.Deferred;
+import org.apache.kudu.client.AsyncKuduClient;
+import org.apache.kudu.client.KuduPartitioner;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.LocatedTablet;
+import org.apache.kudu.client.NonCoveredRangeException;
+import org.apache.kudu.client.Operation;
+import org.apache.kudu.client.Partition;
+import org.apache.kudu.client.RowError;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes the operations of a table to an {@link AsyncWritePipeline} for each
+ * tablet server. The partition schema of the table is used to find the tablet
+ * of an operation and the operation is buffered by the pipeline of the tablet
+ * server that leads the tablet, so a slow tablet server only holds back the
+ * buffers sent to it. Each tablet server has up to {@code windowBytes} of
+ * operations buffered or in flight and {@link #flush()} flushes every tablet
+ * server at once.
+ *
+ * The tablets are located when the first operation after a flush is applied, so
+ * leadership changes are picked up at the next flush. Operations of other
+ * tables and operations whose tablet can't be located are sent through the
+ * session of this pipeline, which reports the row errors of rows that aren't
+ * covered by a range partition.
+ */
+public class PartitionedWritePipeline extends AsyncWritePipeline {
+
+  private final AsyncKuduClient client;
+  private final KuduTable table;
+  private final long windowBytes;
+
+  // pipeline of each tablet server, keyed by host:port
+  private final Map<String, AsyncWritePipeline> serverPipelines = new LinkedHashMap<>();
+
+  // partitioner of the tablets located since the last flush, null if they weren't
+  // located yet
+  private KuduPartitioner partitioner;
+  // pipeline of the leader of each partition, null if the tablet has no leader
+  private AsyncWritePipeline[] partitionPipelines;
+
+  public PartitionedWritePipeline(AsyncKuduClient client, long windowBytes, KuduTable table) {
+    super(client, windowBytes);
+    this.client = client;
+    this.table = table;
+    this.windowBytes = windowBytes;
+  }
+
+  @Override
+  public void apply(Operation operation) {
+    AsyncWritePipeline serverPipeline = null;
+    if (operation.getRow().getSchema() == table.getSchema()) {
+      if (partitioner == null) {
+        locateTablets();
+      }
+      try {
+        serverPipeline = partitionPipelines[partitioner.partitionRow(operation.getRow())];
+      } catch (NonCoveredRangeException e) {
+        // kudu returns a row error for the operation
+      }
+    }
+    if (serverPipeline == null) {
+      super.apply(operation);
+    } else {
+      serverPipeline.apply(operation);
+    }
+  }
+
+  private void locateTablets() {
+    final List<LocatedTablet> tablets = join(
+        table.asyncGetTabletsLocations(client.getDefaultAdminOperationTimeoutMs()));
+    // the partitioner numbers the partitions in the order of the map
+    final Map<String, Partition> tabletPartitions = new LinkedHashMap<>();
+    partitionPipelines = new AsyncWritePipeline[tablets.size()];
+    for (int i = 0; i < tablets.size(); i++) {
+      final LocatedTablet tablet = tablets.get(i);
+      tabletPartitions.put(new String(tablet.getTabletId(), StandardCharsets.UTF_8), tablet.getPartition());
+      final LocatedTablet.Replica leader = tablet.getLeaderReplica();
+      if (leader != null) {
+        partitionPipelines[i] = serverPipelines.computeIfAbsent(leader.getRpcHost() + ":" + leader.getRpcPort(),
+            server -> new AsyncWritePipeline(client, windowBytes));
+      }
+    }
+    partitioner = new KuduPartitioner(table.getPartitionSchema(), tabletPartitions);
+  }
+
+  /**
+   * @return the number of tablet servers that operations were routed to
+   */
+  int getTabletServerCount() {
+    return serverPipelines.size();
+  }
+
+  /**
+   * Sends the buffered operations of every tablet server without waiting for them
+   * to be applied
+   *
+   * @return the row errors of every operation applied since the last flush, once
+   *         they are all applied
+   */
+  @Override
+  public Deferred<List<RowError>> flush() {
+    final List<Deferred<List<RowError>>> flushes = new ArrayList<>(serverPipelines.size() + 1);
+    flushes.add(super.flush());
+    for (AsyncWritePipeline serverPipeline : serverPipelines.values()) {
+      flushes.add(serverPipeline.flush());
+    }
+    partitioner = null;
+    partitionPipelines = null;
+    return Deferred.groupInOrder(flushes).addCallback(serverErrors -> {
+      final List<RowError> errors = new ArrayList<>();
+      for (List<RowError> rowErrors : serverErrors) {
+        errors.addAll(rowErrors);
+      }
+      return errors;
+    });
+  }
+
+}
@@ -0,0 +1,260 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.mutation;
+
+import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.CalciteModifiableKuduTable;
+import org.apache.calcite.avatica.util.ByteString;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.PartialRow;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Writes the values of the columns an INSERT binds into a {@link PartialRow}.
+ * The conversion of each column is chosen once when the encoder is created, so
+ * that values are written with the typed setter of the column instead of
+ * switching on the column type for every value.
+ *
+ * The value stored in kudu is the value of the column, except for primary key
+ * columns that are stored in descending order whose value is inverted so that
+ * their natural ordering is inverted. To invert a column value : COL_MAX_VAL -
+ * value + COL_MIN_VAL which can be simplified to : -1 - value This translates
+ * the max column value to the min column value, min column value to the max
+ * column value and all the values in between are similarly translated.
+ *
+ * For descending ordered timestamps, we just subtract from
+ * EPOCH_FOR_REVERSE_SORT since we don't allow negative timestamps
+ */
+final class RowEncoder {
+
+  /**
+   * Converts the value of a column and writes it to the row
+   */
+  private interface ColumnEncoder {
+    /**
+     * @return the value as stored in kudu
+     */
+    Object encode(PartialRow row, int colIndex, Object value);
+  }
+
+  private final int[] columnIndexes;
+  private final Class<?>[] literalTypes;
+  private final ColumnEncoder[] columnEncoders;
+  private final String[] columnNames;
+
+  /**
+   * @param columnIndexes the kudu indexes of the columns in the order their
+   *                      values are encoded
+   */
+  RowEncoder(final CalciteModifiableKuduTable calciteModifiableKuduTable, final List<Integer> columnIndexes) {
+    final Schema schema = calciteModifiableKuduTable.getKuduTable().getSchema();
+    this.columnIndexes = new int[columnIndexes.size()];
+    this.literalTypes = new Class<?>[columnIndexes.size()];
+    this.columnEncoders = new ColumnEncoder[columnIndexes.size()];
+    this.columnNames = new String[columnIndexes.size()];
+    for (int i = 0; i < columnIndexes.size(); i++) {
+      final int colIndex = columnIndexes.get(i);
+      final ColumnSchema columnSchema = schema.getColumnByIndex(colIndex);
+      this.columnIndexes[i] = colIndex;
+      this.literalTypes[i] = getLiteralType(columnSchema);
+      this.columnEncoders[i] = newColumnEncoder(columnSchema, calciteModifiableKuduTable.isColumnOrderedDesc(colIndex));
+      this.columnNames[i] = columnSchema.getName();
+    }
+  }
+
+  /**
+   * @return the Java type that a literal should be converted to, null if literals
+   *         of the column type aren't supported
+   */
+  private static Class<?> getLiteralType(ColumnSchema columnSchema) {
+    switch (columnSchema.getType()) {
+    case BOOL:
+      return Boolean.class;
+    case INT8:
+      return Byte.class;
+    case INT16:
+      return Short.class;
+    case INT32:
+      return Integer.class;
+    case INT64:
+    case UNIXTIME_MICROS:
+      return Long.class;
+    case FLOAT:
+      return Float.class;
+    case DOUBLE:
+      return Double.class;
+    case STRING:
+      return String.class;
+    case BINARY:
+      return byte[].class;
+    case DECIMAL:
+      return BigDecimal.class;
+    default:
+      return null;
+    }
+  }
+
+  private static ColumnEncoder newColumnEncoder(ColumnSchema columnSchema, boolean descending) {
+    switch (columnSchema.getType()) {
+    case BOOL:
+      return (row, colIndex, value) -> {
+        row.addBoolean(colIndex, (Boolean) value);
+        return value;
+      };
+    case INT8:
+      if (descending) {
+        return (row, colIndex, value) -> {
+          final byte stored = (byte) (-1 - (Byte) value);
+          row.addByte(colIndex, stored);
+          return stored;
+        };
+      }
+      return (row, colIndex, value) -> {
+        row.addByte(colIndex, (Byte) value);
+        return value;
+      };
+    case INT16:
+      if (descending) {
+        return (row, colIndex, value) -> {
+          final short stored = (short) (-1 - (Short) value);
+          row.addShort(colIndex, stored);
+          return stored;
+        };
+      }
+      return (row, colIndex, value) -> {
+        row.addShort(colIndex, (Short) value);
+        return value;
+      };
+    case INT32:
+      if (descending) {
+        return (row, colIndex, value) -> {
+          final int stored = -1 - (Integer) value;
+          row.addInt(colIndex, stored);
+          return stored;
+        };
+      }
+      return (row, colIndex, value) -> {
+        row.addInt(colIndex, (Integer) value);
+        return value;
+      };
+    case INT64:
+      if (descending) {
+        return (row, colIndex, value) -> {
+          final long stored = -1L - (Long) value;
+          row.addLong(colIndex, stored);
+          return stored;
+        };
+      }
+      return (row, colIndex, value) -> {
+        row.addLong(colIndex, (Long) value);
+        return value;
+      };
+    case UNIXTIME_MICROS:
+      // timestamps are bound as milliseconds
+      if (descending) {
+        return (row, colIndex, value) -> {
+          final long timestamp = (Long) value;
+          if (timestamp < 0) {
+            throw new IllegalArgumentException(
+                "Storing negative timstamp values for a column " + "ordered descending is not supported");
+          }
+          final long stored = (CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MILLISECONDS - timestamp) * 1000;
+          row.addLong(colIndex, stored);
+          return stored;
+        };
+      }
+      return (row, colIndex, value) -> {
+        final long stored = (Long) value * 1000;
+        row.addLong(colIndex, stored);
+        return stored;
+      };
+    case FLOAT:
+      return (row, colIndex, value) -> {
+        row.addFloat(colIndex, (Float) value);
+        return value;
+      };
+    case DOUBLE:
+      return (row, colIndex, value) -> {
+        row.addDouble(colIndex, (Double) value);
+        return value;
+      };
+    case STRING:
+      return (row, colIndex, value) -> {
+        row.addString(colIndex, (String) value);
+        return value;
+      };
+    case BINARY:
+      // bound values are byte strings, literals are byte arrays
+      return (row, colIndex, value) -> {
+        final byte[] stored = value instanceof ByteString ? ((ByteString) value).getBytes() : (byte[]) value;
+        row.addBinary(colIndex, stored);
+        return stored;
+      };
+    case DECIMAL:
+      return (row, colIndex, value) -> {
+        row.addDecimal(colIndex, (BigDecimal) value);
+        return value;
+      };
+    default:
+      return (row, colIndex, value) -> {
+        row.addObject(colIndex, value);
+        return value;
+      };
+    }
+  }
+
+  int getColumnCount() {
+    return columnIndexes.length;
+  }
+
+  /**
+   * @return the Java type that a literal of the i-th column should be converted
+   *         to
+   */
+  Class<?> getLiteralType(int i) {
+    if (literalTypes[i] == null) {
+      throw new IllegalArgumentException("Unsupported column type of column: " + columnNames[i]);
+    }
+    return literalTypes[i];
+  }
+
+  /**
+   * Writes the value of the i-th column to the row
+   *
+   * @param factRow if not null the value stored in kudu is set at the kudu index
+   *                of the column
+   */
+  void encode(PartialRow row, Object[] factRow, int i, Object value) {
+    final int colIndex = columnIndexes[i];
+    Object stored = null;
+    if (value == null) {
+      row.setNull(colIndex);
+    } else {
+      try {
+        stored = columnEncoders[i].encode(row, colIndex, value);
+      } catch (ClassCastException e) {
+        throw new IllegalArgumentException(
+            "Value of column " + columnNames[i] + " has wrong type " + value.getClass().getName(), e);
+      }
+    }
+    if (factRow != null) {
+      factRow[colIndex] = stored;
+    }
+  }
+
+}
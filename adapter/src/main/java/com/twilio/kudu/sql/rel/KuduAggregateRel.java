@@ -0,0 +1,117 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rel;
+
+import com.twilio.kudu.sql.KuduRelNode;
+import com.twilio.kudu.sql.PartialAggregation;
+import org.apache.calcite.plan.RelOptCluster;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelTraitSet;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Partial aggregation computed by each scanner over the rows it produces, see
+ * {@link PartialAggregation}. Its rows are the partial rows of every scanner,
+ * they have the row type of the aggregation and need to be merged by a final
+ * aggregation.
+ */
+public class KuduAggregateRel extends Aggregate implements KuduRelNode {
+
+  public KuduAggregateRel(RelOptCluster cluster, RelTraitSet traitSet, RelNode input, ImmutableBitSet groupSet,
+      List<AggregateCall> aggCalls) {
+    super(cluster, traitSet, Collections.emptyList(), input, groupSet, null, aggCalls);
+    assert getConvention() == KuduRelNode.CONVENTION;
+  }
+
+  @Override
+  public Aggregate copy(RelTraitSet traitSet, RelNode input, ImmutableBitSet groupSet, List<ImmutableBitSet> groupSets,
+      List<AggregateCall> aggCalls) {
+    return new KuduAggregateRel(getCluster(), traitSet, input, groupSet, aggCalls);
+  }
+
+  @Override
+  public RelOptCost computeSelfCost(RelOptPlanner planner, RelMetadataQuery mq) {
+    // the rows are aggregated by the scanners while the next batch is fetched
+    return planner.getCostFactory().makeTinyCost();
+  }
+
+  @Override
+  public void implement(Implementor implementor) {
+    implementor.visitChild(0, getInput());
+    final List<PartialAggregation.Function> functions = new ArrayList<>(getAggCallList().size());
+    final List<Integer> argFields = new ArrayList<>(getAggCallList().size());
+    for (AggregateCall aggCall : getAggCallList()) {
+      functions.add(partialFunction(aggCall).orElseThrow(
+          () -> new IllegalArgumentException("Unable to compute " + aggCall + " with a partial aggregation")));
+      argFields.add(aggCall.getArgList().isEmpty() ? -1 : aggCall.getArgList().get(0));
+    }
+    implementor.partialAggregation = new PartialAggregation(groupSet.asList(), functions, argFields);
+    implementor.aggregateInputRowType = getInput().getRowType();
+  }
+
+  /**
+   * @param aggCall aggregate call of the aggregation
+   *
+   * @return how a scanner accumulates the call, empty if it can't be computed by
+   *         a partial aggregation
+   */
+  public static Optional<PartialAggregation.Function> partialFunction(final AggregateCall aggCall) {
+    if (aggCall.isDistinct() || aggCall.filterArg >= 0 || !aggCall.getCollation().getFieldCollations().isEmpty()
+        || aggCall.getArgList().size() > 1) {
+      return Optional.empty();
+    }
+    switch (aggCall.getAggregation().getKind()) {
+    case COUNT:
+      return Optional.of(PartialAggregation.Function.COUNT);
+    case MIN:
+      return Optional.of(PartialAggregation.Function.MIN);
+    case MAX:
+      return Optional.of(PartialAggregation.Function.MAX);
+    case SUM:
+    case SUM0:
+      switch (aggCall.getType().getSqlTypeName()) {
+      case TINYINT:
+        return Optional.of(PartialAggregation.Function.SUM_TINYINT);
+      case SMALLINT:
+        return Optional.of(PartialAggregation.Function.SUM_SMALLINT);
+      case INTEGER:
+        return Optional.of(PartialAggregation.Function.SUM_INTEGER);
+      case BIGINT:
+        return Optional.of(PartialAggregation.Function.SUM_BIGINT);
+      case REAL:
+        return Optional.of(PartialAggregation.Function.SUM_REAL);
+      case FLOAT:
+      case DOUBLE:
+        return Optional.of(PartialAggregation.Function.SUM_DOUBLE);
+      case DECIMAL:
+        return Optional.of(PartialAggregation.Function.SUM_DECIMAL);
+      default:
+        return Optional.empty();
+      }
+    default:
+      return Optional.empty();
+    }
+  }
+}
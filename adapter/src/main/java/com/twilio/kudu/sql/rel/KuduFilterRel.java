@@ -16,6 +16,7 @@ package com.twilio.kudu.sql.rel;
 
 import com.twilio.kudu.sql.CalciteKuduPredicate;
 import com.twilio.kudu.sql.KuduRelNode;
+import com.twilio.kudu.sql.PrimaryKeyBound;
 import com.twilio.kudu.sql.rel.KuduProjectRel.KuduColumnVisitor;
 
 import org.apache.calcite.plan.RelOptCluster;
@@ -30,17 +31,21 @@ import org.apache.calcite.rex.RexNode;
 import org.apache.kudu.Schema;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class KuduFilterRel extends Filter implements KuduRelNode {
   public final List<List<CalciteKuduPredicate>> scanPredicates;
+  // primary key range that applies to every scan
+  public final List<PrimaryKeyBound> primaryKeyBounds;
   public final Schema kuduSchema;
   public final boolean useInMemoryFiltering;
 
   public KuduFilterRel(final RelOptCluster cluster, final RelTraitSet traitSet, final RelNode child,
-      final RexNode condition, final List<List<CalciteKuduPredicate>> predicates, final Schema kuduSchema,
-      boolean useInMemoryFiltering) {
+      final RexNode condition, final List<List<CalciteKuduPredicate>> predicates,
+      final List<PrimaryKeyBound> primaryKeyBounds, final Schema kuduSchema, boolean useInMemoryFiltering) {
     super(cluster, traitSet, child, condition);
     this.scanPredicates = predicates;
+    this.primaryKeyBounds = primaryKeyBounds;
     this.kuduSchema = kuduSchema;
     this.useInMemoryFiltering = useInMemoryFiltering;
   }
@@ -54,14 +59,15 @@ public class KuduFilterRel extends Filter implements KuduRelNode {
   }
 
   public KuduFilterRel copy(final RelTraitSet traitSet, final RelNode input, final RexNode condition) {
-    return new KuduFilterRel(getCluster(), traitSet, input, condition, this.scanPredicates, kuduSchema,
-        useInMemoryFiltering);
+    return new KuduFilterRel(getCluster(), traitSet, input, condition, this.scanPredicates, this.primaryKeyBounds,
+        kuduSchema, useInMemoryFiltering);
   }
 
   @Override
   public void implement(final Implementor implementor) {
     implementor.visitChild(0, getInput());
     implementor.predicates.addAll(this.scanPredicates);
+    implementor.primaryKeyBounds.addAll(this.primaryKeyBounds);
 
     if (useInMemoryFiltering) {
       final KuduColumnVisitor columnExtractor = new KuduColumnVisitor();
@@ -89,6 +95,10 @@ public class KuduFilterRel extends Filter implements KuduRelNode {
       }
       pw.item("ScanToken " + scanCount++, sb.toString());
     }
+    if (!primaryKeyBounds.isEmpty()) {
+      pw.item("PrimaryKeyBounds",
+          primaryKeyBounds.stream().map(PrimaryKeyBound::explain).collect(Collectors.joining(", ")));
+    }
     if (useInMemoryFiltering) {
       pw.item("MemoryFilters", getCondition());
     }
@@ -14,11 +14,16 @@
  */
 package com.twilio.kudu.sql.rel;
 
+import com.twilio.kudu.sql.ColumnarBatch;
+import com.twilio.kudu.sql.ColumnarProjection;
 import com.twilio.kudu.sql.KuduMethod;
 import com.twilio.kudu.sql.KuduPhysType;
 import com.twilio.kudu.sql.KuduRelNode;
 import com.twilio.kudu.sql.KuduScanStats;
+import com.twilio.kudu.sql.KuduStatementBatch;
+import com.twilio.kudu.sql.KuduStatementScans;
 import com.twilio.kudu.sql.KuduWrite;
+import com.twilio.kudu.sql.PartialAggregation;
 import com.twilio.kudu.sql.rules.KuduToEnumerableConverter;
 
 import org.apache.calcite.DataContext;
@@ -38,28 +43,36 @@ import org.apache.calcite.linq4j.tree.Expression;
 import org.apache.calcite.linq4j.tree.Expressions;
 import org.apache.calcite.linq4j.tree.MethodCallExpression;
 import org.apache.calcite.linq4j.tree.ParameterExpression;
+import org.apache.calcite.linq4j.tree.Primitive;
 import org.apache.calcite.plan.ConventionTraitDef;
 import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelOptCost;
 import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.plan.RelTraitSet;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.convert.ConverterImpl;
 import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
 import org.apache.calcite.rex.RexLocalRef;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.rex.RexProgram;
 import org.apache.calcite.rex.RexProgramBuilder;
 import org.apache.calcite.runtime.Hook;
+import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.util.BuiltInMethod;
 import org.apache.calcite.util.Pair;
 import org.apache.kudu.client.RowResult;
 
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
@@ -101,11 +114,22 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
     kuduImplementor.visitChild(0, getInput());
     final RelDataType rowType = getRowType();
     final PhysType physType = PhysTypeImpl.of(implementor.getTypeFactory(), rowType, pref.prefer(JavaRowFormat.ARRAY));
+    // When the scanners aggregate the rows, the projection produces the input rows
+    // of the aggregation as arrays and the query returns the partial rows
+    final RelDataType projectedRowType = kuduImplementor.partialAggregation != null
+        ? kuduImplementor.aggregateInputRowType
+        : rowType;
+    final PhysType projectedPhysType = kuduImplementor.partialAggregation != null
+        ? PhysTypeImpl.of(implementor.getTypeFactory(), projectedRowType, JavaRowFormat.ARRAY, false)
+        : physType;
 
     // Now build the Java code that represents the Physical scan of a
     // Kudu Table.
     final Expression predicates = list.append("predicates", implementor.stash(kuduImplementor.predicates, List.class));
 
+    final Expression primaryKeyBounds = list.append("primaryKeyBounds",
+        implementor.stash(kuduImplementor.primaryKeyBounds, List.class));
+
     final Expression limit = list.append("limit", Expressions.constant(kuduImplementor.limit));
 
     final Expression offset = list.append("offset", Expressions.constant(kuduImplementor.offset));
@@ -121,6 +145,11 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
         Expressions.convert_(Expressions.call(DataContext.ROOT, BuiltInMethod.DATA_CONTEXT_GET.method,
             Expressions.constant(DataContext.Variable.CANCEL_FLAG.camelName)), AtomicBoolean.class));
 
+    // pagination cursors of the JDBC statement, null outside of a Kudu connection
+    final Expression kuduScans = list.append("kuduScans",
+        Expressions.convert_(Expressions.call(DataContext.ROOT, BuiltInMethod.DATA_CONTEXT_GET.method,
+            Expressions.constant(KuduStatementScans.DATA_CONTEXT_NAME)), KuduStatementScans.class));
+
     // @TODO: for correlation variables, for $batchSize,
     // acquire the InputGetter("$cor" + i). Then for all fields, call
     // the InputGetter.field() for that j.
@@ -152,7 +181,7 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
     // If we have selected columns add them to the RexProgram as such.
     final List<Pair<RexNode, String>> namedProjects;
     if (!kuduImplementor.projections.isEmpty()) {
-      namedProjects = Pair.zip(kuduImplementor.projections, getRowType().getFieldNames());
+      namedProjects = Pair.zip(kuduImplementor.projections, projectedRowType.getFieldNames());
     } else {
       // Create a Projection that includes every column in the table schema.
       namedProjects = kuduColumnIndices.stream().map(indx -> {
@@ -185,7 +214,7 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
         implementor.getTypeFactory(), implementor.getConformance(), projectExpressionBlock, tablePhystype,
         DataContext.ROOT, inputGetter, null);
 
-    projectExpressionBlock.add(Expressions.return_(null, physType.record(projectionExpressions)));
+    projectExpressionBlock.add(Expressions.return_(null, projectedPhysType.record(projectionExpressions)));
 
     // This is the map function that will always be present. It translates the
     // RowResult into an
@@ -211,15 +240,32 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
         Expressions.methodDecl(Modifier.PUBLIC, boolean.class, "apply", Collections.singletonList(inputRow),
             filterBuilder.toBlock()));
 
+    // The same program as the map and filter functions applied to a whole
+    // ColumnarBatch, reading the fields out of the vectors. The filter builds a
+    // selection vector and only the selected rows are projected. Used instead of
+    // the functions when the table scans in columnar mode, otherwise it isn't
+    // generated at all.
+    final CalciteKuduTable calciteKuduTable = kuduImplementor.table.unwrap(CalciteKuduTable.class);
+    final Expression columnarProjection = calciteKuduTable != null && calciteKuduTable.isColumnarScans()
+        ? columnarProjection(implementor, kuduImplementor, kuduColumnIndices, projectionFunctions, projectedPhysType)
+        : Expressions.constant(null, ColumnarProjection.class);
+
     final Expression fields = list.append("kuduFields", implementor.stash(kuduColumnIndices, List.class));
 
-    // If the output type has a Single column, inform the ScannerCallback.
-    final Expression isSingleObject = Expressions.constant(physType.getRowType().getFieldCount() == 1);
+    // If the output type has a Single column, inform the ScannerCallback. The
+    // input rows of a partial aggregation are always arrays.
+    final Expression isSingleObject = Expressions
+        .constant(kuduImplementor.partialAggregation == null && physType.getRowType().getFieldCount() == 1);
+
+    final Expression partialAggregation = kuduImplementor.partialAggregation != null
+        ? list.append("partialAggregation",
+            implementor.stash(kuduImplementor.partialAggregation, PartialAggregation.class))
+        : Expressions.constant(null, PartialAggregation.class);
 
     final Expression enumerable = list.append("enumerable",
-        Expressions.call(table, KuduMethod.KUDU_QUERY_METHOD.method, predicates, fields, limit, offset, sorted,
-            Expressions.constant(kuduImplementor.groupByLimited), scanStats, cancelBoolean, mapFunction, filterFunction,
-            isSingleObject));
+        Expressions.call(table, KuduMethod.KUDU_QUERY_METHOD.method, predicates, primaryKeyBounds, fields, limit,
+            offset, sorted, Expressions.constant(kuduImplementor.groupByLimited), scanStats, cancelBoolean, mapFunction,
+            filterFunction, isSingleObject, columnarProjection, partialAggregation, kuduScans));
 
     Hook.QUERY_PLAN.run(predicates);
     list.add(Expressions.return_(null, enumerable));
@@ -228,6 +274,140 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
     return implementor.result(physType, list.toBlock());
   }
 
+  /**
+   * Generates a {@link ColumnarProjection}, for instance for
+   * {@code SELECT a + 1 FROM t WHERE b > 10 AND MOD(a, 3) = 1} where {@code a}
+   * and {@code b} are INT64 columns
+   *
+   * <pre>
+   * public int project(ColumnarBatch batch, Object[] rows) {
+   *   final long[] vector0 = (long[]) batch.getVector(0);
+   *   final long[] vector1 = (long[]) batch.getVector(1);
+   *   final int rowCount = batch.getRowCount();
+   *   final int[] selection = batch.getSelection();
+   *   int selected = 0;
+   *   int kept = 0;
+   *   for (int row = 0; row &lt; rowCount; row++) {
+   *     selection[selected] = row;
+   *     selected += vector1[row] &gt; 10L ? 1 : 0;
+   *   }
+   *   kept = 0;
+   *   for (int i = 0; i &lt; selected; i++) {
+   *     final int row = selection[i];
+   *     selection[kept] = row;
+   *     kept += SqlFunctions.mod(vector0[row], 3L) == 1L ? 1 : 0;
+   *   }
+   *   selected = kept;
+   *   for (int i = 0; i &lt; selected; i++) {
+   *     final int row = selection[i];
+   *     rows[i] = vector0[row] + 1L;
+   *   }
+   *   return selected;
+   * }
+   * </pre>
+   *
+   * Each conjunct of the filter narrows the selection vector in its own loop,
+   * comparisons of a column with a literal run first as they only read a single
+   * vector. The projection is only evaluated for the rows that are left.
+   */
+  private Expression columnarProjection(final EnumerableRelImplementor implementor,
+      final KuduRelNode.Implementor kuduImplementor, final List<Integer> kuduColumnIndices,
+      final RexProgram projectionFunctions, final PhysType physType) {
+    final ParameterExpression batch = Expressions.parameter(Modifier.FINAL, ColumnarBatch.class, "batch");
+    final ParameterExpression rows = Expressions.parameter(Modifier.FINAL, Object[].class, "rows");
+    final ParameterExpression row = Expressions.parameter(int.class, "row");
+    final ParameterExpression rowCount = Expressions.parameter(Modifier.FINAL, int.class, "rowCount");
+    final ParameterExpression selection = Expressions.parameter(Modifier.FINAL, int[].class, "selection");
+    final ParameterExpression selected = Expressions.parameter(int.class, "selected");
+    final ParameterExpression kept = Expressions.parameter(int.class, "kept");
+    final ParameterExpression i = Expressions.parameter(int.class, "i");
+
+    // not optimized so the vectors are read once per batch instead of being
+    // inlined into the loops
+    final BlockBuilder batchBlock = new BlockBuilder(false);
+    final PhysType batchPhysType = KuduPhysType.forColumnarBatch(kuduImplementor.kuduTable.getSchema(),
+        kuduImplementor.tableDataType, kuduImplementor.descendingColumns, kuduColumnIndices, batchBlock, batch, row);
+    final InputGetter batchInputGetter = new RexToLixTranslator.InputGetterImpl(
+        Collections.singletonList(Pair.of(batch, batchPhysType)));
+    batchBlock.add(Expressions.declare(0, rowCount, Expressions.call(batch, "getRowCount")));
+
+    final BlockBuilder projectBlock = new BlockBuilder(true, batchBlock);
+    final Expression projectedRowCount;
+    if (kuduImplementor.inMemoryCondition != null) {
+      batchBlock.add(Expressions.declare(0, selection, Expressions.call(batch, "getSelection")));
+      batchBlock.add(Expressions.declare(0, selected, Expressions.constant(0)));
+      batchBlock.add(Expressions.declare(0, kept, Expressions.constant(0)));
+      boolean first = true;
+      for (RexNode conjunction : filterOrder(kuduImplementor.inMemoryCondition)) {
+        final RexProgramBuilder conjunctionProgram = new RexProgramBuilder(projectionFunctions.getInputRowType(),
+            getCluster().getRexBuilder());
+        conjunctionProgram.addCondition(conjunction);
+        final BlockBuilder filterBlock = new BlockBuilder(true, batchBlock);
+        if (!first) {
+          filterBlock.add(Expressions.declare(Modifier.FINAL, row, Expressions.arrayIndex(selection, i)));
+        }
+        final Expression condition = RexToLixTranslator.translateCondition(conjunctionProgram.getProgram(),
+            implementor.getTypeFactory(), filterBlock, batchInputGetter, null, implementor.getConformance());
+        // written unconditionally and kept by advancing the count, so a comparison
+        // of primitives doesn't branch
+        final ParameterExpression filteredCount = first ? selected : kept;
+        filterBlock
+            .add(Expressions.statement(Expressions.assign(Expressions.arrayIndex(selection, filteredCount), row)));
+        filterBlock.add(Expressions.statement(Expressions.addAssign(filteredCount,
+            Expressions.condition(condition, Expressions.constant(1), Expressions.constant(0)))));
+        if (first) {
+          batchBlock.add(Expressions.for_(Expressions.declare(0, row, Expressions.constant(0)),
+              Expressions.lessThan(row, rowCount), Expressions.preIncrementAssign(row), filterBlock.toBlock()));
+          first = false;
+        } else {
+          batchBlock.add(Expressions.statement(Expressions.assign(kept, Expressions.constant(0))));
+          batchBlock.add(Expressions.for_(Expressions.declare(0, i, Expressions.constant(0)),
+              Expressions.lessThan(i, selected), Expressions.preIncrementAssign(i), filterBlock.toBlock()));
+          batchBlock.add(Expressions.statement(Expressions.assign(selected, kept)));
+        }
+      }
+      projectBlock.add(Expressions.declare(Modifier.FINAL, row, Expressions.arrayIndex(selection, i)));
+      projectedRowCount = selected;
+    } else {
+      projectBlock.add(Expressions.declare(Modifier.FINAL, row, i));
+      projectedRowCount = rowCount;
+    }
+
+    final List<Expression> projectionExpressions = RexToLixTranslator.translateProjects(projectionFunctions,
+        implementor.getTypeFactory(), implementor.getConformance(), projectBlock, batchPhysType, DataContext.ROOT,
+        batchInputGetter, null);
+    final Expression record = physType.record(projectionExpressions);
+    projectBlock.add(Expressions.statement(Expressions.assign(Expressions.arrayIndex(rows, i),
+        Primitive.is(record.getType()) ? Expressions.box(record) : record)));
+    batchBlock.add(Expressions.for_(Expressions.declare(0, i, Expressions.constant(0)),
+        Expressions.lessThan(i, projectedRowCount), Expressions.preIncrementAssign(i), projectBlock.toBlock()));
+    batchBlock.add(Expressions.return_(null, projectedRowCount));
+
+    return Expressions.new_(ColumnarProjection.class, Collections.emptyList(), Expressions.methodDecl(Modifier.PUBLIC,
+        int.class, "project", Arrays.asList(batch, rows), batchBlock.toBlock()));
+  }
+
+  /**
+   * Splits the in memory filter into its conjunctions, the comparisons of a
+   * column with a literal first and the remaining conjunctions in the order they
+   * were written. Later conjunctions only see rows that passed the earlier ones,
+   * which is a subset of the rows they would see in the original order.
+   */
+  private static List<RexNode> filterOrder(final RexNode condition) {
+    final List<RexNode> conjunctions = new ArrayList<>(RelOptUtil.conjunctions(condition));
+    conjunctions.sort(Comparator.comparing(conjunction -> !isColumnComparison(conjunction)));
+    return conjunctions;
+  }
+
+  private static boolean isColumnComparison(final RexNode node) {
+    if (!node.isA(SqlKind.COMPARISON)) {
+      return false;
+    }
+    final List<RexNode> operands = ((RexCall) node).getOperands();
+    return (operands.get(0) instanceof RexInputRef && operands.get(1) instanceof RexLiteral)
+        || (operands.get(0) instanceof RexLiteral && operands.get(1) instanceof RexInputRef);
+  }
+
   private Result executeMutation(EnumerableRelImplementor implementor, Prefer prefer) {
     // Generates a call to "mutate" with the appropriate parameters
     final BlockBuilder list = new BlockBuilder();
@@ -249,8 +429,12 @@ public class KuduToEnumerableRel extends ConverterImpl implements EnumerableRel
     if (kuduImplementor.numBindExpressions != 0) {
       // a PreparedStatement was used
       final Expression values = list.append("values", valuesArrayList(list, kuduImplementor.numBindExpressions));
+      // the rows of a batch when the statement executes one
+      final Expression batch = list.append("batch",
+          Expressions.convert_(Expressions.call(DataContext.ROOT, BuiltInMethod.DATA_CONTEXT_GET.method,
+              Expressions.constant(KuduStatementBatch.DATA_CONTEXT_NAME)), KuduStatementBatch.class));
       Expression enumerable = list.append("enumerable",
-          Expressions.call(table, KuduMethod.KUDU_MUTATE_ROW_METHOD.method, columnNames, values));
+          Expressions.call(table, KuduMethod.KUDU_MUTATE_ROW_METHOD.method, columnNames, values, batch));
       list.add(Expressions.return_(null, enumerable));
     } else {
       // a regular Statement was used
@@ -0,0 +1,506 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rules;
+
+import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.KuduQuery;
+import com.twilio.kudu.sql.TableType;
+import com.twilio.kudu.sql.metadata.CubeTableInfo;
+import org.apache.calcite.avatica.util.DateTimeUtils;
+import org.apache.calcite.avatica.util.TimeUnitRange;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptRuleOperand;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.ViewExpanders;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalFilter;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.sql.SqlAggFunction;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.tools.RelBuilderFactory;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.kudu.Schema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Rule to rewrite an aggregation over a fact table into an aggregation over the
+ * smallest cube of the fact table that covers it. The cube rows are aggregated
+ * again to roll them up to the groups of the query.
+ *
+ * A cube covers an aggregation when
+ * <ul>
+ * <li>every group key and filter only uses columns that are dimensions of the
+ * cube, the timestamp column can only be used in a FLOOR to a unit that is at
+ * least as coarse as the cube and in a filter on a timestamp that is the start
+ * of a cube interval</li>
+ * <li>every measure is COUNT(*), a COUNT of a non-nullable column, a SUM of a
+ * column the cube has a {@code sum_} measure for, or a MIN, MAX or COUNT
+ * DISTINCT of a dimension</li>
+ * </ul>
+ *
+ * {@link com.twilio.kudu.sql.mutation.CubeMaintainer} adds the value of the
+ * fact row to every measure except {@code count_records}, so only
+ * {@code count_records} and the {@code sum_} measures are used. Cubes with a
+ * coarser interval are tried first, and of cubes with the same interval the one
+ * with the fewest dimensions.
+ *
+ * Aggregations are not rewritten when the fact table disables it, see
+ * {@link CalciteKuduTable#isCubeRewrites()}. A cube whose rows are written as
+ * deltas is never used since it misses the deltas that haven't been compacted
+ * yet.
+ */
+public abstract class KuduCubeRule extends RelOptRule {
+
+  private static final String COUNT_RECORDS = "count_records";
+  private static final String SUM_PREFIX = "sum_";
+
+  private static final RelOptRuleOperand SCAN_OPERAND = operand(LogicalAggregate.class,
+      operand(KuduQuery.class, none()));
+
+  private static final RelOptRuleOperand FILTER_OPERAND = operand(LogicalAggregate.class,
+      operand(LogicalFilter.class, operand(KuduQuery.class, none())));
+
+  private static final RelOptRuleOperand PROJECT_OPERAND = operand(LogicalAggregate.class,
+      operand(LogicalProject.class, operand(KuduQuery.class, none())));
+
+  private static final RelOptRuleOperand PROJECT_FILTER_OPERAND = operand(LogicalAggregate.class,
+      operand(LogicalProject.class, operand(LogicalFilter.class, operand(KuduQuery.class, none()))));
+
+  public static final RelOptRule CUBE_SCAN_RULE = new KuduCubeOverScanRule(RelFactories.LOGICAL_BUILDER);
+
+  public static final RelOptRule CUBE_FILTER_RULE = new KuduCubeOverFilterRule(RelFactories.LOGICAL_BUILDER);
+
+  public static final RelOptRule CUBE_PROJECT_RULE = new KuduCubeOverProjectRule(RelFactories.LOGICAL_BUILDER);
+
+  public static final RelOptRule CUBE_PROJECT_FILTER_RULE = new KuduCubeOverProjectAndFilterRule(
+      RelFactories.LOGICAL_BUILDER);
+
+  public KuduCubeRule(RelOptRuleOperand operand, RelBuilderFactory relBuilderFactory, String description) {
+    super(operand, relBuilderFactory, description);
+  }
+
+  /**
+   * @param project nullable, the projection between the aggregation and the scan
+   * @param filter  nullable, the filter of the scan
+   */
+  protected void perform(final RelOptRuleCall call, final Aggregate aggregate, final Project project,
+      final Filter filter, final KuduQuery query) {
+    final CalciteKuduTable factTable = query.calciteKuduTable;
+    if (factTable.getTableType() != TableType.FACT || !factTable.isCubeRewrites() || factTable.getCubeTables().isEmpty()
+        || aggregate.getGroupType() != Aggregate.Group.SIMPLE) {
+      return;
+    }
+    final List<? extends RexNode> inputs = project != null ? project.getProjects()
+        : query.getCluster().getRexBuilder().identityProjects(query.getRowType());
+    final List<CalciteKuduTable> cubeTables = new ArrayList<>(factTable.getCubeTables());
+    cubeTables.sort(Comparator
+        .comparing((CalciteKuduTable cube) -> cube.getEventTimeAggregationType() == null ? Integer.MAX_VALUE
+            : cube.getEventTimeAggregationType().ordinal())
+        .thenComparing(cube -> cube.getKuduTable().getSchema().getPrimaryKeyColumnCount()));
+    for (CalciteKuduTable cubeTable : cubeTables) {
+      if (cubeTable.isCubeDeltaWrites()) {
+        continue;
+      }
+      final Optional<RelNode> rewritten = rewrite(call, aggregate, inputs, filter, query, cubeTable);
+      if (rewritten.isPresent()) {
+        call.transformTo(rewritten.get());
+        return;
+      }
+    }
+  }
+
+  private Optional<RelNode> rewrite(final RelOptRuleCall call, final Aggregate aggregate,
+      final List<? extends RexNode> inputs, final Filter filter, final KuduQuery query,
+      final CalciteKuduTable cubeTable) {
+    final CubeTableInfo.EventTimeAggregationType interval = cubeTable.getEventTimeAggregationType();
+    final int timestampIndex = query.calciteKuduTable.getTimestampColumnIndex();
+    if (interval == null || timestampIndex < 0) {
+      return Optional.empty();
+    }
+    final List<String> cubeName = new ArrayList<>(query.getTable().getQualifiedName());
+    cubeName.set(cubeName.size() - 1, cubeTable.getKuduTable().getName());
+    final RelOptTable cubeRelOptTable = query.getTable().getRelOptSchema().getTableForMember(cubeName);
+    if (cubeRelOptTable == null) {
+      return Optional.empty();
+    }
+    final CubeColumnMapper mapper = new CubeColumnMapper(query.calciteKuduTable.getKuduTable().getSchema(),
+        cubeTable.getKuduTable().getSchema(), cubeRelOptTable.getRowType(), timestampIndex, interval);
+
+    final List<RexNode> cubeConditions = new ArrayList<>();
+    if (filter != null) {
+      for (RexNode condition : RelOptUtil.conjunctions(filter.getCondition())) {
+        final RexNode cubeCondition = mapper.mapCondition(condition);
+        if (cubeCondition == null) {
+          return Optional.empty();
+        }
+        cubeConditions.add(cubeCondition);
+      }
+    }
+
+    // the group keys followed by the arguments of the measures
+    final List<RexNode> cubeInputs = new ArrayList<>();
+    for (int groupOrdinal : aggregate.getGroupSet()) {
+      final RexNode cubeInput = mapper.map(inputs.get(groupOrdinal));
+      if (cubeInput == null) {
+        return Optional.empty();
+      }
+      cubeInputs.add(cubeInput);
+    }
+    final int groupCount = cubeInputs.size();
+    final List<Measure> measures = new ArrayList<>(aggregate.getAggCallList().size());
+    for (AggregateCall aggCall : aggregate.getAggCallList()) {
+      final Measure measure = mapper.measure(aggCall, inputs);
+      if (measure == null) {
+        return Optional.empty();
+      }
+      measures.add(measure);
+      cubeInputs.add(measure.argument);
+    }
+
+    final RelNode cubeScan = cubeRelOptTable.toRel(ViewExpanders.simpleContext(query.getCluster()));
+
+    final RelBuilder builder = call.builder();
+    builder.push(cubeScan);
+    if (!cubeConditions.isEmpty()) {
+      builder.filter(cubeConditions);
+    }
+    builder.project(cubeInputs);
+    final List<RelBuilder.AggCall> cubeCalls = new ArrayList<>(measures.size());
+    for (int i = 0; i < measures.size(); i++) {
+      final Measure measure = measures.get(i);
+      cubeCalls.add(builder.aggregateCall(measure.function, builder.field(groupCount + i)).distinct(measure.distinct)
+          .as(aggregate.getAggCallList().get(i).name));
+    }
+    builder.aggregate(builder.groupKey(ImmutableBitSet.range(groupCount)), cubeCalls);
+    // casts the rolled up measures whose nullability differs back to the type of
+    // the original aggregation
+    return Optional.of(builder.convert(aggregate.getRowType(), false).build());
+  }
+
+  /**
+   * An aggregation of a column of the cube that computes a measure of the query
+   */
+  private static final class Measure {
+    final SqlAggFunction function;
+    final boolean distinct;
+    final RexNode argument;
+
+    Measure(final SqlAggFunction function, final boolean distinct, final RexNode argument) {
+      this.function = function;
+      this.distinct = distinct;
+      this.argument = argument;
+    }
+  }
+
+  /**
+   * Rewrites expressions over the fact table into expressions over a cube. The
+   * mapping methods return null when the expression can't be computed from the
+   * cube.
+   */
+  private static final class CubeColumnMapper extends RexShuttle {
+    private final Schema factSchema;
+    private final Schema cubeSchema;
+    private final RelDataType cubeRowType;
+    private final int timestampIndex;
+    private final int cubeTimestampIndex;
+    private final CubeTableInfo.EventTimeAggregationType interval;
+    private boolean covered;
+
+    CubeColumnMapper(final Schema factSchema, final Schema cubeSchema, final RelDataType cubeRowType,
+        final int timestampIndex, final CubeTableInfo.EventTimeAggregationType interval) {
+      this.factSchema = factSchema;
+      this.cubeSchema = cubeSchema;
+      this.cubeRowType = cubeRowType;
+      this.timestampIndex = timestampIndex;
+      this.cubeTimestampIndex = dimension(factSchema.getColumnByIndex(timestampIndex).getName());
+      this.interval = interval;
+    }
+
+    /**
+     * @return the index of the primary key column of the cube with the given name,
+     *         -1 if the cube doesn't have one
+     */
+    private int dimension(final String columnName) {
+      if (!cubeSchema.hasColumn(columnName)) {
+        return -1;
+      }
+      final int cubeIndex = cubeSchema.getColumnIndex(columnName);
+      return cubeIndex < cubeSchema.getPrimaryKeyColumnCount() ? cubeIndex : -1;
+    }
+
+    RexNode map(final RexNode factExpression) {
+      covered = true;
+      final RexNode cubeExpression = factExpression.accept(this);
+      return covered ? cubeExpression : null;
+    }
+
+    RexNode mapCondition(final RexNode condition) {
+      final RexNode cubeCondition = map(condition);
+      return cubeCondition != null ? cubeCondition : mapTimestampBound(condition);
+    }
+
+    Measure measure(final AggregateCall aggCall, final List<? extends RexNode> inputs) {
+      if (aggCall.filterArg >= 0 || aggCall.getArgList().size() > 1) {
+        return null;
+      }
+      final RexNode argument = aggCall.getArgList().isEmpty() ? null : inputs.get(aggCall.getArgList().get(0));
+      final SqlKind kind = aggCall.getAggregation().getKind();
+      if (aggCall.isDistinct() || kind == SqlKind.MIN || kind == SqlKind.MAX) {
+        // computed from the dimensions of the cube
+        if (argument == null
+            || (aggCall.isDistinct() && kind != SqlKind.COUNT && kind != SqlKind.MIN && kind != SqlKind.MAX)) {
+          return null;
+        }
+        final RexNode cubeArgument = map(argument);
+        return cubeArgument == null ? null : new Measure(aggCall.getAggregation(), aggCall.isDistinct(), cubeArgument);
+      }
+      switch (kind) {
+      case COUNT:
+        // the number of fact rows of a cube row only counts the values of a column
+        // that can't be null
+        if (argument != null && argument.getType().isNullable()) {
+          return null;
+        }
+        final RexNode countRecords = cubeMeasure(COUNT_RECORDS);
+        return countRecords == null ? null : new Measure(SqlStdOperatorTable.SUM0, false, countRecords);
+      case SUM:
+      case SUM0:
+        if (!(argument instanceof RexInputRef)) {
+          return null;
+        }
+        final String factColumnName = factSchema.getColumnByIndex(((RexInputRef) argument).getIndex()).getName();
+        final RexNode sum = cubeMeasure(SUM_PREFIX + factColumnName);
+        return sum == null ? null : new Measure(aggCall.getAggregation(), false, sum);
+      default:
+        return null;
+      }
+    }
+
+    /**
+     * @return a reference to the non primary key column of the cube with the given
+     *         name ignoring case, null if the cube doesn't have one
+     */
+    private RexNode cubeMeasure(final String columnName) {
+      for (int i = cubeSchema.getPrimaryKeyColumnCount(); i < cubeSchema.getColumnCount(); i++) {
+        if (cubeSchema.getColumnByIndex(i).getName().equalsIgnoreCase(columnName)) {
+          return RexInputRef.of(i, cubeRowType);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * A cube row contains the fact rows of an interval, so a fact row is after or
+     * before a timestamp that starts an interval when its cube row is.
+     */
+    private RexNode mapTimestampBound(final RexNode condition) {
+      if (!(condition instanceof RexCall) || ((RexCall) condition).getOperands().size() != 2) {
+        return null;
+      }
+      final RexCall comparison = (RexCall) condition;
+      SqlKind kind = comparison.getKind();
+      RexNode column = comparison.getOperands().get(0);
+      RexNode bound = comparison.getOperands().get(1);
+      if (column instanceof RexLiteral) {
+        kind = kind.reverse();
+        column = comparison.getOperands().get(1);
+        bound = comparison.getOperands().get(0);
+      }
+      if ((kind != SqlKind.GREATER_THAN_OR_EQUAL && kind != SqlKind.LESS_THAN) || !isTimestamp(column)
+          || !(bound instanceof RexLiteral) || cubeTimestampIndex < 0) {
+        return null;
+      }
+      final Long timestamp = ((RexLiteral) bound).getValueAs(Long.class);
+      if (timestamp == null || floor(timestamp, interval) != timestamp) {
+        return null;
+      }
+      final RexNode cubeTimestamp = RexInputRef.of(cubeTimestampIndex, cubeRowType);
+      return comparison.clone(comparison.getType(),
+          column == comparison.getOperands().get(0) ? Arrays.asList(cubeTimestamp, bound)
+              : Arrays.asList(bound, cubeTimestamp));
+    }
+
+    private boolean isTimestamp(final RexNode node) {
+      return node instanceof RexInputRef && ((RexInputRef) node).getIndex() == timestampIndex;
+    }
+
+    @Override
+    public RexNode visitInputRef(final RexInputRef inputRef) {
+      // the timestamps of the cube are truncated to the start of their interval
+      if (inputRef.getIndex() == timestampIndex) {
+        covered = false;
+        return inputRef;
+      }
+      final int cubeIndex = dimension(factSchema.getColumnByIndex(inputRef.getIndex()).getName());
+      if (cubeIndex < 0) {
+        covered = false;
+        return inputRef;
+      }
+      return RexInputRef.of(cubeIndex, cubeRowType);
+    }
+
+    @Override
+    public RexNode visitCall(final RexCall call) {
+      if (call.getKind() == SqlKind.FLOOR && call.getOperands().size() == 2 && isTimestamp(call.getOperands().get(0))
+          && call.getOperands().get(1) instanceof RexLiteral) {
+        final TimeUnitRange unit = ((RexLiteral) call.getOperands().get(1)).getValueAs(TimeUnitRange.class);
+        if (unit != null && cubeTimestampIndex >= 0 && isCoarserOrEqual(unit, interval)) {
+          return call.clone(call.getType(),
+              Arrays.asList(RexInputRef.of(cubeTimestampIndex, cubeRowType), call.getOperands().get(1)));
+        }
+        covered = false;
+        return call;
+      }
+      return super.visitCall(call);
+    }
+  }
+
+  /**
+   * @return the start of the cube interval that contains the timestamp
+   */
+  static long floor(final long timestamp, final CubeTableInfo.EventTimeAggregationType interval) {
+    switch (interval) {
+    case year:
+      return DateTimeUtils.unixTimestampFloor(TimeUnitRange.YEAR, timestamp);
+    case month:
+      return DateTimeUtils.unixTimestampFloor(TimeUnitRange.MONTH, timestamp);
+    case day:
+      return timestamp - Math.floorMod(timestamp, DateTimeUtils.MILLIS_PER_DAY);
+    case hour:
+      return timestamp - Math.floorMod(timestamp, DateTimeUtils.MILLIS_PER_HOUR);
+    case minute:
+      return timestamp - Math.floorMod(timestamp, DateTimeUtils.MILLIS_PER_MINUTE);
+    default:
+      return timestamp - Math.floorMod(timestamp, DateTimeUtils.MILLIS_PER_SECOND);
+    }
+  }
+
+  /**
+   * @return true if every interval of {@code unit} is made of whole intervals of
+   *         the cube
+   */
+  static boolean isCoarserOrEqual(final TimeUnitRange unit, final CubeTableInfo.EventTimeAggregationType interval) {
+    final CubeTableInfo.EventTimeAggregationType required;
+    switch (unit) {
+    case MILLENNIUM:
+    case CENTURY:
+    case DECADE:
+    case YEAR:
+      required = CubeTableInfo.EventTimeAggregationType.year;
+      break;
+    case QUARTER:
+    case MONTH:
+      required = CubeTableInfo.EventTimeAggregationType.month;
+      break;
+    case WEEK:
+    case DAY:
+      required = CubeTableInfo.EventTimeAggregationType.day;
+      break;
+    case HOUR:
+      required = CubeTableInfo.EventTimeAggregationType.hour;
+      break;
+    case MINUTE:
+      required = CubeTableInfo.EventTimeAggregationType.minute;
+      break;
+    case SECOND:
+      required = CubeTableInfo.EventTimeAggregationType.second;
+      break;
+    default:
+      return false;
+    }
+    return interval.ordinal() >= required.ordinal();
+  }
+
+  /**
+   * Rule to match an aggregation over a scan of every column
+   */
+  public static class KuduCubeOverScanRule extends KuduCubeRule {
+
+    public KuduCubeOverScanRule(final RelBuilderFactory factory) {
+      super(SCAN_OPERAND, factory, "KuduCubeOverScan");
+    }
+
+    @Override
+    public void onMatch(final RelOptRuleCall call) {
+      perform(call, call.rel(0), null, null, call.rel(1));
+    }
+  }
+
+  /**
+   * Rule to match an aggregation over a filter of every column
+   */
+  public static class KuduCubeOverFilterRule extends KuduCubeRule {
+
+    public KuduCubeOverFilterRule(final RelBuilderFactory factory) {
+      super(FILTER_OPERAND, factory, "KuduCubeOverFilter");
+    }
+
+    @Override
+    public void onMatch(final RelOptRuleCall call) {
+      perform(call, call.rel(0), null, call.rel(1), call.rel(2));
+    }
+  }
+
+  /**
+   * Rule to match an aggregation over a projection of a scan
+   */
+  public static class KuduCubeOverProjectRule extends KuduCubeRule {
+
+    public KuduCubeOverProjectRule(final RelBuilderFactory factory) {
+      super(PROJECT_OPERAND, factory, "KuduCubeOverProject");
+    }
+
+    @Override
+    public void onMatch(final RelOptRuleCall call) {
+      perform(call, call.rel(0), call.rel(1), null, call.rel(2));
+    }
+  }
+
+  /**
+   * Rule to match an aggregation over a projection of a filter
+   */
+  public static class KuduCubeOverProjectAndFilterRule extends KuduCubeRule {
+
+    public KuduCubeOverProjectAndFilterRule(final RelBuilderFactory factory) {
+      super(PROJECT_FILTER_OPERAND, factory, "KuduCubeOverProjectAndFilter");
+    }
+
+    @Override
+    public void onMatch(final RelOptRuleCall call) {
+      perform(call, call.rel(0), call.rel(1), call.rel(2), call.rel(3));
+    }
+  }
+}
@@ -54,9 +54,14 @@ public class KuduFilterRule extends RelOptRule {
     final KuduQuery kuduQuery = (KuduQuery) call.getRelList().get(1);
     if (filter.getTraitSet().contains(Convention.NONE)) {
       final RexBuilder rexBuilder = filter.getCluster().getRexBuilder();
-      // expand row value expression into a series of OR-AND expressions
+      // scan row value expressions on a primary key prefix as a single key range
+      final PrimaryKeyBoundExtractor boundExtractor = new PrimaryKeyBoundExtractor(rexBuilder,
+          kuduQuery.calciteKuduTable);
+      final RexNode boundedCondition = boundExtractor.extract(filter.getCondition());
+      // expand the remaining row value expressions into a series of OR-AND
+      // expressions
       RowValueExpressionConverter visitor = new RowValueExpressionConverter(rexBuilder, kuduQuery.calciteKuduTable);
-      final RexNode condition = filter.getCondition().accept(visitor);
+      final RexNode condition = boundedCondition.accept(visitor);
       final KuduPredicatePushDownVisitor predicateParser = new KuduPredicatePushDownVisitor();
 
       // Parse condition for filters to push down to Kudu and then look at each kudu
@@ -70,8 +75,8 @@ public class KuduFilterRule extends RelOptRule {
       }
       final RelNode converted = new KuduFilterRel(filter.getCluster(),
           filter.getTraitSet().replace(KuduRelNode.CONVENTION), convert(filter.getInput(), KuduRelNode.CONVENTION),
-          filter.getCondition(), predicates, kuduQuery.calciteKuduTable.getKuduTable().getSchema(),
-          !predicateParser.areAllFiltersApplied());
+          filter.getCondition(), predicates, boundExtractor.getBounds(),
+          kuduQuery.calciteKuduTable.getKuduTable().getSchema(), !predicateParser.areAllFiltersApplied());
 
       call.transformTo(converted);
     }
@@ -0,0 +1,194 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rules;
+
+import com.google.common.collect.Lists;
+import com.twilio.kudu.sql.KuduQuery;
+import com.twilio.kudu.sql.KuduRelNode;
+import com.twilio.kudu.sql.rel.KuduAggregateRel;
+import com.twilio.kudu.sql.rel.KuduFilterRel;
+import com.twilio.kudu.sql.rel.KuduProjectRel;
+import com.twilio.kudu.sql.rel.KuduToEnumerableRel;
+import org.apache.calcite.plan.RelOptRule;
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptRuleOperand;
+import org.apache.calcite.rel.RelCollations;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.SqlAggFunction;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeFamily;
+import org.apache.calcite.tools.RelBuilderFactory;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rule to split an aggregation over a scan of a table into a
+ * {@link KuduAggregateRel} that each scanner computes over the rows it reads
+ * and a final aggregation that merges the partial rows of the scanners. Only
+ * the partial rows are queued for the consumer instead of every row that
+ * matches the filter.
+ *
+ * The final aggregation sums the partial counts and sums and takes the minimum
+ * and maximum of the partial minimums and maximums. The rule only applies to
+ * tables that enable it, see
+ * {@link com.twilio.kudu.sql.CalciteKuduTable#isPartialAggregation()}, and to
+ * aggregations that only contain COUNT, SUM, MIN and MAX.
+ */
+public abstract class KuduPartialAggregationRule extends RelOptRule {
+
+  private static final RelOptRuleOperand FILTER_OPERAND = operand(Aggregate.class, operand(KuduToEnumerableRel.class,
+      operand(KuduProjectRel.class, operand(KuduFilterRel.class, operand(KuduQuery.class, none())))));
+
+  private static final RelOptRuleOperand SIMPLE_OPERAND = operand(Aggregate.class,
+      operand(KuduToEnumerableRel.class, operand(KuduProjectRel.class, operand(KuduQuery.class, none()))));
+
+  private static final RelOptRuleOperand SCAN_OPERAND = operand(Aggregate.class,
+      operand(KuduToEnumerableRel.class, operand(KuduQuery.class, none())));
+
+  public static final RelOptRule PARTIAL_AGGREGATION_FILTER_RULE = new KuduPartialAggregationOverFilterRule(
+      RelFactories.LOGICAL_BUILDER);
+
+  public static final RelOptRule PARTIAL_AGGREGATION_RULE = new KuduPartialAggregationOverScanRule(
+      RelFactories.LOGICAL_BUILDER);
+
+  public static final RelOptRule PARTIAL_AGGREGATION_QUERY_RULE = new KuduPartialAggregationOverQueryRule(
+      RelFactories.LOGICAL_BUILDER);
+
+  public KuduPartialAggregationRule(RelOptRuleOperand operand, RelBuilderFactory relBuilderFactory,
+      String description) {
+    super(operand, relBuilderFactory, description);
+  }
+
+  protected void perform(final RelOptRuleCall call, final Aggregate aggregate,
+      final KuduToEnumerableRel kuduToEnumerableRel, final KuduQuery query) {
+    if (!query.calciteKuduTable.isPartialAggregation() || aggregate.getGroupType() != Aggregate.Group.SIMPLE) {
+      return;
+    }
+    final RelDataType inputRowType = kuduToEnumerableRel.getRowType();
+    // the group keys are compared with equals() and the values of MIN and MAX
+    // with compareTo(), which byte arrays don't implement
+    for (int groupOrdinal : aggregate.getGroupSet()) {
+      if (isBinary(inputRowType.getFieldList().get(groupOrdinal).getType())) {
+        return;
+      }
+    }
+    final int groupCount = aggregate.getGroupCount();
+    final RelNode scan = kuduToEnumerableRel.getInput();
+    final List<AggregateCall> partialCalls = new ArrayList<>(aggregate.getAggCallList().size());
+    final List<SqlAggFunction> finalFunctions = new ArrayList<>(aggregate.getAggCallList().size());
+    for (int i = 0; i < aggregate.getAggCallList().size(); i++) {
+      final AggregateCall aggCall = aggregate.getAggCallList().get(i);
+      if (!KuduAggregateRel.partialFunction(aggCall).isPresent() || (!aggCall.getArgList().isEmpty()
+          && isBinary(inputRowType.getFieldList().get(aggCall.getArgList().get(0)).getType()))) {
+        return;
+      }
+      final SqlAggFunction partialFunction;
+      final SqlAggFunction finalFunction;
+      switch (aggCall.getAggregation().getKind()) {
+      case COUNT:
+        partialFunction = aggCall.getAggregation();
+        finalFunction = SqlStdOperatorTable.SUM0;
+        break;
+      case SUM0:
+        // a scanner without a value for a group produces null rather than zero, the
+        // final SUM0 turns it into zero
+        partialFunction = SqlStdOperatorTable.SUM;
+        finalFunction = SqlStdOperatorTable.SUM0;
+        break;
+      default:
+        partialFunction = aggCall.getAggregation();
+        finalFunction = aggCall.getAggregation();
+      }
+      // the types are inferred, the nullability of a call can differ from the
+      // original call
+      partialCalls.add(AggregateCall.create(partialFunction, false, false, false, aggCall.getArgList(), -1,
+          RelCollations.EMPTY, groupCount, scan, null, aggCall.name));
+      finalFunctions.add(finalFunction);
+    }
+
+    final KuduAggregateRel partialAggregate = new KuduAggregateRel(aggregate.getCluster(),
+        aggregate.getCluster().traitSetOf(KuduRelNode.CONVENTION), scan, aggregate.getGroupSet(), partialCalls);
+    final RelNode newKuduToEnumerableRel = kuduToEnumerableRel
+        .copy(kuduToEnumerableRel.getTraitSet().replace(RelCollations.EMPTY), Lists.newArrayList(partialAggregate));
+    // the group keys are the first fields of the partial rows
+    final List<AggregateCall> finalCalls = new ArrayList<>(finalFunctions.size());
+    for (int i = 0; i < finalFunctions.size(); i++) {
+      finalCalls.add(AggregateCall.create(finalFunctions.get(i), false, false, false,
+          Collections.singletonList(groupCount + i), -1, RelCollations.EMPTY, groupCount, newKuduToEnumerableRel, null,
+          aggregate.getAggCallList().get(i).name));
+    }
+    final RelNode finalAggregate = aggregate.copy(aggregate.getTraitSet(), newKuduToEnumerableRel,
+        ImmutableBitSet.range(groupCount), null, finalCalls);
+    // casts the results whose nullability differs back to the type of the
+    // original aggregation
+    call.transformTo(call.builder().push(finalAggregate).convert(aggregate.getRowType(), false).build());
+  }
+
+  private static boolean isBinary(final RelDataType type) {
+    return SqlTypeFamily.BINARY.contains(type);
+  }
+
+  /**
+   * Rule to match an aggregation over a scan with a filter
+   */
+  public static class KuduPartialAggregationOverFilterRule extends KuduPartialAggregationRule {
+
+    public KuduPartialAggregationOverFilterRule(final RelBuilderFactory factory) {
+      super(FILTER_OPERAND, factory, "KuduPartialAggregationOverFilter");
+    }
+
+    @Override
+    public void onMatch(final RelOptRuleCall call) {
+      perform(call, call.rel(0), call.rel(1), call.rel(4));
+    }
+  }
+
+  /**
+   * Rule to match an aggregation over a scan of every column
+   */
+  public static class KuduPartialAggregationOverQueryRule extends KuduPartialAggregationRule {
+
+    public KuduPartialAggregationOverQueryRule(final RelBuilderFactory factory) {
+      super(SCAN_OPERAND, factory, "KuduPartialAggregationOverQuery");
+    }
+
+    @Override
+    public void onMatch(final RelOptRuleCall call) {
+      perform(call, call.rel(0), call.rel(1), call.rel(2));
+    }
+  }
+
+  /**
+   * Rule to match an aggregation over a scan without a filter
+   */
+  public static class KuduPartialAggregationOverScanRule extends KuduPartialAggregationRule {
+
+    public KuduPartialAggregationOverScanRule(final RelBuilderFactory factory) {
+      super(SIMPLE_OPERAND, factory, "KuduPartialAggregation");
+    }
+
+    @Override
+    public void onMatch(final RelOptRuleCall call) {
+      perform(call, call.rel(0), call.rel(1), call.rel(3));
+    }
+  }
+}
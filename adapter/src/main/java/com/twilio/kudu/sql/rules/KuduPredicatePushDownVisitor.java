@@ -225,7 +225,7 @@ public class KuduPredicatePushDownVisitor implements RexBiVisitor<List<List<Calc
     throw new UnsupportedOperationException("Unable to determine column index from node " + node);
   }
 
-  private Object castLiteral(RexLiteral literal) {
+  static Object castLiteral(RexLiteral literal) {
     switch (literal.getType().getSqlTypeName()) {
     case BOOLEAN:
       return RexLiteral.booleanValue(literal);
@@ -39,6 +39,10 @@ public class KuduRules {
 
   public static List<RelOptRule> RULES = Arrays.asList(FILTER, PROJECT, SORT, FILTER_SORT, LIMIT,
       SORT_OVER_JOIN_TRANSPOSE, KuduSortedAggregationRule.SORTED_AGGREGATION_RULE,
-      KuduSortedAggregationRule.SORTED_AGGREGATION_LIMIT_RULE, NESTED_JOIN, NESTED_JOIN_OVER_SORT,
-      NESTED_JOIN_OVER_LIMIT, NESTED_JOIN_OVER_LIMIT_SORT_FILTER, KuduToEnumerableConverter.INSTANCE);
+      KuduSortedAggregationRule.SORTED_AGGREGATION_LIMIT_RULE, KuduPartialAggregationRule.PARTIAL_AGGREGATION_RULE,
+      KuduPartialAggregationRule.PARTIAL_AGGREGATION_FILTER_RULE,
+      KuduPartialAggregationRule.PARTIAL_AGGREGATION_QUERY_RULE, KuduCubeRule.CUBE_SCAN_RULE,
+      KuduCubeRule.CUBE_FILTER_RULE, KuduCubeRule.CUBE_PROJECT_RULE, KuduCubeRule.CUBE_PROJECT_FILTER_RULE, NESTED_JOIN,
+      NESTED_JOIN_OVER_SORT, NESTED_JOIN_OVER_LIMIT, NESTED_JOIN_OVER_LIMIT_SORT_FILTER,
+      KuduToEnumerableConverter.INSTANCE);
 }
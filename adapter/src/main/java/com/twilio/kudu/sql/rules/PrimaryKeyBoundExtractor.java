@@ -0,0 +1,222 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rules;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.PrimaryKeyBound;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlOperator;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.KuduPredicate;
+
+/**
+ * Turns a row value comparison that is AND'ed to the rest of the filter into a
+ * {@link PrimaryKeyBound} when it compares primary key columns. The columns of
+ * the row must be consecutive primary key columns and every primary key column
+ * before them must be compared with EQUAL, for instance if the PK of the table
+ * is {@code (A, B, C, D)} {@code A = 'a1' AND (B, C) > ('b1', 'c1')} becomes a
+ * scan of the primary key range that starts after {@code ('a1', 'b1', 'c1')}.
+ *
+ * The comparison is replaced by a comparison of its first column, which is
+ * implied by it, so the scan is still pruned to the partitions that can hold
+ * the range. Row value comparisons that don't qualify are left for
+ * {@link RowValueExpressionConverter} to expand.
+ */
+public class PrimaryKeyBoundExtractor {
+
+  private final RexBuilder rexBuilder;
+  private final CalciteKuduTable calciteKuduTable;
+  private final List<PrimaryKeyBound> bounds = new ArrayList<>();
+
+  public PrimaryKeyBoundExtractor(RexBuilder rexBuilder, CalciteKuduTable calciteKuduTable) {
+    this.rexBuilder = rexBuilder;
+    this.calciteKuduTable = calciteKuduTable;
+  }
+
+  /**
+   * @return the primary key bounds extracted by {@link #extract(RexNode)}, they
+   *         apply to every scan
+   */
+  public List<PrimaryKeyBound> getBounds() {
+    return bounds;
+  }
+
+  /**
+   * Extracts the primary key bounds of a filter condition.
+   *
+   * @param condition the filter condition
+   *
+   * @return the condition with each row value comparison that became a bound
+   *         replaced by a comparison of its first column
+   */
+  public RexNode extract(final RexNode condition) {
+    final List<RexNode> conjunctions = RelOptUtil.conjunctions(condition);
+    // primary key columns that are compared with EQUAL to a literal
+    final Map<Integer, RexLiteral> equalPrimaryKeys = new HashMap<>();
+    for (RexNode conjunction : conjunctions) {
+      if (conjunction.getKind() != SqlKind.EQUALS) {
+        continue;
+      }
+      final List<RexNode> operands = ((RexCall) conjunction).getOperands();
+      if (operands.get(0) instanceof RexInputRef && operands.get(1) instanceof RexLiteral) {
+        equalPrimaryKeys.put(((RexInputRef) operands.get(0)).getIndex(), (RexLiteral) operands.get(1));
+      } else if (operands.get(1) instanceof RexInputRef && operands.get(0) instanceof RexLiteral) {
+        equalPrimaryKeys.put(((RexInputRef) operands.get(1)).getIndex(), (RexLiteral) operands.get(0));
+      }
+    }
+
+    boolean extracted = false;
+    final List<RexNode> rewritten = new ArrayList<>(conjunctions.size());
+    for (RexNode conjunction : conjunctions) {
+      final RexNode impliedComparison = toBound(conjunction, equalPrimaryKeys);
+      if (impliedComparison != null) {
+        rewritten.add(impliedComparison);
+        extracted = true;
+      } else {
+        rewritten.add(conjunction);
+      }
+    }
+    return extracted ? RexUtil.composeConjunction(rexBuilder, rewritten) : condition;
+  }
+
+  /**
+   * Adds the bound of a row value comparison.
+   *
+   * @return the comparison of the first column of the row, null if the node isn't
+   *         a row value comparison on the primary key
+   */
+  private RexNode toBound(final RexNode node, final Map<Integer, RexLiteral> equalPrimaryKeys) {
+    final KuduPredicate.ComparisonOp operation;
+    switch (node.getKind()) {
+    case GREATER_THAN:
+      operation = KuduPredicate.ComparisonOp.GREATER;
+      break;
+    case GREATER_THAN_OR_EQUAL:
+      operation = KuduPredicate.ComparisonOp.GREATER_EQUAL;
+      break;
+    case LESS_THAN:
+      operation = KuduPredicate.ComparisonOp.LESS;
+      break;
+    case LESS_THAN_OR_EQUAL:
+      operation = KuduPredicate.ComparisonOp.LESS_EQUAL;
+      break;
+    default:
+      return null;
+    }
+    final RexCall call = (RexCall) node;
+    if (call.getOperands().get(0).getKind() != SqlKind.ROW || call.getOperands().get(1).getKind() != SqlKind.ROW) {
+      return null;
+    }
+    final List<RexNode> columns = ((RexCall) call.getOperands().get(0)).getOperands();
+    final List<RexNode> literals = ((RexCall) call.getOperands().get(1)).getOperands();
+    if (columns.isEmpty() || columns.size() != literals.size() || !(columns.get(0) instanceof RexInputRef)) {
+      return null;
+    }
+
+    final Schema schema = calciteKuduTable.getKuduTable().getSchema();
+    final int firstColumnIdx = ((RexInputRef) columns.get(0)).getIndex();
+    if (firstColumnIdx + columns.size() > schema.getPrimaryKeyColumnCount()) {
+      return null;
+    }
+    final List<Object> values = new ArrayList<>(firstColumnIdx + columns.size());
+    final List<String> columnNames = new ArrayList<>(firstColumnIdx + columns.size());
+    for (int i = 0; i < firstColumnIdx + columns.size(); i++) {
+      final RexLiteral literal;
+      if (i < firstColumnIdx) {
+        literal = equalPrimaryKeys.get(i);
+      } else if (columns.get(i - firstColumnIdx) instanceof RexInputRef
+          && ((RexInputRef) columns.get(i - firstColumnIdx)).getIndex() == i
+          && literals.get(i - firstColumnIdx) instanceof RexLiteral) {
+        literal = (RexLiteral) literals.get(i - firstColumnIdx);
+      } else {
+        literal = null;
+      }
+      final ColumnSchema columnSchema = schema.getColumnByIndex(i);
+      if (literal == null || !isKeyValue(columnSchema, literal)) {
+        return null;
+      }
+      values.add(KuduPredicatePushDownVisitor.castLiteral(literal));
+      columnNames.add(columnSchema.getName());
+    }
+    bounds.add(new PrimaryKeyBound(operation, values, columnNames));
+
+    // (A, B) > (a, b) implies A >= a when A is ascending and A <= a when it is
+    // descending
+    final boolean greaterOrEqual = (operation == KuduPredicate.ComparisonOp.GREATER
+        || operation == KuduPredicate.ComparisonOp.GREATER_EQUAL) != calciteKuduTable
+            .isColumnOrderedDesc(firstColumnIdx);
+    final SqlOperator impliedOperator = greaterOrEqual ? SqlStdOperatorTable.GREATER_THAN_OR_EQUAL
+        : SqlStdOperatorTable.LESS_THAN_OR_EQUAL;
+    return rexBuilder.makeCall(impliedOperator, columns.get(0), literals.get(0));
+  }
+
+  /**
+   * @return true if the literal can be encoded as a value of the primary key
+   *         column
+   */
+  private static boolean isKeyValue(final ColumnSchema columnSchema, final RexLiteral literal) {
+    if (RexLiteral.isNullLiteral(literal)) {
+      return false;
+    }
+    final SqlTypeName literalType = literal.getType().getSqlTypeName();
+    switch (columnSchema.getType()) {
+    case INT8:
+      return isInteger(literalType) && isInRange(literal, Byte.MIN_VALUE, Byte.MAX_VALUE);
+    case INT16:
+      return isInteger(literalType) && isInRange(literal, Short.MIN_VALUE, Short.MAX_VALUE);
+    case INT32:
+      return isInteger(literalType) && isInRange(literal, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    case INT64:
+      return isInteger(literalType);
+    case UNIXTIME_MICROS:
+      return literalType == SqlTypeName.TIMESTAMP;
+    case STRING:
+      return literalType == SqlTypeName.CHAR || literalType == SqlTypeName.VARCHAR;
+    case BINARY:
+      return literalType == SqlTypeName.BINARY;
+    case DECIMAL:
+      return literalType == SqlTypeName.DECIMAL
+          && literal.getValueAs(BigDecimal.class).scale() <= columnSchema.getTypeAttributes().getScale();
+    default:
+      return false;
+    }
+  }
+
+  private static boolean isInteger(final SqlTypeName literalType) {
+    return literalType == SqlTypeName.TINYINT || literalType == SqlTypeName.SMALLINT
+        || literalType == SqlTypeName.INTEGER || literalType == SqlTypeName.BIGINT;
+  }
+
+  private static boolean isInRange(final RexLiteral literal, final long min, final long max) {
+    final long value = literal.getValueAs(Long.class);
+    return value >= min && value <= max;
+  }
+}
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public abstract class BaseKuduSchemaFactory implements SchemaFactory {
@@ -39,9 +40,31 @@ public abstract class BaseKuduSchemaFactory implements SchemaFactory {
   @Override
   public Schema create(SchemaPlus parentSchema, String name, Map<String, Object> operand) {
     final String connectString = (String) operand.get("connect");
-    final String enableInserts = (String) operand.get("enableInserts");
+    final KuduSchemaOptions.KuduSchemaOptionsBuilder options = new KuduSchemaOptions.KuduSchemaOptionsBuilder();
+    setOption(operand, "enableInserts", value -> options.setEnableInserts(Boolean.valueOf(value)));
+    setOption(operand, "scanBufferBytes", value -> options.setScanBufferBytes(Long.valueOf(value)));
+    setOption(operand, "scanReadAheadDepth", value -> options.setScanReadAheadDepth(Integer.valueOf(value)));
+    setOption(operand, "columnarScans", value -> options.setColumnarScans(Boolean.valueOf(value)));
+    setOption(operand, "partialAggregation", value -> options.setPartialAggregation(Boolean.valueOf(value)));
+    setOption(operand, "aggregationParallelism", value -> options.setAggregationParallelism(Integer.valueOf(value)));
+    setOption(operand, "cubeRewrites", value -> options.setCubeRewrites(Boolean.valueOf(value)));
+    setOption(operand, "cubeDeltaWrites", value -> options.setCubeDeltaWrites(Boolean.valueOf(value)));
+    setOption(operand, "cubeCompactionIntervalMs", value -> options.setCubeCompactionIntervalMs(Long.valueOf(value)));
+    setOption(operand, "writeWindowBytes", value -> options.setWriteWindowBytes(Long.valueOf(value)));
+    setOption(operand, "partitionedWrites", value -> options.setPartitionedWrites(Boolean.valueOf(value)));
+    setOption(operand, "maxScannersPerQuery", value -> options.setMaxScannersPerQuery(Integer.valueOf(value)));
+    setOption(operand, "maxScannersPerTabletServer",
+        value -> options.setMaxScannersPerTabletServer(Integer.valueOf(value)));
+    // the options only apply when the schema of the cluster is created
     return schemaCache.computeIfAbsent(connectString,
-        (masterAddresses) -> new KuduSchema(masterAddresses, kuduTableConfigMap, enableInserts));
+        (masterAddresses) -> new KuduSchema(masterAddresses, kuduTableConfigMap, options.build()));
+  }
+
+  private static void setOption(Map<String, Object> operand, String name, Consumer<String> setter) {
+    final String value = (String) operand.get(name);
+    if (value != null) {
+      setter.accept(value);
+    }
   }
 
   public Optional<CalciteKuduTable> getTable(String tableName) {
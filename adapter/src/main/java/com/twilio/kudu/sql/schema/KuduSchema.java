@@ -19,6 +19,9 @@ import com.twilio.kudu.sql.metadata.KuduTableMetadata;
 import com.twilio.kudu.sql.CalciteKuduTableBuilder;
 import com.twilio.kudu.sql.CalciteModifiableKuduTable;
 import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.ScanScheduler;
+import com.twilio.kudu.sql.mutation.CubeCompactor;
+import com.twilio.kudu.sql.mutation.CubeDeltaTables;
 import org.apache.calcite.schema.Table;
 import org.apache.calcite.schema.impl.AbstractSchema;
 import org.apache.kudu.ColumnSchema;
@@ -35,6 +38,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public final class KuduSchema extends AbstractSchema {
@@ -45,14 +49,26 @@ public final class KuduSchema extends AbstractSchema {
   private final Map<String, KuduTableMetadata> kuduTableMetadataMap;
   private Optional<Map<String, Table>> cachedTableMap = Optional.empty();
 
-  private boolean enableInserts;
+  private final KuduSchemaOptions options;
+
+  // starts the scanners of every query over the tables of this schema
+  private final ScanScheduler scanScheduler;
+
+  // compactors that fold the deltas of each cube, keyed by cube table name
+  private final Map<String, CubeCompactor> cubeCompactors = new ConcurrentHashMap<>();
 
   public KuduSchema(final String connectString, final Map<String, KuduTableMetadata> kuduTableMetadataMap,
       final String enableInsertsString) {
+    this(connectString, kuduTableMetadataMap, new KuduSchemaOptions.KuduSchemaOptionsBuilder()
+        .setEnableInserts(enableInsertsString != null && Boolean.valueOf(enableInsertsString)).build());
+  }
+
+  public KuduSchema(final String connectString, final Map<String, KuduTableMetadata> kuduTableMetadataMap,
+      final KuduSchemaOptions options) {
     this.client = new AsyncKuduClient.AsyncKuduClientBuilder(connectString).build();
     this.kuduTableMetadataMap = kuduTableMetadataMap;
-    // We disable inserts by default as this feaure is meant for testing purposes
-    this.enableInserts = (enableInsertsString != null) ? Boolean.valueOf(enableInsertsString) : false;
+    this.options = options;
+    this.scanScheduler = new ScanScheduler(options.getMaxScannersPerQuery(), options.getMaxScannersPerTabletServer());
   }
 
   public void clearCachedTableMap() {
@@ -95,7 +111,7 @@ public final class KuduSchema extends AbstractSchema {
     for (String tableName : tableNames) {
       List<String> descendingOrderedColumns = new ArrayList<>();
       String timeStampColumnName = "";
-      if (!tableName.endsWith("Aggregation")) {
+      if (!tableName.endsWith("Aggregation") && !CubeDeltaTables.isDeltaTable(tableName)) {
         try {
           KuduTable kuduTable = this.client.openTable(tableName).join();
           for (ColumnSchema columnSchema : kuduTable.getSchema().getColumns()) {
@@ -140,8 +156,8 @@ public final class KuduSchema extends AbstractSchema {
       for (CubeTableInfo cubeTableInfo : kuduTableMetadata.getCubeTableInfo()) {
         Optional<KuduTable> cubeTableOptional = openKuduTable(cubeTableInfo.tableName);
         cubeTableOptional.ifPresent(kuduTable -> {
-          final CalciteKuduTableBuilder builder = new CalciteKuduTableBuilder(kuduTable, client, enableInserts)
-              .setTableType(com.twilio.kudu.sql.TableType.CUBE)
+          final CalciteKuduTableBuilder builder = new CalciteKuduTableBuilder(kuduTable, client, options)
+              .setScanScheduler(scanScheduler).setTableType(com.twilio.kudu.sql.TableType.CUBE)
               .setEventTimeAggregationType(cubeTableInfo.eventTimeAggregationType);
           setDescendingFieldIndices(builder, descendingOrderedColumnNames, kuduTable);
           setTimestampColumnIndex(builder, kuduTableMetadata.getTimestampColumnName(), kuduTable);
@@ -155,25 +171,33 @@ public final class KuduSchema extends AbstractSchema {
       String factTableName = entry.getKey();
       Optional<KuduTable> factTableOptional = openKuduTable(factTableName);
       factTableOptional.ifPresent(kuduTable -> {
-        final CalciteKuduTableBuilder builder = new CalciteKuduTableBuilder(kuduTable, client, enableInserts)
-            .setTableType(com.twilio.kudu.sql.TableType.FACT).setCubeTables(cubeTableList);
+        final CalciteKuduTableBuilder builder = new CalciteKuduTableBuilder(kuduTable, client, options)
+            .setScanScheduler(scanScheduler).setTableType(com.twilio.kudu.sql.TableType.FACT)
+            .setCubeTables(cubeTableList);
         setDescendingFieldIndices(builder, descendingOrderedColumnNames, kuduTable);
         setTimestampColumnIndex(builder, kuduTableMetadata.getTimestampColumnName(), kuduTable);
         CalciteKuduTable factTable = builder.build();
         tableMap.put(factTableName, factTable);
 
         // create cube maintainer for each cube table
-        if (enableInserts) {
+        if (options.isEnableInserts()) {
           for (CalciteKuduTable cubeTable : cubeTableList) {
             ((CalciteModifiableKuduTable) cubeTable).createCubeMaintainer(factTable);
           }
         }
+        // fold the deltas written to each cube table in the background
+        if (options.isCubeDeltaWrites() && options.getCubeCompactionIntervalMs() > 0) {
+          for (CalciteKuduTable cubeTable : cubeTableList) {
+            cubeCompactors.computeIfAbsent(cubeTable.getKuduTable().getName(),
+                cubeTableName -> new CubeCompactor(cubeTable).start(options.getCubeCompactionIntervalMs()));
+          }
+        }
       });
     }
 
     // load remaining tables (dimension tables and system tables)
     for (String tableName : tableNames) {
-      if (!tableMap.containsKey(tableName)) {
+      if (!tableMap.containsKey(tableName) && !CubeDeltaTables.isDeltaTable(tableName)) {
         if (tableName.startsWith("System")) {
           Optional<KuduTable> kuduTableOptional = openKuduTable(tableName);
           kuduTableOptional.ifPresent(kuduTable -> {
@@ -196,8 +220,8 @@ public final class KuduSchema extends AbstractSchema {
 
   private void createCalciteTable(HashMap<String, Table> tableMap, KuduTable kuduTable,
       com.twilio.kudu.sql.TableType tableType) {
-    final CalciteKuduTableBuilder builder = new CalciteKuduTableBuilder(kuduTable, client, enableInserts)
-        .setTableType(tableType);
+    final CalciteKuduTableBuilder builder = new CalciteKuduTableBuilder(kuduTable, client, options)
+        .setScanScheduler(scanScheduler).setTableType(tableType);
     CalciteKuduTable calciteKuduTable = builder.build();
     tableMap.put(kuduTable.getName(), calciteKuduTable);
   }
@@ -0,0 +1,200 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.schema;
+
+import com.twilio.kudu.sql.ScanBufferBudget;
+import com.twilio.kudu.sql.ScanScheduler;
+import com.twilio.kudu.sql.ScannerCallback;
+import com.twilio.kudu.sql.mutation.AsyncWritePipeline;
+
+/**
+ * The {@code schema.*} options of a {@link KuduSchema}, applied to every table
+ * of the schema. Options that aren't set keep their default.
+ */
+public final class KuduSchemaOptions {
+
+  private final boolean enableInserts;
+  private final long scanBufferBytes;
+  private final int scanReadAheadDepth;
+  private final boolean columnarScans;
+  private final boolean partialAggregation;
+  private final int aggregationParallelism;
+  private final boolean cubeRewrites;
+  private final boolean cubeDeltaWrites;
+  private final long cubeCompactionIntervalMs;
+  private final long writeWindowBytes;
+  private final boolean partitionedWrites;
+  private final int maxScannersPerQuery;
+  private final int maxScannersPerTabletServer;
+
+  private KuduSchemaOptions(KuduSchemaOptionsBuilder builder) {
+    this.enableInserts = builder.enableInserts;
+    this.scanBufferBytes = builder.scanBufferBytes;
+    this.scanReadAheadDepth = builder.scanReadAheadDepth;
+    this.columnarScans = builder.columnarScans;
+    this.partialAggregation = builder.partialAggregation;
+    this.aggregationParallelism = builder.aggregationParallelism;
+    this.cubeRewrites = builder.cubeRewrites;
+    this.cubeDeltaWrites = builder.cubeDeltaWrites;
+    this.cubeCompactionIntervalMs = builder.cubeCompactionIntervalMs;
+    this.writeWindowBytes = builder.writeWindowBytes;
+    this.partitionedWrites = builder.partitionedWrites;
+    this.maxScannersPerQuery = builder.maxScannersPerQuery;
+    this.maxScannersPerTabletServer = builder.maxScannersPerTabletServer;
+  }
+
+  public boolean isEnableInserts() {
+    return enableInserts;
+  }
+
+  public long getScanBufferBytes() {
+    return scanBufferBytes;
+  }
+
+  public int getScanReadAheadDepth() {
+    return scanReadAheadDepth;
+  }
+
+  public boolean isColumnarScans() {
+    return columnarScans;
+  }
+
+  public boolean isPartialAggregation() {
+    return partialAggregation;
+  }
+
+  public int getAggregationParallelism() {
+    return aggregationParallelism;
+  }
+
+  public boolean isCubeRewrites() {
+    return cubeRewrites;
+  }
+
+  public boolean isCubeDeltaWrites() {
+    return cubeDeltaWrites;
+  }
+
+  /**
+   * @return how often the deltas of each cube are compacted, 0 if this process
+   *         doesn't compact them
+   */
+  public long getCubeCompactionIntervalMs() {
+    return cubeCompactionIntervalMs;
+  }
+
+  public long getWriteWindowBytes() {
+    return writeWindowBytes;
+  }
+
+  public boolean isPartitionedWrites() {
+    return partitionedWrites;
+  }
+
+  public int getMaxScannersPerQuery() {
+    return maxScannersPerQuery;
+  }
+
+  public int getMaxScannersPerTabletServer() {
+    return maxScannersPerTabletServer;
+  }
+
+  public static class KuduSchemaOptionsBuilder {
+    // We disable inserts by default as this feaure is meant for testing purposes
+    private boolean enableInserts = false;
+    private long scanBufferBytes = ScanBufferBudget.DEFAULT_MAX_BYTES;
+    private int scanReadAheadDepth = ScannerCallback.DEFAULT_READ_AHEAD_DEPTH;
+    private boolean columnarScans = false;
+    private boolean partialAggregation = false;
+    private int aggregationParallelism = 1;
+    private boolean cubeRewrites = true;
+    private boolean cubeDeltaWrites = false;
+    // deltas are only compacted by the processes that are configured to do so
+    private long cubeCompactionIntervalMs = 0;
+    private long writeWindowBytes = AsyncWritePipeline.DEFAULT_WINDOW_BYTES;
+    private boolean partitionedWrites = false;
+    private int maxScannersPerQuery = ScanScheduler.DEFAULT_MAX_SCANNERS_PER_QUERY;
+    private int maxScannersPerTabletServer = ScanScheduler.DEFAULT_MAX_SCANNERS_PER_TABLET_SERVER;
+
+    public KuduSchemaOptionsBuilder setEnableInserts(boolean enableInserts) {
+      this.enableInserts = enableInserts;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setScanBufferBytes(long scanBufferBytes) {
+      this.scanBufferBytes = scanBufferBytes;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setScanReadAheadDepth(int scanReadAheadDepth) {
+      this.scanReadAheadDepth = scanReadAheadDepth;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setColumnarScans(boolean columnarScans) {
+      this.columnarScans = columnarScans;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setPartialAggregation(boolean partialAggregation) {
+      this.partialAggregation = partialAggregation;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setAggregationParallelism(int aggregationParallelism) {
+      this.aggregationParallelism = aggregationParallelism;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setCubeRewrites(boolean cubeRewrites) {
+      this.cubeRewrites = cubeRewrites;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setCubeDeltaWrites(boolean cubeDeltaWrites) {
+      this.cubeDeltaWrites = cubeDeltaWrites;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setCubeCompactionIntervalMs(long cubeCompactionIntervalMs) {
+      this.cubeCompactionIntervalMs = cubeCompactionIntervalMs;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setWriteWindowBytes(long writeWindowBytes) {
+      this.writeWindowBytes = writeWindowBytes;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setPartitionedWrites(boolean partitionedWrites) {
+      this.partitionedWrites = partitionedWrites;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setMaxScannersPerQuery(int maxScannersPerQuery) {
+      this.maxScannersPerQuery = maxScannersPerQuery;
+      return this;
+    }
+
+    public KuduSchemaOptionsBuilder setMaxScannersPerTabletServer(int maxScannersPerTabletServer) {
+      this.maxScannersPerTabletServer = maxScannersPerTabletServer;
+      return this;
+    }
+
+    public KuduSchemaOptions build() {
+      return new KuduSchemaOptions(this);
+    }
+  }
+}
@@ -14,10 +14,25 @@
  */
 package org.apache.calcite.jdbc;
 
+import com.twilio.kudu.sql.KuduStatementBatch;
+import com.twilio.kudu.sql.KuduStatementScans;
+import org.apache.calcite.DataContext;
 import org.apache.calcite.adapter.java.JavaTypeFactory;
 import org.apache.calcite.avatica.AvaticaFactory;
+import org.apache.calcite.avatica.AvaticaStatement;
+import org.apache.calcite.avatica.Meta;
+import org.apache.calcite.avatica.MetaImpl;
+import org.apache.calcite.avatica.NoSuchStatementException;
+import org.apache.calcite.avatica.remote.TypedValue;
+import org.apache.calcite.linq4j.Enumerable;
+import org.apache.calcite.linq4j.Ord;
 
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class KuduCalciteConnectionImpl extends CalciteConnectionImpl {
 
@@ -30,4 +45,58 @@ public class KuduCalciteConnectionImpl extends CalciteConnectionImpl {
     return (KuduMetaImpl) meta();
   }
 
+  /**
+   * Same as {@link CalciteConnectionImpl#enumerable}, except that the scans of a
+   * {@link KuduStatement} find its {@link KuduStatementScans} and the mutation of
+   * a batch finds its {@link KuduStatementBatch} in the data context.
+   */
+  @Override
+  public <T> Enumerable<T> enumerable(final Meta.StatementHandle handle,
+      final CalcitePrepare.CalciteSignature<T> signature) throws SQLException {
+    final Map<String, Object> map = new LinkedHashMap<>();
+    final AvaticaStatement statement = lookupStatement(handle);
+    final List<TypedValue> parameterValues = TROJAN.getParameterValues(statement);
+    if (MetaImpl.checkParameterValueHasNull(parameterValues)) {
+      throw new SQLException("exception while executing query: unbound parameter");
+    }
+    Ord.forEach(parameterValues, (e, i) -> map.put("?" + i, e.toLocal()));
+    map.putAll(signature.internalParameters);
+    final AtomicBoolean cancelFlag;
+    try {
+      cancelFlag = getCancelFlag(handle);
+    } catch (NoSuchStatementException e) {
+      throw new RuntimeException(e);
+    }
+    map.put(DataContext.Variable.CANCEL_FLAG.camelName, cancelFlag);
+    final int queryTimeout = statement.getQueryTimeout();
+    // Avoid overflow
+    if (queryTimeout > 0 && queryTimeout < Integer.MAX_VALUE / 1000) {
+      map.put(DataContext.Variable.TIMEOUT.camelName, queryTimeout * 1000L);
+    }
+    if (statement instanceof KuduStatement) {
+      final KuduStatementScans kuduScans = ((KuduStatement) statement).getKuduScans();
+      kuduScans.clearScanStats();
+      map.put(KuduStatementScans.DATA_CONTEXT_NAME, kuduScans);
+    }
+    if (statement instanceof KuduCalcitePreparedStatement) {
+      final KuduStatementBatch batch = ((KuduCalcitePreparedStatement) statement).takeBatch();
+      if (batch != null) {
+        map.put(KuduStatementBatch.DATA_CONTEXT_NAME, batch);
+      }
+    }
+    final DataContext dataContext = createDataContext(map, signature.rootSchema);
+    return signature.enumerable(dataContext);
+  }
+
+  /**
+   * @param handle handle of a statement of this connection
+   *
+   * @return the prepared statement, null if the statement isn't a
+   *         {@link KuduCalcitePreparedStatement}
+   */
+  KuduCalcitePreparedStatement lookupPreparedStatement(final Meta.StatementHandle handle) throws SQLException {
+    final AvaticaStatement statement = lookupStatement(handle);
+    return statement instanceof KuduCalcitePreparedStatement ? (KuduCalcitePreparedStatement) statement : null;
+  }
+
 }
@@ -33,7 +33,7 @@ import java.util.TimeZone;
 /**
  * Factory that uses {@link CalciteJdbc41Factory} as a delegate so that we can
  * create our own {@link KuduCalciteConnectionImpl} that exposes
- * {@link KuduMetaImpl}
+ * {@link KuduMetaImpl} and statements that implement {@link KuduStatement}
  */
 public class KuduCalciteFactory extends CalciteFactory {
 
@@ -57,15 +57,16 @@ public class KuduCalciteFactory extends CalciteFactory {
   @Override
   public AvaticaStatement newStatement(AvaticaConnection connection, Meta.StatementHandle h, int resultSetType,
       int resultSetConcurrency, int resultSetHoldability) {
-    return delegate.newStatement(connection, h, resultSetType, resultSetConcurrency, resultSetHoldability);
+    return new KuduCalciteStatement((CalciteConnectionImpl) connection, h, resultSetType, resultSetConcurrency,
+        resultSetHoldability);
   }
 
   @Override
   public AvaticaPreparedStatement newPreparedStatement(AvaticaConnection connection, Meta.StatementHandle h,
       Meta.Signature signature, int resultSetType, int resultSetConcurrency, int resultSetHoldability)
       throws SQLException {
-    return delegate.newPreparedStatement(connection, h, signature, resultSetType, resultSetConcurrency,
-        resultSetHoldability);
+    return new KuduCalcitePreparedStatement((CalciteConnectionImpl) connection, h, signature, resultSetType,
+        resultSetConcurrency, resultSetHoldability);
   }
 
   @Override
@@ -0,0 +1,63 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.jdbc;
+
+import com.twilio.kudu.sql.KuduStatementBatch;
+import com.twilio.kudu.sql.KuduStatementScans;
+import org.apache.calcite.avatica.Meta;
+
+import java.sql.SQLException;
+
+/**
+ * {@link CalcitePreparedStatement} that keeps the pagination state of its
+ * queries and the batch its next execution writes
+ */
+class KuduCalcitePreparedStatement extends CalcitePreparedStatement implements KuduStatement {
+
+  private final KuduStatementScans kuduScans = new KuduStatementScans();
+
+  // rows of the batch that is being executed, taken by the execution
+  private KuduStatementBatch batch = null;
+
+  KuduCalcitePreparedStatement(CalciteConnectionImpl connection, Meta.StatementHandle h, Meta.Signature signature,
+      int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+    super(connection, h, signature, resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  @Override
+  public KuduStatementScans getKuduScans() {
+    return kuduScans;
+  }
+
+  /**
+   * Makes the next execution of this statement write every row of the batch
+   * instead of the parameter values it is executed with
+   *
+   * @param batch the batch, null to clear it
+   */
+  void setBatch(final KuduStatementBatch batch) {
+    this.batch = batch;
+  }
+
+  /**
+   * @return the batch set by {@link #setBatch(KuduStatementBatch)} and clears it,
+   *         null if there isn't one
+   */
+  KuduStatementBatch takeBatch() {
+    final KuduStatementBatch batch = this.batch;
+    this.batch = null;
+    return batch;
+  }
+}
@@ -0,0 +1,36 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.jdbc;
+
+import com.twilio.kudu.sql.KuduStatementScans;
+import org.apache.calcite.avatica.Meta;
+
+/**
+ * {@link CalciteStatement} that keeps the pagination state of its queries
+ */
+class KuduCalciteStatement extends CalciteStatement implements KuduStatement {
+
+  private final KuduStatementScans kuduScans = new KuduStatementScans();
+
+  KuduCalciteStatement(CalciteConnectionImpl connection, Meta.StatementHandle h, int resultSetType,
+      int resultSetConcurrency, int resultSetHoldability) {
+    super(connection, h, resultSetType, resultSetConcurrency, resultSetHoldability);
+  }
+
+  @Override
+  public KuduStatementScans getKuduScans() {
+    return kuduScans;
+  }
+}
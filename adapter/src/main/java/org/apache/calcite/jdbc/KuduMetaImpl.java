@@ -15,9 +15,16 @@
 package org.apache.calcite.jdbc;
 
 import com.twilio.kudu.sql.CalciteModifiableKuduTable;
+import com.twilio.kudu.sql.KuduStatementBatch;
 import com.twilio.kudu.sql.mutation.MutationState;
+import org.apache.calcite.avatica.NoSuchStatementException;
+import org.apache.calcite.avatica.remote.TypedValue;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class KuduMetaImpl extends CalciteMetaImpl {
@@ -32,9 +39,60 @@ public class KuduMetaImpl extends CalciteMetaImpl {
 
   @Override
   public void commit(ConnectionHandle ch) {
-    for (MutationState mutationState : mutationStateMap.values()) {
-      mutationState.flush();
+    MutationState.flush(mutationStateMap.values());
+  }
+
+  /**
+   * Executes the statement once with the parameter values of every row of the
+   * batch, an INSERT into a kudu table writes all of them with a single call to
+   * {@link MutationState#mutateRows(List, List)}. Other statements are executed
+   * once per row.
+   */
+  @Override
+  public ExecuteBatchResult executeBatch(StatementHandle h, List<List<TypedValue>> parameterValueLists)
+      throws NoSuchStatementException {
+    if (parameterValueLists.isEmpty()) {
+      return new ExecuteBatchResult(new long[0]);
+    }
+    final List<Object[]> rows = new ArrayList<>(parameterValueLists.size());
+    for (List<TypedValue> parameterValues : parameterValueLists) {
+      final Object[] row = new Object[parameterValues.size()];
+      for (int i = 0; i < row.length; i++) {
+        // the same representation the values are bound with when executed
+        row[i] = parameterValues.get(i).toLocal();
+      }
+      rows.add(row);
+    }
+    final KuduCalcitePreparedStatement statement;
+    try {
+      statement = ((KuduCalciteConnectionImpl) getConnection()).lookupPreparedStatement(h);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+    // the rows are only visible to the execution of this statement
+    final KuduStatementBatch batch = new KuduStatementBatch(rows);
+    if (statement != null) {
+      statement.setBatch(batch);
+    }
+    final ExecuteResult firstResult;
+    try {
+      firstResult = execute(h, parameterValueLists.get(0), -1);
+    } finally {
+      if (statement != null) {
+        statement.takeBatch();
+      }
+    }
+    final long[] updateCounts = new long[parameterValueLists.size()];
+    if (batch.isWritten()) {
+      // every row inserts one row
+      Arrays.fill(updateCounts, 1);
+      return new ExecuteBatchResult(updateCounts);
     }
+    updateCounts[0] = firstResult.resultSets.get(0).updateCount;
+    final long[] remainingCounts = super.executeBatch(h,
+        parameterValueLists.subList(1, parameterValueLists.size())).updateCounts;
+    System.arraycopy(remainingCounts, 0, updateCounts, 1, remainingCounts.length);
+    return new ExecuteBatchResult(updateCounts);
   }
 
   @Override
@@ -0,0 +1,49 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.calcite.jdbc;
+
+import com.twilio.kudu.sql.KuduStatementScans;
+
+/**
+ * A statement of a Kudu connection, a {@link java.sql.Statement} or
+ * {@link java.sql.PreparedStatement} can be unwrapped into it to page through a
+ * sorted query with a cursor instead of an {@code OFFSET}.
+ */
+public interface KuduStatement {
+
+  /**
+   * @return the pagination cursors and scans of this statement
+   */
+  KuduStatementScans getKuduScans();
+
+  /**
+   * See {@link KuduStatementScans#setPaginationCursor(String)}
+   *
+   * @param cursor cursor from {@link #getNextPaginationCursor()}, null to start
+   *               from the first page
+   */
+  default void setPaginationCursor(final String cursor) {
+    getKuduScans().setPaginationCursor(cursor);
+  }
+
+  /**
+   * See {@link KuduStatementScans#getNextPaginationCursor()}
+   *
+   * @return the opaque cursor or null if the query returned its last row
+   */
+  default String getNextPaginationCursor() {
+    return getKuduScans().getNextPaginationCursor();
+  }
+}
@@ -15,7 +15,6 @@
 package com.twilio.kudu.sql;
 
 import java.util.Collections;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Before;
@@ -38,10 +37,10 @@ public final class CalciteKuduEnumerableTest {
 
   @Test
   public void noResults() {
-    final LinkedBlockingQueue<CalciteScannerMessage<CalciteRow>> queue = new LinkedBlockingQueue<>(10);
+    final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> queue = new MpscRingBuffer<>(10);
     final Enumerator<CalciteRow> enumerable = new CalciteKuduEnumerable(queue, new AtomicBoolean(false)).enumerator();
-    queue.add(CalciteScannerMessage.<CalciteRow>createEndMessage());
-    queue.add(CalciteScannerMessage.<CalciteRow>createEndMessage());
+    queue.put(CalciteScannerMessage.<CalciteRow>createEndMessage());
+    queue.put(CalciteScannerMessage.<CalciteRow>createEndMessage());
     assertFalse("Should not be any new messages", enumerable.moveNext());
     // This used to Hang forever looping on the poll call.
     assertFalse("Should respond with no move next after first query", enumerable.moveNext());
@@ -49,15 +48,38 @@ public final class CalciteKuduEnumerableTest {
 
   @Test
   public void oneResult() {
-    final LinkedBlockingQueue<CalciteScannerMessage<CalciteRow>> queue = new LinkedBlockingQueue<>(10);
+    final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> queue = new MpscRingBuffer<>(10);
     final Enumerator<CalciteRow> enumerable = new CalciteKuduEnumerable(queue, new AtomicBoolean(false)).enumerator();
     final Object[] singleRow = { Long.valueOf(1) };
-    queue.add(new CalciteScannerMessage<CalciteRow>(
-        new CalciteRow(rowSchema, singleRow, Arrays.asList(0), Collections.<Integer>emptyList())));
-    queue.add(CalciteScannerMessage.<CalciteRow>createEndMessage());
+    queue.put(new CalciteScannerMessage<CalciteRow>(null,
+        new CalciteRow[] { new CalciteRow(rowSchema, singleRow, Arrays.asList(0), Collections.<Integer>emptyList()) },
+        1));
+    queue.put(CalciteScannerMessage.<CalciteRow>createEndMessage());
     assertTrue("Should signal there are messages", enumerable.moveNext());
     assertEquals("Row should match", singleRow[0], enumerable.current().getRowData());
     assertFalse("Should be no more rows", enumerable.moveNext());
     assertEquals("current() should still be the previous row", singleRow[0], enumerable.current().getRowData());
   }
+
+  @Test
+  public void multipleBatches() {
+    final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> queue = new MpscRingBuffer<>(10);
+    final Enumerator<CalciteRow> enumerable = new CalciteKuduEnumerable(queue, new AtomicBoolean(false)).enumerator();
+    final CalciteRow[] firstBatch = new CalciteRow[3];
+    firstBatch[0] = new CalciteRow(rowSchema, new Object[] { 1L }, Arrays.asList(0), Collections.emptyList());
+    firstBatch[1] = new CalciteRow(rowSchema, new Object[] { 2L }, Arrays.asList(0), Collections.emptyList());
+    // Third slot is unused, as if the row was removed by the in memory filter.
+    queue.put(new CalciteScannerMessage<CalciteRow>(null, firstBatch, 2));
+    queue.put(new CalciteScannerMessage<CalciteRow>(null, new CalciteRow[0], 0));
+    queue.put(new CalciteScannerMessage<CalciteRow>(null,
+        new CalciteRow[] { new CalciteRow(rowSchema, new Object[] { 3L }, Arrays.asList(0), Collections.emptyList()) },
+        1));
+    queue.put(CalciteScannerMessage.<CalciteRow>createEndMessage());
+
+    for (long expected = 1; expected <= 3; expected++) {
+      assertTrue("Should have row " + expected, enumerable.moveNext());
+      assertEquals("Rows should come out in batch order", expected, enumerable.current().getRowData());
+    }
+    assertFalse("Should be no more rows after the end message", enumerable.moveNext());
+  }
 }
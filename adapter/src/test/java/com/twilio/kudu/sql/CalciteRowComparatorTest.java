@@ -0,0 +1,81 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.junit.Test;
+
+public final class CalciteRowComparatorTest {
+
+  private static final Schema SCHEMA = new Schema(
+      Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("account_id", Type.INT64).key(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("reverse_date", Type.UNIXTIME_MICROS).key(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("score", Type.DOUBLE).key(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("active", Type.BOOL).key(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("sid", Type.STRING).key(true).build()));
+  private static final List<Integer> PRIMARY_KEY = Arrays.asList(0, 1, 2, 3, 4);
+
+  private static CalciteRow row(final List<Integer> descending, final Object... values) {
+    return new CalciteRow(SCHEMA, values, PRIMARY_KEY, descending);
+  }
+
+  @Test
+  public void doubleAndBooleanColumnsAreOrdered() {
+    final List<Integer> descending = Collections.emptyList();
+    final CalciteRowComparator comparator = new CalciteRowComparator(SCHEMA, PRIMARY_KEY, descending);
+    final CalciteRow lowScore = row(descending, 1L, 1L, 1.5, true, "a");
+    final CalciteRow highScore = row(descending, 1L, 1L, 2.5, false, "a");
+    final CalciteRow inactive = row(descending, 1L, 1L, 1.5, false, "a");
+
+    assertTrue(comparator.compare(lowScore, highScore) < 0);
+    assertTrue(comparator.compare(highScore, lowScore) > 0);
+    assertTrue(lowScore.compareTo(highScore) < 0);
+    assertTrue(highScore.compareTo(lowScore) > 0);
+
+    assertTrue(comparator.compare(inactive, lowScore) < 0);
+    assertTrue(comparator.compare(lowScore, inactive) > 0);
+    assertTrue(inactive.compareTo(lowScore) < 0);
+    assertTrue(lowScore.compareTo(inactive) > 0);
+  }
+
+  @Test
+  public void matchesCompareTo() {
+    final Random random = new Random(7);
+    for (List<Integer> descending : Arrays.asList(Collections.<Integer>emptyList(), Arrays.asList(1),
+        Arrays.asList(0, 1))) {
+      final CalciteRowComparator comparator = new CalciteRowComparator(SCHEMA, PRIMARY_KEY, descending);
+      for (int i = 0; i < 1000; i++) {
+        final CalciteRow left = row(descending, (long) random.nextInt(3), (long) random.nextInt(3),
+            (double) random.nextInt(3), random.nextBoolean(), String.valueOf(random.nextInt(3)));
+        final CalciteRow right = row(descending, (long) random.nextInt(3), (long) random.nextInt(3),
+            (double) random.nextInt(3), random.nextBoolean(), String.valueOf(random.nextInt(3)));
+        assertEquals("Comparator and compareTo should agree for " + descending, Integer.signum(left.compareTo(right)),
+            Integer.signum(comparator.compare(left, right)));
+        assertEquals("Comparison should be antisymmetric", Integer.signum(comparator.compare(left, right)),
+            -Integer.signum(comparator.compare(right, left)));
+      }
+    }
+  }
+}
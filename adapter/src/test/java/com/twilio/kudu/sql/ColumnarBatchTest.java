@@ -0,0 +1,92 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.RowResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ColumnarBatchTest {
+
+  private final Schema schema = new Schema(
+      Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("date_initiated", Type.UNIXTIME_MICROS).key(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("amount", Type.INT32).nullable(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("billable", Type.BOOL).build()));
+
+  private RowResult row(final String accountSid, final long dateInitiatedMicros, final Integer amount,
+      final boolean billable) {
+    final RowResult rowResult = mock(RowResult.class);
+    when(rowResult.getString(0)).thenReturn(accountSid);
+    when(rowResult.getLong(1)).thenReturn(dateInitiatedMicros);
+    when(rowResult.isNull(2)).thenReturn(amount == null);
+    if (amount != null) {
+      when(rowResult.getInt(2)).thenReturn(amount);
+    }
+    when(rowResult.getBoolean(3)).thenReturn(billable);
+    return rowResult;
+  }
+
+  @Test
+  public void testDecodeIntoVectors() {
+    final ColumnarBatch batch = ColumnarBatch.decode(schema,
+        Arrays.asList(row("AC1", 1_500L, 7, true), row("AC2", -1_500L, null, false)).iterator(), 2);
+
+    Assert.assertEquals(2, batch.getRowCount());
+    Assert.assertArrayEquals(new String[] { "AC1", "AC2" }, (String[]) batch.getVector(0));
+    Assert.assertArrayEquals("Timestamps should be rounded down to milliseconds like RowResult#getTimestamp",
+        new long[] { 1L, -2L }, (long[]) batch.getVector(1));
+    Assert.assertEquals(7, ((int[]) batch.getVector(2))[0]);
+    Assert.assertTrue(Arrays.equals(new boolean[] { true, false }, (boolean[]) batch.getVector(3)));
+  }
+
+  @Test
+  public void testNullBitmap() {
+    final RowResult[] rows = new RowResult[130];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = row("AC1", i, i % 64 == 1 ? null : i, true);
+    }
+    final ColumnarBatch batch = ColumnarBatch.decode(schema, Arrays.asList(rows).iterator(), rows.length);
+
+    Assert.assertNull("Only nullable columns have a null bitmap", batch.getNulls(0));
+    final long[] nulls = batch.getNulls(2);
+    for (int i = 0; i < rows.length; i++) {
+      Assert.assertEquals("Unexpected null flag of row " + i, i % 64 == 1, ColumnarBatch.isNull(nulls, i));
+    }
+  }
+
+  @Test
+  public void testSelectionHasSlotForEveryRow() {
+    final ColumnarBatch batch = ColumnarBatch.decode(schema,
+        Arrays.asList(row("AC1", 0L, 1, true), row("AC2", 0L, 2, true)).iterator(), 2);
+    Assert.assertEquals(2, batch.getSelection().length);
+    Assert.assertSame("The selection vector is reused", batch.getSelection(), batch.getSelection());
+  }
+
+  @Test
+  public void testDecodeStopsAtRowCount() {
+    final ColumnarBatch batch = ColumnarBatch.decode(schema,
+        Arrays.asList(row("AC1", 0L, 1, true), row("AC2", 0L, 2, true)).iterator(), 1);
+    Assert.assertEquals(1, batch.getRowCount());
+  }
+}
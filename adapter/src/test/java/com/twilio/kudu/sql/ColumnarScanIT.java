@@ -0,0 +1,237 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import com.google.common.collect.ImmutableMap;
+import com.twilio.kudu.sql.metadata.KuduTableMetadata;
+import com.twilio.kudu.sql.schema.BaseKuduSchemaFactory;
+import org.apache.calcite.runtime.Hook;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.Upsert;
+import org.apache.kudu.test.KuduTestHarness;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the same queries with and without {@code schema.columnarScans} and
+ * compares the results.
+ */
+@RunWith(JUnit4.class)
+public final class ColumnarScanIT {
+  private static final String TABLE_NAME = "ColumnarScanTable";
+  private static final long BASE_MILLIS = 1577836800000L;
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+
+  private static String ROW_JDBC_URL;
+  private static String COLUMNAR_JDBC_URL;
+
+  private static final Map<String, KuduTableMetadata> kuduTableConfigMap = new ImmutableMap.Builder<String, KuduTableMetadata>()
+      .put(TABLE_NAME, new KuduTableMetadata.KuduTableMetadataBuilder()
+          .setDescendingOrderedColumnNames(Collections.singletonList("date_initiated")).build())
+      .build();
+
+  public static class RowSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final RowSchemaFactory INSTANCE = new RowSchemaFactory();
+
+    public RowSchemaFactory() {
+      super(kuduTableConfigMap);
+    }
+  }
+
+  public static class ColumnarSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final ColumnarSchemaFactory INSTANCE = new ColumnarSchemaFactory();
+
+    public ColumnarSchemaFactory() {
+      super(kuduTableConfigMap);
+    }
+  }
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final List<ColumnSchema> columns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("date_initiated", Type.UNIXTIME_MICROS).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("transaction_id", Type.INT32).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("amount", Type.INT64).nullable(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("price", Type.DOUBLE).build(),
+        new ColumnSchema.ColumnSchemaBuilder("billable", Type.BOOL).build(),
+        new ColumnSchema.ColumnSchemaBuilder("message", Type.STRING).nullable(true).build());
+    testHarness.getClient().createTable(TABLE_NAME, new Schema(columns),
+        new CreateTableOptions().addHashPartitions(Collections.singletonList("account_sid"), 3).setNumReplicas(1));
+
+    final KuduTable table = testHarness.getClient().openTable(TABLE_NAME);
+    final KuduSession session = testHarness.getClient().newSession();
+    for (int i = 0; i < 300; i++) {
+      final Upsert upsert = table.newUpsert();
+      final PartialRow row = upsert.getRow();
+      row.addString("account_sid", "AC" + (i % 4));
+      row.addTimestamp("date_initiated",
+          new Timestamp(CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MILLISECONDS - (BASE_MILLIS + i * 1000L)));
+      row.addInt("transaction_id", i);
+      if (i % 7 == 0) {
+        row.setNull("amount");
+      } else {
+        row.addLong("amount", i * 10L);
+      }
+      row.addDouble("price", i / 4.0);
+      row.addBoolean("billable", i % 3 == 0);
+      if (i % 5 == 0) {
+        row.setNull("message");
+      } else {
+        row.addString("message", "message-" + i);
+      }
+      session.apply(upsert);
+    }
+    session.close();
+
+    ROW_JDBC_URL = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE, RowSchemaFactory.class.getName(),
+        testHarness.getMasterAddressesAsString());
+    COLUMNAR_JDBC_URL = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE, ColumnarSchemaFactory.class.getName(),
+        testHarness.getMasterAddressesAsString()) + ";schema.columnarScans=true";
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    testHarness.getClient().deleteTable(TABLE_NAME);
+  }
+
+  private static List<String> executeQuery(final String url, final String sql, final boolean sorted) throws Exception {
+    final List<String> rows = new ArrayList<>();
+    try (Connection conn = DriverManager.getConnection(url)) {
+      final ResultSet rs = conn.createStatement().executeQuery(sql);
+      final int columnCount = rs.getMetaData().getColumnCount();
+      while (rs.next()) {
+        final StringBuilder row = new StringBuilder();
+        for (int i = 1; i <= columnCount; i++) {
+          row.append(rs.getString(i)).append('|');
+        }
+        rows.add(row.toString());
+      }
+    }
+    if (!sorted) {
+      Collections.sort(rows);
+    }
+    return rows;
+  }
+
+  private static void assertSameResults(final String sql, final boolean sorted, final int expectedRowCount)
+      throws Exception {
+    final List<String> rowResults = executeQuery(ROW_JDBC_URL, sql, sorted);
+    final List<String> columnarResults = executeQuery(COLUMNAR_JDBC_URL, sql, sorted);
+    assertEquals("Unexpected number of rows for " + sql, expectedRowCount, rowResults.size());
+    assertEquals("Columnar scan returned different rows for " + sql, rowResults, columnarResults);
+  }
+
+  @Test
+  public void testColumnarScansConfigured() throws Exception {
+    // the schema is created when the first connection is opened
+    executeQuery(COLUMNAR_JDBC_URL, "SELECT account_sid FROM \"" + TABLE_NAME + "\" LIMIT 1", false);
+    executeQuery(ROW_JDBC_URL, "SELECT account_sid FROM \"" + TABLE_NAME + "\" LIMIT 1", false);
+    assertTrue(ColumnarSchemaFactory.INSTANCE.getTable(TABLE_NAME).get().isColumnarScans());
+    assertFalse(RowSchemaFactory.INSTANCE.getTable(TABLE_NAME).get().isColumnarScans());
+  }
+
+  @Test
+  public void testColumnarProjectionOnlyGeneratedForColumnarScans() throws Exception {
+    final List<String> generatedCode = new ArrayList<>();
+    final String sql = "SELECT account_sid FROM \"" + TABLE_NAME + "\" WHERE amount > 10";
+    try (Hook.Closeable ignored = Hook.JAVA_PLAN.addThread((Consumer<String>) generatedCode::add)) {
+      executeQuery(ROW_JDBC_URL, sql, false);
+      executeQuery(COLUMNAR_JDBC_URL, sql, false);
+    }
+    assertEquals(2, generatedCode.size());
+    assertFalse(generatedCode.get(0).contains("ColumnarBatch"));
+    assertTrue(generatedCode.get(1).contains("ColumnarBatch"));
+  }
+
+  @Test
+  public void testSelectAll() throws Exception {
+    assertSameResults("SELECT * FROM \"" + TABLE_NAME + "\"", false, 300);
+  }
+
+  @Test
+  public void testPushedDownFilter() throws Exception {
+    assertSameResults("SELECT * FROM \"" + TABLE_NAME + "\" WHERE account_sid = 'AC1'", false, 75);
+  }
+
+  @Test
+  public void testFilterAndProjectNullableColumns() throws Exception {
+    assertSameResults("SELECT transaction_id, amount * 2, CHAR_LENGTH(message), price + 1 FROM \"" + TABLE_NAME
+        + "\" WHERE MOD(transaction_id, 3) = 1 AND billable = false", false, 100);
+  }
+
+  @Test
+  public void testFilterOnNullableColumn() throws Exception {
+    assertSameResults(
+        "SELECT account_sid, message FROM \"" + TABLE_NAME + "\" WHERE amount + 1 > 100 OR message IS NULL", false,
+        259);
+  }
+
+  @Test
+  public void testSelectiveFilterWithSeveralConjunctions() throws Exception {
+    assertSameResults("SELECT transaction_id FROM \"" + TABLE_NAME
+        + "\" WHERE 1000 / amount > 5 AND MOD(transaction_id, 3) = 0 AND amount <> 0", false, 5);
+    assertSameResults("SELECT transaction_id, message FROM \"" + TABLE_NAME
+        + "\" WHERE price > CAST(70 AS DOUBLE) AND CHAR_LENGTH(message) = 11 AND amount IS NOT NULL", false, 14);
+  }
+
+  @Test
+  public void testSingleColumn() throws Exception {
+    assertSameResults("SELECT message FROM \"" + TABLE_NAME + "\"", false, 300);
+    assertSameResults("SELECT date_initiated FROM \"" + TABLE_NAME + "\" WHERE transaction_id < 10", false, 10);
+  }
+
+  @Test
+  public void testLimit() throws Exception {
+    final String sql = "SELECT account_sid FROM \"" + TABLE_NAME + "\" WHERE account_sid = 'AC2' LIMIT 7";
+    assertEquals(7, executeQuery(ROW_JDBC_URL, sql, false).size());
+    assertEquals(7, executeQuery(COLUMNAR_JDBC_URL, sql, false).size());
+  }
+
+  @Test
+  public void testSortedDescendingColumn() throws Exception {
+    assertSameResults("SELECT account_sid, date_initiated, transaction_id FROM \"" + TABLE_NAME
+        + "\" WHERE account_sid = 'AC3' ORDER BY account_sid, date_initiated DESC", true, 75);
+  }
+}
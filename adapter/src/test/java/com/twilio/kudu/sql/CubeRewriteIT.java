@@ -0,0 +1,319 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import com.twilio.kudu.sql.schema.BaseKuduSchemaFactory;
+import org.apache.calcite.avatica.util.DateTimeUtils;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.test.KuduTestHarness;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes rows to a fact table that maintains a day and an hour cube and checks
+ * that aggregations over the fact table are answered from the smallest cube
+ * that covers them.
+ */
+@RunWith(JUnit4.class)
+public final class CubeRewriteIT {
+  private static final String FACT_TABLE = "CubeFact";
+  private static final String DAY_CUBE = "CubeFact-Status-Day-Aggregation";
+  private static final String HOUR_CUBE = "CubeFact-Account-Hour-Aggregation";
+  private static final int ROW_COUNT = 200;
+  // 2020-01-01 00:00:00 UTC
+  private static final long START_TIME = 1577836800000L;
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+
+  private static String JDBC_URL;
+
+  public static class CubeSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final CubeSchemaFactory INSTANCE = new CubeSchemaFactory();
+
+    public CubeSchemaFactory() {
+      // the metadata of the fact table is read from its column comments
+      super(new HashMap<>());
+    }
+  }
+
+  public static class NoCubeRewritesSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final NoCubeRewritesSchemaFactory INSTANCE = new NoCubeRewritesSchemaFactory();
+
+    public NoCubeRewritesSchemaFactory() {
+      super(new HashMap<>());
+    }
+  }
+
+  public static class CubeDeltaSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final CubeDeltaSchemaFactory INSTANCE = new CubeDeltaSchemaFactory();
+
+    public CubeDeltaSchemaFactory() {
+      super(new HashMap<>());
+    }
+  }
+
+  private static final class Row {
+    final String accountSid;
+    final long eventTime;
+    final String status;
+    final long amount;
+    final Integer quantity;
+
+    Row(final int i) {
+      accountSid = "AC" + (i % 3);
+      eventTime = START_TIME + i * 37 * DateTimeUtils.MILLIS_PER_MINUTE;
+      status = i % 4 == 0 ? "failed" : "delivered";
+      amount = i;
+      quantity = i % 5 == 0 ? null : i % 7;
+    }
+  }
+
+  private static final List<Row> ROWS = new ArrayList<>();
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final List<ColumnSchema> factColumns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("event_time", Type.UNIXTIME_MICROS).key(true)
+            .comment("{\"isTimeStampColumn\":true}").build(),
+        new ColumnSchema.ColumnSchemaBuilder("status", Type.STRING).build(),
+        new ColumnSchema.ColumnSchemaBuilder("amount", Type.INT64).build(),
+        new ColumnSchema.ColumnSchemaBuilder("quantity", Type.INT32).nullable(true).build());
+    testHarness.getClient().createTable(FACT_TABLE, new Schema(factColumns),
+        new CreateTableOptions().addHashPartitions(Collections.singletonList("account_sid"), 2).setNumReplicas(1));
+
+    final List<ColumnSchema> dayCubeColumns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("event_time", Type.UNIXTIME_MICROS).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("status", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("count_records", Type.INT64).build(),
+        new ColumnSchema.ColumnSchemaBuilder("sum_amount", Type.INT64).build());
+    testHarness.getClient().createTable(DAY_CUBE, new Schema(dayCubeColumns),
+        new CreateTableOptions().addHashPartitions(Collections.singletonList("account_sid"), 2).setNumReplicas(1));
+
+    final List<ColumnSchema> hourCubeColumns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("event_time", Type.UNIXTIME_MICROS).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("count_records", Type.INT64).build(),
+        new ColumnSchema.ColumnSchemaBuilder("sum_amount", Type.INT64).build());
+    testHarness.getClient().createTable(HOUR_CUBE, new Schema(hourCubeColumns),
+        new CreateTableOptions().addHashPartitions(Collections.singletonList("account_sid"), 2).setNumReplicas(1));
+
+    JDBC_URL = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE_DML_DDL_ENABLED, CubeSchemaFactory.class.getName(),
+        testHarness.getMasterAddressesAsString());
+
+    // the cubes are maintained as the rows are written to the fact table
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      final PreparedStatement stmt = conn.prepareStatement("INSERT INTO \"" + FACT_TABLE + "\" VALUES (?,?,?,?,?)");
+      for (int i = 0; i < ROW_COUNT; i++) {
+        final Row row = new Row(i);
+        ROWS.add(row);
+        stmt.setString(1, row.accountSid);
+        stmt.setTimestamp(2, new Timestamp(row.eventTime));
+        stmt.setString(3, row.status);
+        stmt.setLong(4, row.amount);
+        if (row.quantity == null) {
+          stmt.setNull(5, Types.INTEGER);
+        } else {
+          stmt.setInt(5, row.quantity);
+        }
+        stmt.execute();
+      }
+      conn.commit();
+    }
+  }
+
+  private static List<String> executeQuery(final String sql) throws Exception {
+    final List<String> rows = new ArrayList<>();
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      final ResultSet rs = conn.createStatement().executeQuery(sql);
+      final int columnCount = rs.getMetaData().getColumnCount();
+      while (rs.next()) {
+        final StringBuilder row = new StringBuilder();
+        for (int i = 1; i <= columnCount; i++) {
+          if (rs.getMetaData().getColumnType(i) == Types.TIMESTAMP) {
+            row.append(rs.getTimestamp(i).getTime()).append('|');
+          } else {
+            row.append(rs.getString(i)).append('|');
+          }
+        }
+        rows.add(row.toString());
+      }
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  private static String explain(final String sql) throws Exception {
+    return explain(JDBC_URL, sql);
+  }
+
+  private static String explain(final String jdbcUrl, final String sql) throws Exception {
+    try (Connection conn = DriverManager.getConnection(jdbcUrl)) {
+      final ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      assertTrue(rs.next());
+      return rs.getString(1);
+    }
+  }
+
+  /**
+   * @return the number of rows and the sum of the amounts of each group of the
+   *         rows, formatted like the results of {@link #executeQuery(String)}
+   */
+  private static List<String> expected(final List<Row> rows, final Function<Row, String> groupKey) {
+    final Map<String, long[]> groups = new TreeMap<>();
+    for (Row row : rows) {
+      final long[] measures = groups.computeIfAbsent(groupKey.apply(row), key -> new long[2]);
+      measures[0]++;
+      measures[1] += row.amount;
+    }
+    final List<String> results = new ArrayList<>();
+    groups.forEach((key, measures) -> results.add(key + measures[0] + "|" + measures[1] + "|"));
+    Collections.sort(results);
+    return results;
+  }
+
+  private static long floor(final long timestamp, final long interval) {
+    return timestamp - timestamp % interval;
+  }
+
+  private static void assertScans(final String plan, final String tableName) {
+    assertTrue("Expected the plan to scan " + tableName + ":\n" + plan,
+        plan.contains("KuduQuery(table=[[kudu, " + tableName + "]])"));
+  }
+
+  @Test
+  public void testDayCubeIsUsed() throws Exception {
+    final String sql = "SELECT account_sid, FLOOR(event_time TO DAY), COUNT(*), SUM(amount) FROM \"" + FACT_TABLE
+        + "\" GROUP BY account_sid, FLOOR(event_time TO DAY)";
+    assertScans(explain(sql), DAY_CUBE);
+    assertEquals(expected(ROWS, row -> row.accountSid + "|" + floor(row.eventTime, DateTimeUtils.MILLIS_PER_DAY) + "|"),
+        executeQuery(sql));
+  }
+
+  @Test
+  public void testCoarserGranularityIsRolledUp() throws Exception {
+    final String sql = "SELECT status, FLOOR(event_time TO YEAR), COUNT(*), SUM(amount) FROM \"" + FACT_TABLE
+        + "\" GROUP BY status, FLOOR(event_time TO YEAR)";
+    assertScans(explain(sql), DAY_CUBE);
+    assertEquals(expected(ROWS, row -> row.status + "|" + START_TIME + "|"), executeQuery(sql));
+  }
+
+  @Test
+  public void testFilterOnDimensionsAndIntervalStart() throws Exception {
+    final String sql = "SELECT status, COUNT(amount), SUM(amount) FROM \"" + FACT_TABLE
+        + "\" WHERE account_sid = 'AC1' AND event_time >= TIMESTAMP '2020-01-02 00:00:00' GROUP BY status";
+    assertScans(explain(sql), DAY_CUBE);
+    final List<Row> filtered = new ArrayList<>();
+    for (Row row : ROWS) {
+      if (row.accountSid.equals("AC1") && row.eventTime >= START_TIME + DateTimeUtils.MILLIS_PER_DAY) {
+        filtered.add(row);
+      }
+    }
+    assertEquals(expected(filtered, row -> row.status + "|"), executeQuery(sql));
+  }
+
+  @Test
+  public void testFinerGranularityUsesHourCube() throws Exception {
+    final String sql = "SELECT account_sid, FLOOR(event_time TO HOUR), COUNT(*), SUM(amount) FROM \"" + FACT_TABLE
+        + "\" GROUP BY account_sid, FLOOR(event_time TO HOUR)";
+    assertScans(explain(sql), HOUR_CUBE);
+    assertEquals(
+        expected(ROWS, row -> row.accountSid + "|" + floor(row.eventTime, DateTimeUtils.MILLIS_PER_HOUR) + "|"),
+        executeQuery(sql));
+  }
+
+  @Test
+  public void testAverageIsComputedFromSumAndCount() throws Exception {
+    final String sql = "SELECT account_sid, AVG(amount) FROM \"" + FACT_TABLE + "\" GROUP BY account_sid";
+    assertScans(explain(sql), DAY_CUBE);
+    final List<String> expected = new ArrayList<>();
+    for (String group : expected(ROWS, row -> row.accountSid + "|")) {
+      final String[] values = group.split("\\|");
+      expected.add(values[0] + "|" + Long.parseLong(values[2]) / Long.parseLong(values[1]) + "|");
+    }
+    assertEquals(expected, executeQuery(sql));
+  }
+
+  @Test
+  public void testUncoveredAggregationsScanTheFactTable() throws Exception {
+    // the cubes don't have a measure for quantity
+    String plan = explain("SELECT account_sid, SUM(quantity) FROM \"" + FACT_TABLE + "\" GROUP BY account_sid");
+    assertScans(plan, FACT_TABLE);
+    assertFalse(plan.contains("Aggregation"));
+
+    // the filter doesn't start at a day and the hour cube doesn't have the status
+    plan = explain("SELECT status, COUNT(*) FROM \"" + FACT_TABLE
+        + "\" WHERE event_time >= TIMESTAMP '2020-01-02 03:00:00' GROUP BY status");
+    assertScans(plan, FACT_TABLE);
+    assertFalse(plan.contains("Aggregation"));
+
+    // the timestamps of the cubes are truncated
+    plan = explain("SELECT MAX(event_time) FROM \"" + FACT_TABLE + "\"");
+    assertScans(plan, FACT_TABLE);
+    assertFalse(plan.contains("Aggregation"));
+
+    // a nullable column can't be counted from the number of rows
+    plan = explain("SELECT COUNT(quantity) FROM \"" + FACT_TABLE + "\"");
+    assertScans(plan, FACT_TABLE);
+    assertFalse(plan.contains("Aggregation"));
+  }
+
+  @Test
+  public void testCubeRewritesCanBeDisabled() throws Exception {
+    final String sql = "SELECT account_sid, COUNT(*), SUM(amount) FROM \"" + FACT_TABLE + "\" GROUP BY account_sid";
+    final String jdbcUrl = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE, NoCubeRewritesSchemaFactory.class.getName(),
+        testHarness.getMasterAddressesAsString()) + ";schema.cubeRewrites=false";
+    assertScans(explain(jdbcUrl, sql), FACT_TABLE);
+  }
+
+  @Test
+  public void testCubesWrittenAsDeltasAreNotUsed() throws Exception {
+    // the deltas that haven't been compacted are only in the delta tables
+    final String sql = "SELECT account_sid, COUNT(*), SUM(amount) FROM \"" + FACT_TABLE + "\" GROUP BY account_sid";
+    final String jdbcUrl = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE, CubeDeltaSchemaFactory.class.getName(),
+        testHarness.getMasterAddressesAsString()) + ";schema.cubeDeltaWrites=true";
+    assertScans(explain(jdbcUrl, sql), FACT_TABLE);
+  }
+}
@@ -0,0 +1,105 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.ParameterExpression;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.SyntheticRowResults;
+import org.codehaus.janino.ClassBodyEvaluator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class KuduPhysTypeTest {
+
+  private final Schema schema = new Schema(
+      Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("reverse_date", Type.UNIXTIME_MICROS).key(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("amount", Type.INT64).nullable(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("payload", Type.BINARY).nullable(true).build()));
+  private final KuduPhysType physType = new KuduPhysType(schema, null, Collections.singletonList(1),
+      Arrays.asList(0, 1, 2, 3));
+  private final ParameterExpression row = Expressions.parameter(Modifier.FINAL, Object.class, "abstractRow");
+  private final Expression rowResult = Expressions.convert_(row, RowResult.class);
+
+  private String fieldReference(final int field) {
+    return Expressions.toString(physType.fieldReference(rowResult, field));
+  }
+
+  private Function1<Object, Object> compileProjection() throws Exception {
+    final List<Expression> fields = new ArrayList<>();
+    for (int field = 0; field < schema.getColumnCount(); field++) {
+      fields.add(physType.fieldReference(rowResult, field));
+    }
+    final ClassBodyEvaluator evaluator = new ClassBodyEvaluator();
+    evaluator.setImplementedInterfaces(new Class[] { Function1.class });
+    evaluator.cook(Expressions
+        .toString(Expressions.methodDecl(Modifier.PUBLIC, Object.class, "apply", Collections.singletonList(row),
+            Expressions.block(Expressions.return_(null, Expressions.newArrayInit(Object.class, fields))))));
+    return (Function1<Object, Object>) evaluator.getClazz().getDeclaredConstructor().newInstance();
+  }
+
+  @Test
+  public void testNullableFieldIsInlineConditional() {
+    final String amount = fieldReference(2);
+    Assert.assertTrue("Expected a null check of the column " + amount, amount.contains(".isNull(2) ?"));
+    Assert.assertFalse("A nullable field shouldn't allocate a function " + amount, amount.contains("new "));
+  }
+
+  @Test
+  public void testTimestampReadAsMicroseconds() {
+    final String reverseDate = fieldReference(1);
+    Assert.assertTrue("Expected the raw microseconds " + reverseDate,
+        reverseDate.contains("Math.floorDiv(((org.apache.kudu.client.RowResult) abstractRow).getLong(1), 1000L)"));
+    Assert.assertFalse("Descending constant shouldn't be boxed " + reverseDate, reverseDate.contains("valueOf"));
+  }
+
+  @Test
+  public void testGeneratedProjection() throws Exception {
+    final long reverseDateMillis = CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MILLISECONDS - 1_500L;
+    final SyntheticRowResults rows = SyntheticRowResults.encode(schema,
+        Arrays.asList(new Object[] { "AC1", reverseDateMillis * 1000L + 999L, 5L, new byte[] { 1, 2 } },
+            new Object[] { "AC2", -1_500L, null, new byte[] { 3, 4, 5 } }, new Object[] { "AC3", 0L, 7L, null }));
+    final Function1<Object, Object> projection = compileProjection();
+
+    final Object[] first = (Object[]) projection.apply(rows.get(0));
+    Assert.assertEquals("AC1", first[0]);
+    Assert.assertEquals("Descending timestamp should be inverted", 1_500L, first[1]);
+    Assert.assertEquals(5L, first[2]);
+    Assert.assertArrayEquals(new byte[] { 1, 2 }, (byte[]) first[3]);
+
+    final Object[] second = (Object[]) projection.apply(rows.get(1));
+    Assert.assertEquals("Microseconds should be rounded down like RowResult#getTimestamp",
+        CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MILLISECONDS + 2L, second[1]);
+    Assert.assertNull(second[2]);
+    Assert.assertArrayEquals("Binary value should only hold the bytes of the column", new byte[] { 3, 4, 5 },
+        (byte[]) second[3]);
+
+    final Object[] third = (Object[]) projection.apply(rows.get(2));
+    Assert.assertEquals(7L, third[2]);
+    Assert.assertNull(third[3]);
+  }
+}
@@ -40,6 +40,7 @@ import org.apache.kudu.client.AsyncKuduSession;
 import java.util.Iterator;
 import org.apache.kudu.client.KuduTable;
 import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduScanToken;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import org.apache.calcite.linq4j.Enumerator;
@@ -124,8 +125,9 @@ public class KuduQueryIT {
 
     final CalciteKuduPredicate filterToSid = new ComparisonPredicate(2, KuduPredicate.ComparisonOp.EQUAL, "SM1234857");
     final Enumerable<Object> results = relTable.executeQuery(
-        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), -1, -1, false,
-        false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_ONE_STRING, ALWAYS_TRUE, true);
+        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.emptyList(),
+        Collections.singletonList(2), -1, -1, false, false, new KuduScanStats(), new AtomicBoolean(false),
+        MAP_RESPONSE_ONE_STRING, ALWAYS_TRUE, true, null, null, null);
     Iterator<Object> resultIter = results.iterator();
 
     Assert.assertTrue("Should have something to iterate over", resultIter.hasNext());
@@ -141,8 +143,9 @@ public class KuduQueryIT {
     final CalciteKuduPredicate filterToAccountSid = new ComparisonPredicate(0, KuduPredicate.ComparisonOp.EQUAL,
         KuduQueryIT.ACCOUNT_SID);
     final Enumerable<Object> results = relTable.executeQuery(
-        Collections.singletonList(Collections.singletonList(filterToAccountSid)), Arrays.asList(2, 0), -1, -1, false,
-        false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false);
+        Collections.singletonList(Collections.singletonList(filterToAccountSid)), Collections.emptyList(),
+        Arrays.asList(2, 0), -1, -1, false, false, new KuduScanStats(), new AtomicBoolean(false),
+        MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false, null, null, null);
     Iterator<Object> resultIter = results.iterator();
 
     Assert.assertTrue("Should have something to iterate over", resultIter.hasNext());
@@ -178,8 +181,9 @@ public class KuduQueryIT {
     predicateQuery.add(Arrays.asList(firstSid));
     predicateQuery.add(Arrays.asList(secondSid));
 
-    final Enumerable<Object> results = relTable.executeQuery(predicateQuery, Collections.singletonList(2), -1, -1,
-        false, false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_ONE_STRING, ALWAYS_TRUE, true);
+    final Enumerable<Object> results = relTable.executeQuery(predicateQuery, Collections.emptyList(),
+        Collections.singletonList(2), -1, -1, false, false, new KuduScanStats(), new AtomicBoolean(false),
+        MAP_RESPONSE_ONE_STRING, ALWAYS_TRUE, true, null, null, null);
     Enumerator<Object> resultIter = results.enumerator();
 
     Assert.assertTrue("Should have something to iterate over", resultIter.moveNext());
@@ -204,8 +208,9 @@ public class KuduQueryIT {
     // since we are not sorting assert that the limit is not pushed down into the
     // kudu scanner
     KuduEnumerable kuduEnumerable = (KuduEnumerable) relTable.executeQuery(
-        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), 3, -1, false,
-        false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false);
+        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.emptyList(),
+        Collections.singletonList(2), 3, -1, false, false, new KuduScanStats(), new AtomicBoolean(false),
+        MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false, null, null, null);
     for (AsyncKuduScanner scanner : kuduEnumerable.getScanners()) {
       Assert.assertEquals(Long.MAX_VALUE, scanner.getLimit());
     }
@@ -213,25 +218,29 @@ public class KuduQueryIT {
     // even though we are sorting we cannot push down the limit since there is an
     // offset
     kuduEnumerable = (KuduEnumerable) relTable.executeQuery(
-        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), 3, 4, true,
-        false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false);
+        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.emptyList(),
+        Collections.singletonList(2), 3, 4, true, false, new KuduScanStats(), new AtomicBoolean(false),
+        MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false, null, null, null);
     for (AsyncKuduScanner scanner : kuduEnumerable.getScanners()) {
       Assert.assertEquals(Long.MAX_VALUE, scanner.getLimit());
     }
 
-    // since we sorting assert that the limit is pushed down into the kudu scanner
+    // since we sorting assert that the limit is pushed down into the kudu scanner,
+    // one extra row tells the query whether there is another page
     kuduEnumerable = (KuduEnumerable) relTable.executeQuery(
-        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), 3, -1, true,
-        false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false);
+        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.emptyList(),
+        Collections.singletonList(2), 3, -1, true, false, new KuduScanStats(), new AtomicBoolean(false),
+        MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false, null, null, null);
     for (AsyncKuduScanner scanner : kuduEnumerable.getScanners()) {
-      Assert.assertEquals(3, scanner.getLimit());
+      Assert.assertEquals(4, scanner.getLimit());
     }
 
     // even though we ask not to sort, since we set an offset the enumerable forces
     // a sort
     kuduEnumerable = (KuduEnumerable) relTable.executeQuery(
-        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.singletonList(2), -1, 1, false,
-        false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false);
+        Collections.singletonList(Collections.singletonList(filterToSid)), Collections.emptyList(),
+        Collections.singletonList(2), -1, 1, false, false, new KuduScanStats(), new AtomicBoolean(false),
+        MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false, null, null, null);
     Assert.assertTrue(kuduEnumerable.sort);
     for (AsyncKuduScanner scanner : kuduEnumerable.getScanners()) {
       Assert.assertEquals(Long.MAX_VALUE, scanner.getLimit());
@@ -258,13 +267,75 @@ public class KuduQueryIT {
     predicateQuery.add(Arrays.asList(firstSid));
     predicateQuery.add(Arrays.asList(secondSid));
 
-    final Enumerable<Object> results = relTable.executeQuery(predicateQuery, Collections.singletonList(2), -1, -1,
-        false, false, new KuduScanStats(), new AtomicBoolean(true), MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false);
+    final Enumerable<Object> results = relTable.executeQuery(predicateQuery, Collections.emptyList(),
+        Collections.singletonList(2), -1, -1, false, false, new KuduScanStats(), new AtomicBoolean(true),
+        MAP_RESPONSE_TWO_STRINGS, ALWAYS_TRUE, false, null, null, null);
     Enumerator<Object> resultIter = results.enumerator();
 
     Assert.assertFalse("Query was canceled, it should not have anything to move over", resultIter.moveNext());
   }
 
+  @Test
+  public void readAheadReturnsEveryRow() throws Exception {
+    final CalciteKuduPredicate firstSid = new ComparisonPredicate(2, KuduPredicate.ComparisonOp.EQUAL,
+        KuduQueryIT.FIRST_SID);
+    final CalciteKuduPredicate secondSid = new ComparisonPredicate(2, KuduPredicate.ComparisonOp.EQUAL,
+        KuduQueryIT.SECOND_SID);
+    final List<List<CalciteKuduPredicate>> predicateQuery = Arrays.asList(Arrays.asList(firstSid),
+        Arrays.asList(secondSid));
+
+    for (int readAheadDepth : new int[] { 1, 4 }) {
+      final CalciteKuduTable relTable = new CalciteKuduTableBuilder(KuduQueryIT.TABLE, testHarness.getAsyncClient())
+          .setScanReadAheadDepth(readAheadDepth).build();
+      for (boolean sorted : new boolean[] { false, true }) {
+        final Enumerator<Object> resultIter = relTable.executeQuery(predicateQuery, Collections.emptyList(),
+            Collections.singletonList(2), -1, -1, sorted, false, new KuduScanStats(), new AtomicBoolean(false),
+            MAP_RESPONSE_ONE_STRING, ALWAYS_TRUE, true, null, null, null).enumerator();
+        final List<String> resultCollection = new ArrayList<>();
+        while (resultIter.moveNext()) {
+          resultCollection.add(resultIter.current().toString());
+        }
+        resultIter.close();
+        Collections.sort(resultCollection);
+        Assert.assertEquals(
+            String.format("Read ahead depth %d sorted %b should return both rows", readAheadDepth, sorted),
+            Arrays.asList(KuduQueryIT.FIRST_SID, KuduQueryIT.SECOND_SID), resultCollection);
+      }
+    }
+  }
+
+  @Test
+  public void scannersCoverTheSameTabletsAsScanTokens() throws Exception {
+    final CalciteKuduTable relTable = new CalciteKuduTableBuilder(KuduQueryIT.TABLE, testHarness.getAsyncClient())
+        .build();
+    final CalciteKuduPredicate firstAccount = new ComparisonPredicate(0, KuduPredicate.ComparisonOp.EQUAL,
+        KuduQueryIT.ACCOUNT_SID);
+    final CalciteKuduPredicate secondAccount = new ComparisonPredicate(0, KuduPredicate.ComparisonOp.EQUAL,
+        "AC7654321");
+    final CalciteKuduPredicate firstSid = new ComparisonPredicate(2, KuduPredicate.ComparisonOp.EQUAL,
+        KuduQueryIT.FIRST_SID);
+
+    final List<List<List<CalciteKuduPredicate>>> queries = Arrays.asList(
+        Collections.singletonList(Collections.singletonList(firstAccount)),
+        Arrays.asList(Collections.singletonList(firstAccount), Collections.singletonList(secondAccount)),
+        Collections.singletonList(Collections.singletonList(firstSid)),
+        Arrays.asList(Arrays.asList(firstAccount, firstSid), Collections.singletonList(firstSid)));
+    for (List<List<CalciteKuduPredicate>> query : queries) {
+      int expectedScanners = 0;
+      for (List<CalciteKuduPredicate> subScan : query) {
+        final KuduScanToken.KuduScanTokenBuilder tokenBuilder = testHarness.getClient()
+            .newScanTokenBuilder(KuduQueryIT.TABLE);
+        subScan.forEach(predicate -> tokenBuilder.addPredicate(predicate.toPredicate(relTable)));
+        expectedScanners += tokenBuilder.build().size();
+      }
+      final KuduEnumerable kuduEnumerable = (KuduEnumerable) relTable.executeQuery(query, Collections.emptyList(),
+          Collections.singletonList(2), -1, -1, false, false, new KuduScanStats(), new AtomicBoolean(false),
+          MAP_RESPONSE_ONE_STRING, ALWAYS_TRUE, true, null, null, null);
+      Assert.assertEquals("Should create a scanner for every tablet a scan token would read " + query, expectedScanners,
+          kuduEnumerable.getScanners().size());
+    }
+  }
+
   /**
    * When the SQL query projects only a single column *but* the Kudu Projection
    * includes two columns. This would happen for a query shaped SELECT COUNT(id)
@@ -279,8 +350,9 @@ public class KuduQueryIT {
     final CalciteKuduPredicate filterToAccountSid = new ComparisonPredicate(0, KuduPredicate.ComparisonOp.EQUAL,
         KuduQueryIT.ACCOUNT_SID);
     final Enumerable<Object> results = relTable.executeQuery(
-        Collections.singletonList(Collections.singletonList(filterToAccountSid)), Arrays.asList(2, 0), -1, -1, false,
-        false, new KuduScanStats(), new AtomicBoolean(false), MAP_RESPONSE_ONE_STRING, ALWAYS_TRUE, true);
+        Collections.singletonList(Collections.singletonList(filterToAccountSid)), Collections.emptyList(),
+        Arrays.asList(2, 0), -1, -1, false, false, new KuduScanStats(), new AtomicBoolean(false),
+        MAP_RESPONSE_ONE_STRING, ALWAYS_TRUE, true, null, null, null);
     Iterator<Object> resultIter = results.iterator();
 
     Assert.assertTrue("Should have something to iterate over", resultIter.hasNext());
@@ -42,6 +42,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -164,6 +165,46 @@ public class KuduWriteIT {
     }
   }
 
+  @Test
+  public void testExecuteBatch() throws Exception {
+    final String stringVal = "ACCOUNT_BATCH";
+    final long baseTimestamp = System.currentTimeMillis();
+    final int numRows = 100;
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      PreparedStatement stmt = conn
+          .prepareStatement("INSERT INTO \"" + BASE_TABLE_NAME + "\" " + "VALUES (?,?,?,?,?,?,?,?,?,?,?)");
+      for (int i = 0; i < numRows; i++) {
+        bindRow(stmt, stringVal, new Timestamp(baseTimestamp + i), (byte) i, (short) i, i, i, new byte[] { (byte) i },
+            i % 2 == 0, i, i, new BigDecimal(i + ".500000"));
+        stmt.addBatch();
+      }
+      // every row of the batch is written by a single execution of the statement
+      final int[] updateCounts = stmt.executeBatch();
+      assertEquals(numRows, updateCounts.length);
+      for (int updateCount : updateCounts) {
+        assertEquals(1, updateCount);
+      }
+      conn.commit();
+
+      // a batch of a single row is written the same way
+      bindRow(stmt, stringVal, new Timestamp(baseTimestamp + numRows), (byte) numRows, (short) numRows, numRows,
+          numRows, new byte[] { (byte) numRows }, true, numRows, numRows, new BigDecimal(numRows + ".500000"));
+      stmt.addBatch();
+      assertArrayEquals(new int[] { 1 }, stmt.executeBatch());
+      assertArrayEquals(new int[0], stmt.executeBatch());
+      conn.commit();
+
+      ResultSet rs = conn.createStatement().executeQuery("SELECT * FROM \"" + BASE_TABLE_NAME + "\" WHERE STRING_COL='"
+          + stringVal + "' ORDER BY UNIXTIME_MICROS_COL DESC");
+      for (int i = numRows; i >= 0; i--) {
+        assertTrue(rs.next());
+        validateRow(stringVal, new Timestamp(baseTimestamp + i), (byte) i, (short) i, i, i, i % 2 == 0, i,
+            new BigDecimal(i + ".500000"), rs);
+      }
+      assertFalse(rs.next());
+    }
+  }
+
   private void validateRow(String stringVal, Timestamp timestampVal, byte byteVal, short shortVal, int intVal,
       long longVal, boolean boolVal, double doubleVal, BigDecimal bigDecimalVal, ResultSet rs) throws SQLException {
     assertEquals(stringVal, rs.getString(1));
@@ -186,6 +227,14 @@ public class KuduWriteIT {
   private void insertRow(PreparedStatement stmt, String stringVal, Timestamp timestampVal, byte byteVal, short shortVal,
       int intVal, long longVal, byte[] bytesVal, boolean boolVal, float floatVal, double doubleVal,
       BigDecimal bigDecimalVal) throws SQLException {
+    bindRow(stmt, stringVal, timestampVal, byteVal, shortVal, intVal, longVal, bytesVal, boolVal, floatVal, doubleVal,
+        bigDecimalVal);
+    stmt.execute();
+  }
+
+  private void bindRow(PreparedStatement stmt, String stringVal, Timestamp timestampVal, byte byteVal, short shortVal,
+      int intVal, long longVal, byte[] bytesVal, boolean boolVal, float floatVal, double doubleVal,
+      BigDecimal bigDecimalVal) throws SQLException {
     stmt.setString(1, stringVal);
     stmt.setTimestamp(2, timestampVal);
     stmt.setByte(3, byteVal);
@@ -197,7 +246,6 @@ public class KuduWriteIT {
     stmt.setFloat(9, floatVal);
     stmt.setDouble(10, doubleVal);
     stmt.setBigDecimal(11, bigDecimalVal);
-    stmt.execute();
   }
 
   @Test
@@ -0,0 +1,88 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.junit.Test;
+
+public class LoserTreeTest {
+
+  private static List<Integer> drain(final LoserTree<Integer> tree) {
+    final List<Integer> merged = new ArrayList<>();
+    Integer next;
+    while ((next = tree.winner()) != null) {
+      merged.add(next);
+      tree.advanceWinner();
+    }
+    return merged;
+  }
+
+  @Test
+  public void mergesAnyNumberOfSources() {
+    final Random random = new Random(42);
+    for (int sourceCount : new int[] { 1, 2, 3, 7, 8, 100 }) {
+      final List<Enumerator<Integer>> sources = new ArrayList<>();
+      final List<Integer> expected = new ArrayList<>();
+      for (int s = 0; s < sourceCount; s++) {
+        // some sources are empty
+        final List<Integer> values = new ArrayList<>();
+        final int rows = random.nextInt(20);
+        for (int r = 0; r < rows; r++) {
+          values.add(random.nextInt(50));
+        }
+        Collections.sort(values);
+        expected.addAll(values);
+        sources.add(Linq4j.enumerator(values));
+      }
+      Collections.sort(expected);
+      assertEquals("Merge of " + sourceCount + " sources should be sorted", expected,
+          drain(new LoserTree<>(sources, Comparator.naturalOrder())));
+    }
+  }
+
+  @Test
+  public void allSourcesEmpty() {
+    final LoserTree<Integer> tree = new LoserTree<>(
+        Arrays.asList(Linq4j.<Integer>emptyEnumerator(), Linq4j.<Integer>emptyEnumerator()), Comparator.naturalOrder());
+    assertNull("Tree over empty sources should have no winner", tree.winner());
+  }
+
+  @Test
+  public void tiesGoToLowerSource() {
+    final Integer fromSource1 = new Integer(1);
+    final Integer fromSource2 = new Integer(1);
+    final Integer fromSource0 = new Integer(1);
+    final LoserTree<Integer> tree = new LoserTree<>(Arrays.asList(Linq4j.enumerator(Arrays.asList(fromSource0)),
+        Linq4j.enumerator(Arrays.asList(fromSource1)), Linq4j.enumerator(Arrays.asList(fromSource2))),
+        Comparator.naturalOrder());
+    assertSame(fromSource0, tree.winner());
+    tree.advanceWinner();
+    assertSame(fromSource1, tree.winner());
+    tree.advanceWinner();
+    assertSame(fromSource2, tree.winner());
+  }
+}
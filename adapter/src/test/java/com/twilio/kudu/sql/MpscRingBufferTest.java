@@ -0,0 +1,86 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MpscRingBufferTest {
+  @Test
+  public void capacityRoundsUpToPowerOfTwo() {
+    assertEquals(1, new MpscRingBuffer<Integer>(1).capacity());
+    assertEquals(4, new MpscRingBuffer<Integer>(3).capacity());
+    assertEquals(64, new MpscRingBuffer<Integer>(51).capacity());
+  }
+
+  @Test
+  public void pollPreservesOrderAcrossWraps() {
+    final MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(4);
+    assertNull("Empty ring should return null", ring.poll());
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 4; i++) {
+        ring.put(round * 4 + i);
+      }
+      for (int i = 0; i < 4; i++) {
+        assertEquals(Integer.valueOf(round * 4 + i), ring.poll());
+      }
+      assertNull("Ring should be drained", ring.poll());
+    }
+  }
+
+  @Test
+  public void takeWakesOnPutFromManyProducers() throws Exception {
+    final int producers = 17;
+    final int messagesPerProducer = 1000;
+    // Smaller than the number of messages so producers also wait for free slots.
+    final MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(producers);
+    final List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      final Thread producer = new Thread(() -> {
+        for (int i = 0; i < messagesPerProducer; i++) {
+          ring.put(1);
+        }
+      });
+      producer.start();
+      threads.add(producer);
+    }
+    long sum = 0;
+    for (int i = 0; i < producers * messagesPerProducer; i++) {
+      sum += ring.take();
+    }
+    for (Thread producer : threads) {
+      producer.join();
+    }
+    assertEquals("Every message should be consumed exactly once", producers * messagesPerProducer, sum);
+    assertNull("Ring should be drained", ring.poll());
+  }
+
+  @Test(expected = InterruptedException.class)
+  public void takeThrowsWhenInterrupted() throws Exception {
+    final MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(2);
+    Thread.currentThread().interrupt();
+    try {
+      ring.take();
+    } finally {
+      assertTrue("Interrupt should be consumed", !Thread.interrupted());
+    }
+  }
+}
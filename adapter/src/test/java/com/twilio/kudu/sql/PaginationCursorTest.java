@@ -0,0 +1,65 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(JUnit4.class)
+public final class PaginationCursorTest {
+
+  @Test
+  public void roundTrips() {
+    final Map<String, Long> snapshotTimestamps = new LinkedHashMap<>();
+    snapshotTimestamps.put("tablet1", 100L);
+    snapshotTimestamps.put("tablet2", 250L);
+    final PaginationCursor cursor = new PaginationCursor("table", new byte[] { 0, 1, (byte) 0xff }, snapshotTimestamps);
+
+    final String encoded = cursor.encode();
+    assertFalse("Cursor should be safe to put in a URL", encoded.contains("/") || encoded.contains("+"));
+    final PaginationCursor decoded = PaginationCursor.decode(encoded);
+    assertEquals(cursor, decoded);
+    assertEquals("table", decoded.getTableId());
+    assertArrayEquals(new byte[] { 0, 1, (byte) 0xff }, decoded.getPrimaryKey());
+    assertEquals(snapshotTimestamps, decoded.getSnapshotTimestamps());
+  }
+
+  @Test
+  public void unknownTabletsUseTheNewestSnapshot() {
+    final Map<String, Long> snapshotTimestamps = new LinkedHashMap<>();
+    snapshotTimestamps.put("tablet1", 100L);
+    snapshotTimestamps.put("tablet2", 250L);
+    final PaginationCursor cursor = new PaginationCursor("table", new byte[0], snapshotTimestamps);
+    assertEquals(100L, cursor.getSnapshotTimestamp("tablet1"));
+    assertEquals(250L, cursor.getSnapshotTimestamp("tablet3"));
+    assertEquals(Long.MIN_VALUE,
+        new PaginationCursor("table", new byte[0], Collections.emptyMap()).getSnapshotTimestamp("tablet1"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTruncatedCursor() {
+    final String encoded = new PaginationCursor("table", new byte[] { 1, 2, 3 }, Collections.emptyMap()).encode();
+    PaginationCursor.decode(encoded.substring(0, encoded.length() - 3));
+  }
+}
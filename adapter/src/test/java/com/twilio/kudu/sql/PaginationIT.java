@@ -19,12 +19,15 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.twilio.kudu.sql.metadata.KuduTableMetadata;
 import com.twilio.kudu.sql.schema.BaseKuduSchemaFactory;
+import com.google.common.base.Throwables;
+import org.apache.calcite.jdbc.KuduStatement;
 import org.apache.calcite.util.TimestampString;
 import org.apache.kudu.ColumnSchema;
 import org.apache.kudu.ColumnTypeAttributes;
 import org.apache.kudu.Schema;
 import org.apache.kudu.Type;
 import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.Delete;
 import org.apache.kudu.client.KuduClient;
 import org.apache.kudu.client.KuduSession;
 import org.apache.kudu.client.KuduTable;
@@ -42,6 +45,7 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Collection;
@@ -50,6 +54,9 @@ import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -66,6 +73,7 @@ public class PaginationIT {
 
   public static final String ACCOUNT1 = "ACCOUNT1";
   public static final String ACCOUNT2 = "ACCOUNT2";
+  public static final String ACCOUNT3 = "ACCOUNT3";
   public static final long T1 = 1000;
   public static final long T2 = 2000;
   public static final long T3 = 3000;
@@ -393,9 +401,8 @@ public class PaginationIT {
       expectedPlanFormat = "KuduToEnumerableRel\n" + "  KuduSortRel(sort0=[$1], sort1=[$2], dir0=[%s], dir1=[ASC], "
           + "fetch=[4], groupBySorted=[false])\n" + "    KuduFilterRel(ScanToken 1=[account_sid EQUAL %s, "
           + "date_initiated GREATER_EQUAL 1000000, date_initiated LESS 4000000, "
-          + "date_initiated %s %d], ScanToken 2=[account_sid EQUAL %s, "
-          + "date_initiated GREATER_EQUAL 1000000, date_initiated LESS 4000000, "
-          + "date_initiated EQUAL %d, transaction_id GREATER %s])\n" + "      KuduQuery(table=[[kudu, %s]])\n";
+          + "date_initiated %s %d], PrimaryKeyBounds=[(account_sid, date_initiated, transaction_id) GREATER (%s, %d, %s)])\n"
+          + "      KuduQuery(table=[[kudu, %s]])\n";
 
       // keep reading batches of rows until we have processes rows for all the
       // partitions
@@ -408,8 +415,9 @@ public class PaginationIT {
         // verify plan
         rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + nextBatchSql);
         plan = SqlUtil.getExplainPlan(rs);
-        expectedPlan = String.format(expectedPlanFormat, dateInitiatedOrder, ACCOUNT1, descending ? "LESS" : "GREATER",
-            prevRowDateInitiatedNanos, ACCOUNT1, prevRowDateInitiatedNanos, prevRowTransactionId, tableName);
+        expectedPlan = String.format(expectedPlanFormat, dateInitiatedOrder, ACCOUNT1,
+            descending ? "LESS_EQUAL" : "GREATER_EQUAL", prevRowDateInitiatedNanos, ACCOUNT1, prevRowDateInitiatedNanos,
+            prevRowTransactionId, tableName);
         assertEquals("Unexpected plan ", expectedPlan, plan);
 
         rs = conn.createStatement().executeQuery(nextBatchSql);
@@ -436,4 +444,211 @@ public class PaginationIT {
     }
   }
 
+  @Test
+  public void testRowValueBoundsScanOneKeyRange() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL)) {
+      int firstPartitionIndex = descending ? 2 : 0;
+      int secondPartitionIndex = 1;
+      String sql = String.format(
+          "SELECT * FROM %s WHERE account_sid = '%s' "
+              + "AND (date_initiated, transaction_id) >= (TIMESTAMP'%s', 'TXN8') "
+              + "AND (date_initiated, transaction_id) <= (TIMESTAMP'%s', 'TXN1') "
+              + "ORDER BY date_initiated %s, transaction_id",
+          tableName, ACCOUNT1, TimestampString.fromMillisSinceEpoch(TIMESTAMP_PARTITIONS[firstPartitionIndex] + 1),
+          TimestampString.fromMillisSinceEpoch(TIMESTAMP_PARTITIONS[secondPartitionIndex] + 1),
+          descending ? "DESC" : "ASC");
+
+      // both row value comparisons become bounds of a single scan
+      ResultSet rs = conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql);
+      String plan = SqlUtil.getExplainPlan(rs);
+      assertTrue("Unexpected plan " + plan, plan.contains("PrimaryKeyBounds="));
+      assertTrue("Unexpected plan " + plan,
+          plan.contains("(account_sid, date_initiated, transaction_id) GREATER_EQUAL (ACCOUNT1, "));
+      assertTrue("Unexpected plan " + plan,
+          plan.contains("(account_sid, date_initiated, transaction_id) LESS_EQUAL (ACCOUNT1, "));
+      assertFalse("Unexpected plan " + plan, plan.contains("ScanToken 2"));
+
+      rs = conn.createStatement().executeQuery(sql);
+      assertTrue(rs.next());
+      validateRow(rs, TIMESTAMP_PARTITIONS[firstPartitionIndex], "TXN8");
+      assertTrue(rs.next());
+      validateRow(rs, TIMESTAMP_PARTITIONS[firstPartitionIndex], "TXN9");
+      assertTrue(rs.next());
+      validateRow(rs, TIMESTAMP_PARTITIONS[secondPartitionIndex], "TXN0");
+      assertTrue(rs.next());
+      validateRow(rs, TIMESTAMP_PARTITIONS[secondPartitionIndex], "TXN1");
+      assertFalse(rs.next());
+    }
+  }
+
+  @Test
+  public void testQueryMoreWithCursor() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL); Statement statement = conn.createStatement()) {
+      final KuduStatement kuduStatement = statement.unwrap(KuduStatement.class);
+      String dateInitiatedOrder = descending ? "DESC" : "ASC";
+      String sql = String.format(
+          "SELECT * FROM %s WHERE account_sid = '%s' ORDER BY date_initiated %s, transaction_id LIMIT 4", tableName,
+          ACCOUNT1, dateInitiatedOrder);
+
+      // every page runs the same query, resuming from the cursor of the previous
+      // page. There are 30 rows, 7 pages of four rows and a last page of two rows.
+      int rowNum = 0;
+      int timestampPartitionIndex = descending ? 2 : 0;
+      String cursor = null;
+      for (int i = 0; i < 8; ++i) {
+        kuduStatement.setPaginationCursor(cursor);
+        ResultSet rs = statement.executeQuery(sql);
+        int jEnd = i == 7 ? 2 : 4;
+        for (int j = 0; j < jEnd; ++j) {
+          assertTrue("Mismatch in row " + j + " of page " + i, rs.next());
+          validateRow(rs, TIMESTAMP_PARTITIONS[timestampPartitionIndex], "TXN" + rowNum++);
+          // if we are reading the last row from the partition
+          if (rowNum == 10) {
+            rowNum = 0;
+            if (descending) {
+              timestampPartitionIndex--;
+            } else {
+              timestampPartitionIndex++;
+            }
+          }
+        }
+        assertFalse(rs.next());
+        cursor = kuduStatement.getNextPaginationCursor();
+        if (i < 7) {
+          assertNotNull("Page " + i + " should return a cursor", cursor);
+        } else {
+          assertNull("The last page shouldn't return a cursor", cursor);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCursorReadsAtTheSnapshotOfTheFirstPage() throws Exception {
+    KuduClient client = testHarness.getClient();
+    KuduTable kuduTable = client.openTable(tableName);
+    KuduSession session = client.newSession();
+    for (int i = 0; i < 3; ++i) {
+      insertRow(kuduTable, session, ACCOUNT3, normalizeTimestamp(descending, T1 + 1), i);
+    }
+    session.flush();
+
+    try (Connection conn = DriverManager.getConnection(JDBC_URL); Statement statement = conn.createStatement()) {
+      final KuduStatement kuduStatement = statement.unwrap(KuduStatement.class);
+      String sql = String
+          .format("SELECT transaction_id FROM %s WHERE account_sid = '%s' ORDER BY account_sid, date_initiated %s, "
+              + "transaction_id LIMIT 2", tableName, ACCOUNT3, descending ? "DESC" : "ASC");
+      ResultSet rs = statement.executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals("TXN0", rs.getString(1));
+      assertTrue(rs.next());
+      assertEquals("TXN1", rs.getString(1));
+      assertFalse(rs.next());
+      String cursor = kuduStatement.getNextPaginationCursor();
+      assertNotNull(cursor);
+
+      // a row written after the first page sorts after the cursor but is not part
+      // of the snapshot the pages are read at
+      insertRow(kuduTable, session, ACCOUNT3, normalizeTimestamp(descending, T1 + 1), 3);
+      session.flush();
+
+      kuduStatement.setPaginationCursor(cursor);
+      rs = statement.executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals("TXN2", rs.getString(1));
+      assertFalse(rs.next());
+      assertNull(kuduStatement.getNextPaginationCursor());
+
+      // without a cursor the query starts over and reads the latest rows
+      kuduStatement.setPaginationCursor(null);
+      rs = statement.executeQuery(sql.replace("LIMIT 2", "LIMIT 10"));
+      for (int i = 0; i < 4; ++i) {
+        assertTrue(rs.next());
+        assertEquals("TXN" + i, rs.getString(1));
+      }
+      assertFalse(rs.next());
+    } finally {
+      for (int i = 0; i < 4; ++i) {
+        Delete delete = kuduTable.newDelete();
+        PartialRow row = delete.getRow();
+        row.addString(ACCOUNT_SID, ACCOUNT3);
+        row.addTimestamp(DATE_INITIATED, normalizeTimestamp(descending, T1 + 1));
+        row.addString(TRANSACTION_ID, "TXN" + i);
+        session.apply(delete);
+      }
+      session.close();
+    }
+  }
+
+  @Test
+  public void testCursorsAreScopedToTheStatement() throws Exception {
+    final String otherTableName = descending ? "TABLE_ASC" : "TABLE_DESC";
+    final String sqlFormat = "SELECT transaction_id FROM %s WHERE account_sid = '%s' ORDER BY account_sid, "
+        + "date_initiated %s, transaction_id LIMIT 2";
+    final String sql = String.format(sqlFormat, tableName, ACCOUNT1, descending ? "DESC" : "ASC");
+    final String otherTableSql = String.format(sqlFormat, otherTableName, ACCOUNT1, descending ? "ASC" : "DESC");
+    try (Connection conn = DriverManager.getConnection(JDBC_URL);
+        Statement pages = conn.createStatement();
+        Statement other = conn.createStatement()) {
+      final KuduStatement kuduPages = pages.unwrap(KuduStatement.class);
+      ResultSet rs = pages.executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals("TXN0", rs.getString(1));
+      assertTrue(rs.next());
+      assertEquals("TXN1", rs.getString(1));
+      assertFalse(rs.next());
+      final String cursor = kuduPages.getNextPaginationCursor();
+      assertNotNull(cursor);
+
+      // the other statement starts from the first page and doesn't replace the
+      // cursor of the first statement
+      rs = other.executeQuery(sql.replace("LIMIT 2", "LIMIT 3"));
+      assertTrue(rs.next());
+      assertEquals("TXN0", rs.getString(1));
+      assertEquals(cursor, kuduPages.getNextPaginationCursor());
+      assertNotEquals(cursor, other.unwrap(KuduStatement.class).getNextPaginationCursor());
+      rs.close();
+
+      // the cursor only resumes the scans of the table it was read from
+      kuduPages.setPaginationCursor(cursor);
+      rs = pages.executeQuery(otherTableSql);
+      assertTrue(rs.next());
+      assertEquals("TXN0", rs.getString(1));
+      rs.close();
+
+      rs = pages.executeQuery(sql);
+      assertTrue(rs.next());
+      assertEquals("TXN2", rs.getString(1));
+      rs.close();
+    }
+  }
+
+  @Test
+  public void testCursorNeedsASortedQuery() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL); Statement statement = conn.createStatement()) {
+      final KuduStatement kuduStatement = statement.unwrap(KuduStatement.class);
+      ResultSet rs = statement.executeQuery(String
+          .format("SELECT transaction_id FROM %s WHERE account_sid = '%s' ORDER BY account_sid, date_initiated %s, "
+              + "transaction_id LIMIT 2", tableName, ACCOUNT1, descending ? "DESC" : "ASC"));
+      assertTrue(rs.next());
+      assertTrue(rs.next());
+      assertFalse(rs.next());
+      kuduStatement.setPaginationCursor(kuduStatement.getNextPaginationCursor());
+      try {
+        statement.executeQuery(
+            String.format("SELECT transaction_id FROM %s WHERE account_sid = '%s' LIMIT 2", tableName, ACCOUNT1));
+        fail("A cursor should not resume a query that isn't sorted by primary key");
+      } catch (SQLException e) {
+        assertTrue(e.getMessage(), Throwables.getRootCause(e) instanceof IllegalArgumentException);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCursor() throws Exception {
+    try (Connection conn = DriverManager.getConnection(JDBC_URL); Statement statement = conn.createStatement()) {
+      statement.unwrap(KuduStatement.class).setPaginationCursor("not a cursor");
+    }
+  }
+
 }
@@ -0,0 +1,179 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import com.twilio.kudu.sql.schema.BaseKuduSchemaFactory;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.SessionConfiguration;
+import org.apache.kudu.client.Upsert;
+import org.apache.kudu.test.KuduTestHarness;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the same unsorted aggregations with and without
+ * {@code schema.aggregationParallelism} and compares the results.
+ */
+@RunWith(JUnit4.class)
+public final class ParallelAggregationIT {
+  private static final String TABLE_NAME = "ParallelAggregationTable";
+  private static final int ROW_COUNT = 5 * ParallelHashAggregation.BATCH_SIZE;
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+
+  private static String SERIAL_JDBC_URL;
+  private static String PARALLEL_JDBC_URL;
+
+  public static class SerialSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final SerialSchemaFactory INSTANCE = new SerialSchemaFactory();
+
+    public SerialSchemaFactory() {
+      super(Collections.emptyMap());
+    }
+  }
+
+  public static class ParallelSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final ParallelSchemaFactory INSTANCE = new ParallelSchemaFactory();
+
+    public ParallelSchemaFactory() {
+      super(Collections.emptyMap());
+    }
+  }
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final List<ColumnSchema> columns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("transaction_id", Type.INT32).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("customer_id", Type.INT64).build(),
+        new ColumnSchema.ColumnSchemaBuilder("quantity", Type.INT32).nullable(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("amount", Type.INT64).build());
+    testHarness.getClient().createTable(TABLE_NAME, new Schema(columns),
+        new CreateTableOptions().addHashPartitions(Collections.singletonList("account_sid"), 3).setNumReplicas(1));
+
+    final KuduTable table = testHarness.getClient().openTable(TABLE_NAME);
+    final KuduSession session = testHarness.getClient().newSession();
+    session.setFlushMode(SessionConfiguration.FlushMode.AUTO_FLUSH_BACKGROUND);
+    for (int i = 0; i < ROW_COUNT; i++) {
+      final Upsert upsert = table.newUpsert();
+      final PartialRow row = upsert.getRow();
+      row.addString("account_sid", "AC" + (i % 17));
+      row.addInt("transaction_id", i);
+      row.addLong("customer_id", i % 1_500);
+      if (i % 10 == 0) {
+        row.setNull("quantity");
+      } else {
+        row.addInt("quantity", i % 40);
+      }
+      row.addLong("amount", i * 3L);
+      session.apply(upsert);
+    }
+    session.close();
+
+    SERIAL_JDBC_URL = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE, SerialSchemaFactory.class.getName(),
+        testHarness.getMasterAddressesAsString());
+    PARALLEL_JDBC_URL = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE, ParallelSchemaFactory.class.getName(),
+        testHarness.getMasterAddressesAsString()) + ";schema.aggregationParallelism=4";
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    testHarness.getClient().deleteTable(TABLE_NAME);
+  }
+
+  private static List<String> executeQuery(final String url, final String sql) throws Exception {
+    final List<String> rows = new ArrayList<>();
+    try (Connection conn = DriverManager.getConnection(url)) {
+      final ResultSet rs = conn.createStatement().executeQuery(sql);
+      final int columnCount = rs.getMetaData().getColumnCount();
+      while (rs.next()) {
+        final StringBuilder row = new StringBuilder();
+        for (int i = 1; i <= columnCount; i++) {
+          row.append(rs.getString(i)).append('|');
+        }
+        rows.add(row.toString());
+      }
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  private static void assertSameResults(final String sql, final int expectedRowCount) throws Exception {
+    final List<String> serialResults = executeQuery(SERIAL_JDBC_URL, sql);
+    assertEquals("Unexpected number of rows for " + sql, expectedRowCount, serialResults.size());
+    assertEquals("Parallel aggregation returned different rows for " + sql, serialResults,
+        executeQuery(PARALLEL_JDBC_URL, sql));
+  }
+
+  @Test
+  public void testParallelismConfigured() throws Exception {
+    final String sql = "SELECT account_sid, COUNT(*) FROM \"" + TABLE_NAME + "\" GROUP BY account_sid";
+    // the schema is created when the first connection is opened
+    executeQuery(PARALLEL_JDBC_URL, sql);
+    executeQuery(SERIAL_JDBC_URL, sql);
+    assertEquals(4, ParallelSchemaFactory.INSTANCE.getTable(TABLE_NAME).get().getAggregationParallelism());
+    assertEquals(1, SerialSchemaFactory.INSTANCE.getTable(TABLE_NAME).get().getAggregationParallelism());
+    assertTrue("Expected the rows to be aggregated by worker threads",
+        Thread.getAllStackTraces().keySet().stream().anyMatch(t -> t.getName().startsWith("kudu-aggregation-")));
+  }
+
+  @Test
+  public void testStringKeys() throws Exception {
+    assertSameResults(
+        "SELECT account_sid, COUNT(*), SUM(amount), MIN(quantity) FROM \"" + TABLE_NAME + "\" GROUP BY account_sid",
+        17);
+  }
+
+  @Test
+  public void testLongKeys() throws Exception {
+    assertSameResults("SELECT customer_id, COUNT(*), MAX(amount) FROM \"" + TABLE_NAME + "\" GROUP BY customer_id",
+        1_500);
+  }
+
+  @Test
+  public void testNullableIntegerKeys() throws Exception {
+    assertSameResults("SELECT quantity, COUNT(*), AVG(amount) FROM \"" + TABLE_NAME + "\" GROUP BY quantity", 37);
+  }
+
+  @Test
+  public void testCompositeKeys() throws Exception {
+    assertSameResults("SELECT account_sid, quantity, COUNT(DISTINCT customer_id), SUM(amount) FROM \"" + TABLE_NAME
+        + "\" WHERE transaction_id > 100 GROUP BY account_sid, quantity", 17 * 37);
+  }
+}
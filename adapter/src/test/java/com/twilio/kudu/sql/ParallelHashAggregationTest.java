@@ -0,0 +1,157 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.EnumerableDefaults;
+import org.apache.calcite.linq4j.Linq4j;
+import org.apache.calcite.linq4j.function.Function1;
+import org.junit.Test;
+
+public class ParallelHashAggregationTest {
+
+  // rows are {key, value}, groups sum the values
+  private static List<String> aggregate(final List<Object[]> rows, final int parallelism) {
+    final Function1<Object, Object> keySelector = row -> ((Object[]) row)[0];
+    final ParallelHashAggregation<Object, long[], String> aggregation = new ParallelHashAggregation<>(keySelector,
+        () -> new long[2], (accumulator, row) -> {
+          accumulator[0] += (Integer) ((Object[]) row)[1];
+          accumulator[1]++;
+          return accumulator;
+        }, (key, accumulator) -> key + "=" + accumulator[0] + "/" + accumulator[1], parallelism);
+    final Enumerator<Object> enumerator = Linq4j.enumerator(new ArrayList<Object>(rows));
+    final List<String> results = aggregation.aggregate(enumerator);
+    Collections.sort(results);
+    return results;
+  }
+
+  private static List<String> expected(final List<Object[]> rows) {
+    final List<String> results = new ArrayList<>();
+    EnumerableDefaults.groupBy(Linq4j.asEnumerable(new ArrayList<Object>(rows)), row -> ((Object[]) row)[0],
+        () -> new long[2], (accumulator, row) -> {
+          accumulator[0] += (Integer) ((Object[]) row)[1];
+          accumulator[1]++;
+          return accumulator;
+        }, (key, accumulator) -> key + "=" + accumulator[0] + "/" + accumulator[1]).forEach(results::add);
+    Collections.sort(results);
+    return results;
+  }
+
+  private static List<Object[]> rows(final int count, final IntFunction<Object> key) {
+    final List<Object[]> rows = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      rows.add(new Object[] { key.apply(i), i % 11 });
+    }
+    return rows;
+  }
+
+  private static void assertSameGroups(final List<Object[]> rows) {
+    final List<String> expected = expected(rows);
+    assertEquals("Single thread", expected, aggregate(rows, 1));
+    assertEquals("Two threads", expected, aggregate(rows, 2));
+    assertEquals("Seven threads", expected, aggregate(rows, 7));
+  }
+
+  @Test
+  public void integerKeys() {
+    // more groups than the initial capacity of each table
+    assertSameGroups(rows(50_000, i -> i % 5_000 - 2_500));
+  }
+
+  @Test
+  public void longKeys() {
+    assertSameGroups(rows(50_000, i -> (i % 3_000) * 1_000_000_007L));
+  }
+
+  @Test
+  public void stringKeys() {
+    assertSameGroups(rows(50_000, i -> "AC" + (i % 4_000)));
+  }
+
+  @Test
+  public void compositeAndNullKeys() {
+    assertSameGroups(rows(20_000, i -> i % 13 == 0 ? null : Arrays.asList("AC" + (i % 7), i % 5)));
+    assertSameGroups(rows(20_000, i -> i % 13 == 0 ? null : i % 100));
+  }
+
+  @Test
+  public void keysOfDifferentTypes() {
+    // an integer key equal to a long key is still a different group
+    assertSameGroups(rows(20_000, i -> i % 3 == 0 ? Long.valueOf(i % 50) : Integer.valueOf(i % 50)));
+  }
+
+  @Test
+  public void smallInputsAreAggregatedByTheCallingThread() {
+    final List<Object[]> rows = rows(ParallelHashAggregation.BATCH_SIZE - 1, i -> i % 10);
+    assertEquals(expected(rows), aggregate(rows, 4));
+    assertTrue(aggregate(Collections.emptyList(), 4).isEmpty());
+  }
+
+  @Test
+  public void workerFailureFailsTheAggregation() {
+    final ParallelHashAggregation<Object, long[], Object> aggregation = new ParallelHashAggregation<>(row -> row,
+        () -> new long[1], (accumulator, row) -> {
+          if ((Integer) row == 20_000) {
+            throw new IllegalStateException("Unable to accumulate");
+          }
+          return accumulator;
+        }, (key, accumulator) -> key, 3);
+    final List<Object> rows = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      rows.add(i);
+    }
+    try {
+      aggregation.aggregate(Linq4j.enumerator(rows));
+      fail("Expected the failure of the worker to fail the aggregation");
+    } catch (IllegalStateException expected) {
+      assertEquals("Unable to accumulate", expected.getMessage());
+    }
+  }
+
+  @Test
+  public void concurrentAggregationsShareTheWorkers() throws Exception {
+    final List<Object[]> rows = rows(50_000, i -> "AC" + (i % 4_000));
+    final List<String> expected = expected(rows);
+    final ExecutorService queries = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<List<String>>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(queries.submit(() -> aggregate(rows, 7)));
+      }
+      for (Future<List<String>> result : results) {
+        assertEquals(expected, result.get());
+      }
+    } finally {
+      queries.shutdown();
+    }
+    final long workerThreads = Thread.getAllStackTraces().keySet().stream()
+        .filter(t -> t.getName().startsWith("kudu-aggregation-")).count();
+    assertTrue("Expected at most " + ParallelHashAggregation.WORKER_THREADS + " worker threads, found " + workerThreads,
+        workerThreads <= ParallelHashAggregation.WORKER_THREADS);
+  }
+}
@@ -0,0 +1,243 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import com.google.common.collect.ImmutableMap;
+import com.twilio.kudu.sql.metadata.KuduTableMetadata;
+import com.twilio.kudu.sql.schema.BaseKuduSchemaFactory;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.Upsert;
+import org.apache.kudu.test.KuduTestHarness;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the same aggregations with and without {@code schema.partialAggregation}
+ * and compares the results.
+ */
+@RunWith(JUnit4.class)
+public final class PartialAggregationIT {
+  private static final String TABLE_NAME = "PartialAggregationTable";
+  private static final long BASE_MILLIS = 1577836800000L;
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+
+  private static String ROW_JDBC_URL;
+  private static String PARTIAL_JDBC_URL;
+  private static String PARTIAL_COLUMNAR_JDBC_URL;
+
+  private static final Map<String, KuduTableMetadata> kuduTableConfigMap = new ImmutableMap.Builder<String, KuduTableMetadata>()
+      .put(TABLE_NAME, new KuduTableMetadata.KuduTableMetadataBuilder()
+          .setDescendingOrderedColumnNames(Collections.singletonList("date_initiated")).build())
+      .build();
+
+  public static class RowSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final RowSchemaFactory INSTANCE = new RowSchemaFactory();
+
+    public RowSchemaFactory() {
+      super(kuduTableConfigMap);
+    }
+  }
+
+  public static class PartialSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final PartialSchemaFactory INSTANCE = new PartialSchemaFactory();
+
+    public PartialSchemaFactory() {
+      super(kuduTableConfigMap);
+    }
+  }
+
+  public static class PartialColumnarSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final PartialColumnarSchemaFactory INSTANCE = new PartialColumnarSchemaFactory();
+
+    public PartialColumnarSchemaFactory() {
+      super(kuduTableConfigMap);
+    }
+  }
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final List<ColumnSchema> columns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("date_initiated", Type.UNIXTIME_MICROS).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("transaction_id", Type.INT32).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("amount", Type.INT64).nullable(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("quantity", Type.INT32).build(),
+        new ColumnSchema.ColumnSchemaBuilder("price", Type.DOUBLE).build(),
+        new ColumnSchema.ColumnSchemaBuilder("status", Type.STRING).nullable(true).build());
+    testHarness.getClient().createTable(TABLE_NAME, new Schema(columns),
+        new CreateTableOptions().addHashPartitions(Collections.singletonList("account_sid"), 3).setNumReplicas(1));
+
+    final KuduTable table = testHarness.getClient().openTable(TABLE_NAME);
+    final KuduSession session = testHarness.getClient().newSession();
+    for (int i = 0; i < 300; i++) {
+      final Upsert upsert = table.newUpsert();
+      final PartialRow row = upsert.getRow();
+      row.addString("account_sid", "AC" + (i % 4));
+      row.addTimestamp("date_initiated",
+          new Timestamp(CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MILLISECONDS - (BASE_MILLIS + i * 1000L)));
+      row.addInt("transaction_id", i);
+      if (i % 7 == 0) {
+        row.setNull("amount");
+      } else {
+        row.addLong("amount", i * 10L);
+      }
+      row.addInt("quantity", i % 9);
+      row.addDouble("price", i / 4.0);
+      if (i % 5 == 0) {
+        row.setNull("status");
+      } else {
+        row.addString("status", "status-" + (i % 3));
+      }
+      session.apply(upsert);
+    }
+    session.close();
+
+    ROW_JDBC_URL = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE, RowSchemaFactory.class.getName(),
+        testHarness.getMasterAddressesAsString());
+    PARTIAL_JDBC_URL = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE, PartialSchemaFactory.class.getName(),
+        testHarness.getMasterAddressesAsString()) + ";schema.partialAggregation=true";
+    PARTIAL_COLUMNAR_JDBC_URL = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE,
+        PartialColumnarSchemaFactory.class.getName(), testHarness.getMasterAddressesAsString())
+        + ";schema.partialAggregation=true;schema.columnarScans=true";
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    testHarness.getClient().deleteTable(TABLE_NAME);
+  }
+
+  private static List<String> executeQuery(final String url, final String sql) throws Exception {
+    final List<String> rows = new ArrayList<>();
+    try (Connection conn = DriverManager.getConnection(url)) {
+      final ResultSet rs = conn.createStatement().executeQuery(sql);
+      final int columnCount = rs.getMetaData().getColumnCount();
+      while (rs.next()) {
+        final StringBuilder row = new StringBuilder();
+        for (int i = 1; i <= columnCount; i++) {
+          row.append(rs.getString(i)).append('|');
+        }
+        rows.add(row.toString());
+      }
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  private static String explain(final String url, final String sql) throws Exception {
+    try (Connection conn = DriverManager.getConnection(url)) {
+      return SqlUtil.getExplainPlan(conn.createStatement().executeQuery("EXPLAIN PLAN FOR " + sql));
+    }
+  }
+
+  private static void assertSameResults(final String sql, final int expectedRowCount) throws Exception {
+    final String plan = explain(PARTIAL_JDBC_URL, sql);
+    assertTrue("Expected the scanners to aggregate\n" + plan, plan.contains("KuduAggregateRel"));
+    final List<String> rowResults = executeQuery(ROW_JDBC_URL, sql);
+    assertEquals("Unexpected number of rows for " + sql, expectedRowCount, rowResults.size());
+    assertEquals("Partial aggregation returned different rows for " + sql, rowResults,
+        executeQuery(PARTIAL_JDBC_URL, sql));
+    assertEquals("Partial aggregation of columnar scans returned different rows for " + sql, rowResults,
+        executeQuery(PARTIAL_COLUMNAR_JDBC_URL, sql));
+  }
+
+  @Test
+  public void testPartialAggregationConfigured() throws Exception {
+    final String sql = "SELECT account_sid, COUNT(*) FROM \"" + TABLE_NAME + "\" GROUP BY account_sid";
+    // the schema is created when the first connection is opened
+    executeQuery(PARTIAL_JDBC_URL, sql);
+    executeQuery(ROW_JDBC_URL, sql);
+    assertTrue(PartialSchemaFactory.INSTANCE.getTable(TABLE_NAME).get().isPartialAggregation());
+    assertFalse(RowSchemaFactory.INSTANCE.getTable(TABLE_NAME).get().isPartialAggregation());
+
+    final String expectedPlan = "EnumerableAggregate(group=[{0}], EXPR$1=[$SUM0($1)])\n" + "  KuduToEnumerableRel\n"
+        + "    KuduAggregateRel(group=[{0}], EXPR$1=[COUNT()])\n" + "      KuduProjectRel(ACCOUNT_SID=[$0])\n"
+        + "        KuduQuery(table=[[kudu, " + TABLE_NAME + "]])\n";
+    assertEquals("Unexpected plan", expectedPlan, explain(PARTIAL_JDBC_URL, sql));
+    assertFalse("Aggregation shouldn't be split unless the table enables it",
+        explain(ROW_JDBC_URL, sql).contains("KuduAggregateRel"));
+  }
+
+  @Test
+  public void testCountGroupedByKey() throws Exception {
+    assertSameResults("SELECT account_sid, COUNT(*), COUNT(amount) FROM \"" + TABLE_NAME + "\" GROUP BY account_sid",
+        4);
+  }
+
+  @Test
+  public void testSumMinMax() throws Exception {
+    assertSameResults("SELECT account_sid, SUM(amount), SUM(quantity), MIN(amount), MAX(price), MIN(date_initiated), "
+        + "MAX(status) FROM \"" + TABLE_NAME + "\" GROUP BY account_sid", 4);
+  }
+
+  @Test
+  public void testAggregationWithoutGroupKeys() throws Exception {
+    assertSameResults("SELECT COUNT(*), SUM(amount), MAX(transaction_id) FROM \"" + TABLE_NAME + "\"", 1);
+    assertSameResults("SELECT COUNT(*) FROM \"" + TABLE_NAME + "\"", 1);
+  }
+
+  @Test
+  public void testGroupedByNullableColumn() throws Exception {
+    assertSameResults("SELECT status, quantity, COUNT(*), SUM(amount) FROM \"" + TABLE_NAME
+        + "\" WHERE transaction_id < 200 GROUP BY status, quantity", 18);
+  }
+
+  @Test
+  public void testFilteredAggregation() throws Exception {
+    assertSameResults("SELECT account_sid, COUNT(*), MIN(amount) FROM \"" + TABLE_NAME
+        + "\" WHERE account_sid = 'AC1' AND MOD(quantity, 2) = 0 GROUP BY account_sid", 1);
+    assertSameResults(
+        "SELECT quantity, AVG(amount), SUM(price) FROM \"" + TABLE_NAME + "\" WHERE amount > 250 GROUP BY quantity", 9);
+  }
+
+  @Test
+  public void testNoMatchingRows() throws Exception {
+    final String sql = "SELECT COUNT(*), SUM(amount), MIN(status) FROM \"" + TABLE_NAME
+        + "\" WHERE account_sid = 'AC9'";
+    assertSameResults(sql, 1);
+    assertEquals(Collections.singletonList("0|null|null|"), executeQuery(PARTIAL_JDBC_URL, sql));
+    assertSameResults(
+        "SELECT account_sid, COUNT(*) FROM \"" + TABLE_NAME + "\" WHERE account_sid = 'AC9' " + "GROUP BY account_sid",
+        0);
+  }
+}
@@ -0,0 +1,161 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.AlterTableOptions;
+import org.apache.kudu.client.AsyncKuduScanner;
+import org.apache.kudu.client.AsyncKuduSession;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.Upsert;
+import org.apache.kudu.test.KuduTestHarness;
+import org.apache.kudu.util.Pair;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(JUnit4.class)
+public class PartitionKeyRangeCacheIT {
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+  public static final String TABLE_NAME = "PartitionKeyRangeCache.Events";
+
+  public static KuduTable TABLE;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final List<ColumnSchema> columns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("day", Type.INT32).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("sid", Type.STRING).key(true).build());
+    final Schema schema = new Schema(columns);
+    final CreateTableOptions options = new CreateTableOptions().addHashPartitions(Arrays.asList("account_sid"), 3)
+        .setRangePartitionColumns(Collections.singletonList("day")).setNumReplicas(1);
+    options.addRangePartition(dayBound(schema, 0), dayBound(schema, 10));
+    testHarness.getClient().createTable(TABLE_NAME, schema, options);
+    TABLE = testHarness.getClient().openTable(TABLE_NAME);
+    insert("AC1", 1, "SM1");
+    insert("AC2", 2, "SM2");
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    testHarness.getClient().deleteTable(TABLE_NAME);
+  }
+
+  private static PartialRow dayBound(final Schema schema, final int day) {
+    final PartialRow bound = schema.newPartialRow();
+    bound.addInt("day", day);
+    return bound;
+  }
+
+  private static void insert(final String accountSid, final int day, final String sid) throws Exception {
+    final AsyncKuduSession insertSession = testHarness.getAsyncClient().newSession();
+    final Upsert upsert = TABLE.newUpsert();
+    upsert.getRow().addString("account_sid", accountSid);
+    upsert.getRow().addInt("day", day);
+    upsert.getRow().addString("sid", sid);
+    insertSession.apply(upsert).join();
+    insertSession.close().join();
+  }
+
+  private static AsyncKuduScanner.AsyncKuduScannerBuilder builder(final KuduPredicate... predicates) {
+    final AsyncKuduScanner.AsyncKuduScannerBuilder builder = testHarness.getAsyncClient().newScannerBuilder(TABLE);
+    for (KuduPredicate predicate : predicates) {
+      builder.addPredicate(predicate);
+    }
+    return builder;
+  }
+
+  private static KuduPredicate equal(final String column, final Object value) {
+    final ColumnSchema columnSchema = TABLE.getSchema().getColumn(column);
+    return value instanceof String
+        ? KuduPredicate.newComparisonPredicate(columnSchema, KuduPredicate.ComparisonOp.EQUAL, (String) value)
+        : KuduPredicate.newComparisonPredicate(columnSchema, KuduPredicate.ComparisonOp.EQUAL, (Integer) value);
+  }
+
+  @Test
+  public void predicatesOnOtherColumnsShareAnEntry() {
+    final PartitionKeyRangeCache cache = new PartitionKeyRangeCache();
+    final List<Pair<byte[], byte[]>> accountRanges = cache.getPartitionKeyRanges(builder(equal("account_sid", "AC1")));
+    Assert.assertEquals("A single hash bucket should be scanned", 1, accountRanges.size());
+    Assert.assertSame("A predicate on a column that isn't partitioned on shouldn't need pruning", accountRanges,
+        cache.getPartitionKeyRanges(builder(equal("account_sid", "AC1"), equal("sid", "SM1"))));
+    Assert.assertEquals(1, cache.size());
+
+    cache.getPartitionKeyRanges(builder(equal("account_sid", "AC1"), equal("day", 1)));
+    cache.getPartitionKeyRanges(builder(equal("account_sid", "AC2")));
+    Assert.assertEquals("Predicates on range and hash columns are part of the key", 3, cache.size());
+
+    cache.invalidateAll();
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void predicatesThatCantMatchAreNotCached() {
+    final PartitionKeyRangeCache cache = new PartitionKeyRangeCache();
+    Assert.assertTrue(cache.getPartitionKeyRanges(builder(equal("sid", "SM1"), equal("sid", "SM2"))).isEmpty());
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void addedRangePartitionIsScanned() throws Exception {
+    final CalciteKuduTable relTable = new CalciteKuduTableBuilder(TABLE, testHarness.getAsyncClient()).build();
+    final List<List<CalciteKuduPredicate>> accountQuery = Collections
+        .singletonList(Collections.singletonList(new ComparisonPredicate(0, KuduPredicate.ComparisonOp.EQUAL, "AC1")));
+    Assert.assertEquals(Collections.singletonList("SM1"), querySids(relTable, accountQuery));
+    Assert.assertEquals(1, relTable.getPartitionKeyRangeCache().size());
+
+    testHarness.getClient().alterTable(TABLE_NAME,
+        new AlterTableOptions().addRangePartition(dayBound(TABLE.getSchema(), 10), dayBound(TABLE.getSchema(), 20)));
+    insert("AC1", 15, "SM15");
+
+    Assert.assertEquals("Cached ranges should include tablets of the new range partition", Arrays.asList("SM1", "SM15"),
+        querySids(relTable, accountQuery));
+    Assert.assertEquals(1, relTable.getPartitionKeyRangeCache().size());
+  }
+
+  private static List<String> querySids(final CalciteKuduTable relTable,
+      final List<List<CalciteKuduPredicate>> predicates) {
+    final Enumerator<Object> resultIter = relTable.executeQuery(predicates, Collections.emptyList(),
+        Collections.singletonList(2), -1, -1, false, false, new KuduScanStats(), new AtomicBoolean(false),
+        row -> ((RowResult) row).getString(0), row -> true, true, null, null, null).enumerator();
+    final List<String> sids = new ArrayList<>();
+    while (resultIter.moveNext()) {
+      sids.add((String) resultIter.current());
+    }
+    resultIter.close();
+    Collections.sort(sids);
+    return sids;
+  }
+}
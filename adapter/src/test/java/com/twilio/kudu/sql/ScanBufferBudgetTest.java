@@ -0,0 +1,63 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ScanBufferBudgetTest {
+  @Test
+  public void defersUntilReleased() {
+    final KuduScanStats scanStats = new KuduScanStats();
+    final ScanBufferBudget budget = new ScanBufferBudget(100L, scanStats);
+    final AtomicInteger fetches = new AtomicInteger(0);
+
+    assertFalse("Empty budget should not defer", budget.deferIfExhausted(fetches::incrementAndGet));
+    budget.reserve(60L);
+    budget.reserve(60L);
+    assertTrue("Budget of 100 bytes with 120 buffered should defer", budget.deferIfExhausted(fetches::incrementAndGet));
+    assertEquals("Deferred fetch should not have run", 0, fetches.get());
+
+    budget.release(60L);
+    assertEquals("Deferred fetch should run once the buffer is back under budget", 1, fetches.get());
+    assertEquals("High-water mark should be the largest buffered amount", 120L, scanStats.getMaxBufferedBytes());
+    assertEquals("High-water mark should be the largest buffered batch count", 2L, scanStats.getMaxBufferedBatches());
+    assertEquals("One RPC was deferred", 1L, scanStats.getDeferredRpcCount());
+  }
+
+  @Test
+  public void resumeAllIgnoresBudget() {
+    final ScanBufferBudget budget = new ScanBufferBudget(10L, new KuduScanStats());
+    final AtomicInteger fetches = new AtomicInteger(0);
+    budget.reserve(100L);
+    assertTrue(budget.deferIfExhausted(fetches::incrementAndGet));
+    assertTrue(budget.deferIfExhausted(fetches::incrementAndGet));
+    budget.resumeAll();
+    assertEquals("Closing should run every deferred fetch", 2, fetches.get());
+  }
+
+  @Test
+  public void disabledBudgetNeverDefers() {
+    final ScanBufferBudget budget = new ScanBufferBudget(0L, new KuduScanStats());
+    budget.reserve(Long.MAX_VALUE / 2);
+    assertFalse("Budget of 0 is disabled", budget.deferIfExhausted(() -> {
+    }));
+  }
+}
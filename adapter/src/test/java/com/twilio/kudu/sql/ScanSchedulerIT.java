@@ -0,0 +1,250 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.function.Predicate1;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.AsyncKuduScanner;
+import org.apache.kudu.client.AsyncKuduSession;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.SessionConfiguration;
+import org.apache.kudu.client.Upsert;
+import org.apache.kudu.test.KuduTestHarness;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs queries against a table with more tablets than the {@link ScanScheduler}
+ * lets a query or tablet server scan at once.
+ */
+@RunWith(JUnit4.class)
+public class ScanSchedulerIT {
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+  public static final String TABLE_NAME = "ScanScheduler.Rows";
+  private static final int NUM_TABLETS = 8;
+  private static final int NUM_ROWS = 400;
+
+  private static final Function1<Object, Object> MAP_ID = r -> ((RowResult) r).getLong(0);
+
+  public static KuduTable TABLE;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final List<ColumnSchema> columns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("value", Type.STRING).build());
+    testHarness.getClient().createTable(TABLE_NAME, new Schema(columns),
+        new CreateTableOptions().addHashPartitions(Arrays.asList("id"), NUM_TABLETS).setNumReplicas(1));
+    TABLE = testHarness.getClient().openTable(TABLE_NAME);
+
+    final AsyncKuduSession insertSession = testHarness.getAsyncClient().newSession();
+    insertSession.setFlushMode(SessionConfiguration.FlushMode.AUTO_FLUSH_BACKGROUND);
+    for (long id = 0; id < NUM_ROWS; id++) {
+      final Upsert upsert = TABLE.newUpsert();
+      upsert.getRow().addLong("id", id);
+      upsert.getRow().addString("value", "row" + id);
+      insertSession.apply(upsert);
+    }
+    insertSession.flush().join();
+  }
+
+  @AfterClass
+  public static void tearDown() throws Exception {
+    testHarness.getClient().deleteTable(TABLE_NAME);
+  }
+
+  // each test starts with its own scheduler so the limits it sets don't leak
+  private final ScanScheduler scanScheduler = new ScanScheduler(ScanScheduler.DEFAULT_MAX_SCANNERS_PER_QUERY,
+      ScanScheduler.DEFAULT_MAX_SCANNERS_PER_TABLET_SERVER);
+
+  private List<Long> runQuery(final boolean sorted, final KuduScanStats scanStats) {
+    return runQuery(sorted, -1, -1, row -> true, scanStats);
+  }
+
+  private List<Long> runQuery(final boolean sorted, final long limit, final long offset,
+      final Predicate1<Object> filter, final KuduScanStats scanStats) {
+    final CalciteKuduTable relTable = new CalciteKuduTableBuilder(TABLE, testHarness.getAsyncClient())
+        .setScanReadAheadDepth(1).setScanScheduler(scanScheduler).build();
+    // A predicate that every row matches so a scanner is created for each tablet
+    final CalciteKuduPredicate allIds = new ComparisonPredicate(0, KuduPredicate.ComparisonOp.GREATER_EQUAL, 0L);
+    final Enumerator<Object> resultIter = relTable
+        .executeQuery(Collections.singletonList(Collections.singletonList(allIds)), Collections.emptyList(),
+            Collections.singletonList(0), limit, offset, sorted, false, scanStats, new AtomicBoolean(false), MAP_ID,
+            filter, true, null, null, null)
+        .enumerator();
+    final List<Long> ids = new ArrayList<>();
+    while (resultIter.moveNext()) {
+      ids.add((Long) resultIter.current());
+    }
+    resultIter.close();
+    return ids;
+  }
+
+  private static List<Long> allIds() {
+    final List<Long> ids = new ArrayList<>();
+    for (long id = 0; id < NUM_ROWS; id++) {
+      ids.add(id);
+    }
+    return ids;
+  }
+
+  @Test
+  public void unsortedQueryWaitsForScanners() {
+    scanScheduler.setLimits(1, 1);
+    final long startedBefore = scanScheduler.getStartedScanCount();
+    final KuduScanStats scanStats = new KuduScanStats();
+
+    final List<Long> ids = runQuery(false, scanStats);
+    Collections.sort(ids);
+    Assert.assertEquals("Every row should be returned with one scanner at a time", allIds(), ids);
+    Assert.assertEquals("Every tablet should have been scanned", NUM_TABLETS,
+        scanScheduler.getStartedScanCount() - startedBefore);
+    Assert.assertTrue("Scanners should report queue wait time", scanStats.getScannerQueueWaitTimeMs() >= 0);
+    Assert.assertTrue("Max queue wait should not exceed the total",
+        scanStats.getMaxScannerQueueWaitTimeMs() <= scanStats.getScannerQueueWaitTimeMs());
+    Assert.assertEquals("No scanner should still be running", 0, scanScheduler.getRunningScanCount());
+    Assert.assertEquals("No scanner should still be queued", 0, scanScheduler.getQueuedScanCount());
+  }
+
+  @Test
+  public void sortedQueryStartsEveryScanner() {
+    scanScheduler.setLimits(1, 1);
+
+    final List<Long> ids = runQuery(true, new KuduScanStats());
+    Assert.assertEquals("Sorted query should return every row in order", allIds(), ids);
+    Assert.assertEquals("No scanner should still be running", 0, scanScheduler.getRunningScanCount());
+  }
+
+  @Test
+  public void concurrentQueriesShareScanners() throws Exception {
+    scanScheduler.setLimits(2, 1);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<List<Long>>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        final boolean sorted = i % 4 == 0;
+        results.add(executor.submit(() -> runQuery(sorted, new KuduScanStats())));
+      }
+      for (Future<List<Long>> result : results) {
+        final List<Long> ids = result.get(60, TimeUnit.SECONDS);
+        Collections.sort(ids);
+        Assert.assertEquals("Each concurrent query should return every row", allIds(), ids);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals("No scanner should still be running", 0, scanScheduler.getRunningScanCount());
+    Assert.assertEquals("No scanner should still be queued", 0, scanScheduler.getQueuedScanCount());
+  }
+
+  @Test
+  public void stoppedScannerIsClosedWhenItsRpcCompletes() throws Exception {
+    final CalciteKuduTable relTable = new CalciteKuduTableBuilder(TABLE, testHarness.getAsyncClient())
+        .setScanScheduler(scanScheduler).build();
+    final AsyncKuduScanner scanner = testHarness.getAsyncClient().newScannerBuilder(TABLE)
+        .setProjectedColumnIndexes(Collections.singletonList(0)).build();
+    final KuduScanStats scanStats = new KuduScanStats();
+    final MpscRingBuffer<CalciteScannerMessage<CalciteRow>> rowResults = new MpscRingBuffer<>(
+        ScannerCallback.maxOutstandingMessages(1));
+    final AtomicBoolean scansShouldStop = new AtomicBoolean(false);
+    final ScanScheduler.Query scanQuery = scanScheduler.newQuery(scanStats, false);
+    final ScannerCallback callback = new ScannerCallback(relTable, scanner, rowResults, scansShouldStop,
+        new AtomicBoolean(false), scanner.getProjectionSchema(), scanStats, false, MAP_ID, row -> true, true,
+        new ScanBufferBudget(relTable.getScanBufferBytes(), scanStats), 1, scanQuery.newScan(null), Long.MAX_VALUE,
+        null, null);
+
+    // the first RPC is in flight when the query stops, its batch fills the read
+    // ahead depth of one
+    callback.scanTask.submit(callback::nextBatch);
+    scansShouldStop.set(true);
+
+    Assert.assertEquals(CalciteScannerMessage.MessageType.BATCH, rowResults.take().type);
+    final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+    CalciteScannerMessage<CalciteRow> closeMessage = rowResults.poll();
+    while (closeMessage == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      closeMessage = rowResults.poll();
+    }
+    Assert.assertNotNull("The scanner should close once its RPC completes", closeMessage);
+    Assert.assertEquals(CalciteScannerMessage.MessageType.CLOSE, closeMessage.type);
+    while (!scanner.isClosed() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertTrue("The scanner should be closed on the tablet server", scanner.isClosed());
+    Assert.assertEquals("The scanner should be released before the query is closed", 0,
+        scanScheduler.getRunningScanCount());
+    scanQuery.close();
+  }
+
+  @Test
+  public void limitStartsOneScannerWhenItHasEnoughRows() {
+    final long startedBefore = scanScheduler.getStartedScanCount();
+
+    final List<Long> ids = runQuery(false, 10, -1, row -> true, new KuduScanStats());
+    Assert.assertEquals("Should return the limit", 10, ids.size());
+    Assert.assertEquals("Every tablet has more rows than the limit, a single scanner should be started", 1,
+        scanScheduler.getStartedScanCount() - startedBefore);
+    Assert.assertEquals("The scanner should be closed with the enumerator", 0, scanScheduler.getRunningScanCount());
+  }
+
+  @Test
+  public void limitStartsMoreScannersUntilItIsMet() {
+    final long startedBefore = scanScheduler.getStartedScanCount();
+
+    // 8 rows match, one per 50 ids, so most tablets need to be scanned
+    final List<Long> ids = runQuery(false, 5, 1, row -> ((RowResult) row).getLong(0) % 50 == 0, new KuduScanStats());
+    Assert.assertEquals("Should return the limit after skipping the offset", 5, ids.size());
+    Assert.assertEquals("Rows should be distinct", 5, new HashSet<>(ids).size());
+    for (Long id : ids) {
+      Assert.assertEquals("Only rows that pass the filter should be returned", 0, id % 50);
+    }
+    final long started = scanScheduler.getStartedScanCount() - startedBefore;
+    Assert.assertTrue("Scanners should be started until six rows are found, started " + started,
+        started >= 1 && started <= NUM_TABLETS);
+
+    // A limit larger than the number of matching rows reads every tablet
+    final List<Long> allMatching = runQuery(false, 100, -1, row -> ((RowResult) row).getLong(0) % 50 == 0,
+        new KuduScanStats());
+    Collections.sort(allMatching);
+    Assert.assertEquals(Arrays.asList(0L, 50L, 100L, 150L, 200L, 250L, 300L, 350L), allMatching);
+    Assert.assertEquals("No scanner should still be queued", 0, scanScheduler.getQueuedScanCount());
+  }
+}
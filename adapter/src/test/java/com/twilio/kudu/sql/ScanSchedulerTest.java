@@ -0,0 +1,188 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ScanSchedulerTest {
+
+  private static List<ScanScheduler.ScanTask> submit(final ScanScheduler.Query query, final List<String> started,
+      final String name, final String... tabletServers) {
+    // like KuduEnumerable every scan is created before the first one is submitted
+    final List<ScanScheduler.ScanTask> tasks = new ArrayList<>();
+    for (String tabletServer : tabletServers) {
+      tasks.add(query.newScan(tabletServer));
+    }
+    for (int i = 0; i < tasks.size(); i++) {
+      final String scanName = name + i;
+      tasks.get(i).submit(() -> started.add(scanName));
+    }
+    return tasks;
+  }
+
+  @Test
+  public void limitsScannersPerQuery() {
+    final ScanScheduler scheduler = new ScanScheduler(2, 100);
+    final List<String> started = new ArrayList<>();
+    final KuduScanStats scanStats = new KuduScanStats();
+    final List<ScanScheduler.ScanTask> tasks = submit(scheduler.newQuery(scanStats, false), started, "a", "ts1", "ts2",
+        "ts3", "ts1");
+
+    assertEquals(Arrays.asList("a0", "a1"), started);
+    assertEquals(2, scheduler.getQueuedScanCount());
+    tasks.get(1).finished();
+    // finishing twice must not free a second slot
+    tasks.get(1).finished();
+    assertEquals(Arrays.asList("a0", "a1", "a2"), started);
+    assertEquals(2, scheduler.getRunningScanCount());
+    tasks.get(0).finished();
+    tasks.get(2).finished();
+    tasks.get(3).finished();
+    assertEquals(Arrays.asList("a0", "a1", "a2", "a3"), started);
+    assertEquals(0, scheduler.getRunningScanCount());
+    assertEquals(0, scheduler.getQueuedScanCount());
+    assertEquals(4, scheduler.getStartedScanCount());
+  }
+
+  @Test
+  public void limitsScannersPerTabletServer() {
+    final ScanScheduler scheduler = new ScanScheduler(100, 1);
+    final List<String> started = new ArrayList<>();
+    final List<ScanScheduler.ScanTask> first = submit(scheduler.newQuery(new KuduScanStats(), false), started, "a",
+        "ts1", "ts1", "ts2");
+    // a0 and a2 are on different tablet servers, a1 waits for a0
+    assertEquals(Arrays.asList("a0", "a2"), started);
+    assertEquals(1, scheduler.getRunningScanCount("ts1"));
+
+    // A query without running scanners always gets to start one
+    final List<ScanScheduler.ScanTask> second = submit(scheduler.newQuery(new KuduScanStats(), false), started, "b",
+        "ts1", "ts1");
+    assertEquals(Arrays.asList("a0", "a2", "b0"), started);
+    assertEquals(2, scheduler.getRunningScanCount("ts1"));
+
+    // a still has a2 running so a1 waits until ts1 has no scanners
+    first.get(0).finished();
+    assertEquals(Arrays.asList("a0", "a2", "b0"), started);
+    // a gets the free slot, b has nothing running so it starts b1 regardless
+    second.get(0).finished();
+    assertEquals(Arrays.asList("a0", "a2", "b0", "a1", "b1"), started);
+    assertEquals(2, scheduler.getRunningScanCount("ts1"));
+  }
+
+  @Test
+  public void queriesTakeTurns() {
+    final ScanScheduler scheduler = new ScanScheduler(1, 100);
+    final List<String> started = new ArrayList<>();
+    final List<ScanScheduler.ScanTask> first = submit(scheduler.newQuery(new KuduScanStats(), false), started, "a",
+        "ts1", "ts1", "ts1");
+    final List<ScanScheduler.ScanTask> second = submit(scheduler.newQuery(new KuduScanStats(), false), started, "b",
+        "ts1", "ts1", "ts1");
+    assertEquals(Arrays.asList("a0", "b0"), started);
+    for (int i = 0; i < 2; i++) {
+      first.get(i).finished();
+      second.get(i).finished();
+    }
+    assertEquals(Arrays.asList("a0", "b0", "a1", "b1", "a2", "b2"), started);
+  }
+
+  @Test
+  public void sortedQueriesStartEveryScanner() {
+    final ScanScheduler scheduler = new ScanScheduler(1, 1);
+    final List<String> started = new ArrayList<>();
+    submit(scheduler.newQuery(new KuduScanStats(), true), started, "a", "ts1", "ts1", "ts1");
+    assertEquals(Arrays.asList("a0", "a1", "a2"), started);
+    assertEquals(3, scheduler.getRunningScanCount("ts1"));
+  }
+
+  @Test
+  public void sortedQueriesWaitForTabletServerCapacity() {
+    final ScanScheduler scheduler = new ScanScheduler(100, 1);
+    final List<String> started = new ArrayList<>();
+    final List<ScanScheduler.ScanTask> unsorted = submit(scheduler.newQuery(new KuduScanStats(), false), started, "a",
+        "ts1");
+    // ts1 is at the limit so none of the scanners of the sorted query start
+    submit(scheduler.newQuery(new KuduScanStats(), true), started, "b", "ts1", "ts2", "ts1");
+    assertEquals(Arrays.asList("a0"), started);
+    assertEquals(3, scheduler.getQueuedScanCount());
+
+    // once ts1 has room every scanner starts, even though ts1 ends up over the
+    // limit
+    unsorted.get(0).finished();
+    assertEquals(Arrays.asList("a0", "b0", "b1", "b2"), started);
+    assertEquals(2, scheduler.getRunningScanCount("ts1"));
+    assertEquals(0, scheduler.getQueuedScanCount());
+  }
+
+  @Test
+  public void sortedQueriesStartAfterWaitingTooLong() throws Exception {
+    final ScanScheduler scheduler = new ScanScheduler(100, 1, 10);
+    // the scanners that waited too long are started by the timer thread
+    final List<String> started = Collections.synchronizedList(new ArrayList<>());
+    submit(scheduler.newQuery(new KuduScanStats(), false), started, "a", "ts1");
+    submit(scheduler.newQuery(new KuduScanStats(), true), started, "b", "ts1", "ts1");
+    assertEquals(Arrays.asList("a0"), started);
+
+    // a0 never finishes, e.g. its rows are only read once the sorted query returns
+    // rows
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (started.size() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(Arrays.asList("a0", "b0", "b1"), started);
+    assertEquals(3, scheduler.getRunningScanCount("ts1"));
+  }
+
+  @Test
+  public void sortedQueriesAdmittedInTimeAreNotStartedAgain() throws Exception {
+    final ScanScheduler scheduler = new ScanScheduler(100, 1, 10);
+    final List<String> started = Collections.synchronizedList(new ArrayList<>());
+    final List<ScanScheduler.ScanTask> unsorted = submit(scheduler.newQuery(new KuduScanStats(), false), started, "a",
+        "ts1");
+    submit(scheduler.newQuery(new KuduScanStats(), true), started, "b", "ts1");
+    unsorted.get(0).finished();
+    assertEquals(Arrays.asList("a0", "b0"), started);
+
+    // the timeout of the admitted query has no effect
+    Thread.sleep(50);
+    assertEquals(Arrays.asList("a0", "b0"), started);
+    assertEquals(1, scheduler.getRunningScanCount("ts1"));
+  }
+
+  @Test
+  public void closeDropsPendingAndReleasesRunning() {
+    final ScanScheduler scheduler = new ScanScheduler(1, 100);
+    final List<String> started = new ArrayList<>();
+    final ScanScheduler.Query query = scheduler.newQuery(new KuduScanStats(), false);
+    submit(query, started, "a", "ts1", "ts1", "ts1");
+    assertEquals(2, scheduler.getQueuedScanCount());
+
+    query.close();
+    assertEquals(Arrays.asList("a0"), started);
+    assertEquals(0, scheduler.getQueuedScanCount());
+    assertEquals(0, scheduler.getRunningScanCount());
+    assertEquals(0, scheduler.getRunningScanCount("ts1"));
+
+    // Scans submitted after the query closed are ignored
+    submit(query, started, "late", "ts1");
+    assertEquals(Arrays.asList("a0"), started);
+  }
+}
@@ -0,0 +1,150 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
+import org.junit.Test;
+
+public final class SortedGroupEnumeratorTest {
+
+  /**
+   * Counts the rows read from it and whether it was closed.
+   */
+  private static final class CountingEnumerator implements Enumerator<Object> {
+    private final Enumerator<Object> rows;
+    int rowsRead = 0;
+    boolean closed = false;
+
+    CountingEnumerator(final Integer... keys) {
+      this.rows = Linq4j.enumerator(new ArrayList<Object>(Arrays.asList(keys)));
+    }
+
+    @Override
+    public Object current() {
+      return rows.current();
+    }
+
+    @Override
+    public boolean moveNext() {
+      assertFalse("Rows shouldn't be read once the source is closed", closed);
+      final boolean moved = rows.moveNext();
+      if (moved) {
+        rowsRead++;
+      }
+      return moved;
+    }
+
+    @Override
+    public void reset() {
+      rows.reset();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  // each group is its key and the number of rows in it
+  private static SortedGroupEnumerator<Integer, int[], String> groups(final Enumerator<Object> source,
+      final long offset, final long groupFetchLimit) {
+    return new SortedGroupEnumerator<>(source, row -> (Integer) row, () -> new int[1], (count, row) -> {
+      count[0]++;
+      return count;
+    }, (key, count) -> key + "x" + count[0], offset, groupFetchLimit);
+  }
+
+  private static List<String> drain(final Enumerator<String> groups) {
+    final List<String> results = new ArrayList<>();
+    while (groups.moveNext()) {
+      results.add(groups.current());
+    }
+    return results;
+  }
+
+  @Test
+  public void groupsAreReturnedOnceTheKeyChanges() {
+    final CountingEnumerator source = new CountingEnumerator(1, 1, 1, 2, 3, 3);
+    final SortedGroupEnumerator<Integer, int[], String> groups = groups(source, -1, Long.MAX_VALUE);
+    assertTrue(groups.moveNext());
+    assertEquals("1x3", groups.current());
+    assertEquals("Only the first row of the next group should have been read", 4, source.rowsRead);
+    assertTrue(groups.moveNext());
+    assertEquals("2x1", groups.current());
+    assertEquals(5, source.rowsRead);
+    assertTrue(groups.moveNext());
+    assertEquals("3x2", groups.current());
+    assertTrue("Source should be closed once it runs out of rows", source.closed);
+    assertFalse(groups.moveNext());
+    assertFalse(groups.moveNext());
+  }
+
+  @Test
+  public void offsetAndLimitCountGroups() {
+    final CountingEnumerator source = new CountingEnumerator(1, 1, 2, 3, 3, 3, 4, 5, 5);
+    // offset 1 limit 2
+    final SortedGroupEnumerator<Integer, int[], String> groups = groups(source, 1, 3);
+    assertTrue(groups.moveNext());
+    assertEquals("2x1", groups.current());
+    assertFalse(source.closed);
+    assertTrue(groups.moveNext());
+    assertEquals("3x3", groups.current());
+    assertTrue("Source should be closed as soon as a group past the limit is read", source.closed);
+    assertEquals(7, source.rowsRead);
+    assertFalse(groups.moveNext());
+  }
+
+  @Test
+  public void limitOnly() {
+    final CountingEnumerator source = new CountingEnumerator(7, 8, 8, 9);
+    assertEquals(Arrays.asList("7x1", "8x2"), drain(groups(source, -1, 2)));
+    assertEquals(4, source.rowsRead);
+    assertTrue(source.closed);
+  }
+
+  @Test
+  public void limitCoversEveryGroup() {
+    final CountingEnumerator source = new CountingEnumerator(7, 8, 8);
+    assertEquals(Arrays.asList("7x1", "8x2"), drain(groups(source, -1, 2)));
+    assertTrue(source.closed);
+  }
+
+  @Test
+  public void emptySource() {
+    final CountingEnumerator source = new CountingEnumerator();
+    assertEquals(Collections.emptyList(), drain(groups(source, 2, 5)));
+    assertTrue(source.closed);
+  }
+
+  @Test
+  public void closeClosesTheSource() {
+    final CountingEnumerator source = new CountingEnumerator(1, 2);
+    final SortedGroupEnumerator<Integer, int[], String> groups = groups(source, -1, Long.MAX_VALUE);
+    assertTrue(groups.moveNext());
+    groups.close();
+    assertTrue(source.closed);
+    assertFalse(groups.moveNext());
+  }
+}
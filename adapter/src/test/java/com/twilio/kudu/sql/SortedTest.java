@@ -14,12 +14,18 @@
  */
 package com.twilio.kudu.sql;
 
+import org.apache.calcite.linq4j.Enumerator;
+import org.apache.calcite.linq4j.Linq4j;
 import org.apache.kudu.ColumnSchema;
 import org.apache.kudu.Schema;
 import org.apache.kudu.Type;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
 
@@ -45,4 +51,53 @@ public final class SortedTest {
     assertEquals("Expected to find dateColumn from projection", Arrays.asList(1), CalciteKuduTable
         .getPrimaryKeyColumnsInProjection(tableSchema, new Schema(Arrays.asList(foreignKey, dateColumn))));
   }
+
+  private static final Schema ROW_SCHEMA = new Schema(
+      Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("account_id", Type.INT64).key(true).build(),
+          new ColumnSchema.ColumnSchemaBuilder("reverse_date", Type.INT64).key(true).build()));
+
+  private static Enumerator<CalciteRow> partition(final List<Integer> descendingIndices, final long[]... rows) {
+    final List<CalciteRow> calciteRows = new ArrayList<>();
+    for (long[] row : rows) {
+      calciteRows
+          .add(new CalciteRow(ROW_SCHEMA, new Object[] { row[0], row[1] }, Arrays.asList(0, 1), descendingIndices));
+    }
+    return Linq4j.enumerator(calciteRows);
+  }
+
+  private static List<Enumerator<CalciteRow>> partitions(final List<Integer> descendingIndices) {
+    return Arrays.asList(partition(descendingIndices, new long[] { 1L, 9L }, new long[] { 3L, 9L }),
+        partition(descendingIndices, new long[] { 1L, 8L }, new long[] { 2L, 9L }),
+        partition(descendingIndices, new long[] { 1L, 7L }, new long[] { 3L, 1L }));
+  }
+
+  private static List<Object> drain(final long limit, final long offset, final List<Integer> descendingIndices) {
+    final KuduEnumerable kuduEnumerable = new KuduEnumerable(Collections.emptyList(), Collections.emptyList(),
+        Collections.emptyList(), null, null, limit, offset, true, false, new KuduScanStats(), new AtomicBoolean(false),
+        null, null, false, null, null, null);
+    final Enumerator<Object> sorted = kuduEnumerable.sortedEnumerator(Collections.emptyList(),
+        partitions(descendingIndices), new CalciteRowComparator(ROW_SCHEMA, Arrays.asList(0, 1), descendingIndices),
+        ScanScheduler.getInstance().newQuery(new KuduScanStats(), true), row -> null);
+    final List<Object> results = new ArrayList<>();
+    while (sorted.moveNext()) {
+      results.add(((Object[]) sorted.current())[1]);
+    }
+    return results;
+  }
+
+  @Test
+  public void mergeHonorsDescendingColumns() {
+    assertEquals("reverse_date is descending within each account_id", Arrays.asList(9L, 8L, 7L, 9L, 9L, 1L),
+        drain(-1, -1, Arrays.asList(1)));
+    assertEquals("Every column ascending", Arrays.asList(7L, 8L, 9L, 9L, 1L, 9L),
+        drain(-1, -1, Collections.emptyList()));
+  }
+
+  @Test
+  public void mergeHonorsOffsetAndLimit() {
+    assertEquals("Offset skips the first rows of the merge", Arrays.asList(9L, 9L, 1L), drain(-1, 3, Arrays.asList(1)));
+    assertEquals("Limit and offset", Arrays.asList(8L, 7L), drain(2, 1, Arrays.asList(1)));
+    assertEquals("Limit", Arrays.asList(9L), drain(1, -1, Arrays.asList(1)));
+    assertEquals("Offset past the end", Collections.emptyList(), drain(-1, 10, Arrays.asList(1)));
+  }
 }
@@ -0,0 +1,187 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.benchmark;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.KuduPhysType;
+
+import org.apache.calcite.linq4j.function.Function0;
+import org.apache.calcite.linq4j.function.Function1;
+import org.apache.calcite.linq4j.tree.Expression;
+import org.apache.calcite.linq4j.tree.Expressions;
+import org.apache.calcite.linq4j.tree.ParameterExpression;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.client.SyntheticRowResults;
+import org.codehaus.janino.ClassBodyEvaluator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures projecting {@link RowResult}s into {@code Object[]}s with the field
+ * accessors {@link KuduPhysType#fieldReference(Expression, int)} generates,
+ * compiled the same way Calcite compiles a query, against a hand written copy
+ * of the code it used to generate: a lambda per nullable field and timestamps
+ * converted through {@code Timestamp} and {@code Instant}. Both copy binary
+ * values with {@link RowResult#getBinaryCopy(int)}, the old
+ * {@code getBinary(int).array()} returned the whole buffer of the batch instead
+ * of the value, so only the accessors that were rewritten are compared.
+ *
+ * The rows are read from a single shared {@link RowResult}, like a
+ * {@link org.apache.kudu.client.RowResultIterator} that reuses it. The GC
+ * profiler reports {@code gc.alloc.rate.norm}, the bytes allocated per row.
+ * Both include the {@code Object[]} of the row, boxing its values and the
+ * {@code BitSet} Kudu allocates for the null columns of each row. The JIT can
+ * scalar replace the lambdas and timestamps of this small projection, add
+ * {@code -jvmArgsAppend -XX:-DoEscapeAnalysis} to the JMH arguments to see the
+ * allocations of a projection that is too large to be inlined.
+ *
+ * Run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.twilio.kudu.sql.benchmark.FieldAccessorBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldAccessorBenchmark {
+  private static final int ROWS = 1024;
+
+  private SyntheticRowResults rows;
+  private Function1<Object, Object> generatedProjection;
+  private Function1<Object, Object> legacyProjection;
+
+  @Setup
+  public void setup() throws Exception {
+    final Schema schema = new Schema(
+        Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("reverse_date", Type.UNIXTIME_MICROS).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("amount", Type.INT64).nullable(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("status", Type.INT32).nullable(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("payload", Type.BINARY).nullable(true).build()));
+    final Random random = new Random(0);
+    final List<Object[]> values = new ArrayList<>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      final byte[] payload = new byte[16];
+      random.nextBytes(payload);
+      values.add(new Object[] { "AC" + random.nextInt(4), random.nextLong() >>> 12, random.nextLong(),
+          i % 5 == 0 ? null : random.nextLong(), i % 3 == 0 ? null : random.nextInt(8), i % 7 == 0 ? null : payload });
+    }
+    rows = SyntheticRowResults.encode(schema, values);
+
+    final KuduPhysType physType = new KuduPhysType(schema, null, Collections.singletonList(1),
+        Arrays.asList(0, 1, 2, 3, 4, 5));
+    final ParameterExpression row = Expressions.parameter(Modifier.FINAL, Object.class, "abstractRow");
+    final Expression rowResult = Expressions.convert_(row, RowResult.class);
+    final List<Expression> fields = new ArrayList<>();
+    for (int field = 0; field < schema.getColumnCount(); field++) {
+      fields.add(physType.fieldReference(rowResult, field));
+    }
+    final String applyMethod = Expressions
+        .toString(Expressions.methodDecl(Modifier.PUBLIC, Object.class, "apply", Collections.singletonList(row),
+            Expressions.block(Expressions.return_(null, Expressions.newArrayInit(Object.class, fields)))));
+    final ClassBodyEvaluator evaluator = new ClassBodyEvaluator();
+    evaluator.setImplementedInterfaces(new Class[] { Function1.class });
+    evaluator.cook(applyMethod);
+    generatedProjection = (Function1<Object, Object>) evaluator.getClazz().getDeclaredConstructor().newInstance();
+    legacyProjection = new LegacyProjection();
+  }
+
+  /**
+   * What {@link KuduPhysType} generated for the schema before its accessors were
+   * rewritten, with the binary value copied like the generated accessor does.
+   */
+  private static final class LegacyProjection implements Function1<Object, Object> {
+    @Override
+    public Object apply(final Object abstractRow) {
+      final RowResult row = (RowResult) abstractRow;
+      return new Object[] { row.getString(0), Long.valueOf(CalciteKuduTable.EPOCH_FOR_REVERSE_SORT_IN_MILLISECONDS)
+          - row.getTimestamp(1).toInstant().toEpochMilli(), row.getLong(2), new Function0<Object>() {
+            @Override
+            public Object apply() {
+              if (row.isNull(3)) {
+                return null;
+              }
+              return row.getLong(3);
+            }
+          }.apply(), new Function0<Object>() {
+            @Override
+            public Object apply() {
+              if (row.isNull(4)) {
+                return null;
+              }
+              return row.getInt(4);
+            }
+          }.apply(), new Function0<Object>() {
+            @Override
+            public Object apply() {
+              if (row.isNull(5)) {
+                return null;
+              }
+              return row.getBinaryCopy(5);
+            }
+          }.apply() };
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void generatedAccessors(final Blackhole blackhole) {
+    for (int i = 0; i < ROWS; i++) {
+      blackhole.consume(generatedProjection.apply(rows.get(i)));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS)
+  public void legacyAccessors(final Blackhole blackhole) {
+    for (int i = 0; i < ROWS; i++) {
+      blackhole.consume(legacyProjection.apply(rows.get(i)));
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    final Options options = new OptionsBuilder().include(FieldAccessorBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class).build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,108 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.twilio.kudu.sql.CalciteRow;
+import com.twilio.kudu.sql.CalciteRowComparator;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares ordering rows on a three column primary key, with a descending
+ * timestamp, using {@link CalciteRow#compareTo(CalciteRow)} against a
+ * {@link CalciteRowComparator} built once for the projection.
+ *
+ * Run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.twilio.kudu.sql.benchmark.RowComparatorBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowComparatorBenchmark {
+  private static final int ROWS = 1024;
+
+  private CalciteRow[] rows;
+  private CalciteRowComparator comparator;
+
+  @Setup
+  public void setup() {
+    final Schema schema = new Schema(
+        Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("reverse_date", Type.UNIXTIME_MICROS).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("value", Type.DOUBLE).build()));
+    final List<Integer> primaryKey = Arrays.asList(0, 1, 2);
+    final List<Integer> descending = Arrays.asList(1);
+    final Random random = new Random(0);
+    rows = new CalciteRow[ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      // Most comparisons fall through the first column, like rows of one account
+      final Object[] rowData = { "AC" + random.nextInt(2), (long) random.nextInt(4), random.nextLong(),
+          random.nextDouble() };
+      rows[i] = new CalciteRow(schema, rowData, primaryKey, descending);
+    }
+    comparator = new CalciteRowComparator(schema, primaryKey, descending);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS - 1)
+  public int compareTo() {
+    int sum = 0;
+    for (int i = 1; i < ROWS; i++) {
+      sum += rows[i - 1].compareTo(rows[i]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(ROWS - 1)
+  public int compiledComparator() {
+    int sum = 0;
+    for (int i = 1; i < ROWS; i++) {
+      sum += comparator.compare(rows[i - 1], rows[i]);
+    }
+    return sum;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    final Options options = new OptionsBuilder().include(RowComparatorBenchmark.class.getSimpleName()).build();
+    new Runner(options).run();
+  }
+}
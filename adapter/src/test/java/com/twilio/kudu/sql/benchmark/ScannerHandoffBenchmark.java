@@ -0,0 +1,137 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.twilio.kudu.sql.MpscRingBuffer;
+import com.twilio.kudu.sql.ScannerCallback;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures handing messages from many {@link ScannerCallback}s to the single
+ * enumerating thread. Compares the {@link MpscRingBuffer} against the
+ * {@link LinkedBlockingQueue} with a 350 ms poll that it replaced, for a single
+ * tablet, a typical table and a large fan out of scanners.
+ *
+ * Like a {@link ScannerCallback}, each producer only has one message
+ * outstanding and waits for the consumer to hand it back before producing the
+ * next one.
+ *
+ * Run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.twilio.kudu.sql.benchmark.ScannerHandoffBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScannerHandoffBenchmark {
+  private static final int MESSAGES = 100_000;
+
+  @Param({ "1", "17", "200" })
+  public int scanners;
+
+  private ExecutorService producers;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    producers = Executors.newFixedThreadPool(scanners);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    producers.shutdownNow();
+  }
+
+  private int messagesForScanner(final int scanner) {
+    return MESSAGES / scanners + (scanner < MESSAGES % scanners ? 1 : 0);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MESSAGES)
+  public int ringBuffer() throws InterruptedException {
+    final MpscRingBuffer<Semaphore> ring = new MpscRingBuffer<>(scanners * ScannerCallback.maxOutstandingMessages(1));
+    for (int s = 0; s < scanners; s++) {
+      final int count = messagesForScanner(s);
+      producers.execute(() -> {
+        final Semaphore consumed = new Semaphore(1);
+        for (int i = 0; i < count; i++) {
+          consumed.acquireUninterruptibly();
+          ring.put(consumed);
+        }
+      });
+    }
+    int consumed = 0;
+    while (consumed < MESSAGES) {
+      ring.take().release();
+      consumed++;
+    }
+    return consumed;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MESSAGES)
+  public int linkedBlockingQueue() throws InterruptedException {
+    final LinkedBlockingQueue<Semaphore> queue = new LinkedBlockingQueue<>();
+    for (int s = 0; s < scanners; s++) {
+      final int count = messagesForScanner(s);
+      producers.execute(() -> {
+        final Semaphore consumed = new Semaphore(1);
+        for (int i = 0; i < count; i++) {
+          consumed.acquireUninterruptibly();
+          queue.add(consumed);
+        }
+      });
+    }
+    int consumed = 0;
+    while (consumed < MESSAGES) {
+      final Semaphore message = queue.poll(350, TimeUnit.MILLISECONDS);
+      if (message != null) {
+        message.release();
+        consumed++;
+      }
+    }
+    return consumed;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    final Options options = new OptionsBuilder().include(ScannerHandoffBenchmark.class.getSimpleName()).build();
+    new Runner(options).run();
+  }
+}
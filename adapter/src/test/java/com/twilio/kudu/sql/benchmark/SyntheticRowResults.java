@@ -0,0 +1,128 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kudu.client;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.util.Slice;
+
+/**
+ * Encodes rows in the row-wise format of a scanner's {@code nextRows()}
+ * response, so benchmarks can read real {@link RowResult}s without a cluster.
+ * Like a {@link RowResultIterator} that reuses its row result, a single
+ * {@link RowResult} is moved from row to row.
+ *
+ * This class resides in this project under the org.apache namespace to reach
+ * the package private {@link RowResult} constructor.
+ */
+public final class SyntheticRowResults {
+  private final RowResult rowResult;
+  private final int rowCount;
+
+  private SyntheticRowResults(final RowResult rowResult, final int rowCount) {
+    this.rowResult = rowResult;
+    this.rowCount = rowCount;
+  }
+
+  /**
+   * @param schema projected schema of the rows, DECIMAL columns are not supported
+   * @param rows   value of each column of each row, null for a null value.
+   *               UNIXTIME_MICROS values are microseconds
+   *
+   * @return the encoded rows
+   */
+  public static SyntheticRowResults encode(final Schema schema, final List<Object[]> rows) {
+    final int rowSize = schema.getRowSize();
+    final ByteBuffer rowData = ByteBuffer.allocate(rowSize * rows.size()).order(ByteOrder.LITTLE_ENDIAN);
+    final ByteArrayOutputStream indirectData = new ByteArrayOutputStream();
+    // the null bitmap follows the column values of each row
+    final int nullBitmapOffset = schema.getColumnOffset(schema.getColumnCount() - 1)
+        + schema.getColumnByIndex(schema.getColumnCount() - 1).getTypeSize();
+    for (int row = 0; row < rows.size(); row++) {
+      final Object[] values = rows.get(row);
+      final int rowOffset = row * rowSize;
+      for (int column = 0; column < schema.getColumnCount(); column++) {
+        final ColumnSchema columnSchema = schema.getColumnByIndex(column);
+        final int offset = rowOffset + schema.getColumnOffset(column);
+        if (values[column] == null) {
+          final int nullByte = rowOffset + nullBitmapOffset + column / 8;
+          rowData.put(nullByte, (byte) (rowData.get(nullByte) | (1 << (column % 8))));
+          continue;
+        }
+        switch (columnSchema.getType()) {
+        case INT8:
+          rowData.put(offset, ((Number) values[column]).byteValue());
+          break;
+        case INT16:
+          rowData.putShort(offset, ((Number) values[column]).shortValue());
+          break;
+        case INT32:
+          rowData.putInt(offset, ((Number) values[column]).intValue());
+          break;
+        case INT64:
+        case UNIXTIME_MICROS:
+          rowData.putLong(offset, ((Number) values[column]).longValue());
+          break;
+        case FLOAT:
+          rowData.putFloat(offset, ((Number) values[column]).floatValue());
+          break;
+        case DOUBLE:
+          rowData.putDouble(offset, ((Number) values[column]).doubleValue());
+          break;
+        case BOOL:
+          rowData.put(offset, (byte) ((Boolean) values[column] ? 1 : 0));
+          break;
+        case STRING:
+        case BINARY:
+          final byte[] bytes = values[column] instanceof String
+              ? ((String) values[column]).getBytes(StandardCharsets.UTF_8)
+              : (byte[]) values[column];
+          rowData.putLong(offset, indirectData.size());
+          rowData.putLong(offset + 8, bytes.length);
+          indirectData.write(bytes, 0, bytes.length);
+          break;
+        default:
+          throw new IllegalArgumentException("Unable to encode column of type " + columnSchema.getType());
+        }
+      }
+    }
+    final RowResult rowResult = new RowResult(schema, new Slice(rowData.array()), new Slice(indirectData.toByteArray()),
+        -1);
+    return new SyntheticRowResults(rowResult, rows.size());
+  }
+
+  /**
+   * @return number of encoded rows
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @param row index of the row
+   *
+   * @return the shared {@link RowResult} positioned on the row
+   */
+  public RowResult get(final int row) {
+    rowResult.advancePointerTo(row);
+    return rowResult;
+  }
+}
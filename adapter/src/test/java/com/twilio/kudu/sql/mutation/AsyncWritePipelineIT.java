@@ -0,0 +1,98 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.mutation;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.Insert;
+import org.apache.kudu.client.KuduScanner;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.RowError;
+import org.apache.kudu.test.KuduTestHarness;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes rows through an {@link AsyncWritePipeline} whose window is smaller
+ * than the rows written.
+ */
+@RunWith(JUnit4.class)
+public final class AsyncWritePipelineIT {
+  private static final String TABLE = "AsyncWritePipelineTable";
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+
+  private static KuduTable table;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final List<ColumnSchema> columns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("name", Type.STRING).build());
+    table = testHarness.getClient().createTable(TABLE, new Schema(columns),
+        new CreateTableOptions().addHashPartitions(Arrays.asList("id"), 3).setNumReplicas(1));
+  }
+
+  private static Insert newInsert(final long id) {
+    final Insert insert = table.newInsert();
+    insert.getRow().addLong("id", id);
+    insert.getRow().addString("name", "name-" + id);
+    return insert;
+  }
+
+  private static int countRows() throws Exception {
+    final KuduScanner scanner = testHarness.getClient().newScannerBuilder(table).build();
+    int count = 0;
+    while (scanner.hasMoreRows()) {
+      count += scanner.nextRows().getNumRows();
+    }
+    return count;
+  }
+
+  @Test
+  public void testRowsAndRowErrorsOfEveryBufferAreReturned() throws Exception {
+    // a few rows fit in each buffer
+    final AsyncWritePipeline writePipeline = new AsyncWritePipeline(testHarness.getAsyncClient(), 1024);
+    for (long id = 0; id < 5000; id++) {
+      writePipeline.apply(newInsert(id));
+    }
+    assertTrue(AsyncWritePipeline.join(writePipeline.flush()).isEmpty());
+    assertEquals(5000, countRows());
+
+    // rows that already exist fail
+    for (long id = 4990; id < 5010; id++) {
+      writePipeline.apply(newInsert(id));
+    }
+    final List<RowError> rowErrors = AsyncWritePipeline.join(writePipeline.flush());
+    assertEquals(10, rowErrors.size());
+    for (RowError rowError : rowErrors) {
+      assertTrue(rowError.getErrorStatus().isAlreadyPresent());
+    }
+    assertEquals(5010, countRows());
+    assertTrue(AsyncWritePipeline.join(writePipeline.flush()).isEmpty());
+  }
+}
@@ -0,0 +1,291 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.mutation;
+
+import com.twilio.kudu.sql.CalciteModifiableKuduTable;
+import com.twilio.kudu.sql.JDBCUtil;
+import com.twilio.kudu.sql.schema.BaseKuduSchemaFactory;
+import org.apache.calcite.avatica.util.DateTimeUtils;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.ColumnTypeAttributes;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.Insert;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduScanner;
+import org.apache.kudu.client.KuduSession;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.test.KuduTestHarness;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes the rows of a cube from several {@link CubeMutationState}s as deltas
+ * and folds them into the cube table with a {@link CubeCompactor}.
+ */
+@RunWith(JUnit4.class)
+public final class CubeCompactorIT {
+  private static final String FACT_TABLE = "CubeDeltaFact";
+  private static final String CUBE_TABLE = "CubeDeltaFact-Accounts-Day-Aggregation";
+  // 2020-01-01 00:00:00 UTC
+  private static final long START_TIME = 1577836800000L;
+  private static final int ACCOUNT_COUNT = 5;
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+
+  private static CalciteModifiableKuduTable cubeTable;
+
+  public static class CubeDeltaSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final CubeDeltaSchemaFactory INSTANCE = new CubeDeltaSchemaFactory();
+
+    public CubeDeltaSchemaFactory() {
+      // the metadata of the fact table is read from its column comments
+      super(new HashMap<>());
+    }
+  }
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final ColumnTypeAttributes decimalTypeAttribute = new ColumnTypeAttributes.ColumnTypeAttributesBuilder().scale(6)
+        .precision(22).build();
+    final List<ColumnSchema> factColumns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("event_time", Type.UNIXTIME_MICROS).key(true)
+            .comment("{\"isTimeStampColumn\":true}").build(),
+        new ColumnSchema.ColumnSchemaBuilder("amount", Type.INT64).build(),
+        new ColumnSchema.ColumnSchemaBuilder("price", Type.DECIMAL).nullable(true).typeAttributes(decimalTypeAttribute)
+            .build());
+    testHarness.getClient().createTable(FACT_TABLE, new Schema(factColumns),
+        new CreateTableOptions().addHashPartitions(Arrays.asList("account_sid"), 2).setNumReplicas(1));
+
+    final List<ColumnSchema> cubeColumns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("event_time", Type.UNIXTIME_MICROS).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("count_records", Type.INT64).build(),
+        new ColumnSchema.ColumnSchemaBuilder("sum_amount", Type.INT64).build(),
+        new ColumnSchema.ColumnSchemaBuilder("sum_price", Type.DECIMAL).nullable(true)
+            .typeAttributes(decimalTypeAttribute).build());
+    testHarness.getClient().createTable(CUBE_TABLE, new Schema(cubeColumns),
+        new CreateTableOptions().addHashPartitions(Arrays.asList("account_sid"), 2).setNumReplicas(1));
+
+    final String url = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE_DML_DDL_ENABLED,
+        CubeDeltaSchemaFactory.class.getName(), testHarness.getMasterAddressesAsString())
+        + ";schema.cubeDeltaWrites=true";
+    // the schema is created when the first connection is opened
+    try (Connection conn = DriverManager.getConnection(url)) {
+      conn.createStatement().executeQuery("SELECT COUNT(*) FROM \"" + FACT_TABLE + "\"").close();
+    }
+    cubeTable = (CalciteModifiableKuduTable) CubeDeltaSchemaFactory.INSTANCE.getTable(CUBE_TABLE).get();
+  }
+
+  /**
+   * @return a fact row as stored in kudu, the rows of an account are aggregated
+   *         into the same cube row
+   */
+  private static Object[] factRow(final String account, final int i, final BigDecimal price) {
+    return new Object[] { account, (START_TIME + i * DateTimeUtils.MILLIS_PER_MINUTE) * 1000, (long) i, price };
+  }
+
+  // account to count|sum_amount|sum_price|
+  private static Map<String, String> readTable(final String tableName) throws Exception {
+    final KuduTable table = testHarness.getClient().openTable(tableName);
+    final KuduScanner scanner = testHarness.getClient().newScannerBuilder(table).build();
+    final Map<String, String> rows = new TreeMap<>();
+    while (scanner.hasMoreRows()) {
+      for (RowResult row : scanner.nextRows()) {
+        assertEquals(START_TIME * 1000, row.getLong("event_time"));
+        rows.put(row.getString("account_sid"),
+            row.getLong("count_records") + "|" + row.getLong("sum_amount") + "|"
+                + (row.isNull("sum_price") ? null : row.getDecimal("sum_price").stripTrailingZeros().toPlainString())
+                + "|");
+      }
+    }
+    return rows;
+  }
+
+  private static int countRows(final String tableName) throws Exception {
+    final KuduScanner scanner = testHarness.getClient().newScannerBuilder(testHarness.getClient().openTable(tableName))
+        .build();
+    int count = 0;
+    while (scanner.hasMoreRows()) {
+      count += scanner.nextRows().getNumRows();
+    }
+    return count;
+  }
+
+  private static int countUnconsumedDeltas() throws Exception {
+    final KuduTable deltaTable = testHarness.getClient().openTable(CUBE_TABLE + CubeDeltaTables.DELTA_TABLE_SUFFIX);
+    final KuduScanner scanner = testHarness.getClient().newScannerBuilder(deltaTable)
+        .addPredicate(KuduPredicate.newIsNullPredicate(deltaTable.getSchema().getColumn("consumed_by"))).build();
+    int count = 0;
+    while (scanner.hasMoreRows()) {
+      count += scanner.nextRows().getNumRows();
+    }
+    return count;
+  }
+
+  @Test
+  public void testDeltasOfEveryWriterAreFolded() throws Exception {
+    final long[] counts = new long[ACCOUNT_COUNT];
+    final long[] amounts = new long[ACCOUNT_COUNT];
+    final BigDecimal[] prices = new BigDecimal[ACCOUNT_COUNT];
+
+    // two writers that would overwrite each other's totals
+    final CubeMutationState[] writers = new CubeMutationState[] { new CubeMutationState(cubeTable),
+        new CubeMutationState(cubeTable) };
+    // fold a few deltas at a time so that each tablet is compacted in several
+    // passes
+    final CubeCompactor compactor = new CubeCompactor(cubeTable, 3);
+    for (int i = 0; i < 100; i++) {
+      final int account = (i * 7) % ACCOUNT_COUNT;
+      // the last account never has a price
+      final BigDecimal price = account == ACCOUNT_COUNT - 1 ? null : new BigDecimal("1.25").multiply(new BigDecimal(i));
+      writers[i % 2].updateMutationState(factRow("AC" + account, i, price));
+      counts[account]++;
+      amounts[account] += i;
+      if (price != null) {
+        prices[account] = prices[account] == null ? price : prices[account].add(price);
+      }
+      if (i % 10 == 9) {
+        writers[0].flush();
+        writers[1].flush();
+      }
+      if (i % 40 == 39) {
+        assertTrue(compactor.compact() > 0);
+      }
+    }
+    writers[0].flush();
+    writers[1].flush();
+    assertTrue(countUnconsumedDeltas() > 0);
+    compactor.compact();
+
+    final Map<String, String> expected = new TreeMap<>();
+    for (int account = 0; account < ACCOUNT_COUNT; account++) {
+      expected.put("AC" + account, counts[account] + "|" + amounts[account] + "|"
+          + (prices[account] == null ? null : prices[account].stripTrailingZeros().toPlainString()) + "|");
+    }
+    final Map<String, String> cubeRows = readTable(CUBE_TABLE);
+    cubeRows.keySet().retainAll(expected.keySet());
+    assertEquals(expected, cubeRows);
+    assertEquals(0, countUnconsumedDeltas());
+    assertEquals(0, countRows(CUBE_TABLE + CubeDeltaTables.LOG_TABLE_SUFFIX));
+    assertEquals(0, compactor.compact());
+    assertFalse("Delta tables should not be part of the schema",
+        CubeDeltaSchemaFactory.INSTANCE.getTable(CUBE_TABLE + CubeDeltaTables.DELTA_TABLE_SUFFIX).isPresent());
+  }
+
+  @Test
+  public void testRetriedBatchIsNotFoldedTwice() throws Exception {
+    final CubeMutationState writer = new CubeMutationState(cubeTable);
+    final CubeCompactor compactor = new CubeCompactor(cubeTable);
+    for (int i = 0; i < 3; i++) {
+      writer.updateMutationState(factRow("ACRetry", i, null));
+    }
+    // the batch is applied but the writer never learns it was, so it sends the
+    // batch again after it was folded into the cube
+    AsyncWritePipeline.join(writer.startFlush());
+    assertTrue(compactor.compact() > 0);
+    writer.updateMutationState(factRow("ACRetry", 3, null));
+    writer.flush();
+    compactor.compact();
+    assertEquals("4|6|null|", readTable(CUBE_TABLE).get("ACRetry"));
+    assertEquals(0, countUnconsumedDeltas());
+
+    // tombstones are deleted once they are older than the retention
+    Thread.sleep(100);
+    assertTrue(countRows(CUBE_TABLE + CubeDeltaTables.DELTA_TABLE_SUFFIX) > 0);
+    assertEquals(0, new CubeCompactor(cubeTable, CubeCompactor.DEFAULT_MAX_DELTAS_PER_PASS, 0).compact());
+    assertEquals(0, countRows(CUBE_TABLE + CubeDeltaTables.DELTA_TABLE_SUFFIX));
+    assertEquals("4|6|null|", readTable(CUBE_TABLE).get("ACRetry"));
+  }
+
+  @Test
+  public void testCommittedCompactionIsRedone() throws Exception {
+    final KuduTable deltaTable = CubeDeltaTables.openDeltaTable(testHarness.getClient(), cubeTable.getKuduTable());
+    final KuduTable logTable = CubeDeltaTables.openLogTable(testHarness.getClient(), cubeTable.getKuduTable());
+    final KuduSession session = testHarness.getClient().newSession();
+
+    // a delta that was folded before the compactor stopped
+    final Insert delta = deltaTable.newInsert();
+    delta.getRow().addString("account_sid", "ACRedo");
+    delta.getRow().addLong("event_time", START_TIME * 1000);
+    delta.getRow().addString("writer_id", "writer");
+    delta.getRow().addLong("batch_id", 0);
+    delta.getRow().addLong("count_records", 2);
+    delta.getRow().addLong("sum_amount", 5);
+    session.apply(delta);
+
+    // the log of the compaction that folded it, with a total that includes rows
+    // that were already stored in the cube
+    final Insert total = newLogRow(logTable, 0, 0);
+    total.getRow().addLong("count_records", 7);
+    total.getRow().addLong("sum_amount", 30);
+    session.apply(total);
+    final Insert consumed = newLogRow(logTable, 1, 1);
+    consumed.getRow().addString("writer_id", "writer");
+    consumed.getRow().addLong("batch_id", 0);
+    session.apply(consumed);
+    session.apply(newLogRow(logTable, 2, 2));
+    // a compaction that wasn't committed is discarded
+    final Insert uncommitted = logTable.newInsert();
+    uncommitted.getRow().addLong("compaction_id", 2);
+    uncommitted.getRow().addInt("seq", 0);
+    uncommitted.getRow().addByte("kind", (byte) 0);
+    uncommitted.getRow().addString("account_sid", "ACUncommitted");
+    uncommitted.getRow().addLong("event_time", START_TIME * 1000);
+    uncommitted.getRow().addLong("count_records", 1);
+    uncommitted.getRow().addLong("sum_amount", 1);
+    session.apply(uncommitted);
+    session.close();
+
+    new CubeCompactor(cubeTable).compact();
+    final Map<String, String> cubeRows = readTable(CUBE_TABLE);
+    assertEquals("7|30|null|", cubeRows.get("ACRedo"));
+    assertFalse(cubeRows.containsKey("ACUncommitted"));
+    assertEquals(0, countRows(CUBE_TABLE + CubeDeltaTables.LOG_TABLE_SUFFIX));
+  }
+
+  private static Insert newLogRow(final KuduTable logTable, final int seq, final int kind) {
+    final Insert insert = logTable.newInsert();
+    final PartialRow row = insert.getRow();
+    row.addLong("compaction_id", 1);
+    row.addInt("seq", seq);
+    row.addByte("kind", (byte) kind);
+    row.addString("account_sid", "ACRedo");
+    row.addLong("event_time", START_TIME * 1000);
+    return insert;
+  }
+}
@@ -0,0 +1,173 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.mutation;
+
+import com.twilio.kudu.sql.CalciteModifiableKuduTable;
+import com.twilio.kudu.sql.JDBCUtil;
+import com.twilio.kudu.sql.schema.BaseKuduSchemaFactory;
+import org.apache.calcite.avatica.util.DateTimeUtils;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.ColumnTypeAttributes;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.KuduScanner;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.RowResult;
+import org.apache.kudu.test.KuduTestHarness;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes fact rows to a {@link CubeMutationState} that caches fewer cube rows
+ * than it aggregates and checks the rows stored in the cube table.
+ */
+@RunWith(JUnit4.class)
+public final class CubeMutationStateIT {
+  private static final String FACT_TABLE = "CubeStateFact";
+  private static final String CUBE_TABLE = "CubeStateFact-Accounts-Day-Aggregation";
+  // 2020-01-01 00:00:00 UTC
+  private static final long START_TIME = 1577836800000L;
+  private static final int ACCOUNT_COUNT = 5;
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+
+  private static CalciteModifiableKuduTable cubeTable;
+
+  public static class CubeStateSchemaFactory extends BaseKuduSchemaFactory {
+    // Public singleton, per factory contract.
+    public static final CubeStateSchemaFactory INSTANCE = new CubeStateSchemaFactory();
+
+    public CubeStateSchemaFactory() {
+      // the metadata of the fact table is read from its column comments
+      super(new HashMap<>());
+    }
+  }
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final ColumnTypeAttributes decimalTypeAttribute = new ColumnTypeAttributes.ColumnTypeAttributesBuilder().scale(6)
+        .precision(22).build();
+    final List<ColumnSchema> factColumns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("event_time", Type.UNIXTIME_MICROS).key(true)
+            .comment("{\"isTimeStampColumn\":true}").build(),
+        new ColumnSchema.ColumnSchemaBuilder("amount", Type.INT64).build(),
+        new ColumnSchema.ColumnSchemaBuilder("price", Type.DECIMAL).nullable(true).typeAttributes(decimalTypeAttribute)
+            .build());
+    testHarness.getClient().createTable(FACT_TABLE, new Schema(factColumns),
+        new CreateTableOptions().addHashPartitions(Arrays.asList("account_sid"), 2).setNumReplicas(1));
+
+    final List<ColumnSchema> cubeColumns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("event_time", Type.UNIXTIME_MICROS).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("count_records", Type.INT64).build(),
+        new ColumnSchema.ColumnSchemaBuilder("sum_amount", Type.INT64).build(),
+        new ColumnSchema.ColumnSchemaBuilder("sum_price", Type.DECIMAL).nullable(true)
+            .typeAttributes(decimalTypeAttribute).build());
+    testHarness.getClient().createTable(CUBE_TABLE, new Schema(cubeColumns),
+        new CreateTableOptions().addHashPartitions(Arrays.asList("account_sid"), 2).setNumReplicas(1));
+
+    final String url = String.format(JDBCUtil.CALCITE_MODEL_TEMPLATE_DML_DDL_ENABLED,
+        CubeStateSchemaFactory.class.getName(), testHarness.getMasterAddressesAsString());
+    // the schema is created when the first connection is opened
+    try (Connection conn = DriverManager.getConnection(url)) {
+      conn.createStatement().executeQuery("SELECT COUNT(*) FROM \"" + FACT_TABLE + "\"").close();
+    }
+    cubeTable = (CalciteModifiableKuduTable) CubeStateSchemaFactory.INSTANCE.getTable(CUBE_TABLE).get();
+  }
+
+  /**
+   * @return a fact row as stored in kudu, the rows of an account are aggregated
+   *         into the same cube row
+   */
+  private static Object[] factRow(final int account, final int i, final BigDecimal price) {
+    return new Object[] { "AC" + account, (START_TIME + i * DateTimeUtils.MILLIS_PER_MINUTE) * 1000, (long) i, price };
+  }
+
+  // account to count|sum_amount|sum_price|
+  private static Map<String, String> readCube() throws Exception {
+    final KuduTable table = testHarness.getClient().openTable(CUBE_TABLE);
+    final KuduScanner scanner = testHarness.getClient().newScannerBuilder(table).build();
+    final Map<String, String> rows = new TreeMap<>();
+    while (scanner.hasMoreRows()) {
+      for (RowResult row : scanner.nextRows()) {
+        assertEquals(START_TIME * 1000, row.getLong("event_time"));
+        rows.put(row.getString("account_sid"),
+            row.getLong("count_records") + "|" + row.getLong("sum_amount") + "|"
+                + (row.isNull("sum_price") ? null : row.getDecimal("sum_price").stripTrailingZeros().toPlainString())
+                + "|");
+      }
+    }
+    return rows;
+  }
+
+  @Test
+  public void testEvictedRowsAreReadBack() throws Exception {
+    final long[] counts = new long[ACCOUNT_COUNT];
+    final long[] amounts = new long[ACCOUNT_COUNT];
+    final BigDecimal[] prices = new BigDecimal[ACCOUNT_COUNT];
+
+    CubeMutationState state = new CubeMutationState(cubeTable, 2);
+    for (int i = 0; i < 100; i++) {
+      final int account = (i * 7) % ACCOUNT_COUNT;
+      // the last account never has a price
+      final BigDecimal price = account == ACCOUNT_COUNT - 1 ? null : new BigDecimal("1.25").multiply(new BigDecimal(i));
+      state.updateMutationState(factRow(account, i, price));
+      assertTrue("Cached " + state.getCachedRowCount() + " rows", state.getCachedRowCount() <= 2);
+      counts[account]++;
+      amounts[account] += i;
+      if (price != null) {
+        prices[account] = prices[account] == null ? price : prices[account].add(price);
+      }
+      if (i % 10 == 9) {
+        state.flush();
+      }
+    }
+    state.flush();
+
+    // a new state doesn't have any of the rows cached
+    state = new CubeMutationState(cubeTable, 2);
+    for (int account = 0; account < ACCOUNT_COUNT; account++) {
+      state.updateMutationState(factRow(account, 1000 + account, null));
+      counts[account]++;
+      amounts[account] += 1000 + account;
+    }
+    state.flush();
+
+    final Map<String, String> expected = new TreeMap<>();
+    for (int account = 0; account < ACCOUNT_COUNT; account++) {
+      expected.put("AC" + account, counts[account] + "|" + amounts[account] + "|"
+          + (prices[account] == null ? null : prices[account].stripTrailingZeros().toPlainString()) + "|");
+    }
+    assertEquals(expected, readCube());
+  }
+}
@@ -0,0 +1,117 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.mutation;
+
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.CreateTableOptions;
+import org.apache.kudu.client.Insert;
+import org.apache.kudu.client.KuduScanner;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.LocatedTablet;
+import org.apache.kudu.client.RowError;
+import org.apache.kudu.test.KuduTestHarness;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes rows through a {@link PartitionedWritePipeline} whose window is
+ * smaller than the rows written to each tablet server.
+ */
+@RunWith(JUnit4.class)
+public final class PartitionedWritePipelineIT {
+  private static final String TABLE = "PartitionedWritePipelineTable";
+  private static final String OTHER_TABLE = "PartitionedWritePipelineOtherTable";
+
+  @ClassRule
+  public static KuduTestHarness testHarness = new KuduTestHarness();
+
+  private static KuduTable table;
+  private static KuduTable otherTable;
+
+  @BeforeClass
+  public static void setup() throws Exception {
+    final List<ColumnSchema> columns = Arrays.asList(
+        new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build(),
+        new ColumnSchema.ColumnSchemaBuilder("name", Type.STRING).build());
+    table = testHarness.getClient().createTable(TABLE, new Schema(columns),
+        new CreateTableOptions().addHashPartitions(Arrays.asList("id"), 6).setNumReplicas(1));
+    otherTable = testHarness.getClient().createTable(OTHER_TABLE, new Schema(columns),
+        new CreateTableOptions().addHashPartitions(Arrays.asList("id"), 2).setNumReplicas(1));
+  }
+
+  private static Insert newInsert(final KuduTable kuduTable, final long id) {
+    final Insert insert = kuduTable.newInsert();
+    insert.getRow().addLong("id", id);
+    insert.getRow().addString("name", "name-" + id);
+    return insert;
+  }
+
+  private static int countRows(final KuduTable kuduTable) throws Exception {
+    final KuduScanner scanner = testHarness.getClient().newScannerBuilder(kuduTable).build();
+    int count = 0;
+    while (scanner.hasMoreRows()) {
+      count += scanner.nextRows().getNumRows();
+    }
+    return count;
+  }
+
+  @Test
+  public void testRowsAreRoutedToEachTabletServer() throws Exception {
+    // a few rows fit in the buffers of each tablet server
+    final PartitionedWritePipeline writePipeline = new PartitionedWritePipeline(testHarness.getAsyncClient(), 1024,
+        table);
+    for (long id = 0; id < 5000; id++) {
+      writePipeline.apply(newInsert(table, id));
+    }
+    // rows of other tables are written without being routed
+    for (long id = 0; id < 100; id++) {
+      writePipeline.apply(newInsert(otherTable, id));
+    }
+    assertTrue(AsyncWritePipeline.join(writePipeline.flush()).isEmpty());
+    assertEquals(5000, countRows(table));
+    assertEquals(100, countRows(otherTable));
+
+    final Set<String> leaders = new HashSet<>();
+    for (LocatedTablet tablet : table.getTabletsLocations(10_000)) {
+      leaders.add(tablet.getLeaderReplica().getRpcHost() + ":" + tablet.getLeaderReplica().getRpcPort());
+    }
+    assertEquals(leaders.size(), writePipeline.getTabletServerCount());
+
+    // rows that already exist fail on every tablet server
+    for (long id = 4990; id < 5010; id++) {
+      writePipeline.apply(newInsert(table, id));
+    }
+    final List<RowError> rowErrors = AsyncWritePipeline.join(writePipeline.flush());
+    assertEquals(10, rowErrors.size());
+    for (RowError rowError : rowErrors) {
+      assertTrue(rowError.getErrorStatus().isAlreadyPresent());
+    }
+    assertEquals(5010, countRows(table));
+    assertTrue(AsyncWritePipeline.join(writePipeline.flush()).isEmpty());
+  }
+}
@@ -0,0 +1,130 @@
+/* Copyright 2020 Twilio, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twilio.kudu.sql.rules;
+
+import com.twilio.kudu.sql.CalciteKuduTable;
+import com.twilio.kudu.sql.PrimaryKeyBound;
+import org.apache.calcite.rel.type.RelDataTypeSystem;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.BasicSqlType;
+import org.apache.calcite.sql.type.SqlTypeFactoryImpl;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduTable;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PrimaryKeyBoundExtractorTest {
+
+  private final RexBuilder builder = new RexBuilder(new SqlTypeFactoryImpl(RelDataTypeSystem.DEFAULT));
+  private final CalciteKuduTable kuduTable = mock(CalciteKuduTable.class);
+
+  // primary key (account_sid, sequence, transaction_id)
+  private final RexInputRef accountSid = inputRef(SqlTypeName.VARCHAR, 0);
+  private final RexInputRef sequence = inputRef(SqlTypeName.BIGINT, 1);
+  private final RexInputRef transactionId = inputRef(SqlTypeName.VARCHAR, 2);
+  private final RexInputRef phoneNumber = inputRef(SqlTypeName.VARCHAR, 3);
+
+  @Before
+  public void setUp() {
+    final Schema schema = new Schema(
+        Arrays.asList(new ColumnSchema.ColumnSchemaBuilder("account_sid", Type.STRING).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("sequence", Type.INT64).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("transaction_id", Type.STRING).key(true).build(),
+            new ColumnSchema.ColumnSchemaBuilder("phonenumber", Type.STRING).build()));
+    final KuduTable table = mock(KuduTable.class);
+    when(table.getSchema()).thenReturn(schema);
+    when(kuduTable.getKuduTable()).thenReturn(table);
+  }
+
+  private RexInputRef inputRef(final SqlTypeName typeName, final int index) {
+    return builder.makeInputRef(new BasicSqlType(builder.getTypeFactory().getTypeSystem(), typeName), index);
+  }
+
+  private RexNode row(final RexNode... operands) {
+    return builder.makeCall(SqlStdOperatorTable.ROW, Arrays.asList(operands));
+  }
+
+  @Test
+  public void testRowAfterEqualPrefixBecomesBound() {
+    final RexLiteral account = builder.makeLiteral("AC1");
+    final RexLiteral sequenceValue = builder.makeExactLiteral(BigDecimal.valueOf(5L));
+    final RexLiteral transaction = builder.makeLiteral("TXN3");
+    final RexNode accountEquals = builder.makeCall(SqlStdOperatorTable.EQUALS, accountSid, account);
+    final RexNode condition = builder.makeCall(SqlStdOperatorTable.AND, accountEquals, builder
+        .makeCall(SqlStdOperatorTable.GREATER_THAN, row(sequence, transactionId), row(sequenceValue, transaction)));
+
+    final PrimaryKeyBoundExtractor extractor = new PrimaryKeyBoundExtractor(builder, kuduTable);
+    final RexNode expected = builder.makeCall(SqlStdOperatorTable.AND, accountEquals,
+        builder.makeCall(SqlStdOperatorTable.GREATER_THAN_OR_EQUAL, sequence, sequenceValue));
+    Assert.assertEquals("Row value comparison should be replaced by a comparison of its first column", expected,
+        extractor.extract(condition));
+    Assert.assertEquals(
+        Collections.singletonList(new PrimaryKeyBound(KuduPredicate.ComparisonOp.GREATER,
+            Arrays.asList("AC1", 5, "TXN3"), Arrays.asList("account_sid", "sequence", "transaction_id"))),
+        extractor.getBounds());
+  }
+
+  @Test
+  public void testDescendingFirstColumn() {
+    when(kuduTable.isColumnOrderedDesc(0)).thenReturn(true);
+    final RexLiteral account = builder.makeLiteral("AC1");
+    final RexLiteral sequenceValue = builder.makeExactLiteral(BigDecimal.valueOf(5L));
+    final RexNode condition = builder.makeCall(SqlStdOperatorTable.LESS_THAN_OR_EQUAL, row(accountSid, sequence),
+        row(account, sequenceValue));
+
+    final PrimaryKeyBoundExtractor extractor = new PrimaryKeyBoundExtractor(builder, kuduTable);
+    Assert.assertEquals("An upper bound on a descending column implies a lower bound on its value",
+        builder.makeCall(SqlStdOperatorTable.GREATER_THAN_OR_EQUAL, accountSid, account), extractor.extract(condition));
+    Assert.assertEquals(1, extractor.getBounds().size());
+    Assert.assertFalse(extractor.getBounds().get(0).isLowerBound());
+  }
+
+  @Test
+  public void testRowWithoutEqualPrefixIsNotBound() {
+    final RexNode condition = builder.makeCall(SqlStdOperatorTable.GREATER_THAN, row(sequence, transactionId),
+        row(builder.makeExactLiteral(BigDecimal.valueOf(5L)), builder.makeLiteral("TXN3")));
+
+    final PrimaryKeyBoundExtractor extractor = new PrimaryKeyBoundExtractor(builder, kuduTable);
+    Assert.assertSame(condition, extractor.extract(condition));
+    Assert.assertTrue(extractor.getBounds().isEmpty());
+  }
+
+  @Test
+  public void testRowWithNonKeyColumnIsNotBound() {
+    final RexNode condition = builder.makeCall(SqlStdOperatorTable.GREATER_THAN,
+        row(accountSid, sequence, transactionId, phoneNumber), row(builder.makeLiteral("AC1"),
+            builder.makeExactLiteral(BigDecimal.valueOf(5L)), builder.makeLiteral("TXN3"), builder.makeLiteral("512")));
+
+    final PrimaryKeyBoundExtractor extractor = new PrimaryKeyBoundExtractor(builder, kuduTable);
+    Assert.assertSame(condition, extractor.extract(condition));
+    Assert.assertTrue(extractor.getBounds().isEmpty());
+  }
+}